@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.bayeux;
+
+/**
+ * <p>The future result of an operation, either a value if the operation
+ * succeeded, or a failure if the operation failed.</p>
+ * <p>Implementations are notified exactly once, either via
+ * {@link #succeed(Object)} or via {@link #fail(Throwable)}, possibly
+ * from a thread different from the one that started the operation.</p>
+ *
+ * @param <C> the type of the result value
+ */
+public interface Promise<C> {
+    /**
+     * <p>Callback to invoke when the operation succeeds.</p>
+     *
+     * @param result the result
+     */
+    public void succeed(C result);
+
+    /**
+     * <p>Callback to invoke when the operation fails.</p>
+     *
+     * @param failure the failure
+     */
+    public void fail(Throwable failure);
+
+    /**
+     * Empty implementation of {@link Promise}.
+     *
+     * @param <U> the type of the result value
+     */
+    public static class Adapter<U> implements Promise<U> {
+        @Override
+        public void succeed(U result) {
+        }
+
+        @Override
+        public void fail(Throwable failure) {
+        }
+    }
+}
@@ -17,6 +17,7 @@ package org.cometd.bayeux.server;
 
 import java.util.Set;
 
+import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.Session;
 import org.cometd.bayeux.client.ClientSessionChannel;
 
@@ -66,6 +67,8 @@ public interface ServerChannel extends ConfigurableServerChannel {
      * <p>Publishes the given message to this channel, delivering
      * the message to all the {@link ServerSession}s subscribed to
      * this channel.</p>
+     * <p>If {@link AsyncMessageListener}s are registered, this method blocks
+     * until they complete, or until the implementation-defined timeout expires.</p>
      *
      * @param from    the session from which the message originates
      * @param message the message to publish
@@ -109,6 +112,27 @@ public interface ServerChannel extends ConfigurableServerChannel {
         public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message);
     }
 
+    /**
+     * <p>Listeners objects that implement this interface will be notified of message publish,
+     * and may decide asynchronously whether the message should be published.</p>
+     * <p>Message processing is suspended until the given promise is completed; replies to
+     * the messages of the same batch are sent in the order the messages were received.</p>
+     * <p>Completing the promise with a failure prevents the message from being published,
+     * and the failure is reported to the publisher: {@link ServerChannel#publish(Session, ServerMessage.Mutable)}
+     * rethrows it, while the processing of a message received from a remote client fails.</p>
+     */
+    public interface AsyncMessageListener extends ServerChannelListener {
+        /**
+         * <p>Callback invoked when a message is being published.</p>
+         *
+         * @param from    the session that publishes the message
+         * @param channel the channel the message is published to
+         * @param message the message to be published
+         * @param promise the promise to complete with whether the message should be published or not
+         */
+        public void onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message, Promise<Boolean> promise);
+    }
+
     /**
      * <p>Listener objects that implement this interface will be notified of subscription events.</p>
      * <p>Instances of this listener class will be invoked <em>before</em>
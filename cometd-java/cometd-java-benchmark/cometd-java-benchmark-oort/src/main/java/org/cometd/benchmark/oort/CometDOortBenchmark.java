@@ -0,0 +1,634 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.benchmark.oort;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.AtomicHistogram;
+import org.HdrHistogram.Histogram;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.LocalSession;
+import org.cometd.benchmark.Config;
+import org.cometd.benchmark.MonitoringQueuedThreadPool;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.client.transport.LongPollingTransport;
+import org.cometd.oort.Oort;
+import org.cometd.oort.OortCometMetrics;
+import org.cometd.oort.OortLocalTransport;
+import org.cometd.oort.OortMap;
+import org.cometd.oort.OortObject;
+import org.cometd.oort.OortObjectFactories;
+import org.cometd.oort.OortStringMap;
+import org.cometd.oort.Seti;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.CometDServlet;
+import org.cometd.websocket.client.WebSocketTransport;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.toolchain.perf.HistogramSnapshot;
+import org.eclipse.jetty.toolchain.perf.MeasureConverter;
+import org.eclipse.jetty.toolchain.perf.PlatformMonitor;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainerInitializer;
+
+/**
+ * <p>Starts a number of Oort nodes in the same JVM, linked over the loopback interface,
+ * drives a workload across the cluster and reports the per-node throughput, the
+ * forwarding amplification (the number of messages exchanged between nodes for each
+ * message published) and the end-to-end latency distribution.</p>
+ * <p>The workloads are:</p>
+ * <ul>
+ * <li>{@code PUBLISH}, where messages are published on a random node to a random room,
+ * and broadcast to the room subscribers on all nodes</li>
+ * <li>{@code SETI}, where messages are sent via {@link Seti} from a random node
+ * to a random user connected to any node</li>
+ * <li>{@code MAP}, where entries are put into an {@link OortStringMap} on a random node,
+ * and are replicated to all the other nodes</li>
+ * </ul>
+ */
+public class CometDOortBenchmark implements MeasureConverter {
+    private static final String START_FIELD = "start";
+    private static final String CHAT_FIELD = "chat";
+    private static final String ROOM_CHANNEL = Config.CHANNEL_PREFIX + "oort";
+    private static final String USER_CHANNEL = Config.CHANNEL_PREFIX + "seti";
+
+    private final AtomicHistogram histogram = new AtomicHistogram(TimeUnit.MICROSECONDS.toNanos(1), TimeUnit.MINUTES.toNanos(1), 3);
+    private final Random random = new Random();
+    private final PlatformMonitor monitor = new PlatformMonitor();
+    private final List<Node> nodes = new ArrayList<>();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong start = new AtomicLong();
+    private final AtomicLong end = new AtomicLong();
+    private OortTransportType transport = OortTransportType.WEBSOCKET;
+    private Workload workload = Workload.PUBLISH;
+    private int nodeCount = 3;
+    private int maxThreads = 256;
+    private int rooms = 10;
+    private int subscribers = 100;
+    private int users = 100;
+    private int count = 10000;
+    private long pause = 100;
+    private int messageSize = 50;
+    private String file;
+
+    public static void main(String[] args) throws Exception {
+        CometDOortBenchmark benchmark = new CometDOortBenchmark();
+        parseArguments(args, benchmark);
+        benchmark.run();
+    }
+
+    private static void parseArguments(String[] args, CometDOortBenchmark benchmark) {
+        for (String arg : args) {
+            if (arg.startsWith("--nodes=")) {
+                benchmark.nodeCount = Integer.parseInt(arg.substring("--nodes=".length()));
+            } else if (arg.startsWith("--transport=")) {
+                benchmark.transport = OortTransportType.valueOf(arg.substring("--transport=".length()));
+            } else if (arg.startsWith("--workload=")) {
+                benchmark.workload = Workload.valueOf(arg.substring("--workload=".length()));
+            } else if (arg.startsWith("--maxThreads=")) {
+                benchmark.maxThreads = Integer.parseInt(arg.substring("--maxThreads=".length()));
+            } else if (arg.startsWith("--rooms=")) {
+                benchmark.rooms = Integer.parseInt(arg.substring("--rooms=".length()));
+            } else if (arg.startsWith("--subscribers=")) {
+                benchmark.subscribers = Integer.parseInt(arg.substring("--subscribers=".length()));
+            } else if (arg.startsWith("--users=")) {
+                benchmark.users = Integer.parseInt(arg.substring("--users=".length()));
+            } else if (arg.startsWith("--messages=")) {
+                benchmark.count = Integer.parseInt(arg.substring("--messages=".length()));
+            } else if (arg.startsWith("--pause=")) {
+                benchmark.pause = Long.parseLong(arg.substring("--pause=".length()));
+            } else if (arg.startsWith("--messageSize=")) {
+                benchmark.messageSize = Integer.parseInt(arg.substring("--messageSize=".length()));
+            } else if (arg.startsWith("--file=")) {
+                benchmark.file = arg.substring("--file=".length());
+            }
+        }
+    }
+
+    public void run() throws Exception {
+        System.err.printf("Starting %d nodes, links over %s%n", nodeCount, transport.getName());
+        for (int i = 0; i < nodeCount; ++i) {
+            Node node = startNode(i);
+            prepare(node);
+            nodes.add(node);
+        }
+        link();
+        System.err.printf("Cluster ready: %d nodes%n", nodes.size());
+
+        char[] chars = new char[messageSize];
+        Arrays.fill(chars, 'x');
+        String chat = new String(chars);
+
+        for (Node node : nodes) {
+            node.reset();
+        }
+
+        PlatformMonitor.Start start = monitor.start();
+        System.err.println();
+        System.err.println(start);
+        System.err.printf("Running %s workload: %d messages of %d bytes every %d µs%n", workload, count, messageSize, pause);
+
+        long begin = System.nanoTime();
+        long expected = runMessages(count, TimeUnit.MICROSECONDS.toNanos(pause), chat);
+        long end = System.nanoTime();
+
+        PlatformMonitor.Stop stop = monitor.stop();
+        System.err.println(stop);
+
+        long sendElapsed = end - begin;
+        long sendRate = 0;
+        if (sendElapsed > 0) {
+            sendRate = count * 1000L * 1000 * 1000 / sendElapsed;
+            System.err.printf("Outgoing: Elapsed = %d ms | Rate = %d messages/s%n", TimeUnit.NANOSECONDS.toMillis(sendElapsed), sendRate);
+        }
+
+        waitForMessages(expected);
+
+        long messages = this.messages.get();
+        long receiveElapsed = this.end.get() - this.start.get();
+        long receiveRate = 0;
+        if (receiveElapsed > 0) {
+            receiveRate = messages * 1000L * 1000 * 1000 / receiveElapsed;
+        }
+        System.err.printf("Messages - Success/Expected = %d/%d%n", messages, expected);
+        System.err.printf("Incoming - Elapsed = %d ms | Rate = %d messages/s%n", TimeUnit.NANOSECONDS.toMillis(receiveElapsed), receiveRate);
+
+        long linkMessages = 0;
+        long linkBytes = 0;
+        List<Map<String, Object>> nodeResults = new ArrayList<>();
+        for (Node node : nodes) {
+            long nodeLinkMessages = node.getLinkMessages();
+            long nodeLinkBytes = node.getLinkBytes();
+            linkMessages += nodeLinkMessages;
+            linkBytes += nodeLinkBytes;
+            long nodePublished = node.published.get();
+            long nodeDelivered = node.delivered.get();
+            System.err.printf("Node %d - Published = %d (%d messages/s) | Delivered = %d (%d messages/s) | Link Messages/Bytes Sent = %d/%d%n",
+                    node.index,
+                    nodePublished,
+                    sendElapsed > 0 ? nodePublished * 1000L * 1000 * 1000 / sendElapsed : 0,
+                    nodeDelivered,
+                    receiveElapsed > 0 ? nodeDelivered * 1000L * 1000 * 1000 / receiveElapsed : 0,
+                    nodeLinkMessages,
+                    nodeLinkBytes);
+            Map<String, Object> nodeResult = new LinkedHashMap<>();
+            nodeResult.put("url", node.oort.getURL());
+            nodeResult.put("published", nodePublished);
+            nodeResult.put("delivered", nodeDelivered);
+            nodeResult.put("linkMessages", nodeLinkMessages);
+            nodeResult.put("linkBytes", new Measure(nodeLinkBytes, "B"));
+            nodeResults.add(nodeResult);
+        }
+        float amplification = count == 0 ? 0F : (float)linkMessages / count;
+        System.err.printf("Cluster - Link Messages/Bytes Sent = %d/%d | Forwarding Amplification = %.2f link messages/message%n",
+                linkMessages, linkBytes, amplification);
+
+        Histogram histogram = this.histogram.copy();
+        System.err.println(new HistogramSnapshot(histogram, 20, "Messages - Latency", "µs", this));
+
+        if (file != null) {
+            Map<String, Object> run = new LinkedHashMap<>();
+            Map<String, Object> config = new LinkedHashMap<>();
+            run.put("config", config);
+            config.put("cores", start.cores);
+            config.put("totalMemory", new Measure(start.gibiBytes(start.totalMemory), "GiB"));
+            config.put("os", start.os);
+            config.put("jvm", start.jvm);
+            config.put("totalHeap", new Measure(start.gibiBytes(start.heap.getMax()), "GiB"));
+            config.put("date", new Date(start.date).toString());
+            config.put("transport", transport.getName());
+            config.put("workload", workload.toString());
+            config.put("nodes", nodeCount);
+            config.put("rooms", rooms);
+            config.put("subscribers", subscribers);
+            config.put("users", users);
+            config.put("messages", count);
+            config.put("pause", new Measure(pause, "µs"));
+            config.put("messageSize", new Measure(messageSize, "B"));
+            Map<String, Object> results = new LinkedHashMap<>();
+            run.put("results", results);
+            results.put("cpu", new Measure(stop.percent(stop.cpuTime, stop.time) / start.cores, "%"));
+            results.put("messages", messages);
+            results.put("sendRate", new Measure(sendRate, "messages/s"));
+            results.put("receiveRate", new Measure(receiveRate, "messages/s"));
+            results.put("amplification", amplification);
+            Map<String, Object> latency = new LinkedHashMap<>();
+            results.put("latency", latency);
+            latency.put("min", new Measure(convert(histogram.getMinValue()), "µs"));
+            latency.put("p50", new Measure(convert(histogram.getValueAtPercentile(50D)), "µs"));
+            latency.put("p99", new Measure(convert(histogram.getValueAtPercentile(99D)), "µs"));
+            latency.put("max", new Measure(convert(histogram.getMaxValue()), "µs"));
+            results.put("nodes", nodeResults);
+            saveResults(run, file);
+        }
+
+        // Stop all the Oorts before the servers, so that
+        // the links are not re-established while stopping.
+        for (int i = nodes.size() - 1; i >= 0; --i) {
+            stopOort(nodes.get(i));
+        }
+        for (int i = nodes.size() - 1; i >= 0; --i) {
+            nodes.get(i).server.stop();
+        }
+    }
+
+    private Node startNode(int index) throws Exception {
+        MonitoringQueuedThreadPool threadPool = new MonitoringQueuedThreadPool(maxThreads);
+        threadPool.setName("node_" + index);
+        Server server = new Server(threadPool);
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost("localhost");
+        server.addConnector(connector);
+
+        ServletContextHandler context = new ServletContextHandler(server, Config.CONTEXT_PATH, ServletContextHandler.SESSIONS);
+        WebSocketServerContainerInitializer.configureContext(context);
+
+        String cometdURLMapping = Config.SERVLET_PATH + "/*";
+        ServletHolder cometdServletHolder = new ServletHolder(CometDServlet.class);
+        cometdServletHolder.setInitParameter(AbstractServerTransport.MAX_INTERVAL_OPTION, String.valueOf(10 * Config.MAX_NETWORK_DELAY));
+        cometdServletHolder.setInitParameter(AbstractServerTransport.TIMEOUT_OPTION, String.valueOf(Config.META_CONNECT_TIMEOUT));
+        cometdServletHolder.setInitParameter("ws.cometdURLMapping", cometdURLMapping);
+        cometdServletHolder.setInitOrder(1);
+        context.addServlet(cometdServletHolder, cometdURLMapping);
+
+        server.start();
+        BayeuxServer bayeuxServer = (BayeuxServer)context.getServletContext().getAttribute(BayeuxServer.ATTRIBUTE);
+
+        String url = "http://localhost:" + connector.getLocalPort() + Config.CONTEXT_PATH + Config.SERVLET_PATH;
+        Oort oort = new Oort(bayeuxServer, url);
+        oort.setMetricsEnabled(true);
+        WebSocketContainer webSocketContainer = null;
+        if (transport == OortTransportType.WEBSOCKET) {
+            webSocketContainer = ContainerProvider.getWebSocketContainer();
+        }
+        oort.setClientTransportFactories(newClientTransportFactories(oort, webSocketContainer));
+        oort.start();
+
+        Node node = new Node(index, server, oort);
+        node.webSocketContainer = webSocketContainer;
+        node.publisher = bayeuxServer.newLocalSession("publisher");
+        node.publisher.handshake();
+        return node;
+    }
+
+    private List<ClientTransport.Factory> newClientTransportFactories(Oort oort, WebSocketContainer webSocketContainer) {
+        switch (transport) {
+            case LOCAL:
+                return Collections.<ClientTransport.Factory>singletonList(new OortLocalTransport.Factory(oort));
+            case WEBSOCKET:
+                return Collections.<ClientTransport.Factory>singletonList(new WebSocketTransportFactory(webSocketContainer));
+            case LONG_POLLING:
+                return Collections.<ClientTransport.Factory>singletonList(new LongPollingTransport.Factory(new HttpClient()));
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private void prepare(final Node node) throws Exception {
+        BayeuxServer bayeuxServer = node.oort.getBayeuxServer();
+        switch (workload) {
+            case PUBLISH: {
+                node.oort.observeChannel(ROOM_CHANNEL + "/*");
+                for (int i = 0; i < subscribers; ++i) {
+                    LocalSession subscriber = bayeuxServer.newLocalSession("subscriber");
+                    subscriber.handshake();
+                    subscriber.getChannel(ROOM_CHANNEL + "/" + (i % rooms)).subscribe(new ClientSessionChannel.MessageListener() {
+                        @Override
+                        public void onMessage(ClientSessionChannel channel, Message message) {
+                            Map<String, Object> data = message.getDataAsMap();
+                            arrived(node, ((Number)data.get(START_FIELD)).longValue());
+                        }
+                    });
+                }
+                break;
+            }
+            case SETI: {
+                node.seti = new Seti(node.oort);
+                node.seti.start();
+                for (int i = 0; i < users; ++i) {
+                    LocalSession user = bayeuxServer.newLocalSession("user");
+                    user.handshake();
+                    user.getChannel(USER_CHANNEL).subscribe(new ClientSessionChannel.MessageListener() {
+                        @Override
+                        public void onMessage(ClientSessionChannel channel, Message message) {
+                            Map<String, Object> data = message.getDataAsMap();
+                            arrived(node, ((Number)data.get(START_FIELD)).longValue());
+                        }
+                    });
+                    node.seti.associate(userId(node.index, i), user.getServerSession());
+                }
+                break;
+            }
+            case MAP: {
+                OortObject.Factory<ConcurrentMap<String, String>> factory = OortObjectFactories.forConcurrentMap();
+                node.map = new OortStringMap<>(node.oort, "benchmark", factory);
+                node.map.addEntryListener(new OortMap.EntryListener.Adapter<String, String>() {
+                    @Override
+                    public void onPut(OortObject.Info<ConcurrentMap<String, String>> info, OortMap.Entry<String, String> entry) {
+                        if (!info.isLocal()) {
+                            String value = entry.getNewValue();
+                            arrived(node, Long.parseLong(value.substring(0, value.indexOf('|'))));
+                        }
+                    }
+                });
+                node.map.start();
+                break;
+            }
+            default: {
+                throw new IllegalArgumentException();
+            }
+        }
+    }
+
+    private void link() throws Exception {
+        Node first = nodes.get(0);
+        for (int i = 1; i < nodes.size(); ++i) {
+            nodes.get(i).oort.observeComet(first.oort.getURL());
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10 + nodes.size());
+        while (!isLinked()) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Could not link " + nodes.size() + " nodes");
+            }
+            System.err.println("Waiting for nodes to be linked...");
+            Thread.sleep(500);
+        }
+    }
+
+    private boolean isLinked() {
+        for (Node node : nodes) {
+            if (node.oort.getKnownComets().size() < nodes.size() - 1) {
+                return false;
+            }
+            if (node.seti != null && node.seti.getUserIds().size() < nodes.size() * users) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long runMessages(int count, long pauseNanos, String chat) {
+        long begin = System.nanoTime();
+        long expected = 0;
+        for (int i = 1; i <= count; ++i) {
+            long pause = begin + i * pauseNanos - System.nanoTime();
+            if (pause > 0) {
+                nanoSleep(pause);
+            }
+
+            Node node = nodes.get(nextRandom(nodes.size()));
+            node.published.incrementAndGet();
+            switch (workload) {
+                case PUBLISH: {
+                    int room = nextRandom(rooms);
+                    Map<String, Object> data = new HashMap<>(2);
+                    data.put(START_FIELD, System.nanoTime());
+                    data.put(CHAT_FIELD, chat);
+                    node.publisher.getChannel(ROOM_CHANNEL + "/" + room).publish(data);
+                    expected += nodes.size() * subscribersInRoom(room);
+                    break;
+                }
+                case SETI: {
+                    String userId = userId(nextRandom(nodes.size()), nextRandom(users));
+                    Map<String, Object> data = new HashMap<>(2);
+                    data.put(START_FIELD, System.nanoTime());
+                    data.put(CHAT_FIELD, chat);
+                    node.seti.sendMessage(userId, USER_CHANNEL, data);
+                    expected += 1;
+                    break;
+                }
+                case MAP: {
+                    node.map.putAndShare(String.valueOf(i), System.nanoTime() + "|" + chat, null);
+                    expected += nodes.size() - 1;
+                    break;
+                }
+                default: {
+                    throw new IllegalArgumentException();
+                }
+            }
+        }
+        return expected;
+    }
+
+    private int subscribersInRoom(int room) {
+        return subscribers / rooms + (room < subscribers % rooms ? 1 : 0);
+    }
+
+    private static String userId(int node, int user) {
+        return "user_" + node + "_" + user;
+    }
+
+    private void arrived(Node node, long startTime) {
+        long now = System.nanoTime();
+        histogram.recordValue(now - startTime);
+        start.compareAndSet(0, now);
+        end.set(now);
+        messages.incrementAndGet();
+        node.delivered.incrementAndGet();
+    }
+
+    private void waitForMessages(long expected) throws InterruptedException {
+        long arrived = messages.get();
+        long lastArrived = 0;
+        int maxRetries = 20;
+        int retries = maxRetries;
+        while (arrived < expected) {
+            System.err.printf("Waiting for messages to arrive %d/%d%n", arrived, expected);
+            Thread.sleep(500);
+            if (lastArrived == arrived) {
+                --retries;
+                if (retries == 0) {
+                    break;
+                }
+            } else {
+                lastArrived = arrived;
+                retries = maxRetries;
+            }
+            arrived = messages.get();
+        }
+        if (arrived < expected) {
+            System.err.printf("Interrupting wait for messages %d/%d%n", arrived, expected);
+        } else {
+            System.err.printf("All messages arrived %d/%d%n", arrived, expected);
+        }
+    }
+
+    private void stopOort(Node node) throws Exception {
+        if (node.map != null) {
+            node.map.stop();
+        }
+        if (node.seti != null) {
+            node.seti.stop();
+        }
+        node.oort.stop();
+        // The WebSocket container is stopped after Oort,
+        // because Oort disconnects the links when stopping.
+        if (node.webSocketContainer instanceof LifeCycle) {
+            ((LifeCycle)node.webSocketContainer).stop();
+        }
+    }
+
+    private void nanoSleep(long pause) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(pause);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(x);
+        }
+    }
+
+    private int nextRandom(int limit) {
+        synchronized (this) {
+            return random.nextInt(limit);
+        }
+    }
+
+    private void saveResults(Map<String, Object> run, String path) {
+        try {
+            File file = new File(path);
+            ObjectMapper mapper = new ObjectMapper();
+            mapper.enable(SerializationFeature.INDENT_OUTPUT);
+            mapper.writeValue(file, run);
+            System.err.printf("Results saved to file %s%n", file.getAbsolutePath());
+        } catch (IOException x) {
+            System.err.printf("Could not save results to file %s%n", path);
+        }
+    }
+
+    @Override
+    public long convert(long measure) {
+        return TimeUnit.NANOSECONDS.toMicros(measure);
+    }
+
+    private static class Node {
+        private final AtomicLong published = new AtomicLong();
+        private final AtomicLong delivered = new AtomicLong();
+        private final int index;
+        private final Server server;
+        private final Oort oort;
+        private LocalSession publisher;
+        private Seti seti;
+        private WebSocketContainer webSocketContainer;
+        private OortStringMap<String> map;
+        private long linkMessages;
+        private long linkBytes;
+
+        private Node(int index, Server server, Oort oort) {
+            this.index = index;
+            this.server = server;
+            this.oort = oort;
+        }
+
+        private void reset() {
+            published.set(0);
+            delivered.set(0);
+            linkMessages = sumLinkMessages();
+            linkBytes = sumLinkBytes();
+        }
+
+        private long getLinkMessages() {
+            return sumLinkMessages() - linkMessages;
+        }
+
+        private long getLinkBytes() {
+            return sumLinkBytes() - linkBytes;
+        }
+
+        private long sumLinkMessages() {
+            long result = 0;
+            for (OortCometMetrics metrics : oort.getCometMetrics()) {
+                result += metrics.getMessagesSent();
+            }
+            return result;
+        }
+
+        private long sumLinkBytes() {
+            long result = 0;
+            for (OortCometMetrics metrics : oort.getCometMetrics()) {
+                result += metrics.getBytesSent();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * <p>A {@link WebSocketTransport} factory that uses the given {@link WebSocketContainer},
+     * so that the container can be stopped when the node is stopped.</p>
+     */
+    private static class WebSocketTransportFactory implements ClientTransport.Factory {
+        private final WebSocketContainer container;
+
+        private WebSocketTransportFactory(WebSocketContainer container) {
+            this.container = container;
+        }
+
+        @Override
+        public ClientTransport newClientTransport(String url, Map<String, Object> options) {
+            ScheduledExecutorService scheduler = (ScheduledExecutorService)options.get(ClientTransport.SCHEDULER_OPTION);
+            return new WebSocketTransport(url, options, scheduler, container);
+        }
+    }
+
+    private enum Workload {
+        PUBLISH, SETI, MAP
+    }
+
+    private enum OortTransportType {
+        WEBSOCKET("websocket"), LONG_POLLING("long-polling"), LOCAL(OortLocalTransport.NAME);
+
+        private final String name;
+
+        private OortTransportType(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static class Measure extends HashMap<String, Object> {
+        public Measure(Object value, String unit) {
+            super(2);
+            put("value", value);
+            put("unit", unit);
+        }
+    }
+}
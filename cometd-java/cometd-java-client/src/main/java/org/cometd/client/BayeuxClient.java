@@ -706,10 +706,27 @@ public class BayeuxClient extends AbstractClientSession implements Bayeux {
             failureInfo.cause = null;
             failureInfo.error = null;
             failureInfo.action = sessionState.getAdviceAction(handshake.getAdvice(), Message.RECONNECT_HANDSHAKE_VALUE);
+            if (Message.RECONNECT_HANDSHAKE_VALUE.equals(failureInfo.action)) {
+                failureInfo.url = getAdviceHost(handshake.getAdvice(), failureInfo.transport);
+            }
             failHandshake(handshake, failureInfo);
         }
     }
 
+    private String getAdviceHost(Map<String, Object> advice, ClientTransport transport) {
+        // The Bayeux "hosts" advice lists alternate servers: if the
+        // current server is not listed, the first one should be tried.
+        if (advice == null || transport == null) {
+            return null;
+        }
+        Object field = advice.get("hosts");
+        Object[] hosts = field instanceof List ? ((List<?>)field).toArray() : field instanceof Object[] ? (Object[])field : null;
+        if (hosts == null || hosts.length == 0 || Arrays.asList(hosts).contains(transport.getURL())) {
+            return null;
+        }
+        return hosts[0] instanceof String ? (String)hosts[0] : null;
+    }
+
     private void handshakeFailure(Message.Mutable handshake, final Throwable failure) {
         ClientTransport.FailureInfo failureInfo = new ClientTransport.FailureInfo();
         failureInfo.transport = null;
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.transport;
+
+import java.util.List;
+import java.util.Map;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+
+/**
+ * <p>A long-polling transport that requests the server to stream messages
+ * in the /meta/connect response, and notifies them as soon as they arrive.</p>
+ * <p>This transport should be used with a {@link HttpClient} configured to
+ * use HTTP/2, so that publishes are sent as concurrent streams while the
+ * /meta/connect response is kept open by the server.
+ * When the server does not stream the /meta/connect response, for example
+ * because the request is sent via HTTP/1.1, this transport behaves exactly
+ * like {@link LongPollingTransport}.</p>
+ * <p>HTTP/2 requires Jetty 9.3 or later, where the {@link HttpClient} is
+ * created with the {@code HttpClientTransportOverHTTP2} transport from the
+ * {@code http2-http-client-transport} module.</p>
+ */
+public class HTTP2StreamingTransport extends LongPollingTransport {
+    public static final String NAME = "http2-streaming";
+    public static final String PREFIX = "long-polling.json.http2";
+
+    public HTTP2StreamingTransport(Map<String, Object> options, HttpClient httpClient) {
+        this(null, options, httpClient);
+    }
+
+    public HTTP2StreamingTransport(String url, Map<String, Object> options, HttpClient httpClient) {
+        super(NAME, url, options, httpClient);
+        setOptionPrefix(PREFIX);
+    }
+
+    @Override
+    protected boolean isStreaming(List<Message.Mutable> messages) {
+        return messages.size() == 1 && Channel.META_CONNECT.equals(messages.get(0).getChannel());
+    }
+
+    public static class Factory extends ContainerLifeCycle implements ClientTransport.Factory {
+        private final HttpClient httpClient;
+
+        public Factory(HttpClient httpClient) {
+            this.httpClient = httpClient;
+            addBean(httpClient);
+        }
+
+        @Override
+        public ClientTransport newClientTransport(String url, Map<String, Object> options) {
+            return new HTTP2StreamingTransport(url, options, httpClient);
+        }
+    }
+}
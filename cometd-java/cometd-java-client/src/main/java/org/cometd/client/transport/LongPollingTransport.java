@@ -17,6 +17,8 @@ package org.cometd.client.transport;
 
 import java.net.HttpCookie;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -50,12 +52,19 @@ public class LongPollingTransport extends HttpClientTransport {
      */
     @Deprecated
     public static final String MAX_BUFFER_SIZE_OPTION = "maxBufferSize";
+    /**
+     * <p>The /meta/connect advice field that declares to the server
+     * that this transport can receive a streamed /meta/connect response.</p>
+     */
+    public static final String STREAMING_ADVICE_FIELD = "streaming";
+    public static final String STREAMING_OPTION = "streaming";
 
     private final HttpClient _httpClient;
     private final List<Request> _requests = new ArrayList<>();
     private volatile boolean _aborted;
     private volatile int _maxMessageSize;
     private volatile boolean _appendMessageType;
+    private volatile boolean _streaming;
     private volatile Map<String, Object> _advice;
 
     public LongPollingTransport(Map<String, Object> options, HttpClient httpClient) {
@@ -63,7 +72,11 @@ public class LongPollingTransport extends HttpClientTransport {
     }
 
     public LongPollingTransport(String url, Map<String, Object> options, HttpClient httpClient) {
-        super(NAME, url, options);
+        this(NAME, url, options, httpClient);
+    }
+
+    protected LongPollingTransport(String name, String url, Map<String, Object> options, HttpClient httpClient) {
+        super(name, url, options);
         _httpClient = httpClient;
         setOptionPrefix(PREFIX);
     }
@@ -86,6 +99,7 @@ public class LongPollingTransport extends HttpClientTransport {
         setMaxNetworkDelay(defaultMaxNetworkDelay);
 
         _maxMessageSize = getOption(MAX_MESSAGE_SIZE_OPTION, getOption(MAX_BUFFER_SIZE_OPTION, 1024 * 1024));
+        _streaming = getOption(STREAMING_OPTION, false);
 
         Pattern uriRegexp = Pattern.compile("(^https?://(((\\[[^\\]]+\\])|([^:/\\?#]+))(:(\\d+))?))?([^\\?#]*)(.*)?");
         Matcher uriMatcher = uriRegexp.matcher(getURL());
@@ -123,8 +137,12 @@ public class LongPollingTransport extends HttpClientTransport {
             }
         }
 
-        final Request request = _httpClient.newRequest(url).method(HttpMethod.POST);
-        request.header(HttpHeader.CONTENT_TYPE.asString(), "application/json;charset=UTF-8");
+        final boolean streaming = isStreaming(messages);
+        if (streaming) {
+            messages.get(0).getAdvice(true).put(STREAMING_ADVICE_FIELD, true);
+        }
+
+        final Request request = newRequest(url, messages);
 
         List<HttpCookie> cookies = getCookies(uri);
         StringBuilder value = new StringBuilder(cookies.size() * 32);
@@ -136,8 +154,6 @@ public class LongPollingTransport extends HttpClientTransport {
         }
         request.header(HttpHeader.COOKIE.asString(), value.toString());
 
-        request.content(new StringContentProvider(generateJSON(messages)));
-
         customize(request);
 
         synchronized (this) {
@@ -159,7 +175,7 @@ public class LongPollingTransport extends HttpClientTransport {
             Message.Mutable message = messages.get(0);
             if (Channel.META_CONNECT.equals(message.getChannel())) {
                 Map<String, Object> advice = message.getAdvice();
-                if (advice == null) {
+                if (advice == null || advice.get("timeout") == null) {
                     advice = _advice;
                 }
                 if (advice != null) {
@@ -176,20 +192,14 @@ public class LongPollingTransport extends HttpClientTransport {
         // so there are no races between the two timeouts
         request.idleTimeout(maxNetworkDelay * 2, TimeUnit.MILLISECONDS);
         request.timeout(maxNetworkDelay, TimeUnit.MILLISECONDS);
+        if (streaming) {
+            request.send(new StreamingResponseListener(uri, listener, messages));
+            return;
+        }
         request.send(new BufferingResponseListener(_maxMessageSize) {
             @Override
             public boolean onHeader(Response response, HttpField field) {
-                HttpHeader header = field.getHeader();
-                if (header == HttpHeader.SET_COOKIE || header == HttpHeader.SET_COOKIE2) {
-                    // We do not allow cookies to be handled by HttpClient, since one
-                    // HttpClient instance is shared by multiple BayeuxClient instances.
-                    // Instead, we store the cookies in the BayeuxClient instance.
-                    Map<String, List<String>> cookies = new HashMap<>(1);
-                    cookies.put(field.getName(), Collections.singletonList(field.getValue()));
-                    storeCookies(uri, cookies);
-                    return false;
-                }
-                return true;
+                return onResponseHeader(uri, field);
             }
 
             @Override
@@ -213,14 +223,7 @@ public class LongPollingTransport extends HttpClientTransport {
                             if (logger.isDebugEnabled()) {
                                 logger.debug("Received messages {}", messages);
                             }
-                            for (Message.Mutable message : messages) {
-                                if (message.isSuccessful() && Channel.META_CONNECT.equals(message.getChannel())) {
-                                    Map<String, Object> advice = message.getAdvice();
-                                    if (advice != null && advice.get("timeout") != null) {
-                                        _advice = advice;
-                                    }
-                                }
-                            }
+                            storeAdvice(messages);
                             listener.onMessages(messages);
                         } catch (ParseException x) {
                             listener.onFailure(x, messages);
@@ -242,6 +245,71 @@ public class LongPollingTransport extends HttpClientTransport {
         });
     }
 
+    /**
+     * <p>Creates the HTTP request that carries the given messages.</p>
+     * <p>This implementation creates a {@code POST} request
+     * with the messages as JSON content.</p>
+     *
+     * @param url      the URL of the request
+     * @param messages the messages to send
+     * @return a new HTTP request
+     */
+    protected Request newRequest(String url, List<Message.Mutable> messages) {
+        Request request = _httpClient.newRequest(url).method(HttpMethod.POST);
+        request.header(HttpHeader.CONTENT_TYPE.asString(), "application/json;charset=UTF-8");
+        request.content(new StringContentProvider(generateJSON(messages)));
+        return request;
+    }
+
+    protected HttpClient getHttpClient() {
+        return _httpClient;
+    }
+
+    private boolean onResponseHeader(URI uri, HttpField field) {
+        HttpHeader header = field.getHeader();
+        if (header == HttpHeader.SET_COOKIE || header == HttpHeader.SET_COOKIE2) {
+            // We do not allow cookies to be handled by HttpClient, since one
+            // HttpClient instance is shared by multiple BayeuxClient instances.
+            // Instead, we store the cookies in the BayeuxClient instance.
+            Map<String, List<String>> cookies = new HashMap<>(1);
+            cookies.put(field.getName(), Collections.singletonList(field.getValue()));
+            storeCookies(uri, cookies);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean storeAdvice(List<Message.Mutable> messages) {
+        boolean metaConnect = false;
+        for (Message.Mutable message : messages) {
+            if (Channel.META_CONNECT.equals(message.getChannel())) {
+                metaConnect = true;
+                if (message.isSuccessful()) {
+                    Map<String, Object> advice = message.getAdvice();
+                    if (advice != null && advice.get("timeout") != null) {
+                        _advice = advice;
+                    }
+                }
+            }
+        }
+        return metaConnect;
+    }
+
+    /**
+     * <p>Returns whether the response to the given messages should be
+     * requested as a stream, so that messages are notified to the
+     * listener as soon as they arrive rather than when the response
+     * is complete.</p>
+     * <p>This implementation returns {@code true} for /meta/connect messages
+     * if the {@value #STREAMING_OPTION} option is enabled.</p>
+     *
+     * @param messages the messages to send
+     * @return whether the response should be streamed
+     */
+    protected boolean isStreaming(List<Message.Mutable> messages) {
+        return _streaming && messages.size() == 1 && Channel.META_CONNECT.equals(messages.get(0).getChannel());
+    }
+
     protected void customize(Request request) {
     }
 
@@ -258,4 +326,140 @@ public class LongPollingTransport extends HttpClientTransport {
             return new LongPollingTransport(url, options, httpClient);
         }
     }
+
+    /**
+     * <p>Parses incrementally a response JSON array, notifying the listener
+     * with the messages contained in each chunk of content as it arrives.</p>
+     * <p>The server streams messages as fragments of a single JSON array, so
+     * this listener tracks the nesting depth to find where each top-level
+     * message object ends; JSON structural characters are ASCII, so the
+     * scan can be performed on the UTF-8 bytes.</p>
+     */
+    private class StreamingResponseListener extends Response.Listener.Adapter {
+        private final URI uri;
+        private final TransportListener listener;
+        private final List<Message.Mutable> messages;
+        private byte[] buffer = new byte[1024];
+        private int length;
+        private int depth;
+        private boolean string;
+        private boolean escape;
+        private boolean replied;
+
+        private StreamingResponseListener(URI uri, TransportListener listener, List<Message.Mutable> messages) {
+            this.uri = uri;
+            this.listener = listener;
+            this.messages = messages;
+        }
+
+        @Override
+        public boolean onHeader(Response response, HttpField field) {
+            return onResponseHeader(uri, field);
+        }
+
+        @Override
+        public void onContent(Response response, ByteBuffer content) {
+            if (response.getStatus() != HttpStatus.OK_200) {
+                return;
+            }
+
+            StringBuilder json = null;
+            try {
+                while (content.hasRemaining()) {
+                    byte b = content.get();
+                    if (depth == 0) {
+                        if (b == '[') {
+                            depth = 1;
+                        }
+                    } else if (depth == 1) {
+                        if (b == '{') {
+                            append(b);
+                            depth = 2;
+                        } else if (b == ']') {
+                            depth = 0;
+                        }
+                    } else {
+                        append(b);
+                        if (string) {
+                            if (escape) {
+                                escape = false;
+                            } else if (b == '\\') {
+                                escape = true;
+                            } else if (b == '"') {
+                                string = false;
+                            }
+                        } else if (b == '"') {
+                            string = true;
+                        } else if (b == '{' || b == '[') {
+                            ++depth;
+                        } else if (b == '}' || b == ']') {
+                            if (--depth == 1) {
+                                if (json == null) {
+                                    json = new StringBuilder(length + 2).append('[');
+                                } else {
+                                    json.append(',');
+                                }
+                                json.append(new String(buffer, 0, length, StandardCharsets.UTF_8));
+                                length = 0;
+                            }
+                        }
+                    }
+                }
+            } catch (IllegalArgumentException x) {
+                response.abort(x);
+                return;
+            }
+
+            if (json != null) {
+                try {
+                    List<Message.Mutable> messages = parseMessages(json.append(']').toString());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Received streamed messages {}", messages);
+                    }
+                    replied |= storeAdvice(messages);
+                    listener.onMessages(messages);
+                } catch (ParseException x) {
+                    response.abort(x);
+                }
+            }
+        }
+
+        private void append(byte b) {
+            if (length == buffer.length) {
+                int maxMessageSize = _maxMessageSize;
+                if (maxMessageSize > 0 && length >= maxMessageSize) {
+                    throw new IllegalArgumentException("Buffering capacity " + maxMessageSize + " exceeded");
+                }
+                int capacity = length * 2;
+                if (maxMessageSize > 0) {
+                    capacity = Math.min(capacity, maxMessageSize);
+                }
+                byte[] newBuffer = new byte[capacity];
+                System.arraycopy(buffer, 0, newBuffer, 0, length);
+                buffer = newBuffer;
+            }
+            buffer[length++] = b;
+        }
+
+        @Override
+        public void onComplete(Result result) {
+            synchronized (LongPollingTransport.this) {
+                _requests.remove(result.getRequest());
+            }
+
+            if (result.isFailed()) {
+                listener.onFailure(result.getFailure(), messages);
+                return;
+            }
+
+            int status = result.getResponse().getStatus();
+            if (status != HttpStatus.OK_200 || !replied) {
+                Map<String, Object> failure = new HashMap<>(2);
+                // Convert the 200 without the /meta/connect reply into 204 (no content).
+                failure.put("httpCode", status == HttpStatus.OK_200 ? 204 : status);
+                TransportException x = new TransportException(failure);
+                listener.onFailure(x, messages);
+            }
+        }
+    }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client.transport;
+
+import java.util.List;
+import java.util.Map;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+
+/**
+ * <p>A transport that receives messages as Server-Sent Events.</p>
+ * <p>The /meta/connect message is sent via a {@code GET} request that accepts
+ * {@code text/event-stream} responses, so that the server can deliver messages
+ * as events as soon as they are available, while all other messages are sent
+ * via plain {@code POST} requests as in {@link LongPollingTransport}.</p>
+ */
+public class ServerSentEventsTransport extends LongPollingTransport {
+    public static final String NAME = "server-sent-events";
+    public static final String PREFIX = "long-polling.json.sse";
+
+    public ServerSentEventsTransport(Map<String, Object> options, HttpClient httpClient) {
+        this(null, options, httpClient);
+    }
+
+    public ServerSentEventsTransport(String url, Map<String, Object> options, HttpClient httpClient) {
+        super(NAME, url, options, httpClient);
+        setOptionPrefix(PREFIX);
+    }
+
+    @Override
+    protected boolean isStreaming(List<Message.Mutable> messages) {
+        return messages.size() == 1 && Channel.META_CONNECT.equals(messages.get(0).getChannel());
+    }
+
+    @Override
+    protected Request newRequest(String url, List<Message.Mutable> messages) {
+        if (!isStreaming(messages)) {
+            return super.newRequest(url, messages);
+        }
+        return getHttpClient().newRequest(url)
+                .method(HttpMethod.GET)
+                .header(HttpHeader.ACCEPT.asString(), "text/event-stream")
+                .param("message", generateJSON(messages));
+    }
+
+    public static class Factory extends ContainerLifeCycle implements ClientTransport.Factory {
+        private final HttpClient httpClient;
+
+        public Factory(HttpClient httpClient) {
+            this.httpClient = httpClient;
+            addBean(httpClient);
+        }
+
+        @Override
+        public ClientTransport newClientTransport(String url, Map<String, Object> options) {
+            return new ServerSentEventsTransport(url, options, httpClient);
+        }
+    }
+}
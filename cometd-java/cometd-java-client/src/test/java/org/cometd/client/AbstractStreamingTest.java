@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.transport.AsyncJSONTransport;
+import org.junit.Assert;
+
+/**
+ * <p>Tests for transports that stream messages in the /meta/connect response.</p>
+ */
+public abstract class AbstractStreamingTest extends ClientServerTest {
+    protected final BlockingQueue<String> suspended = new LinkedBlockingQueue<>();
+
+    protected void startServer(long timeout) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        options.put(AbstractServerTransport.TIMEOUT_OPTION, String.valueOf(timeout));
+        startServer(options);
+        AsyncJSONTransport transport = newServerTransport();
+        transport.init();
+        bayeux.setTransports(transport);
+        bayeux.setAllowedTransports(transport.getName());
+    }
+
+    /**
+     * @return the server transport under test, that must call
+     * {@link #metaConnectSuspended(HttpServletRequest)}
+     */
+    protected abstract AsyncJSONTransport newServerTransport();
+
+    protected void metaConnectSuspended(HttpServletRequest request) {
+        suspended.offer(request.getProtocol());
+    }
+
+    /**
+     * @return the protocol of the suspended /meta/connect request
+     */
+    protected String assertMessagesStreamed(BayeuxClient client, long timeout) throws Exception {
+        final BlockingQueue<Message> connects = new LinkedBlockingQueue<>();
+        client.getChannel(Channel.META_CONNECT).addListener(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                if (message.isSuccessful()) {
+                    connects.offer(message);
+                }
+            }
+        });
+        final CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.getChannel(Channel.META_SUBSCRIBE).addListener(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                if (message.isSuccessful()) {
+                    subscribeLatch.countDown();
+                }
+            }
+        });
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        String channelName = "/foo";
+        client.getChannel(channelName).subscribe(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                messages.offer(message);
+            }
+        });
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        // Wait for the /meta/connect to be held by the server.
+        String protocol = suspended.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(protocol);
+        connects.clear();
+
+        int count = 3;
+        for (int i = 0; i < count; ++i) {
+            bayeux.getChannel(channelName).publish(null, "data" + i);
+            Message message = messages.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(message);
+            Assert.assertEquals("data" + i, message.getData());
+        }
+
+        // Publishes from the client are sent while the /meta/connect is held.
+        client.getChannel(channelName).publish("data" + count);
+        Message message = messages.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(message);
+        Assert.assertEquals("data" + count, message.getData());
+
+        // Messages must have been delivered without replying to the /meta/connect.
+        Assert.assertTrue(connects.isEmpty());
+
+        // The /meta/connect reply is delivered when the /meta/connect times out.
+        Assert.assertNotNull(connects.poll(2 * timeout, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(client.isConnected());
+
+        disconnectBayeuxClient(client);
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.DISCONNECTED));
+
+        return protocol;
+    }
+}
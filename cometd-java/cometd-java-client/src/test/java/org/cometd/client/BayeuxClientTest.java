@@ -19,10 +19,12 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.net.Socket;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -1125,6 +1127,55 @@ public class BayeuxClientTest extends ClientServerTest {
         disconnectBayeuxClient(client);
     }
 
+    @Test
+    public void testHandshakeWithHostsAdvice() throws Exception {
+        final String busyURL = cometdURL + "/busy";
+        final AtomicInteger handshakes = new AtomicInteger();
+        bayeux.addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcvMeta(ServerSession from, Mutable message) {
+                if (Channel.META_HANDSHAKE.equals(message.getChannel()) && handshakes.incrementAndGet() == 1) {
+                    // Advise the client to handshake with another server.
+                    Map<String, Object> advice = message.getAssociated().getAdvice(true);
+                    advice.put(Message.RECONNECT_FIELD, Message.RECONNECT_HANDSHAKE_VALUE);
+                    advice.put(Message.INTERVAL_FIELD, 0L);
+                    advice.put("hosts", Collections.singletonList(cometdURL));
+                    return false;
+                }
+                return true;
+            }
+        });
+
+        final List<String> urls = new CopyOnWriteArrayList<>();
+        BayeuxClient client = new BayeuxClient(busyURL, new LongPollingTransport(null, httpClient) {
+            @Override
+            protected void customize(Request request) {
+                super.customize(request);
+                urls.add(request.getURI().toString());
+            }
+        });
+        final CountDownLatch failedLatch = new CountDownLatch(1);
+        client.getChannel(Channel.META_HANDSHAKE).addListener(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                if (!message.isSuccessful()) {
+                    failedLatch.countDown();
+                }
+            }
+        });
+        client.handshake();
+
+        Assert.assertTrue(failedLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(client.waitFor(5000, State.CONNECTED));
+        Assert.assertEquals(2, handshakes.get());
+        Assert.assertEquals(cometdURL, client.getTransport().getURL());
+        Assert.assertTrue(urls.get(0).startsWith(busyURL));
+        Assert.assertTrue(urls.get(1).startsWith(cometdURL));
+        Assert.assertFalse(urls.get(1).startsWith(busyURL));
+
+        disconnectBayeuxClient(client);
+    }
+
     private static class TestFilter implements Filter {
         volatile int code = 0;
 
@@ -54,7 +54,7 @@ public abstract class ClientServerTest {
     public void startServer(Map<String, String> initParams) throws Exception {
         server = new Server();
 
-        connector = new ServerConnector(server);
+        connector = newServerConnector(server);
         connector.setIdleTimeout(30000);
         server.addConnector(connector);
 
@@ -79,10 +79,18 @@ public abstract class ClientServerTest {
 
         bayeux = (BayeuxServerImpl)context.getServletContext().getAttribute(BayeuxServer.ATTRIBUTE);
 
-        httpClient = new HttpClient();
+        httpClient = newHttpClient();
         httpClient.start();
     }
 
+    protected ServerConnector newServerConnector(Server server) {
+        return new ServerConnector(server);
+    }
+
+    protected HttpClient newHttpClient() {
+        return new HttpClient();
+    }
+
     protected BayeuxClient newBayeuxClient() {
         return new BayeuxClient(cometdURL, new LongPollingTransport(null, httpClient));
     }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.transport.HTTP2StreamingTransport;
+import org.cometd.server.ServerSessionImpl;
+import org.cometd.server.transport.AsyncJSONTransport;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HTTP2StreamingTest extends AbstractStreamingTest {
+    @Override
+    protected ServerConnector newServerConnector(Server server) {
+        HttpConfiguration configuration = new HttpConfiguration();
+        return new ServerConnector(server, new HttpConnectionFactory(configuration), new HTTP2CServerConnectionFactory(configuration));
+    }
+
+    @Override
+    protected HttpClient newHttpClient() {
+        return new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()), null);
+    }
+
+    @Override
+    protected AsyncJSONTransport newServerTransport() {
+        return new org.cometd.server.transport.HTTP2StreamingTransport(bayeux) {
+            @Override
+            protected void metaConnectSuspended(HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext, ServerSession session) {
+                super.metaConnectSuspended(request, response, asyncContext, session);
+                HTTP2StreamingTest.this.metaConnectSuspended(request);
+            }
+        };
+    }
+
+    @Test
+    public void testMessagesAreStreamedInMetaConnectResponse() throws Exception {
+        long timeout = 3000;
+        startServer(timeout);
+
+        BayeuxClient client = new BayeuxClient(cometdURL, new HTTP2StreamingTransport(null, httpClient));
+        String protocol = assertMessagesStreamed(client, timeout);
+        Assert.assertEquals("HTTP/2.0", protocol);
+    }
+
+    @Test
+    public void testDeliveryModeIsRestoredWhenStreamEnds() throws Exception {
+        long timeout = 2000;
+        startServer(timeout);
+
+        final AtomicBoolean streaming = new AtomicBoolean(true);
+        BayeuxClient client = new BayeuxClient(cometdURL, new HTTP2StreamingTransport(null, httpClient) {
+            @Override
+            protected boolean isStreaming(List<Message.Mutable> messages) {
+                return streaming.get() && super.isStreaming(messages);
+            }
+        });
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Wait for the streamed /meta/connect to be held by the server.
+        Assert.assertNotNull(suspended.poll(5, TimeUnit.SECONDS));
+        ServerSessionImpl session = (ServerSessionImpl)bayeux.getSession(client.getId());
+        Assert.assertTrue(session.isMetaConnectDeliveryOnly());
+
+        // The next /meta/connect is not streamed.
+        streaming.set(false);
+        Assert.assertNotNull(suspended.poll(2 * timeout, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(session.isMetaConnectDeliveryOnly());
+
+        disconnectBayeuxClient(client);
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.DISCONNECTED));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.transport.ServerSentEventsTransport;
+import org.cometd.server.transport.AsyncJSONTransport;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.util.BufferUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ServerSentEventsTest extends AbstractStreamingTest {
+    @Override
+    protected AsyncJSONTransport newServerTransport() {
+        return new org.cometd.server.transport.ServerSentEventsTransport(bayeux) {
+            @Override
+            protected void metaConnectSuspended(HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext, ServerSession session) {
+                super.metaConnectSuspended(request, response, asyncContext, session);
+                ServerSentEventsTest.this.metaConnectSuspended(request);
+            }
+        };
+    }
+
+    @Test
+    public void testMessagesAreDeliveredAsEvents() throws Exception {
+        long timeout = 3000;
+        startServer(timeout);
+
+        final BlockingQueue<EventStream> streams = new LinkedBlockingQueue<>();
+        BayeuxClient client = new BayeuxClient(cometdURL, new ServerSentEventsTransport(null, httpClient) {
+            @Override
+            protected Request newRequest(String url, List<Message.Mutable> messages) {
+                Request request = super.newRequest(url, messages);
+                if (isStreaming(messages)) {
+                    EventStream stream = new EventStream(request);
+                    streams.offer(stream);
+                    request.onResponseHeaders(stream).onResponseContent(stream).onComplete(stream);
+                }
+                return request;
+            }
+        });
+        assertMessagesStreamed(client, timeout);
+
+        // The first /meta/connect is replied immediately,
+        // the second is the one that streamed the messages.
+        streams.poll();
+        EventStream stream = streams.poll();
+        Assert.assertNotNull(stream);
+        Assert.assertTrue(stream.latch.await(5, TimeUnit.SECONDS));
+
+        // The /meta/connect is a GET with the messages in the parameter.
+        Assert.assertEquals(HttpMethod.GET.asString(), stream.request.getMethod());
+        String json = stream.request.getParams().get(org.cometd.server.transport.ServerSentEventsTransport.MESSAGE_PARAM).getValue();
+        Assert.assertTrue(json.contains(Channel.META_CONNECT));
+        Assert.assertTrue(stream.request.getHeaders().get(HttpHeader.ACCEPT).contains("text/event-stream"));
+
+        // The response is an event stream.
+        Assert.assertTrue(stream.contentType.startsWith("text/event-stream"));
+        String content = stream.content.toString();
+        // Every batch of messages is an event, with the
+        // /meta/connect reply in the last event.
+        String[] events = content.split("\n\n");
+        Assert.assertEquals(":", events[0]);
+        for (int i = 0; i < 4; ++i) {
+            String event = events[i + 1];
+            Assert.assertTrue(event, event.startsWith("data: ["));
+            Assert.assertTrue(event, event.endsWith("]"));
+            Assert.assertTrue(event, event.contains("\"data" + i + "\""));
+        }
+        String last = events[events.length - 1];
+        Assert.assertTrue(last, last.startsWith("data: ["));
+        Assert.assertTrue(last, last.contains(Channel.META_CONNECT));
+    }
+
+    private static class EventStream extends Response.Listener.Adapter {
+        private final StringBuffer content = new StringBuffer();
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final Request request;
+        private volatile String contentType;
+
+        private EventStream(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public void onHeaders(Response response) {
+            contentType = response.getHeaders().get(HttpHeader.CONTENT_TYPE);
+        }
+
+        @Override
+        public void onContent(Response response, ByteBuffer buffer) {
+            content.append(BufferUtil.toString(buffer, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void onComplete(Result result) {
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.client.transport.LongPollingTransport;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.transport.AsyncJSONTransport;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StreamingLongPollingTest extends ClientServerTest {
+    @Test
+    public void testStreamingLongPoll() throws Exception {
+        long timeout = 3000;
+        Map<String, String> options = new HashMap<>();
+        options.put(AbstractServerTransport.TIMEOUT_OPTION, String.valueOf(timeout));
+        options.put("long-polling.json." + AsyncJSONTransport.STREAMING_OPTION, "true");
+        startServer(options);
+
+        BayeuxClient client = newStreamingBayeuxClient();
+        AtomicInteger connects = connect(client);
+        BlockingQueue<Message> messages = subscribe(client, "/foo");
+        int metaConnects = connects.get();
+
+        for (int i = 0; i < 3; ++i) {
+            bayeux.getChannel("/foo").publish(null, "data" + i);
+            Message message = messages.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(message);
+            Assert.assertEquals("data" + i, message.getData());
+        }
+
+        // Messages must have been delivered without replying to the /meta/connect.
+        Assert.assertEquals(metaConnects, connects.get());
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testStreamingLongPollCompletesAtMaxBytes() throws Exception {
+        long timeout = 5000;
+        Map<String, String> options = new HashMap<>();
+        options.put(AbstractServerTransport.TIMEOUT_OPTION, String.valueOf(timeout));
+        options.put("long-polling.json." + AsyncJSONTransport.STREAMING_OPTION, "true");
+        options.put("long-polling.json." + AsyncJSONTransport.STREAMING_MAX_BYTES_OPTION, "64");
+        startServer(options);
+
+        BayeuxClient client = newStreamingBayeuxClient();
+        AtomicInteger connects = connect(client);
+        BlockingQueue<Message> messages = subscribe(client, "/foo");
+        int metaConnects = connects.get();
+
+        // Exceed the max bytes, the /meta/connect must be replied.
+        bayeux.getChannel("/foo").publish(null, new String(new char[128]).replace('\0', 'x'));
+        Assert.assertNotNull(messages.poll(5, TimeUnit.SECONDS));
+        Thread.sleep(500);
+        Assert.assertEquals(metaConnects + 1, connects.get());
+
+        // The new /meta/connect must be streamed as well.
+        bayeux.getChannel("/foo").publish(null, "data");
+        Message message = messages.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(message);
+        Assert.assertEquals("data", message.getData());
+        Assert.assertEquals(metaConnects + 1, connects.get());
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testStreamingNotRequestedByClient() throws Exception {
+        long timeout = 3000;
+        Map<String, String> options = new HashMap<>();
+        options.put(AbstractServerTransport.TIMEOUT_OPTION, String.valueOf(timeout));
+        options.put("long-polling.json." + AsyncJSONTransport.STREAMING_OPTION, "true");
+        startServer(options);
+
+        BayeuxClient client = newBayeuxClient();
+        AtomicInteger connects = connect(client);
+        BlockingQueue<Message> messages = subscribe(client, "/foo");
+        int metaConnects = connects.get();
+
+        bayeux.getChannel("/foo").publish(null, "data");
+        Assert.assertNotNull(messages.poll(5, TimeUnit.SECONDS));
+
+        // Plain long-polling replies to the /meta/connect for every delivery.
+        Thread.sleep(500);
+        Assert.assertEquals(metaConnects + 1, connects.get());
+
+        disconnectBayeuxClient(client);
+    }
+
+    private BayeuxClient newStreamingBayeuxClient() {
+        Map<String, Object> options = new HashMap<>();
+        options.put(LongPollingTransport.STREAMING_OPTION, true);
+        return new BayeuxClient(cometdURL, new LongPollingTransport(options, httpClient));
+    }
+
+    private AtomicInteger connect(BayeuxClient client) throws Exception {
+        final AtomicInteger connects = new AtomicInteger();
+        client.getChannel(Channel.META_CONNECT).addListener(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                if (message.isSuccessful()) {
+                    connects.incrementAndGet();
+                }
+            }
+        });
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+        return connects;
+    }
+
+    private BlockingQueue<Message> subscribe(BayeuxClient client, String channelName) throws Exception {
+        final CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.getChannel(Channel.META_SUBSCRIBE).addListener(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                if (message.isSuccessful()) {
+                    subscribeLatch.countDown();
+                }
+            }
+        });
+        final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        client.getChannel(channelName).subscribe(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                messages.offer(message);
+            }
+        });
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+        // Wait for the /meta/connect to be held by the server.
+        Thread.sleep(500);
+        return messages;
+    }
+}
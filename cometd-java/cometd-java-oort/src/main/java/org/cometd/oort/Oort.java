@@ -21,12 +21,14 @@ import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EventListener;
 import java.util.EventObject;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
@@ -49,6 +51,7 @@ import org.cometd.client.ext.AckExtension;
 import org.cometd.client.transport.ClientTransport;
 import org.cometd.client.transport.LongPollingTransport;
 import org.cometd.common.JSONContext;
+import org.cometd.common.JettyJSONContextClient;
 import org.cometd.server.authorizer.GrantAuthorizer;
 import org.cometd.server.ext.AcknowledgedMessagesExtension;
 import org.cometd.server.ext.BinaryExtension;
@@ -76,6 +79,10 @@ import org.slf4j.LoggerFactory;
  * <p>Oort instances can be configured with a shared {@link #setSecret(String) secret}, which allows
  * the Oort instance to distinguish handshakes coming from remote clients from handshakes coming from
  * other Oort comets: the firsts may be subject to a stricter authentication policy than the seconds.</p>
+ * <p>By default Oort instances are linked in a full mesh.
+ * Large clouds may group Oort instances into {@link #setZone(String) zones}, so that instances
+ * are linked in a full mesh only within the same zone, and zones are linked together only via
+ * their {@link #setGateway(boolean) gateway} instances, which relay messages between zones.</p>
  *
  * @see OortMulticastConfigServlet
  * @see OortStaticConfigServlet
@@ -89,13 +96,24 @@ public class Oort extends ContainerLifeCycle {
     public static final String EXT_OORT_SECRET_FIELD = "oortSecret";
     public static final String EXT_COMET_URL_FIELD = "cometURL";
     public static final String EXT_OORT_ALIAS_URL_FIELD = "oortAliasURL";
+    public static final String EXT_OORT_ZONE_FIELD = "oortZone";
+    public static final String EXT_OORT_GATEWAY_FIELD = "oortGateway";
+    public static final String EXT_OORT_CODEC_FIELD = "oortCodec";
     public static final String OORT_CLOUD_CHANNEL = "/oort/cloud";
     public static final String OORT_SERVICE_CHANNEL = "/service/oort";
+    public static final String OORT_INTEREST_CHANNEL = "/service/oort/interest";
+    public static final String OORT_BATCH_CHANNEL = "/service/oort/batch";
+    public static final String OORT_PING_CHANNEL = "/service/oort/ping";
     static final String COMET_URL_ATTRIBUTE = EXT_OORT_FIELD + "." + EXT_COMET_URL_FIELD;
+    static final String ZONE_ATTRIBUTE = EXT_OORT_FIELD + "." + EXT_OORT_ZONE_FIELD;
+    static final String EXT_OORT_PING_FIELD = "ping";
 
     private final ConcurrentMap<String, Boolean> _channels = new ConcurrentHashMap<>();
     private final CopyOnWriteArrayList<CometListener> _cometListeners = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<OortCometMetrics.Listener> _metricsListeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<String, OortCometMetrics> _metrics = new ConcurrentHashMap<>();
     private final ServerChannel.MessageListener _cloudListener = new CloudListener();
+    private final ServerChannel.MessageListener _pingListener = new PingListener();
     private final List<ClientTransport.Factory> _transportFactories = new ArrayList<>();
     private final BayeuxServer _bayeux;
     private final String _url;
@@ -103,6 +121,9 @@ public class Oort extends ContainerLifeCycle {
     private final Logger _logger;
     private final LocalSession _oortSession;
     private final OortMembership _membership;
+    private final OortInterest _interest;
+    private final OortFailureDetector _failureDetector;
+    private final OortCodec _codec;
     private ScheduledExecutorService _scheduler;
     private String _secret;
     private boolean _ackExtensionEnabled = true;
@@ -111,6 +132,23 @@ public class Oort extends ContainerLifeCycle {
     private Extension _serverBinaryExtension;
     private ClientSession.Extension _binaryExtension;
     private JSONContext.Client _jsonContext;
+    private boolean _interestRoutingEnabled;
+    private boolean _batchForwardingEnabled;
+    private boolean _codecEnabled;
+    private long _maxBatchDelay = 10;
+    private int _maxBatchBytes = 32 * 1024;
+    private String _zone;
+    private boolean _gateway;
+    private boolean _metricsEnabled;
+    private long _pingInterval = 5000;
+    private boolean _failureDetectionEnabled;
+    private long _heartbeatInterval = 1000;
+    private long _acceptableHeartbeatPause = 1000;
+    private double _phiSuspectThreshold = 5;
+    private double _phiFailureThreshold = 8;
+    private int _maxCometQueueSize;
+    private OortComet.OverflowPolicy _cometQueueOverflowPolicy = OortComet.OverflowPolicy.DROP_OLDEST;
+    private long _cometQueueBlockTimeout = 1000;
 
     public Oort(BayeuxServer bayeux, String url) {
         _bayeux = bayeux;
@@ -120,6 +158,9 @@ public class Oort extends ContainerLifeCycle {
         _oortSession = bayeux.newLocalSession("oort");
         _membership = new OortMembership(this);
         addBean(_membership);
+        _interest = new OortInterest(this);
+        _failureDetector = new OortFailureDetector(this);
+        _codec = new OortCodec(bayeux);
         _secret = Long.toHexString(new SecureRandom().nextLong());
     }
 
@@ -169,8 +210,18 @@ public class Oort extends ContainerLifeCycle {
         oortCloudChannel.addAuthorizer(GrantAuthorizer.GRANT_ALL);
         oortCloudChannel.addListener(_cloudListener);
 
+        _bayeux.createChannelIfAbsent(OORT_PING_CHANNEL).getReference().addListener(_pingListener);
+
         _oortSession.handshake();
 
+        if (isInterestRoutingEnabled()) {
+            addBean(_interest);
+        }
+
+        if (isFailureDetectionEnabled()) {
+            addBean(_failureDetector);
+        }
+
         super.doStart();
     }
 
@@ -178,6 +229,9 @@ public class Oort extends ContainerLifeCycle {
     protected void doStop() throws Exception {
         super.doStop();
 
+        removeBean(_failureDetector);
+        removeBean(_interest);
+
         _oortSession.disconnect();
         _oortSession.removeExtension(_binaryExtension);
 
@@ -187,6 +241,11 @@ public class Oort extends ContainerLifeCycle {
             channel.removeAuthorizer(GrantAuthorizer.GRANT_ALL);
         }
 
+        channel = _bayeux.getChannel(OORT_PING_CHANNEL);
+        if (channel != null) {
+            channel.removeListener(_pingListener);
+        }
+
         Extension binaryExtension = _serverBinaryExtension;
         _serverBinaryExtension = null;
         if (binaryExtension != null) {
@@ -200,6 +259,7 @@ public class Oort extends ContainerLifeCycle {
         }
 
         _channels.clear();
+        _metrics.clear();
 
         _scheduler.shutdown();
 
@@ -257,6 +317,338 @@ public class Oort extends ContainerLifeCycle {
         _binaryExtensionEnabled = value;
     }
 
+    @ManagedAttribute("Whether messages on observed channels are forwarded only to interested nodes")
+    public boolean isInterestRoutingEnabled() {
+        return _interestRoutingEnabled;
+    }
+
+    /**
+     * <p>Enables or disables interest-based routing of messages published on observed channels.</p>
+     * <p>When enabled, this node advertises to the other nodes which of its observed channels
+     * have local subscribers or server-side channel message listeners, and messages published
+     * on this node are forwarded only to the nodes that advertised interest for them.
+     * Nodes that have not advertised their interest yet, for example because they are joining
+     * the cloud, receive all messages.</p>
+     * <p>This property must be set before this Oort is started.</p>
+     *
+     * @param value whether to enable interest-based routing
+     */
+    public void setInterestRoutingEnabled(boolean value) {
+        _interestRoutingEnabled = value;
+    }
+
+    @ManagedAttribute("Whether messages forwarded to other nodes are coalesced into batches")
+    public boolean isBatchForwardingEnabled() {
+        return _batchForwardingEnabled;
+    }
+
+    /**
+     * <p>Enables or disables the batching of messages forwarded to other nodes.</p>
+     * <p>When enabled, the messages published on this node that must be forwarded
+     * to another node are buffered for at most {@link #getMaxBatchDelay() max batch delay}
+     * milliseconds, or until they exceed {@link #getMaxBatchBytes() max batch bytes},
+     * and then sent as a single message that the other node unbatches.</p>
+     * <p>This property must be set before this Oort is started.</p>
+     *
+     * @param value whether to enable batch forwarding
+     */
+    public void setBatchForwardingEnabled(boolean value) {
+        _batchForwardingEnabled = value;
+    }
+
+    @ManagedAttribute("Whether the data exchanged with other nodes is compactly encoded")
+    public boolean isCodecEnabled() {
+        return _codecEnabled;
+    }
+
+    /**
+     * <p>Enables or disables the {@link OortCodec compact encoding} of the data
+     * exchanged with other nodes on the Oort channels.</p>
+     * <p>The encoding is used on a link only if it is enabled on both nodes.
+     * {@link BayeuxServer.Extension BayeuxServer extensions} see the encoded data
+     * of the messages received from other nodes, since the data is decoded by
+     * {@link ServerSession.Extension ServerSession extensions}.</p>
+     * <p>This property must be set before this Oort is started.</p>
+     *
+     * @param value whether to enable the compact encoding
+     */
+    public void setCodecEnabled(boolean value) {
+        _codecEnabled = value;
+    }
+
+    OortCodec getCodec() {
+        return _codec;
+    }
+
+    OortInterest getInterest() {
+        return _interest;
+    }
+
+    @ManagedAttribute("The max time, in milliseconds, a forwarded message is buffered before being sent")
+    public long getMaxBatchDelay() {
+        return _maxBatchDelay;
+    }
+
+    public void setMaxBatchDelay(long maxBatchDelay) {
+        _maxBatchDelay = maxBatchDelay;
+    }
+
+    @ManagedAttribute("The max size, in bytes, of forwarded messages buffered before being sent")
+    public int getMaxBatchBytes() {
+        return _maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        _maxBatchBytes = maxBatchBytes;
+    }
+
+    @ManagedAttribute("Whether metrics of the links with other nodes are collected")
+    public boolean isMetricsEnabled() {
+        return _metricsEnabled;
+    }
+
+    /**
+     * <p>Enables or disables the collection of the metrics of the links with other nodes.</p>
+     * <p>When enabled, the messages and bytes sent to and received from each other node
+     * are counted, the round-trip latency is measured by pinging each other node every
+     * {@link #getPingInterval() ping interval} milliseconds, and {@link OortCometMetrics.Listener}s
+     * are notified.</p>
+     * <p>This property must be set before this Oort is started.</p>
+     *
+     * @param value whether to enable the collection of metrics
+     * @see #getCometMetrics(String)
+     */
+    public void setMetricsEnabled(boolean value) {
+        _metricsEnabled = value;
+    }
+
+    @ManagedAttribute("The interval, in milliseconds, between pings to other nodes, or 0 to disable pings")
+    public long getPingInterval() {
+        return _pingInterval;
+    }
+
+    public void setPingInterval(long pingInterval) {
+        _pingInterval = pingInterval;
+    }
+
+    /**
+     * @param oortURL the URL of a remote Oort node
+     * @return the metrics of the link with the given remote node,
+     * or null if metrics are disabled or the node is unknown
+     */
+    public OortCometMetrics getCometMetrics(String oortURL) {
+        return _metrics.get(oortURL);
+    }
+
+    /**
+     * @return the metrics of the links with the remote nodes
+     */
+    public Collection<OortCometMetrics> getCometMetrics() {
+        return Collections.unmodifiableCollection(_metrics.values());
+    }
+
+    OortCometMetrics metricsFor(String oortURL) {
+        OortCometMetrics result = _metrics.get(oortURL);
+        if (result == null) {
+            result = new OortCometMetrics(this, oortURL);
+            OortCometMetrics existing = _metrics.putIfAbsent(oortURL, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Registers the given listener to be notified of the metrics of the links with other nodes.
+     *
+     * @param listener the listener to add
+     * @see #removeMetricsListener(OortCometMetrics.Listener)
+     * @see #setMetricsEnabled(boolean)
+     */
+    public void addMetricsListener(OortCometMetrics.Listener listener) {
+        _metricsListeners.add(listener);
+    }
+
+    /**
+     * Deregisters the given listener from being notified of the metrics of the links with other nodes.
+     *
+     * @param listener the listener to remove
+     * @see #addMetricsListener(OortCometMetrics.Listener)
+     */
+    public void removeMetricsListener(OortCometMetrics.Listener listener) {
+        _metricsListeners.remove(listener);
+    }
+
+    List<OortCometMetrics.Listener> getMetricsListeners() {
+        return _metricsListeners;
+    }
+
+    @ManagedAttribute("Whether the failure of other nodes is detected via heartbeats")
+    public boolean isFailureDetectionEnabled() {
+        return _failureDetectionEnabled;
+    }
+
+    /**
+     * <p>Enables or disables the detection of the failure of other nodes via heartbeats.</p>
+     * <p>When enabled, other nodes are pinged every {@link #getHeartbeatInterval() heartbeat interval}
+     * milliseconds, and the suspicion level (phi) that a node has failed is computed from the
+     * distribution of the arrival times of the replies.
+     * A node whose phi exceeds the {@link #getPhiFailureThreshold() failure threshold} is
+     * disconnected, and {@link CometListener#cometLeft(CometListener.Event) comet left} events
+     * are emitted without waiting for the session of the node to expire.</p>
+     * <p>This property must be set before this Oort is started.</p>
+     *
+     * @param value whether to enable failure detection
+     */
+    public void setFailureDetectionEnabled(boolean value) {
+        _failureDetectionEnabled = value;
+    }
+
+    @ManagedAttribute("The interval, in milliseconds, between heartbeats to other nodes")
+    public long getHeartbeatInterval() {
+        return _heartbeatInterval;
+    }
+
+    public void setHeartbeatInterval(long heartbeatInterval) {
+        _heartbeatInterval = heartbeatInterval;
+    }
+
+    @ManagedAttribute("The pause, in milliseconds, in the heartbeats from other nodes that is tolerated")
+    public long getAcceptableHeartbeatPause() {
+        return _acceptableHeartbeatPause;
+    }
+
+    public void setAcceptableHeartbeatPause(long acceptableHeartbeatPause) {
+        _acceptableHeartbeatPause = acceptableHeartbeatPause;
+    }
+
+    @ManagedAttribute("The phi value above which a node is suspected to have failed")
+    public double getPhiSuspectThreshold() {
+        return _phiSuspectThreshold;
+    }
+
+    public void setPhiSuspectThreshold(double phiSuspectThreshold) {
+        _phiSuspectThreshold = phiSuspectThreshold;
+    }
+
+    @ManagedAttribute("The phi value above which a node is considered failed")
+    public double getPhiFailureThreshold() {
+        return _phiFailureThreshold;
+    }
+
+    public void setPhiFailureThreshold(double phiFailureThreshold) {
+        _phiFailureThreshold = phiFailureThreshold;
+    }
+
+    @ManagedAttribute("The max number of messages queued towards another node while the link is down, or 0 for unbounded")
+    public int getMaxCometQueueSize() {
+        return _maxCometQueueSize;
+    }
+
+    /**
+     * <p>Sets the max number of messages that are queued towards each other node
+     * while the link with that node is down, for example while it is reconnecting.</p>
+     * <p>Queued messages are sent when the link is re-established; when the queue is
+     * full, the {@link #getCometQueueOverflowPolicy() overflow policy} is applied,
+     * and the discarded messages are counted in {@link OortCometMetrics#getQueueOverflows()}.</p>
+     *
+     * @param maxCometQueueSize the max queue size, or 0 for unbounded queues
+     */
+    public void setMaxCometQueueSize(int maxCometQueueSize) {
+        _maxCometQueueSize = maxCometQueueSize;
+    }
+
+    @ManagedAttribute("The policy applied when the queue towards another node is full")
+    public OortComet.OverflowPolicy getCometQueueOverflowPolicy() {
+        return _cometQueueOverflowPolicy;
+    }
+
+    /**
+     * <p>Sets the policy applied when the queue of messages towards another node is full.</p>
+     * <p>The {@link OortComet.OverflowPolicy#BLOCK} policy blocks the publishing thread,
+     * so it should be used only when messages are published from application threads.</p>
+     *
+     * @param policy the overflow policy
+     * @see #setMaxCometQueueSize(int)
+     */
+    public void setCometQueueOverflowPolicy(OortComet.OverflowPolicy policy) {
+        _cometQueueOverflowPolicy = Objects.requireNonNull(policy);
+    }
+
+    @ManagedAttribute("The max time, in milliseconds, publishers block when the queue towards another node is full")
+    public long getCometQueueBlockTimeout() {
+        return _cometQueueBlockTimeout;
+    }
+
+    public void setCometQueueBlockTimeout(long cometQueueBlockTimeout) {
+        _cometQueueBlockTimeout = cometQueueBlockTimeout;
+    }
+
+    /**
+     * @return the URLs of the nodes that are suspected to have failed
+     * @see #setFailureDetectionEnabled(boolean)
+     */
+    @ManagedAttribute(value = "URLs of Oorts suspected to have failed", readonly = true)
+    public Set<String> getSuspectedComets() {
+        return _failureDetector.getSuspected();
+    }
+
+    void disconnectComet(String oortURL) {
+        _membership.disconnectComet(oortURL);
+    }
+
+    @ManagedAttribute("The zone this node belongs to")
+    public String getZone() {
+        return _zone;
+    }
+
+    /**
+     * <p>Sets the zone this node belongs to.</p>
+     * <p>Nodes in the same zone are linked in a full mesh, while nodes in different
+     * zones are linked only if they are both {@link #setGateway(boolean) gateways}.
+     * Nodes without a zone are linked with every other node.</p>
+     * <p>This property must be set before this Oort is started.</p>
+     *
+     * @param zone the zone this node belongs to, or null to link to every node
+     */
+    public void setZone(String zone) {
+        _zone = zone;
+    }
+
+    @ManagedAttribute("Whether this node relays messages between zones")
+    public boolean isGateway() {
+        return _gateway;
+    }
+
+    /**
+     * <p>Sets whether this node is the gateway of its {@link #setZone(String) zone}.</p>
+     * <p>Gateways are linked to the gateways of the other zones, and relay the
+     * messages published on observed channels from their zone to the other zones,
+     * and from the other zones to their zone.
+     * Each zone must have exactly one gateway, otherwise messages are either not
+     * relayed or relayed multiple times.</p>
+     * <p>This property must be set before this Oort is started.</p>
+     *
+     * @param gateway whether this node is the gateway of its zone
+     */
+    public void setGateway(boolean gateway) {
+        _gateway = gateway;
+    }
+
+    /**
+     * @param zone the zone of a remote node
+     * @param gateway whether the remote node is a gateway
+     * @return whether this node must be linked to the remote node
+     * @see #setZone(String)
+     */
+    protected boolean isLinkable(String zone, boolean gateway) {
+        if (_zone == null || zone == null) {
+            return true;
+        }
+        return _zone.equals(zone) || (_gateway && gateway);
+    }
+
     public JSONContext.Client getJSONContextClient() {
         return _jsonContext;
     }
@@ -291,6 +683,10 @@ public class Oort extends ContainerLifeCycle {
         options.put(ClientTransport.SCHEDULER_OPTION, _scheduler);
 
         JSONContext.Client jsonContext = getJSONContextClient();
+        if (isMetricsEnabled()) {
+            // Count the messages with the JSON generated and parsed by the transports.
+            jsonContext = new OortMetricsJSONContext(jsonContext == null ? new JettyJSONContextClient() : jsonContext, this, cometURL);
+        }
         if (jsonContext != null) {
             options.put(ClientTransport.JSON_CONTEXT_OPTION, jsonContext);
         }
@@ -336,6 +732,11 @@ public class Oort extends ContainerLifeCycle {
     }
 
     protected void configureOortComet(OortComet oortComet) {
+        if (isCodecEnabled()) {
+            // Added first, so that it encodes after, and
+            // decodes before, the other extensions.
+            oortComet.addExtension(_codec.newClientSessionExtension());
+        }
         if (isAckExtensionEnabled()) {
             boolean present = false;
             for (ClientSession.Extension extension : oortComet.getExtensions()) {
@@ -395,6 +796,10 @@ public class Oort extends ContainerLifeCycle {
         return _membership.getKnownComets();
     }
 
+    Map<String, String> getKnownCometIds() {
+        return _membership.getKnownCometIds();
+    }
+
     /**
      * @param cometURL the URL of a Oort comet
      * @return the OortComet instance connected with the Oort comet with the given URL
@@ -434,6 +839,7 @@ public class Oort extends ContainerLifeCycle {
         if (_channels.putIfAbsent(channelName, Boolean.TRUE) == null) {
             Set<String> observedChannels = getObservedChannels();
             _membership.observeChannels(observedChannels);
+            _interest.observedChannelsChanged();
         }
     }
 
@@ -441,6 +847,7 @@ public class Oort extends ContainerLifeCycle {
     public void deobserveChannel(@Name(value = "channel", description = "The channel to deobserve") String channelId) {
         if (_channels.remove(channelId) != null) {
             _membership.deobserveChannel(channelId);
+            _interest.observedChannelsChanged();
         }
     }
 
@@ -510,6 +917,13 @@ public class Oort extends ContainerLifeCycle {
         if (oortAliasURL != null) {
             oortExt.put(EXT_OORT_ALIAS_URL_FIELD, oortAliasURL);
         }
+        if (_zone != null) {
+            oortExt.put(EXT_OORT_ZONE_FIELD, _zone);
+            oortExt.put(EXT_OORT_GATEWAY_FIELD, _gateway);
+        }
+        if (isCodecEnabled()) {
+            oortExt.put(EXT_OORT_CODEC_FIELD, OortCodec.NAME);
+        }
         return fields;
     }
 
@@ -555,6 +969,9 @@ public class Oort extends ContainerLifeCycle {
         if (_logger.isDebugEnabled()) {
             _logger.debug("Comet joined: {}|{}", remoteOortId, remoteOortURL);
         }
+        if (isMetricsEnabled()) {
+            metricsFor(remoteOortURL);
+        }
         CometListener.Event event = new CometListener.Event(this, remoteOortId, remoteOortURL);
         for (CometListener cometListener : _cometListeners) {
             try {
@@ -569,6 +986,7 @@ public class Oort extends ContainerLifeCycle {
         if (_logger.isDebugEnabled()) {
             _logger.debug("Comet left: {}|{}", remoteOortId, remoteOortURL);
         }
+        _metrics.remove(remoteOortURL);
         CometListener.Event event = new CometListener.Event(this, remoteOortId, remoteOortURL);
         for (CometListener cometListener : _cometListeners) {
             try {
@@ -641,6 +1059,25 @@ public class Oort extends ContainerLifeCycle {
         }
     }
 
+    /**
+     * <p>This listener handles the pings sent to {@code /service/oort/ping} by the remote comets,
+     * echoing the ping timestamp in the publish reply.</p>
+     */
+    private static class PingListener implements ServerChannel.MessageListener {
+        @Override
+        public boolean onMessage(ServerSession from, ServerChannel channel, Mutable message) {
+            // Echo the timestamp of the ping, so that the remote node can measure the round-trip.
+            // The reply must not have a data field, otherwise it is not recognized as a publish reply.
+            Mutable reply = message.getAssociated();
+            if (reply != null) {
+                Map<String, Object> oortExt = new HashMap<>(1);
+                oortExt.put(EXT_OORT_PING_FIELD, message.getData());
+                reply.getExt(true).put(EXT_OORT_FIELD, oortExt);
+            }
+            return true;
+        }
+    }
+
     /**
      * <p>Listener interface that gets notified of comet events, that is when a new
      * comet joins the cloud or when a comet leaves the cloud.</p>
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Coalesces the messages forwarded to a remote Oort comet into batches.</p>
+ * <p>Messages published on broadcast channels that would be delivered to the
+ * session of a remote Oort comet are buffered, and sent as a single message on
+ * {@link Oort#OORT_BATCH_CHANNEL} when either the max batch delay expires or
+ * the buffered messages exceed the max batch bytes.
+ * The remote {@link OortComet} unbatches the messages and processes them
+ * one by one, as if they were received individually.</p>
+ */
+class OortBatcher implements ServerSession.MessageListener, ServerSession.RemoveListener, Runnable {
+    private final List<ServerMessage> messages = new ArrayList<>();
+    private final Object lock = this;
+    private final Oort oort;
+    private final ServerSession session;
+    private final Logger logger;
+    private int bytes;
+    private ScheduledFuture<?> task;
+
+    OortBatcher(Oort oort, ServerSession session) {
+        this.oort = oort;
+        this.session = session;
+        this.logger = LoggerFactory.getLogger(getClass().getName() + "." + Oort.replacePunctuation(oort.getURL(), '_'));
+    }
+
+    @Override
+    public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+        if (!ChannelId.isBroadcast(message.getChannel())) {
+            return true;
+        }
+
+        synchronized (lock) {
+            messages.add(message);
+            bytes += message.getJSON().length();
+            if (bytes >= oort.getMaxBatchBytes()) {
+                flush();
+            } else if (task == null) {
+                task = oort.getScheduler().schedule(this, oort.getMaxBatchDelay(), TimeUnit.MILLISECONDS);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void run() {
+        synchronized (lock) {
+            task = null;
+            flush();
+        }
+    }
+
+    private void flush() {
+        // Called with the lock held, so that batches are delivered in order.
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<ServerMessage> batch = new ArrayList<>(messages);
+        messages.clear();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Forwarding batch of {} messages ({} bytes) to {}", batch.size(), bytes, session.getAttribute(Oort.COMET_URL_ATTRIBUTE));
+        }
+        bytes = 0;
+        session.deliver(null, Oort.OORT_BATCH_CHANNEL, batch);
+    }
+
+    @Override
+    public void removed(ServerSession session, boolean timeout) {
+        synchronized (lock) {
+            if (task != null) {
+                task.cancel(false);
+                task = null;
+            }
+            messages.clear();
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.Map;
+
+import org.cometd.bayeux.server.LocalSession;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Base class for conflict-free replicated data types shared via an internal
+ * {@link OortObject OortObject&lt;Map&lt;String, Object&gt;&gt;}.</p>
+ * <p>Each node holds the whole state of the data type, and updates are applied to
+ * the local state without coordination with other nodes, and then broadcast.
+ * When the state of a remote node is received, it is merged into the local state;
+ * merging is commutative, associative and idempotent, so that all nodes converge
+ * to the same state, regardless of the order in which updates are received.</p>
+ * <p>Because the merged state is local, the contributions of nodes that left the
+ * cluster are retained, and are transmitted to nodes that join the cluster later.</p>
+ * <p>Subclasses hold their state in their own data structures, and implement
+ * {@link #serialize()} and {@link #merge(Map)}; both methods, as well as the updates
+ * of the state, must be performed while holding the {@link #getLock() lock}.</p>
+ *
+ * @see OortPNCounter
+ * @see OortORSet
+ * @see OortLWWMap
+ */
+public abstract class OortCRDT extends AbstractLifeCycle {
+    protected final Logger logger;
+    private final Object lock = new Object();
+    private final OortObject<Map<String, Object>> object;
+    private final Oort.CometListener cometListener = new CometListener();
+    private boolean dirty;
+
+    /**
+     * @param oort the oort this instance is associated to
+     * @param name the name of this replicated data type
+     */
+    protected OortCRDT(Oort oort, String name) {
+        this.logger = LoggerFactory.getLogger(getClass().getName() + "." + Oort.replacePunctuation(oort.getURL(), '_') + "." + name);
+        this.object = new OortObject<>(oort, name, OortObjectFactories.<String, Object>forMap());
+        this.object.addListener(new MergeListener());
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        object.start();
+        getOort().addCometListener(cometListener);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        getOort().removeCometListener(cometListener);
+        object.stop();
+    }
+
+    /**
+     * @return the {@link Oort} instance associated with this replicated data type
+     */
+    public Oort getOort() {
+        return object.getOort();
+    }
+
+    /**
+     * @return the name of this replicated data type
+     */
+    public String getName() {
+        return object.getName();
+    }
+
+    /**
+     * @return the local session that sends messages to other nodes
+     */
+    public LocalSession getLocalSession() {
+        return object.getLocalSession();
+    }
+
+    /**
+     * <p>Returns the ID of this replica, that uniquely identifies the contributions of this node.</p>
+     * <p>The {@link Oort#getId() Oort ID} is used rather than the Oort URL, so that a node that
+     * restarts with an empty state does not clash with the contributions it made before.</p>
+     *
+     * @return the ID of this replica
+     */
+    protected String getReplicaId() {
+        return getOort().getId();
+    }
+
+    /**
+     * @return the lock that guards the state of this replicated data type
+     */
+    protected Object getLock() {
+        return lock;
+    }
+
+    /**
+     * <p>Broadcasts the local state to the other nodes.</p>
+     * <p>Subclasses call this method after having updated the local state.</p>
+     */
+    protected void share() {
+        synchronized (lock) {
+            dirty = false;
+            // Sharing while holding the lock guarantees that
+            // states are broadcast in the order they are produced.
+            object.setAndShare(serialize(), null);
+        }
+    }
+
+    /**
+     * @return a JSON representation of the local state
+     */
+    protected abstract Map<String, Object> serialize();
+
+    /**
+     * @param remote the JSON representation of the state of a remote node
+     * @return whether the local state has been modified by the merge
+     */
+    protected abstract boolean merge(Map<String, Object> remote);
+
+    /**
+     * @param local  the local per-replica counts
+     * @param remote the JSON representation of the remote per-replica counts
+     * @return whether the local counts have been modified
+     */
+    protected static boolean mergeMax(Map<String, Long> local, Object remote) {
+        boolean result = false;
+        if (remote instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)remote).entrySet()) {
+                String replica = String.valueOf(entry.getKey());
+                long value = ((Number)entry.getValue()).longValue();
+                Long current = local.get(replica);
+                if (current == null || current < value) {
+                    local.put(replica, value);
+                    result = true;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param counts the per-replica counts
+     * @return the sum of the per-replica counts
+     */
+    protected static long sum(Map<String, Long> counts) {
+        long result = 0;
+        for (Long value : counts.values()) {
+            result += value;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), getName());
+    }
+
+    private class MergeListener implements OortObject.Listener<Map<String, Object>> {
+        @Override
+        public void onUpdated(OortObject.Info<Map<String, Object>> oldInfo, OortObject.Info<Map<String, Object>> newInfo) {
+            if (newInfo.isLocal()) {
+                return;
+            }
+            synchronized (lock) {
+                if (merge(newInfo.getObject())) {
+                    // Do not rebroadcast, since the other nodes receive
+                    // the remote state directly; the merged state is
+                    // broadcast with the next update or membership change.
+                    dirty = true;
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Merged state from {}", newInfo.getOortURL());
+            }
+        }
+
+        @Override
+        public void onRemoved(OortObject.Info<Map<String, Object>> info) {
+            // The contributions of the remote node are retained in the local state.
+        }
+    }
+
+    private class CometListener implements Oort.CometListener {
+        @Override
+        public void cometJoined(Event event) {
+            shareIfDirty();
+        }
+
+        @Override
+        public void cometLeft(Event event) {
+            shareIfDirty();
+        }
+
+        private void shareIfDirty() {
+            synchronized (lock) {
+                if (dirty) {
+                    share();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSession;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+
+/**
+ * <p>A compact encoding of the messages exchanged by Oort nodes on the Oort channels,
+ * that replaces the well known field names and values such as {@code oort.info.object}
+ * or {@code oort.map.put} with short tokens.</p>
+ * <p>The codec is negotiated during the Oort handshake via the
+ * {@link Oort#EXT_OORT_CODEC_FIELD} field, and it is used on a link only when both
+ * nodes support the same version of the codec, so that nodes with different versions
+ * can be part of the same cluster.</p>
+ * <p>Only the data of the messages on the Oort channels ({@code /oort/**},
+ * {@code /service/oort/**} and {@code /seti/**}) is encoded; other messages, such
+ * as those published on observed channels, are never modified.
+ * Strings that start with the token prefix are escaped, so that the encoding is
+ * lossless for data made of maps, lists, arrays, strings, numbers and booleans.
+ * Other objects are not inspected: if they are converted to JSON objects that are
+ * not converted back by the remote node, their strings that start with the token
+ * prefix may be decoded incorrectly.</p>
+ */
+public class OortCodec {
+    /**
+     * The name of the codec, that must change every time the dictionary changes.
+     */
+    public static final String NAME = "compact/1";
+
+    private static final char TOKEN_PREFIX = '~';
+    // Entries may only be appended, changing the name of the codec.
+    private static final String[] DICTIONARY = {
+            OortObject.Info.VERSION_FIELD,
+            OortObject.Info.OORT_URL_FIELD,
+            OortObject.Info.NAME_FIELD,
+            OortObject.Info.OBJECT_FIELD,
+            OortObject.Info.TYPE_FIELD,
+            OortObject.Info.ACTION_FIELD,
+            OortObject.Info.PEER_FIELD,
+            "oort.object.push",
+            "oort.object.pull",
+            "oort.object.digest",
+            "oort.object.sync",
+            "oort.object.segment",
+            "oort.object.segments",
+            "oort.map.entry",
+            "oort.map.put",
+            "oort.map.put.absent",
+            "oort.map.remove",
+            "oort.map.key",
+            "oort.map.value",
+            "oort.list.element",
+            "oort.list.add",
+            "oort.list.remove",
+            "oort.service.batch",
+            "oort.service.context",
+            "oort.service.data",
+            "oort.service.id",
+            "oort.service.ignored",
+            "oort.service.url",
+            "oort.service.owner",
+            "oort.service.parameter",
+            "oort.service.result",
+            "oort.service.timeout",
+            "userId",
+            "userIds",
+            "setiId",
+            "oortURL",
+            "oortURLs",
+            "channel",
+            "lookup",
+            "alive",
+            "presence",
+            "replace",
+            "channels",
+            "full"
+    };
+    private static final Map<String, String> TOKENS = new HashMap<>();
+
+    static {
+        for (int i = 0; i < DICTIONARY.length; ++i) {
+            TOKENS.put(DICTIONARY[i], TOKEN_PREFIX + Integer.toString(i, Character.MAX_RADIX));
+        }
+    }
+
+    private final AtomicReference<Encoded> lastEncoded = new AtomicReference<>();
+    private final BayeuxServer bayeuxServer;
+
+    /**
+     * @param bayeuxServer the {@link BayeuxServer} used to create the encoded messages
+     */
+    public OortCodec(BayeuxServer bayeuxServer) {
+        this.bayeuxServer = bayeuxServer;
+    }
+
+    /**
+     * @param channel the channel name
+     * @return whether the data of messages on the given channel is encoded
+     */
+    public static boolean isEncoded(String channel) {
+        return channel != null &&
+                (channel.startsWith("/oort/") ||
+                        channel.startsWith("/seti/") ||
+                        // Batched messages have already been encoded.
+                        (channel.startsWith(Oort.OORT_SERVICE_CHANNEL + "/") && !Oort.OORT_BATCH_CHANNEL.equals(channel)));
+    }
+
+    private static boolean isEncoded(Message message) {
+        return message.containsKey(Message.DATA_FIELD) && isEncoded(message.getChannel());
+    }
+
+    /**
+     * <p>Encodes the given object, recursively encoding the keys and
+     * the values of maps, the elements of lists and arrays, and strings.</p>
+     *
+     * @param object the object to encode
+     * @return the encoded object
+     */
+    public static Object encode(Object object) {
+        if (object instanceof String) {
+            return encodeString((String)object);
+        }
+        if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>)object;
+            Map<String, Object> result = new HashMap<>(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                result.put(encodeString(String.valueOf(entry.getKey())), encode(entry.getValue()));
+            }
+            return result;
+        }
+        if (object instanceof Collection) {
+            Collection<?> collection = (Collection<?>)object;
+            List<Object> result = new ArrayList<>(collection.size());
+            for (Object element : collection) {
+                result.add(encode(element));
+            }
+            return result;
+        }
+        if (object instanceof Object[]) {
+            Object[] array = (Object[])object;
+            Object[] result = new Object[array.length];
+            for (int i = 0; i < array.length; ++i) {
+                result[i] = encode(array[i]);
+            }
+            return result;
+        }
+        return object;
+    }
+
+    /**
+     * @param object the object to decode
+     * @return the decoded object
+     * @see #encode(Object)
+     */
+    public static Object decode(Object object) {
+        if (object instanceof String) {
+            return decodeString((String)object);
+        }
+        if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>)object;
+            Map<String, Object> result = new HashMap<>(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                result.put(decodeString(String.valueOf(entry.getKey())), decode(entry.getValue()));
+            }
+            return result;
+        }
+        if (object instanceof Collection) {
+            Collection<?> collection = (Collection<?>)object;
+            List<Object> result = new ArrayList<>(collection.size());
+            for (Object element : collection) {
+                result.add(decode(element));
+            }
+            return result;
+        }
+        if (object instanceof Object[]) {
+            Object[] array = (Object[])object;
+            Object[] result = new Object[array.length];
+            for (int i = 0; i < array.length; ++i) {
+                result[i] = decode(array[i]);
+            }
+            return result;
+        }
+        return object;
+    }
+
+    private static String encodeString(String value) {
+        String token = TOKENS.get(value);
+        if (token != null) {
+            return token;
+        }
+        if (!value.isEmpty() && value.charAt(0) == TOKEN_PREFIX) {
+            return TOKEN_PREFIX + value;
+        }
+        return value;
+    }
+
+    private static String decodeString(String value) {
+        if (value.isEmpty() || value.charAt(0) != TOKEN_PREFIX) {
+            return value;
+        }
+        if (value.length() > 1 && value.charAt(1) == TOKEN_PREFIX) {
+            return value.substring(1);
+        }
+        try {
+            int index = Integer.parseInt(value.substring(1), Character.MAX_RADIX);
+            if (index >= 0 && index < DICTIONARY.length) {
+                return DICTIONARY[index];
+            }
+        } catch (NumberFormatException x) {
+            // Not a token.
+        }
+        return value;
+    }
+
+    /**
+     * @return a new extension that decodes the messages received from, and encodes
+     * the messages sent to, the {@link ServerSession} of a remote Oort comet
+     */
+    public ServerSession.Extension newServerSessionExtension() {
+        return new ServerSessionExtension();
+    }
+
+    /**
+     * @return a new extension for an {@link OortComet} that negotiates the codec
+     * during the handshake, and then encodes the messages sent to and decodes the
+     * messages received from the remote node
+     */
+    public ClientSession.Extension newClientSessionExtension() {
+        return new ClientSessionExtension();
+    }
+
+    private ServerMessage encode(ServerMessage message) {
+        // Broadcast messages are delivered to the sessions
+        // of all the remote comets: encode them only once.
+        boolean broadcast = ChannelId.isBroadcast(message.getChannel());
+        if (broadcast) {
+            Encoded encoded = lastEncoded.get();
+            if (encoded != null && encoded.message == message) {
+                return encoded.encoded;
+            }
+        }
+        ServerMessage.Mutable result = bayeuxServer.newMessage();
+        result.putAll(message);
+        result.setData(encode(message.getData()));
+        if (broadcast) {
+            lastEncoded.set(new Encoded(message, result));
+        }
+        return result;
+    }
+
+    private class ServerSessionExtension extends ServerSession.Extension.Adapter {
+        @Override
+        public boolean rcv(ServerSession session, ServerMessage.Mutable message) {
+            if (isEncoded(message)) {
+                message.setData(decode(message.getData()));
+            }
+            return true;
+        }
+
+        @Override
+        public ServerMessage send(ServerSession session, ServerMessage message) {
+            return isEncoded(message) ? encode(message) : message;
+        }
+    }
+
+    private class ClientSessionExtension extends ClientSession.Extension.Adapter {
+        private volatile boolean enabled;
+
+        @Override
+        public boolean rcv(ClientSession session, Message.Mutable message) {
+            if (enabled && isEncoded(message)) {
+                message.setData(decode(message.getData()));
+            }
+            return true;
+        }
+
+        @Override
+        public boolean rcvMeta(ClientSession session, Message.Mutable message) {
+            if (Channel.META_HANDSHAKE.equals(message.getChannel())) {
+                enabled = message.isSuccessful() && NAME.equals(getOortExtField(message, Oort.EXT_OORT_CODEC_FIELD));
+            }
+            return true;
+        }
+
+        @Override
+        public boolean send(ClientSession session, Message.Mutable message) {
+            if (enabled && isEncoded(message)) {
+                message.setData(encode(message.getData()));
+            }
+            return true;
+        }
+    }
+
+    private static Object getOortExtField(Message message, String field) {
+        Map<String, Object> ext = message.getExt();
+        if (ext == null) {
+            return null;
+        }
+        Object oortExt = ext.get(Oort.EXT_OORT_FIELD);
+        if (!(oortExt instanceof Map)) {
+            return null;
+        }
+        return ((Map<?, ?>)oortExt).get(field);
+    }
+
+    private static class Encoded {
+        private final ServerMessage message;
+        private final ServerMessage encoded;
+
+        private Encoded(ServerMessage message, ServerMessage encoded) {
+            this.message = message;
+            this.encoded = encoded;
+        }
+    }
+}
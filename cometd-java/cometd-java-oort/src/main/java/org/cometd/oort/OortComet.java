@@ -15,32 +15,73 @@
  */
 package org.cometd.oort;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.ServerChannel;
 import org.cometd.client.BayeuxClient;
 import org.cometd.client.transport.ClientTransport;
+import org.cometd.common.HashMapMessage;
 
 /**
  * <p>The Oort comet client connects a local Oort comet server to a remote Oort comet server.</p>
  */
 public class OortComet extends BayeuxClient {
     private final ConcurrentMap<String, ClientSessionChannel.MessageListener> _subscriptions = new ConcurrentHashMap<>();
+    private final Deque<Message.Mutable> _outbound = new ArrayDeque<>();
+    private final AtomicLong _overflows = new AtomicLong();
     private final Oort _oort;
     private final String _cometURL;
     private volatile boolean _subscriptionsAllowed;
+    private volatile String _zone;
+    private final AtomicBoolean _pinging = new AtomicBoolean();
 
     public OortComet(Oort oort, String cometURL, ScheduledExecutorService scheduler, ClientTransport transport, ClientTransport... transports) {
         super(cometURL, scheduler, transport, transports);
         _oort = oort;
         _cometURL = cometURL;
+        ClientSessionChannel.MessageListener flusher = new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                if (message.isSuccessful()) {
+                    flush();
+                }
+            }
+        };
+        getChannel(Channel.META_HANDSHAKE).addListener(flusher);
+        getChannel(Channel.META_CONNECT).addListener(flusher);
+        if (oort.isMetricsEnabled()) {
+            getChannel(Channel.META_HANDSHAKE).addListener(new ClientSessionChannel.MessageListener() {
+                private boolean handshaken;
+
+                @Override
+                public void onMessage(ClientSessionChannel channel, Message message) {
+                    if (message.isSuccessful()) {
+                        OortCometMetrics metrics = getMetrics();
+                        if (handshaken && metrics != null) {
+                            metrics.reconnected();
+                        }
+                        handshaken = true;
+                    }
+                }
+            });
+        }
     }
 
     protected void subscribe(Set<String> observedChannels) {
@@ -60,6 +101,13 @@ public class OortComet extends BayeuxClient {
                     if (logger.isDebugEnabled()) {
                         logger.debug("Republishing message {} from {}", message, _cometURL);
                     }
+                    String zone = _zone;
+                    if (zone != null && _oort.isGateway() && message instanceof Message.Mutable) {
+                        // Mark the zone the message comes from, so that the gateway can relay it.
+                        Map<String, Object> oortExt = new HashMap<>(1);
+                        oortExt.put(Oort.EXT_OORT_ZONE_FIELD, zone);
+                        ((Message.Mutable)message).getExt(true).put(Oort.EXT_OORT_FIELD, oortExt);
+                    }
                     // BayeuxServer may sweep channels, so calling bayeux.getChannel(...)
                     // may return null, and therefore we use the client to send the message.
                     _oort.getOortSession().getChannel(message.getChannel()).publish(message);
@@ -139,10 +187,254 @@ public class OortComet extends BayeuxClient {
                 getChannel(Oort.OORT_SERVICE_CHANNEL).publish(data, callback);
             }
         });
+
+        if (_oort.isMetricsEnabled() && _oort.getPingInterval() > 0 && _pinging.compareAndSet(false, true)) {
+            _oort.getScheduler().schedule(new Pinger(), _oort.getPingInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the metrics of the link with the remote node, or null if metrics
+     * are disabled or the remote node left the cloud
+     * @see Oort#setMetricsEnabled(boolean)
+     */
+    public OortCometMetrics getMetrics() {
+        return _oort.getCometMetrics(_cometURL);
+    }
+
+    void setZone(String zone) {
+        _zone = zone;
+    }
+
+    /**
+     * @param message the message republished by a gateway
+     * @return the zone of the node the message has been received from, or null
+     */
+    static String getOriginZone(Message message) {
+        Map<String, Object> ext = message.getExt();
+        if (ext == null) {
+            return null;
+        }
+        Object oortExt = ext.get(Oort.EXT_OORT_FIELD);
+        if (!(oortExt instanceof Map)) {
+            return null;
+        }
+        return (String)((Map<?, ?>)oortExt).get(Oort.EXT_OORT_ZONE_FIELD);
+    }
+
+    @Override
+    protected void processMessage(Message.Mutable message) {
+        if (Oort.OORT_BATCH_CHANNEL.equals(message.getChannel())) {
+            // Unbatch the messages coalesced by the remote node.
+            Object data = message.getData();
+            Object[] array = data instanceof List ? ((List<?>)data).toArray() : (Object[])data;
+            if (logger.isDebugEnabled()) {
+                logger.debug("Unbatching {} messages from {}", array.length, _cometURL);
+            }
+            for (Object element : array) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> fields = (Map<String, Object>)element;
+                HashMapMessage batched = new HashMapMessage();
+                batched.putAll(fields);
+                super.processMessage(batched);
+            }
+        } else {
+            super.processMessage(message);
+        }
+    }
+
+    /**
+     * @return the number of messages buffered while the link with the remote node is down
+     * @see Oort#setMaxCometQueueSize(int)
+     */
+    public int getQueueSize() {
+        synchronized (_outbound) {
+            return _outbound.size();
+        }
+    }
+
+    /**
+     * @return the number of messages discarded because the queue towards the remote node was full
+     * @see Oort#setCometQueueOverflowPolicy(OverflowPolicy)
+     */
+    public long getQueueOverflows() {
+        return _overflows.get();
+    }
+
+    @Override
+    protected void enqueueSend(Message.Mutable message) {
+        int maxQueueSize = _oort.getMaxCometQueueSize();
+        if (maxQueueSize <= 0 || message.isMeta() || !isLinkDown()) {
+            flush();
+            super.enqueueSend(message);
+            return;
+        }
+
+        Message.Mutable dropped = null;
+        OverflowPolicy policy = _oort.getCometQueueOverflowPolicy();
+        synchronized (_outbound) {
+            if (_outbound.size() >= maxQueueSize && policy == OverflowPolicy.BLOCK) {
+                long timeout = TimeUnit.MILLISECONDS.toNanos(_oort.getCometQueueBlockTimeout());
+                long begin = System.nanoTime();
+                try {
+                    while (_outbound.size() >= maxQueueSize && isLinkDown()) {
+                        long wait = timeout - (System.nanoTime() - begin);
+                        if (wait <= 0) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(_outbound, wait);
+                    }
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (_outbound.size() >= maxQueueSize) {
+                switch (policy) {
+                    case DROP_LAZY:
+                        dropped = removeLazy();
+                        if (dropped == null) {
+                            dropped = isLazy(message) ? message : _outbound.pollFirst();
+                        }
+                        break;
+                    case BLOCK:
+                        dropped = message;
+                        break;
+                    default:
+                        dropped = _outbound.pollFirst();
+                        break;
+                }
+            }
+            if (dropped != message) {
+                _outbound.offerLast(message);
+            }
+        }
+
+        if (dropped != null) {
+            overflow(dropped, policy);
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("Queued message {} for {}", message, _cometURL);
+        }
+
+        // The link may have come up while the message was queued.
+        if (!isLinkDown()) {
+            flush();
+        }
+    }
+
+    private boolean isLinkDown() {
+        State state = getState();
+        return state == State.UNCONNECTED || state == State.REHANDSHAKING;
+    }
+
+    private boolean isLazy(Message message) {
+        ServerChannel channel = _oort.getBayeuxServer().getChannel(message.getChannel());
+        return channel != null && channel.isLazy();
+    }
+
+    private Message.Mutable removeLazy() {
+        for (Iterator<Message.Mutable> iterator = _outbound.iterator(); iterator.hasNext(); ) {
+            Message.Mutable queued = iterator.next();
+            if (isLazy(queued)) {
+                iterator.remove();
+                return queued;
+            }
+        }
+        return null;
+    }
+
+    private void overflow(Message.Mutable message, OverflowPolicy policy) {
+        _overflows.incrementAndGet();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Queue overflow ({}) towards {}, discarding {}", policy, _cometURL, message);
+        }
+        OortCometMetrics metrics = getMetrics();
+        if (metrics != null) {
+            metrics.queueOverflowed(message.getChannel(), policy);
+        }
+        messagesFailure(null, Collections.singletonList(message));
+    }
+
+    private void flush() {
+        List<Message.Mutable> messages;
+        synchronized (_outbound) {
+            if (_outbound.isEmpty()) {
+                return;
+            }
+            messages = new ArrayList<>(_outbound);
+            _outbound.clear();
+            _outbound.notifyAll();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Flushing {} queued messages to {}", messages.size(), _cometURL);
+        }
+        for (Message.Mutable message : messages) {
+            super.enqueueSend(message);
+        }
+    }
+
+    @Override
+    protected void terminate() {
+        List<Message.Mutable> messages;
+        synchronized (_outbound) {
+            messages = new ArrayList<>(_outbound);
+            _outbound.clear();
+            _outbound.notifyAll();
+        }
+        messagesFailure(null, messages);
+        super.terminate();
     }
 
     @Override
     public String toString() {
         return String.format("%s[%s]", super.toString(), _cometURL);
     }
+
+    private class Pinger implements Runnable, ClientSessionChannel.MessageListener {
+        @Override
+        public void run() {
+            if (isDisconnected()) {
+                _pinging.set(false);
+                return;
+            }
+            if (isConnected() && getMetrics() != null) {
+                // The remote node echoes the timestamp in the reply.
+                getChannel(Oort.OORT_PING_CHANNEL).publish(System.nanoTime(), this);
+            }
+            _oort.getScheduler().schedule(this, _oort.getPingInterval(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void onMessage(ClientSessionChannel channel, Message message) {
+            Map<String, Object> ext = message.getExt();
+            Object oortExt = ext == null ? null : ext.get(Oort.EXT_OORT_FIELD);
+            Object timestamp = oortExt instanceof Map ? ((Map<?, ?>)oortExt).get(Oort.EXT_OORT_PING_FIELD) : null;
+            OortCometMetrics metrics = getMetrics();
+            if (message.isSuccessful() && timestamp instanceof Number && metrics != null) {
+                metrics.roundTrip(System.nanoTime() - ((Number)timestamp).longValue());
+            }
+        }
+    }
+
+    /**
+     * <p>The policy applied when the queue of messages towards a remote node is full.</p>
+     *
+     * @see Oort#setCometQueueOverflowPolicy(OverflowPolicy)
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discards the oldest queued message
+         */
+        DROP_OLDEST,
+        /**
+         * Discards the oldest queued message published on a lazy channel,
+         * or the oldest queued message if there are none
+         */
+        DROP_LAZY,
+        /**
+         * Blocks the publisher until there is space in the queue or the
+         * {@link Oort#getCometQueueBlockTimeout() block timeout} expires,
+         * after which the message being published is discarded
+         */
+        BLOCK
+    }
 }
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.EventListener;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.ServerSessionImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Metrics of the link between this Oort node and a remote Oort node.</p>
+ * <p>Metrics track the messages and bytes sent to and received from the remote node,
+ * per channel, the round-trip latency measured by periodic pings, the number of
+ * messages queued for delivery to the remote node, the number of reconnections and
+ * the number of messages discarded because the queue towards the remote node was full.</p>
+ * <p>Message sizes are those of the JSON exchanged with the remote node, and messages
+ * coalesced by {@link Oort#setBatchForwardingEnabled(boolean) batch forwarding} are
+ * counted as a single message on {@link Oort#OORT_BATCH_CHANNEL}.</p>
+ * <p>A slow remote node can be detected by a growing queue size and round-trip latency.</p>
+ *
+ * @see Oort#setMetricsEnabled(boolean)
+ * @see Oort#getCometMetrics(String)
+ */
+public class OortCometMetrics {
+    private final ConcurrentMap<String, ChannelMetrics> sent = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ChannelMetrics> received = new ConcurrentHashMap<>();
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong roundTripNanos = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong queueOverflows = new AtomicLong();
+    private final Oort oort;
+    private final String oortURL;
+    private final Logger logger;
+    private volatile long lastRoundTripNanos;
+    private volatile ServerSession session;
+
+    OortCometMetrics(Oort oort, String oortURL) {
+        this.oort = oort;
+        this.oortURL = oortURL;
+        this.logger = LoggerFactory.getLogger(getClass().getName() + "." + Oort.replacePunctuation(oort.getURL(), '_'));
+    }
+
+    /**
+     * @return the URL of the remote Oort node
+     */
+    public String getOortURL() {
+        return oortURL;
+    }
+
+    /**
+     * @return the number of messages sent to the remote node
+     */
+    public long getMessagesSent() {
+        return sumMessages(sent);
+    }
+
+    /**
+     * @return the number of bytes sent to the remote node
+     */
+    public long getBytesSent() {
+        return sumBytes(sent);
+    }
+
+    /**
+     * @return the number of messages received from the remote node
+     */
+    public long getMessagesReceived() {
+        return sumMessages(received);
+    }
+
+    /**
+     * @return the number of bytes received from the remote node
+     */
+    public long getBytesReceived() {
+        return sumBytes(received);
+    }
+
+    /**
+     * @param channel the channel name
+     * @return the number of messages sent to the remote node on the given channel
+     */
+    public long getMessagesSent(String channel) {
+        ChannelMetrics metrics = sent.get(channel);
+        return metrics == null ? 0 : metrics.messages.get();
+    }
+
+    /**
+     * @param channel the channel name
+     * @return the number of messages received from the remote node on the given channel
+     */
+    public long getMessagesReceived(String channel) {
+        ChannelMetrics metrics = received.get(channel);
+        return metrics == null ? 0 : metrics.messages.get();
+    }
+
+    /**
+     * @return the last round-trip latency to the remote node, in milliseconds, or -1 if unknown
+     */
+    public long getLastRoundTrip() {
+        long nanos = lastRoundTripNanos;
+        return roundTrips.get() == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * @return the average round-trip latency to the remote node, in milliseconds, or -1 if unknown
+     */
+    public long getAverageRoundTrip() {
+        long count = roundTrips.get();
+        return count == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(roundTripNanos.get() / count);
+    }
+
+    /**
+     * @return the number of messages queued for delivery to the remote node
+     */
+    public int getQueueSize() {
+        ServerSession session = this.session;
+        if (session instanceof ServerSessionImpl) {
+            return ((ServerSessionImpl)session).getQueue().size();
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of times the link to the remote node has been re-established
+     */
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    /**
+     * @return the number of messages discarded because the queue towards the remote node was full
+     * @see Oort#setMaxCometQueueSize(int)
+     */
+    public long getQueueOverflows() {
+        return queueOverflows.get();
+    }
+
+    /**
+     * @return a snapshot of these metrics
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new TreeMap<>();
+        result.put("messagesSent", getMessagesSent());
+        result.put("bytesSent", getBytesSent());
+        result.put("messagesReceived", getMessagesReceived());
+        result.put("bytesReceived", getBytesReceived());
+        result.put("lastRoundTrip", getLastRoundTrip());
+        result.put("averageRoundTrip", getAverageRoundTrip());
+        result.put("queueSize", getQueueSize());
+        result.put("reconnects", getReconnects());
+        result.put("queueOverflows", getQueueOverflows());
+        result.put("channelsSent", snapshot(sent));
+        result.put("channelsReceived", snapshot(received));
+        return result;
+    }
+
+    void setServerSession(ServerSession session) {
+        this.session = session;
+    }
+
+    void messageSent(String channel, int bytes) {
+        metrics(sent, channel).add(bytes);
+        for (Listener listener : oort.getMetricsListeners()) {
+            try {
+                listener.onMessageSent(this, channel, bytes);
+            } catch (Throwable x) {
+                logger.info("Exception while invoking listener " + listener, x);
+            }
+        }
+    }
+
+    void messageReceived(String channel, int bytes) {
+        metrics(received, channel).add(bytes);
+        for (Listener listener : oort.getMetricsListeners()) {
+            try {
+                listener.onMessageReceived(this, channel, bytes);
+            } catch (Throwable x) {
+                logger.info("Exception while invoking listener " + listener, x);
+            }
+        }
+    }
+
+    void roundTrip(long nanos) {
+        lastRoundTripNanos = nanos;
+        roundTripNanos.addAndGet(nanos);
+        roundTrips.incrementAndGet();
+        for (Listener listener : oort.getMetricsListeners()) {
+            try {
+                listener.onRoundTrip(this, TimeUnit.NANOSECONDS.toMillis(nanos));
+            } catch (Throwable x) {
+                logger.info("Exception while invoking listener " + listener, x);
+            }
+        }
+    }
+
+    void reconnected() {
+        reconnects.incrementAndGet();
+        for (Listener listener : oort.getMetricsListeners()) {
+            try {
+                listener.onReconnect(this);
+            } catch (Throwable x) {
+                logger.info("Exception while invoking listener " + listener, x);
+            }
+        }
+    }
+
+    void queueOverflowed(String channel, OortComet.OverflowPolicy policy) {
+        queueOverflows.incrementAndGet();
+        for (Listener listener : oort.getMetricsListeners()) {
+            try {
+                listener.onQueueOverflow(this, channel, policy);
+            } catch (Throwable x) {
+                logger.info("Exception while invoking listener " + listener, x);
+            }
+        }
+    }
+
+    private ChannelMetrics metrics(ConcurrentMap<String, ChannelMetrics> map, String channel) {
+        ChannelMetrics result = map.get(channel);
+        if (result == null) {
+            result = new ChannelMetrics();
+            ChannelMetrics existing = map.putIfAbsent(channel, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    private static long sumMessages(Map<String, ChannelMetrics> map) {
+        long result = 0;
+        for (ChannelMetrics metrics : map.values()) {
+            result += metrics.messages.get();
+        }
+        return result;
+    }
+
+    private static long sumBytes(Map<String, ChannelMetrics> map) {
+        long result = 0;
+        for (ChannelMetrics metrics : map.values()) {
+            result += metrics.bytes.get();
+        }
+        return result;
+    }
+
+    private static Map<String, Long> snapshot(Map<String, ChannelMetrics> map) {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, ChannelMetrics> entry : map.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().messages.get());
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), oortURL);
+    }
+
+    private static class ChannelMetrics {
+        private final AtomicLong messages = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private void add(int size) {
+            messages.incrementAndGet();
+            bytes.addAndGet(size);
+        }
+    }
+
+    /**
+     * <p>Listener interface that gets notified of the metrics of the links between
+     * this Oort node and the remote Oort nodes, for example to export them to a
+     * monitoring system.</p>
+     * <p>Methods are invoked in the threads that send and receive messages,
+     * so implementations must be fast and must not block.</p>
+     *
+     * @see Oort#addMetricsListener(Listener)
+     */
+    public interface Listener extends EventListener {
+        /**
+         * @param metrics the metrics of the link
+         * @param channel the channel of the message sent to the remote node
+         * @param bytes   the size of the message, in bytes
+         */
+        public void onMessageSent(OortCometMetrics metrics, String channel, int bytes);
+
+        /**
+         * @param metrics the metrics of the link
+         * @param channel the channel of the message received from the remote node
+         * @param bytes   the size of the message, in bytes
+         */
+        public void onMessageReceived(OortCometMetrics metrics, String channel, int bytes);
+
+        /**
+         * @param metrics   the metrics of the link
+         * @param roundTrip the round-trip latency of a ping, in milliseconds
+         */
+        public void onRoundTrip(OortCometMetrics metrics, long roundTrip);
+
+        /**
+         * @param metrics the metrics of the link that has been re-established
+         */
+        public void onReconnect(OortCometMetrics metrics);
+
+        /**
+         * @param metrics the metrics of the link
+         * @param channel the channel of the message discarded
+         * @param policy  the overflow policy that discarded the message
+         */
+        public void onQueueOverflow(OortCometMetrics metrics, String channel, OortComet.OverflowPolicy policy);
+
+        /**
+         * Empty implementation of {@link Listener}
+         */
+        public static class Adapter implements Listener {
+            @Override
+            public void onMessageSent(OortCometMetrics metrics, String channel, int bytes) {
+            }
+
+            @Override
+            public void onMessageReceived(OortCometMetrics metrics, String channel, int bytes) {
+            }
+
+            @Override
+            public void onRoundTrip(OortCometMetrics metrics, long roundTrip) {
+            }
+
+            @Override
+            public void onReconnect(OortCometMetrics metrics) {
+            }
+
+            @Override
+            public void onQueueOverflow(OortCometMetrics metrics, String channel, OortComet.OverflowPolicy policy) {
+            }
+        }
+    }
+}
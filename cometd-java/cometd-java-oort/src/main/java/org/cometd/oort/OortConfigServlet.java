@@ -15,6 +15,7 @@
  */
 package org.cometd.oort;
 
+import java.util.Locale;
 import java.util.Map;
 
 import javax.servlet.ServletConfig;
@@ -56,6 +57,23 @@ public abstract class OortConfigServlet extends HttpServlet {
     public static final String OORT_ENABLE_ACK_EXTENSION_PARAM = "enableAckExtension";
     public static final String OORT_ENABLE_BINARY_EXTENSION_PARAM = "enableBinaryExtension";
     public static final String OORT_JSON_CONTEXT_PARAM = "jsonContext";
+    public static final String OORT_ENABLE_INTEREST_ROUTING_PARAM = "enableInterestRouting";
+    public static final String OORT_ENABLE_BATCH_FORWARDING_PARAM = "enableBatchForwarding";
+    public static final String OORT_MAX_BATCH_DELAY_PARAM = "maxBatchDelay";
+    public static final String OORT_MAX_BATCH_BYTES_PARAM = "maxBatchBytes";
+    public static final String OORT_ENABLE_CODEC_PARAM = "enableCodec";
+    public static final String OORT_ZONE_PARAM = "oort.zone";
+    public static final String OORT_GATEWAY_PARAM = "oort.gateway";
+    public static final String OORT_ENABLE_METRICS_PARAM = "enableMetrics";
+    public static final String OORT_PING_INTERVAL_PARAM = "pingInterval";
+    public static final String OORT_ENABLE_FAILURE_DETECTION_PARAM = "enableFailureDetection";
+    public static final String OORT_HEARTBEAT_INTERVAL_PARAM = "heartbeatInterval";
+    public static final String OORT_ACCEPTABLE_HEARTBEAT_PAUSE_PARAM = "acceptableHeartbeatPause";
+    public static final String OORT_PHI_SUSPECT_THRESHOLD_PARAM = "phiSuspectThreshold";
+    public static final String OORT_PHI_FAILURE_THRESHOLD_PARAM = "phiFailureThreshold";
+    public static final String OORT_MAX_COMET_QUEUE_SIZE_PARAM = "maxCometQueueSize";
+    public static final String OORT_COMET_QUEUE_OVERFLOW_POLICY_PARAM = "cometQueueOverflowPolicy";
+    public static final String OORT_COMET_QUEUE_BLOCK_TIMEOUT_PARAM = "cometQueueBlockTimeout";
     protected static final Logger LOG = LoggerFactory.getLogger(OortConfigServlet.class);
 
     @Override
@@ -93,6 +111,91 @@ public abstract class OortConfigServlet extends HttpServlet {
             }
             oort.setBinaryExtensionEnabled(Boolean.parseBoolean(enableBinaryExtension));
 
+            String enableInterestRouting = config.getInitParameter(OORT_ENABLE_INTEREST_ROUTING_PARAM);
+            if (enableInterestRouting != null) {
+                oort.setInterestRoutingEnabled(Boolean.parseBoolean(enableInterestRouting));
+            }
+
+            String enableBatchForwarding = config.getInitParameter(OORT_ENABLE_BATCH_FORWARDING_PARAM);
+            if (enableBatchForwarding != null) {
+                oort.setBatchForwardingEnabled(Boolean.parseBoolean(enableBatchForwarding));
+            }
+
+            String maxBatchDelay = config.getInitParameter(OORT_MAX_BATCH_DELAY_PARAM);
+            if (maxBatchDelay != null) {
+                oort.setMaxBatchDelay(Long.parseLong(maxBatchDelay));
+            }
+
+            String maxBatchBytes = config.getInitParameter(OORT_MAX_BATCH_BYTES_PARAM);
+            if (maxBatchBytes != null) {
+                oort.setMaxBatchBytes(Integer.parseInt(maxBatchBytes));
+            }
+
+            String enableCodec = config.getInitParameter(OORT_ENABLE_CODEC_PARAM);
+            if (enableCodec != null) {
+                oort.setCodecEnabled(Boolean.parseBoolean(enableCodec));
+            }
+
+            String zone = config.getInitParameter(OORT_ZONE_PARAM);
+            if (zone != null) {
+                oort.setZone(zone);
+            }
+
+            String gateway = config.getInitParameter(OORT_GATEWAY_PARAM);
+            if (gateway != null) {
+                oort.setGateway(Boolean.parseBoolean(gateway));
+            }
+
+            String enableMetrics = config.getInitParameter(OORT_ENABLE_METRICS_PARAM);
+            if (enableMetrics != null) {
+                oort.setMetricsEnabled(Boolean.parseBoolean(enableMetrics));
+            }
+
+            String pingInterval = config.getInitParameter(OORT_PING_INTERVAL_PARAM);
+            if (pingInterval != null) {
+                oort.setPingInterval(Long.parseLong(pingInterval));
+            }
+
+            String enableFailureDetection = config.getInitParameter(OORT_ENABLE_FAILURE_DETECTION_PARAM);
+            if (enableFailureDetection != null) {
+                oort.setFailureDetectionEnabled(Boolean.parseBoolean(enableFailureDetection));
+            }
+
+            String heartbeatInterval = config.getInitParameter(OORT_HEARTBEAT_INTERVAL_PARAM);
+            if (heartbeatInterval != null) {
+                oort.setHeartbeatInterval(Long.parseLong(heartbeatInterval));
+            }
+
+            String acceptableHeartbeatPause = config.getInitParameter(OORT_ACCEPTABLE_HEARTBEAT_PAUSE_PARAM);
+            if (acceptableHeartbeatPause != null) {
+                oort.setAcceptableHeartbeatPause(Long.parseLong(acceptableHeartbeatPause));
+            }
+
+            String phiSuspectThreshold = config.getInitParameter(OORT_PHI_SUSPECT_THRESHOLD_PARAM);
+            if (phiSuspectThreshold != null) {
+                oort.setPhiSuspectThreshold(Double.parseDouble(phiSuspectThreshold));
+            }
+
+            String phiFailureThreshold = config.getInitParameter(OORT_PHI_FAILURE_THRESHOLD_PARAM);
+            if (phiFailureThreshold != null) {
+                oort.setPhiFailureThreshold(Double.parseDouble(phiFailureThreshold));
+            }
+
+            String maxCometQueueSize = config.getInitParameter(OORT_MAX_COMET_QUEUE_SIZE_PARAM);
+            if (maxCometQueueSize != null) {
+                oort.setMaxCometQueueSize(Integer.parseInt(maxCometQueueSize));
+            }
+
+            String cometQueueOverflowPolicy = config.getInitParameter(OORT_COMET_QUEUE_OVERFLOW_POLICY_PARAM);
+            if (cometQueueOverflowPolicy != null) {
+                oort.setCometQueueOverflowPolicy(OortComet.OverflowPolicy.valueOf(cometQueueOverflowPolicy.trim().toUpperCase(Locale.ENGLISH)));
+            }
+
+            String cometQueueBlockTimeout = config.getInitParameter(OORT_COMET_QUEUE_BLOCK_TIMEOUT_PARAM);
+            if (cometQueueBlockTimeout != null) {
+                oort.setCometQueueBlockTimeout(Long.parseLong(cometQueueBlockTimeout));
+            }
+
             String jsonContext = config.getInitParameter(OORT_JSON_CONTEXT_PARAM);
             if (jsonContext != null) {
                 oort.setJSONContextClient((JSONContext.Client)getClass().getClassLoader().loadClass(jsonContext).newInstance());
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Detects the failure of remote nodes with the phi-accrual algorithm.</p>
+ * <p>Every {@link Oort#getHeartbeatInterval() heartbeat interval} each connected remote
+ * node is pinged via {@link Oort#OORT_PING_CHANNEL}, and the arrival times of the
+ * replies are recorded, starting from when the remote node joined, so that a remote
+ * node that never replies is detected as well. From the distribution of the intervals
+ * between replies, the suspicion level phi that a remote node has failed is computed;
+ * phi grows continuously as the time since the last reply grows.</p>
+ * <p>When phi exceeds the {@link Oort#getPhiSuspectThreshold() suspect threshold} the
+ * remote node is suspected; when phi exceeds the {@link Oort#getPhiFailureThreshold()
+ * failure threshold} the remote node is considered failed, and its session is disconnected,
+ * which emits the "comet left" event without waiting for the session to expire.
+ * If the remote node was alive, it will connect again and join the cloud again.</p>
+ */
+class OortFailureDetector extends AbstractLifeCycle implements Runnable, Oort.CometListener {
+    private static final int MAX_SAMPLES = 100;
+
+    private final ConcurrentMap<String, History> histories = new ConcurrentHashMap<>();
+    private final Set<String> suspected = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Oort oort;
+    private final Logger logger;
+    private ScheduledFuture<?> task;
+
+    OortFailureDetector(Oort oort) {
+        this.oort = oort;
+        this.logger = LoggerFactory.getLogger(getClass().getName() + "." + Oort.replacePunctuation(oort.getURL(), '_'));
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        oort.addCometListener(this);
+        long now = System.nanoTime();
+        for (String oortURL : oort.getKnownComets()) {
+            histories.putIfAbsent(oortURL, new History(now));
+        }
+        long interval = oort.getHeartbeatInterval();
+        task = oort.getScheduler().scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        task.cancel(false);
+        oort.removeCometListener(this);
+        histories.clear();
+        suspected.clear();
+    }
+
+    Set<String> getSuspected() {
+        return new HashSet<>(suspected);
+    }
+
+    double phi(String oortURL) {
+        History history = histories.get(oortURL);
+        return history == null ? 0 : history.phi(System.nanoTime());
+    }
+
+    @Override
+    public void run() {
+        try {
+            detect(System.nanoTime());
+        } catch (Throwable x) {
+            // Do not let the exception cancel the periodic task.
+            logger.info("Exception while detecting failures", x);
+        }
+    }
+
+    private void detect(long now) {
+        for (String oortURL : oort.getKnownComets()) {
+            OortComet comet = oort.getComet(oortURL);
+            if (comet != null && comet.isConnected()) {
+                comet.getChannel(Oort.OORT_PING_CHANNEL).publish(now, new HeartbeatCallback(oortURL));
+            }
+
+            History history = histories.get(oortURL);
+            if (history == null) {
+                // Not joined yet.
+                continue;
+            }
+
+            double phi = history.phi(now);
+            if (phi >= oort.getPhiFailureThreshold()) {
+                histories.remove(oortURL, history);
+                suspected.remove(oortURL);
+                logger.info("Comet {} failed, phi={}", oortURL, phi);
+                oort.disconnectComet(oortURL);
+            } else if (phi >= oort.getPhiSuspectThreshold()) {
+                if (suspected.add(oortURL)) {
+                    logger.info("Comet {} suspected, phi={}", oortURL, phi);
+                }
+            } else {
+                if (suspected.remove(oortURL)) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Comet {} not suspected anymore, phi={}", oortURL, phi);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void cometJoined(Event event) {
+        histories.put(event.getCometURL(), new History(System.nanoTime()));
+    }
+
+    @Override
+    public void cometLeft(Event event) {
+        histories.remove(event.getCometURL());
+        suspected.remove(event.getCometURL());
+    }
+
+    private class HeartbeatCallback implements ClientSessionChannel.MessageListener {
+        private final String oortURL;
+
+        private HeartbeatCallback(String oortURL) {
+            this.oortURL = oortURL;
+        }
+
+        @Override
+        public void onMessage(ClientSessionChannel channel, Message message) {
+            if (message.isSuccessful()) {
+                // The history is null if the remote node left.
+                History history = histories.get(oortURL);
+                if (history != null) {
+                    history.heartbeat(System.nanoTime());
+                }
+            }
+        }
+    }
+
+    private class History {
+        private final double[] intervals = new double[MAX_SAMPLES];
+        private int index;
+        private int count;
+        private double sum;
+        private double sumSquares;
+        private long last;
+        private boolean replied;
+
+        private History(long start) {
+            // The time the remote node joined counts as the last heartbeat,
+            // but not as the start of an interval between heartbeats.
+            this.last = start;
+        }
+
+        private synchronized void heartbeat(long now) {
+            if (replied) {
+                double interval = TimeUnit.NANOSECONDS.toMillis(now - last);
+                if (count == MAX_SAMPLES) {
+                    double oldest = intervals[index];
+                    sum -= oldest;
+                    sumSquares -= oldest * oldest;
+                } else {
+                    ++count;
+                }
+                intervals[index] = interval;
+                index = (index + 1) % MAX_SAMPLES;
+                sum += interval;
+                sumSquares += interval * interval;
+            }
+            replied = true;
+            last = now;
+        }
+
+        private synchronized double phi(long now) {
+            double heartbeatInterval = oort.getHeartbeatInterval();
+            double mean;
+            double variance;
+            if (count == 0) {
+                // Bootstrap the distribution from the expected interval.
+                mean = heartbeatInterval;
+                variance = (heartbeatInterval / 4) * (heartbeatInterval / 4);
+            } else {
+                mean = sum / count;
+                variance = sumSquares / count - mean * mean;
+            }
+            mean += oort.getAcceptableHeartbeatPause();
+            double stdDev = Math.max(Math.sqrt(Math.max(variance, 0)), heartbeatInterval / 10);
+            double elapsed = TimeUnit.NANOSECONDS.toMillis(now - last);
+            // Logistic approximation of the cumulative normal distribution.
+            double y = (elapsed - mean) / stdDev;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (elapsed > mean) {
+                return -Math.log10(e / (1 + e));
+            } else {
+                return -Math.log10(1 - 1 / (1 + e));
+            }
+        }
+    }
+}
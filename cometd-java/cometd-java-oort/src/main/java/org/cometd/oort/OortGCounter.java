@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>A grow-only counter (G-Counter) replicated across the nodes of the cluster.</p>
+ * <p>Each node increments its own count locally and without coordination;
+ * the value of the counter is the sum of the counts of all the nodes that
+ * ever contributed, including nodes that left the cluster.</p>
+ * <p>Where {@link OortLong} loses the contribution of a node when it leaves
+ * the cluster, and {@link OortMasterLong} requires a message round-trip to the
+ * "master" node for every operation, this class increments with local latency
+ * and the value converges eventually on all nodes.</p>
+ *
+ * @see OortPNCounter
+ */
+public class OortGCounter extends OortCRDT {
+    private static final String COUNTS_FIELD = "p";
+
+    private final Map<String, Long> counts = new HashMap<>();
+
+    /**
+     * @param oort the oort this instance is associated to
+     * @param name the name of this counter
+     */
+    public OortGCounter(Oort oort, String name) {
+        super(oort, name);
+    }
+
+    /**
+     * @return the value of the counter, as known by this node
+     */
+    public long get() {
+        synchronized (getLock()) {
+            return sum(counts);
+        }
+    }
+
+    /**
+     * @param delta the non-negative amount to add
+     * @return the value of the counter after the addition, as known by this node
+     * @throws IllegalArgumentException if {@code delta} is negative
+     */
+    public long addAndGet(long delta) {
+        if (delta < 0) {
+            throw new IllegalArgumentException("Negative delta " + delta);
+        }
+        synchronized (getLock()) {
+            String replicaId = getReplicaId();
+            Long current = counts.get(replicaId);
+            counts.put(replicaId, current == null ? delta : current + delta);
+            share();
+            return sum(counts);
+        }
+    }
+
+    /**
+     * @return the value of the counter after the increment, as known by this node
+     */
+    public long incrementAndGet() {
+        return addAndGet(1);
+    }
+
+    @Override
+    protected Map<String, Object> serialize() {
+        Map<String, Object> result = new HashMap<>(1);
+        result.put(COUNTS_FIELD, new HashMap<>(counts));
+        return result;
+    }
+
+    @Override
+    protected boolean merge(Map<String, Object> remote) {
+        return mergeMax(counts, remote.get(COUNTS_FIELD));
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cometd.bayeux.ChannelId;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ConfigurableServerChannel;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Implements interest-based routing of messages published on observed channels.</p>
+ * <p>Each node advertises to the other nodes, via {@link Oort#OORT_INTEREST_CHANNEL},
+ * which of its observed channels have local interest, that is local subscribers
+ * that are not Oort sessions, or server-side channel message listeners.
+ * The first advertisement sent to a node is a full snapshot, while the following
+ * advertisements only carry the observed channels whose interest changed.</p>
+ * <p>A filter is installed on the session of each remote node, and the advertisements
+ * received from that node update the filter, so that messages published on observed
+ * channels are forwarded to that node only if it has interest for them.
+ * Until a node has advertised its interest, for example while it is joining the
+ * cloud, all messages are forwarded to it.</p>
+ * <p>Gateway nodes are always interested in all observed channels, since they
+ * relay messages to the other zones.</p>
+ * <p>Server-side channel message listeners must be added to observed channels
+ * before the channels are observed, because adding channel listeners does not
+ * trigger the re-advertisement of the interest.</p>
+ * <p>The interest is computed while holding a lock, but the advertisements are
+ * published, in the order they have been computed, after the lock is released.</p>
+ */
+class OortInterest extends AbstractLifeCycle {
+    private static final String FULL_FIELD = "full";
+    private static final String CHANNELS_FIELD = "channels";
+    private static final String FILTER_ATTRIBUTE = Oort.EXT_OORT_FIELD + ".interest";
+
+    private final Map<String, Boolean> interests = new HashMap<>();
+    private final Map<String, Set<String>> wildInterests = new HashMap<>();
+    private final Queue<Advertisement> advertisements = new ArrayDeque<>();
+    private final BayeuxServer.SubscriptionListener subscriptionListener = new SubscriptionListener();
+    private final Oort.CometListener cometListener = new CometListener();
+    private final ConfigurableServerChannel.ServerChannelListener advertisementListener = new AdvertisementListener();
+    private final Object lock = this;
+    private final Oort oort;
+    private final Logger logger;
+    private boolean advertising;
+
+    OortInterest(Oort oort) {
+        this.oort = oort;
+        this.logger = LoggerFactory.getLogger(getClass().getName() + "." + Oort.replacePunctuation(oort.getURL(), '_'));
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        BayeuxServer bayeuxServer = oort.getBayeuxServer();
+        bayeuxServer.addListener(subscriptionListener);
+        oort.addCometListener(cometListener);
+        bayeuxServer.createChannelIfAbsent(Oort.OORT_INTEREST_CHANNEL).getReference().addListener(advertisementListener);
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        BayeuxServer bayeuxServer = oort.getBayeuxServer();
+        ServerChannel channel = bayeuxServer.getChannel(Oort.OORT_INTEREST_CHANNEL);
+        if (channel != null) {
+            channel.removeListener(advertisementListener);
+        }
+        oort.removeCometListener(cometListener);
+        bayeuxServer.removeListener(subscriptionListener);
+        synchronized (lock) {
+            interests.clear();
+            wildInterests.clear();
+            advertisements.clear();
+        }
+    }
+
+    /**
+     * <p>Recomputes the interest for all observed channels, advertising the changes.</p>
+     */
+    void observedChannelsChanged() {
+        if (!isRunning()) {
+            return;
+        }
+        Set<String> observedChannels = oort.getObservedChannels();
+        synchronized (lock) {
+            interests.keySet().retainAll(observedChannels);
+            wildInterests.keySet().retainAll(observedChannels);
+            Map<String, Boolean> changes = new HashMap<>();
+            for (String observedChannel : observedChannels) {
+                update(observedChannel, changes);
+            }
+            enqueue(null, false, changes);
+        }
+        advertise();
+    }
+
+    private void channelChanged(ChannelId channelId) {
+        Set<String> observedChannels = oort.getObservedChannels();
+        synchronized (lock) {
+            Map<String, Boolean> changes = new HashMap<>();
+            for (String observedChannel : observedChannels) {
+                ChannelId observedChannelId = new ChannelId(observedChannel);
+                if (overlaps(observedChannelId, channelId)) {
+                    if (observedChannelId.isWild() && wildInterests.containsKey(observedChannel)) {
+                        // Only look at the channel that changed, rather than at all channels.
+                        Set<String> channels = wildInterests.get(observedChannel);
+                        if (hasLocalInterest(observedChannelId, channelId)) {
+                            channels.add(channelId.getId());
+                        } else {
+                            channels.remove(channelId.getId());
+                        }
+                        record(observedChannel, isGateway() || !channels.isEmpty(), changes);
+                    } else {
+                        update(observedChannel, changes);
+                    }
+                }
+            }
+            enqueue(null, false, changes);
+        }
+        advertise();
+    }
+
+    private void update(String observedChannel, Map<String, Boolean> changes) {
+        ChannelId observedChannelId = new ChannelId(observedChannel);
+        boolean interest;
+        if (observedChannelId.isWild()) {
+            // Scan all channels only the first time, then track the changes.
+            Set<String> channels = new HashSet<>();
+            for (ServerChannel channel : oort.getBayeuxServer().getChannels()) {
+                ChannelId channelId = channel.getChannelId();
+                if (overlaps(observedChannelId, channelId) && hasLocalInterest(observedChannelId, channelId)) {
+                    channels.add(channelId.getId());
+                }
+            }
+            wildInterests.put(observedChannel, channels);
+            interest = isGateway() || !channels.isEmpty();
+        } else {
+            interest = isGateway() || isInterested(observedChannelId);
+        }
+        record(observedChannel, interest, changes);
+    }
+
+    private void record(String observedChannel, boolean interest, Map<String, Boolean> changes) {
+        Boolean existing = interests.put(observedChannel, interest);
+        if (existing == null || existing != interest) {
+            changes.put(observedChannel, interest);
+        }
+    }
+
+    private void enqueue(String cometURL, boolean full, Map<String, Boolean> channels) {
+        if (full || !channels.isEmpty()) {
+            advertisements.offer(new Advertisement(cometURL, full, channels));
+        }
+    }
+
+    private void advertise() {
+        synchronized (lock) {
+            // Another thread is publishing the advertisements in order.
+            if (advertising) {
+                return;
+            }
+            advertising = true;
+        }
+        while (true) {
+            Advertisement advertisement;
+            synchronized (lock) {
+                advertisement = advertisements.poll();
+                if (advertisement == null) {
+                    advertising = false;
+                    return;
+                }
+            }
+            try {
+                advertisement.publish();
+            } catch (Throwable x) {
+                logger.info("Could not advertise interest " + advertisement, x);
+            }
+        }
+    }
+
+    private boolean isGateway() {
+        // Gateways relay messages to other zones, so they are always interested.
+        return oort.getZone() != null && oort.isGateway();
+    }
+
+    private boolean isInterested(ChannelId observedChannel) {
+        BayeuxServer bayeuxServer = oort.getBayeuxServer();
+        for (String wild : observedChannel.getWilds()) {
+            ServerChannel channel = bayeuxServer.getChannel(wild);
+            if (channel != null && hasLocalSubscribers(channel)) {
+                return true;
+            }
+        }
+        ServerChannel channel = bayeuxServer.getChannel(observedChannel.getId());
+        return channel != null && (hasLocalSubscribers(channel) || hasMessageListeners(channel));
+    }
+
+    private boolean hasLocalInterest(ChannelId observedChannel, ChannelId channelId) {
+        ServerChannel channel = oort.getBayeuxServer().getChannel(channelId.getId());
+        if (channel == null) {
+            return false;
+        }
+        return hasLocalSubscribers(channel) || observedChannel.equals(channelId) && hasMessageListeners(channel);
+    }
+
+    private boolean hasLocalSubscribers(ServerChannel channel) {
+        for (ServerSession session : channel.getSubscribers()) {
+            if (!oort.isOort(session)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasMessageListeners(ServerChannel channel) {
+        for (ConfigurableServerChannel.ServerChannelListener listener : channel.getListeners()) {
+            if (listener instanceof ServerChannel.MessageListener || listener instanceof ServerChannel.AsyncMessageListener) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean overlaps(ChannelId observedChannel, ChannelId channel) {
+        if (observedChannel.equals(channel) || observedChannel.matches(channel) || channel.matches(observedChannel)) {
+            return true;
+        }
+        if (observedChannel.isWild() && channel.isWild()) {
+            // Conservatively consider wild channels with a common root as overlapping.
+            String observedRoot = Objects.toString(observedChannel.getRegularPart(), "");
+            String root = Objects.toString(channel.getRegularPart(), "");
+            return observedRoot.startsWith(root) || root.startsWith(observedRoot);
+        }
+        return false;
+    }
+
+    /**
+     * <p>Installs the interest filter on the session of a remote node, so that
+     * it is applied before the listeners added afterwards are notified.</p>
+     *
+     * @param session the session of a remote Oort comet
+     */
+    void addFilter(ServerSession session) {
+        filterFor(session);
+    }
+
+    private InterestFilter filterFor(ServerSession session) {
+        synchronized (session) {
+            InterestFilter filter = (InterestFilter)session.getAttribute(FILTER_ATTRIBUTE);
+            if (filter == null) {
+                filter = new InterestFilter();
+                session.setAttribute(FILTER_ATTRIBUTE, filter);
+                session.addListener(filter);
+            }
+            return filter;
+        }
+    }
+
+    private class SubscriptionListener implements BayeuxServer.SubscriptionListener {
+        @Override
+        public void subscribed(ServerSession session, ServerChannel channel, ServerMessage message) {
+            if (!oort.isOort(session)) {
+                channelChanged(channel.getChannelId());
+            }
+        }
+
+        @Override
+        public void unsubscribed(ServerSession session, ServerChannel channel, ServerMessage message) {
+            if (!oort.isOort(session)) {
+                channelChanged(channel.getChannelId());
+            }
+        }
+    }
+
+    private class CometListener extends Oort.CometListener.Adapter {
+        @Override
+        public void cometJoined(Event event) {
+            String cometURL = event.getCometURL();
+            if (oort.getComet(cometURL) == null) {
+                return;
+            }
+            Set<String> observedChannels = oort.getObservedChannels();
+            synchronized (lock) {
+                Map<String, Boolean> changes = new HashMap<>();
+                Map<String, Boolean> snapshot = new HashMap<>();
+                for (String observedChannel : observedChannels) {
+                    if (!interests.containsKey(observedChannel)) {
+                        update(observedChannel, changes);
+                    }
+                    snapshot.put(observedChannel, interests.get(observedChannel));
+                }
+                enqueue(null, false, changes);
+                enqueue(cometURL, true, snapshot);
+            }
+            advertise();
+        }
+    }
+
+    private class AdvertisementListener implements ServerChannel.MessageListener {
+        @Override
+        public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
+            // Only accept advertisements from other nodes.
+            if (from == null || from.getAttribute(Oort.COMET_URL_ATTRIBUTE) == null) {
+                return false;
+            }
+            Map<String, Object> data = message.getDataAsMap();
+            if (data == null) {
+                return false;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> channels = (Map<String, Object>)data.get(CHANNELS_FIELD);
+            if (channels == null) {
+                return false;
+            }
+            boolean full = Boolean.TRUE.equals(data.get(FULL_FIELD));
+
+            InterestFilter filter = filterFor(from);
+            filter.update(full, channels);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Updated interest of {}: {}", from.getAttribute(Oort.COMET_URL_ATTRIBUTE), filter);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * <p>An advertisement to publish to a remote node, or to all the known
+     * remote nodes if the comet URL is null.</p>
+     */
+    private class Advertisement {
+        private final String cometURL;
+        private final boolean full;
+        private final Map<String, Boolean> channels;
+
+        private Advertisement(String cometURL, boolean full, Map<String, Boolean> channels) {
+            this.cometURL = cometURL;
+            this.full = full;
+            this.channels = channels;
+        }
+
+        private void publish() {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Advertising interest {}", this);
+            }
+            if (cometURL == null) {
+                for (String url : oort.getKnownComets()) {
+                    publish(oort.getComet(url));
+                }
+            } else {
+                publish(oort.getComet(cometURL));
+            }
+        }
+
+        private void publish(OortComet oortComet) {
+            if (oortComet == null) {
+                return;
+            }
+            Map<String, Object> data = new HashMap<>(2);
+            data.put(FULL_FIELD, full);
+            data.put(CHANNELS_FIELD, new HashMap<>(channels));
+            oortComet.getChannel(Oort.OORT_INTEREST_CHANNEL).publish(data);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s%s to %s", full ? "snapshot " : "", channels, cometURL == null ? "all" : cometURL);
+        }
+    }
+
+    private class InterestFilter implements ServerSession.MessageListener {
+        private final Map<String, Boolean> channels = new ConcurrentHashMap<>();
+
+        private void update(boolean full, Map<String, Object> update) {
+            if (full) {
+                List<String> stale = new ArrayList<>(channels.keySet());
+                stale.removeAll(update.keySet());
+                channels.keySet().removeAll(stale);
+            }
+            for (Map.Entry<String, Object> entry : update.entrySet()) {
+                channels.put(entry.getKey(), Boolean.TRUE.equals(entry.getValue()));
+            }
+        }
+
+        @Override
+        public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+            // The remote node has not advertised its interest yet.
+            if (channels.isEmpty()) {
+                return true;
+            }
+            ChannelId channelId = message.getChannelId();
+            if (!channelId.isBroadcast()) {
+                return true;
+            }
+            Boolean interest = channels.get(channelId.getId());
+            if (Boolean.TRUE.equals(interest)) {
+                return true;
+            }
+            boolean known = interest != null;
+            for (String wild : channelId.getWilds()) {
+                interest = channels.get(wild);
+                if (Boolean.TRUE.equals(interest)) {
+                    return true;
+                }
+                known |= interest != null;
+            }
+            // Forward messages for channels whose interest is unknown.
+            if (known && logger.isDebugEnabled()) {
+                logger.debug("No interest for {} in {}", message, session);
+            }
+            return !known;
+        }
+
+        @Override
+        public String toString() {
+            return channels.toString();
+        }
+    }
+}
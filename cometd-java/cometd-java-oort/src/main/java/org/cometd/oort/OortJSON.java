@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Helper methods to convert the JSON representations of the data
+ * exchanged by Oort nodes, where arrays may be deserialized either as
+ * Java arrays or as collections, depending on the JSON library.</p>
+ */
+class OortJSON {
+    private OortJSON() {
+    }
+
+    /**
+     * @param object the JSON representation of an array
+     * @return the array elements as a collection
+     */
+    static Collection<?> toCollection(Object object) {
+        if (object instanceof Object[]) {
+            return Arrays.asList((Object[])object);
+        }
+        if (object instanceof Collection) {
+            return (Collection<?>)object;
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param object the JSON representation of an object
+     * @return the object as a map
+     */
+    static Map<?, ?> toMap(Object object) {
+        if (object instanceof Map) {
+            return (Map<?, ?>)object;
+        }
+        return new HashMap<>();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>A last-writer-wins map (LWW-Map) replicated across the nodes of the cluster.</p>
+ * <p>Every update of an entry is timestamped; when entries with the same key
+ * are merged, the entry with the greater timestamp wins, and ties are broken
+ * with the replica ID of the node that performed the update.</p>
+ * <p>Timestamps are taken from a hybrid clock that follows the wall clock,
+ * but that never goes backwards and that is always greater than the timestamps
+ * received from other nodes, so that local updates win over the updates that
+ * have been observed by this node.</p>
+ * <p>Values are transmitted to other nodes in JSON format, so they must be
+ * convertible to JSON.</p>
+ * <p>Removed entries are retained as tombstones, so that removals are not undone
+ * by the merge of states that were produced before the removal.</p>
+ *
+ * @param <V> the value type
+ */
+public class OortLWWMap<V> extends OortCRDT {
+    private static final String VALUE_FIELD = "v";
+    private static final String TIMESTAMP_FIELD = "t";
+    private static final String REPLICA_FIELD = "r";
+    private static final String REMOVED_FIELD = "d";
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long clock;
+
+    /**
+     * @param oort the oort this instance is associated to
+     * @param name the name of this map
+     */
+    public OortLWWMap(Oort oort, String name) {
+        super(oort, name);
+    }
+
+    /**
+     * @param key the key to retrieve the value for
+     * @return the value associated with the key, as known by this node
+     */
+    @SuppressWarnings("unchecked")
+    public V get(String key) {
+        synchronized (getLock()) {
+            Entry entry = entries.get(key);
+            return entry == null || entry.removed ? null : (V)entry.value;
+        }
+    }
+
+    /**
+     * @param key   the key to associate the value to
+     * @param value the value to associate
+     * @return the value previously associated with the key, as known by this node
+     */
+    public V put(String key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        return update(key, value, false);
+    }
+
+    /**
+     * @param key the key to remove
+     * @return the value previously associated with the key, as known by this node
+     */
+    public V remove(String key) {
+        return update(key, null, true);
+    }
+
+    /**
+     * @return the number of entries of this map, as known by this node
+     */
+    public int size() {
+        synchronized (getLock()) {
+            return getEntries().size();
+        }
+    }
+
+    /**
+     * @return a snapshot of the entries of this map, as known by this node
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, V> getEntries() {
+        synchronized (getLock()) {
+            Map<String, V> result = new HashMap<>();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry value = entry.getValue();
+                if (!value.removed) {
+                    result.put(entry.getKey(), (V)value.value);
+                }
+            }
+            return result;
+        }
+    }
+
+    private V update(String key, V value, boolean removed) {
+        synchronized (getLock()) {
+            clock = Math.max(clock + 1, System.currentTimeMillis());
+            Entry entry = new Entry(value, clock, getReplicaId(), removed);
+            Entry existing = entries.put(key, entry);
+            share();
+            @SuppressWarnings("unchecked")
+            V result = existing == null || existing.removed ? null : (V)existing.value;
+            return result;
+        }
+    }
+
+    @Override
+    protected Map<String, Object> serialize() {
+        Map<String, Object> result = new HashMap<>(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            Map<String, Object> item = new HashMap<>(4);
+            if (!value.removed) {
+                item.put(VALUE_FIELD, value.value);
+            }
+            item.put(TIMESTAMP_FIELD, value.timestamp);
+            item.put(REPLICA_FIELD, value.replica);
+            item.put(REMOVED_FIELD, value.removed);
+            result.put(entry.getKey(), item);
+        }
+        return result;
+    }
+
+    @Override
+    protected boolean merge(Map<String, Object> remote) {
+        boolean result = false;
+        for (Map.Entry<String, Object> entry : remote.entrySet()) {
+            Map<?, ?> item = OortJSON.toMap(entry.getValue());
+            long timestamp = ((Number)item.get(TIMESTAMP_FIELD)).longValue();
+            String replica = (String)item.get(REPLICA_FIELD);
+            boolean removed = Boolean.TRUE.equals(item.get(REMOVED_FIELD));
+            Entry remoteEntry = new Entry(item.get(VALUE_FIELD), timestamp, replica, removed);
+            clock = Math.max(clock, timestamp);
+            String key = entry.getKey();
+            Entry localEntry = entries.get(key);
+            if (localEntry == null || remoteEntry.wins(localEntry)) {
+                entries.put(key, remoteEntry);
+                result = true;
+            }
+        }
+        return result;
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long timestamp;
+        private final String replica;
+        private final boolean removed;
+
+        private Entry(Object value, long timestamp, String replica, boolean removed) {
+            this.value = value;
+            this.timestamp = timestamp;
+            this.replica = replica;
+            this.removed = removed;
+        }
+
+        private boolean wins(Entry other) {
+            if (timestamp != other.timestamp) {
+                return timestamp > other.timestamp;
+            }
+            return replica.compareTo(other.replica) > 0;
+        }
+    }
+}
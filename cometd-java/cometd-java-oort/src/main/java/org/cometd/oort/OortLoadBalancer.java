@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.server.ServerMessageImpl;
+import org.cometd.server.ServerSessionImpl;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Balances the remote clients across the nodes of an Oort cluster.</p>
+ * <p>Every {@link #getUpdateInterval() update interval} each node shares its load
+ * (the number of remote sessions, the number of the messages queued for them and
+ * the CPU load) with the other nodes via an {@link OortObject}.
+ * The bytes of the queued messages are only computed when
+ * {@link #getMaxQueuedBytes() max queued bytes} is greater than zero.</p>
+ * <p>When a remote client handshakes with a node that is more loaded than the least
+ * loaded of the other nodes, the handshake is denied and the reply carries the Bayeux
+ * {@code hosts} advice with the {@link #getClientURL() client URL} of the less loaded
+ * node, along with a {@code reconnect} advice of {@code handshake}, so that the client
+ * handshakes again with that node.</p>
+ * <p>A node is more loaded than another when it is {@link #isSaturated(Map) saturated}
+ * and the other is not, or when it has more sessions than the other node by more than
+ * the {@link #getImbalanceRatio() imbalance ratio}.</p>
+ * <p>Clients that do not honor the {@code hosts} advice handshake again with the same
+ * node, possibly repeatedly until the cluster is balanced.
+ * Connections between Oort nodes are never redirected.</p>
+ */
+public class OortLoadBalancer extends AbstractLifeCycle implements BayeuxServer.Extension, Runnable {
+    public static final String NAME = "oort.load";
+    public static final String URL_FIELD = "url";
+    public static final String SESSIONS_FIELD = "sessions";
+    public static final String QUEUED_MESSAGES_FIELD = "queuedMessages";
+    public static final String QUEUED_BYTES_FIELD = "queuedBytes";
+    public static final String CPU_FIELD = "cpu";
+    private static final String HOSTS_FIELD = "hosts";
+
+    private final ConcurrentMap<String, AtomicLong> redirects = new ConcurrentHashMap<>();
+    private final AtomicLong handshakes = new AtomicLong();
+    private final Oort oort;
+    private final OortObject<Map<String, Object>> loads;
+    private final Logger logger;
+    private String clientURL;
+    private long updateInterval = 1000;
+    private double imbalanceRatio = 0.2;
+    private double maxCPULoad = 0.9;
+    private long maxQueuedBytes;
+    private volatile Map<String, Object> localLoad = Collections.emptyMap();
+    private ScheduledFuture<?> task;
+
+    /**
+     * @param oort the Oort node this load balancer is associated to
+     */
+    public OortLoadBalancer(Oort oort) {
+        this.oort = oort;
+        this.loads = new OortObject<>(oort, NAME, OortObjectFactories.<String, Object>forMap());
+        this.logger = LoggerFactory.getLogger(getClass().getName() + "." + Oort.replacePunctuation(oort.getURL(), '_'));
+        this.clientURL = oort.getURL();
+    }
+
+    /**
+     * @return the Oort node this load balancer is associated to
+     */
+    public Oort getOort() {
+        return oort;
+    }
+
+    /**
+     * @return the URL that remote clients should use to connect to this node,
+     * by default the {@link Oort#getURL() Oort URL}
+     */
+    public String getClientURL() {
+        return clientURL;
+    }
+
+    /**
+     * @param clientURL the URL that remote clients should use to connect to this node,
+     *                  for example when the Oort URL is only reachable within the cluster
+     */
+    public void setClientURL(String clientURL) {
+        this.clientURL = clientURL;
+    }
+
+    /**
+     * @return the period, in milliseconds, of the load updates shared with the other nodes
+     */
+    public long getUpdateInterval() {
+        return updateInterval;
+    }
+
+    /**
+     * @param updateInterval the period, in milliseconds, of the load updates shared with the other nodes
+     */
+    public void setUpdateInterval(long updateInterval) {
+        this.updateInterval = updateInterval;
+    }
+
+    /**
+     * @return the ratio by which the sessions of this node must exceed the sessions
+     * of another node for new clients to be redirected to the other node
+     */
+    public double getImbalanceRatio() {
+        return imbalanceRatio;
+    }
+
+    /**
+     * @param imbalanceRatio the ratio by which the sessions of this node must exceed the
+     *                       sessions of another node for new clients to be redirected
+     */
+    public void setImbalanceRatio(double imbalanceRatio) {
+        this.imbalanceRatio = imbalanceRatio;
+    }
+
+    /**
+     * @return the CPU load, between 0 and 1, above which a node is saturated
+     */
+    public double getMaxCPULoad() {
+        return maxCPULoad;
+    }
+
+    /**
+     * @param maxCPULoad the CPU load, between 0 and 1, above which a node is saturated
+     */
+    public void setMaxCPULoad(double maxCPULoad) {
+        this.maxCPULoad = maxCPULoad;
+    }
+
+    /**
+     * @return the bytes of queued messages above which a node is saturated,
+     * or zero if the queued bytes do not saturate a node
+     */
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    /**
+     * <p>Computing the bytes of the queued messages requires to iterate over every
+     * queued message at every {@link #getUpdateInterval() update interval}, so it is
+     * only performed when this value is greater than zero.</p>
+     *
+     * @param maxQueuedBytes the bytes of queued messages above which a node is saturated,
+     *                       or zero if the queued bytes do not saturate a node
+     */
+    public void setMaxQueuedBytes(long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /**
+     * @return the {@link OortObject} holding the loads of the nodes
+     */
+    public OortObject<Map<String, Object>> getLoads() {
+        return loads;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        loads.start();
+        oort.getBayeuxServer().addExtension(this);
+        run();
+        task = oort.getScheduler().scheduleWithFixedDelay(this, updateInterval, updateInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        task.cancel(false);
+        oort.getBayeuxServer().removeExtension(this);
+        loads.stop();
+        redirects.clear();
+        localLoad = Collections.emptyMap();
+    }
+
+    /**
+     * <p>Computes the load of this node and shares it with the other nodes.</p>
+     */
+    @Override
+    public void run() {
+        try {
+            Map<String, Object> load = computeLoad();
+            handshakes.set(0);
+            localLoad = load;
+            loads.setAndShare(load, null);
+            // The other nodes have shared their loads
+            // that account for the redirected clients.
+            redirects.clear();
+        } catch (Throwable x) {
+            logger.info("Could not update load", x);
+        }
+    }
+
+    /**
+     * <p>Computes the load of this node.</p>
+     * <p>Subclasses may override this method to add other metrics to the load,
+     * to be used by overridden {@link #isSaturated(Map)}.</p>
+     *
+     * @return a map with the metrics of the load of this node
+     */
+    protected Map<String, Object> computeLoad() {
+        boolean countBytes = getMaxQueuedBytes() > 0;
+        long sessions = 0;
+        long queuedMessages = 0;
+        long queuedBytes = 0;
+        for (ServerSession session : oort.getBayeuxServer().getSessions()) {
+            if (session.isLocalSession() || oort.isOort(session)) {
+                continue;
+            }
+            ++sessions;
+            if (session instanceof ServerSessionImpl) {
+                ServerSessionImpl serverSession = (ServerSessionImpl)session;
+                synchronized (serverSession.getLock()) {
+                    Queue<ServerMessage> queue = serverSession.getQueue();
+                    queuedMessages += queue.size();
+                    if (countBytes) {
+                        queuedBytes += queuedBytes(queue);
+                    }
+                }
+            }
+        }
+
+        Map<String, Object> load = new HashMap<>();
+        load.put(URL_FIELD, getClientURL());
+        load.put(SESSIONS_FIELD, sessions);
+        load.put(QUEUED_MESSAGES_FIELD, queuedMessages);
+        if (countBytes) {
+            load.put(QUEUED_BYTES_FIELD, queuedBytes);
+        }
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double loadAverage = os.getSystemLoadAverage();
+        if (loadAverage >= 0) {
+            load.put(CPU_FIELD, loadAverage / os.getAvailableProcessors());
+        }
+        return load;
+    }
+
+    private long queuedBytes(Queue<ServerMessage> queue) {
+        long result = 0;
+        for (ServerMessage message : queue) {
+            // Only count messages whose JSON is already
+            // available, to avoid generating it here.
+            if (message instanceof ServerMessageImpl) {
+                byte[] bytes = ((ServerMessageImpl)message).getJSONBytes();
+                if (bytes != null) {
+                    result += bytes.length;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param load the load of a node
+     * @return whether the given load saturates the node
+     */
+    protected boolean isSaturated(Map<String, Object> load) {
+        Object cpu = load.get(CPU_FIELD);
+        if (cpu instanceof Number && ((Number)cpu).doubleValue() >= getMaxCPULoad()) {
+            return true;
+        }
+        long maxQueuedBytes = getMaxQueuedBytes();
+        return maxQueuedBytes > 0 && getLong(load, QUEUED_BYTES_FIELD) >= maxQueuedBytes;
+    }
+
+    /**
+     * <p>Returns the client URL of the node that new clients should be redirected to,
+     * or {@code null} if new clients should stay on this node.</p>
+     *
+     * @return the client URL of a less loaded node, or {@code null}
+     */
+    public String findRedirectURL() {
+        Map<String, Object> local = localLoad;
+        if (local.isEmpty()) {
+            return null;
+        }
+        long localSessions = getLong(local, SESSIONS_FIELD) + handshakes.get();
+        boolean localSaturated = isSaturated(local);
+
+        String targetURL = null;
+        long targetSessions = Long.MAX_VALUE;
+        Iterator<OortObject.Info<Map<String, Object>>> iterator = loads.iterator();
+        while (iterator.hasNext()) {
+            OortObject.Info<Map<String, Object>> info = iterator.next();
+            if (info.isLocal()) {
+                continue;
+            }
+            Map<String, Object> load = info.getObject();
+            Object url = load.get(URL_FIELD);
+            if (!(url instanceof String) || isSaturated(load)) {
+                continue;
+            }
+            long sessions = getLong(load, SESSIONS_FIELD);
+            AtomicLong redirected = redirects.get(info.getOortURL());
+            if (redirected != null) {
+                sessions += redirected.get();
+            }
+            if (sessions < targetSessions) {
+                targetSessions = sessions;
+                targetURL = (String)url;
+            }
+        }
+
+        if (targetURL == null) {
+            return null;
+        }
+        if (localSaturated) {
+            return targetURL;
+        }
+        long imbalance = Math.max(1, (long)(targetSessions * getImbalanceRatio()));
+        return localSessions - targetSessions > imbalance ? targetURL : null;
+    }
+
+    private long getLong(Map<String, Object> load, String field) {
+        Object value = load.get(field);
+        return value instanceof Number ? ((Number)value).longValue() : 0;
+    }
+
+    private String findOortURL(String clientURL) {
+        Iterator<OortObject.Info<Map<String, Object>>> iterator = loads.iterator();
+        while (iterator.hasNext()) {
+            OortObject.Info<Map<String, Object>> info = iterator.next();
+            if (clientURL.equals(info.getObject().get(URL_FIELD))) {
+                return info.getOortURL();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+        return true;
+    }
+
+    @Override
+    public boolean rcvMeta(ServerSession from, ServerMessage.Mutable message) {
+        if (!Channel.META_HANDSHAKE.equals(message.getChannel())) {
+            return true;
+        }
+        if (from == null || from.isLocalSession() || oort.isOortHandshake(message)) {
+            return true;
+        }
+
+        String redirectURL = findRedirectURL();
+        if (redirectURL == null) {
+            handshakes.incrementAndGet();
+            return true;
+        }
+
+        String oortURL = findOortURL(redirectURL);
+        if (oortURL != null) {
+            AtomicLong redirected = redirects.get(oortURL);
+            if (redirected == null) {
+                AtomicLong existing = redirects.putIfAbsent(oortURL, redirected = new AtomicLong());
+                if (existing != null) {
+                    redirected = existing;
+                }
+            }
+            redirected.incrementAndGet();
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Redirecting handshake {} to {}", message, redirectURL);
+        }
+
+        ServerMessage.Mutable reply = message.getAssociated();
+        Map<String, Object> advice = reply.getAdvice(true);
+        advice.put(Message.RECONNECT_FIELD, Message.RECONNECT_HANDSHAKE_VALUE);
+        advice.put(Message.INTERVAL_FIELD, 0L);
+        advice.put(HOSTS_FIELD, Collections.singletonList(redirectURL));
+        return false;
+    }
+
+    @Override
+    public boolean send(ServerSession from, ServerSession to, ServerMessage.Mutable message) {
+        return true;
+    }
+
+    @Override
+    public boolean sendMeta(ServerSession to, ServerMessage.Mutable message) {
+        if (Channel.META_HANDSHAKE.equals(message.getChannel()) && !message.isSuccessful()) {
+            Map<String, Object> advice = message.getAdvice();
+            if (advice != null && advice.containsKey(HOSTS_FIELD)) {
+                message.put(Message.ERROR_FIELD, "503::redirect");
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), localLoad);
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.server.BayeuxContext;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.client.transport.TransportListener;
+import org.cometd.common.HashMapMessage;
+import org.cometd.server.AbstractServerTransport;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerSessionImpl;
+
+/**
+ * <p>The server side of {@link OortLocalTransport}, that processes the messages
+ * sent by {@link OortComet}s running in the same JVM, without any network
+ * communication nor JSON serialization.</p>
+ * <p>Each {@link OortLocalTransport} has a {@link Connection}, that processes
+ * the messages it receives and delivers the replies and the session messages
+ * in order, like a WebSocket connection would do.</p>
+ */
+class OortLocalServerTransport extends AbstractServerTransport {
+    private final Set<Connection> connections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+
+    OortLocalServerTransport(BayeuxServerImpl bayeux, Executor executor, ScheduledExecutorService scheduler) {
+        super(bayeux, OortLocalTransport.NAME);
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void destroy() {
+        for (Connection connection : new ArrayList<>(connections)) {
+            connection.close(new IOException("Closed"));
+        }
+        super.destroy();
+    }
+
+    @Override
+    public BayeuxContext getContext() {
+        return null;
+    }
+
+    Connection newConnection(OortLocalTransport transport) {
+        Connection connection = new Connection(transport);
+        connections.add(connection);
+        return connection;
+    }
+
+    /**
+     * <p>Copies the given message, so that the nodes never share mutable structures.</p>
+     * <p>Maps, collections and arrays are copied recursively, while other objects
+     * (strings, numbers, booleans, and objects of other types) are shared.</p>
+     *
+     * @param from the message to copy
+     * @param to   the message to copy to
+     * @param <M>  the type of the message to copy to
+     * @return the message to copy to
+     */
+    static <M extends Message.Mutable> M copy(Message from, M to) {
+        for (Map.Entry<String, Object> entry : from.entrySet()) {
+            to.put(entry.getKey(), copy(entry.getValue()));
+        }
+        return to;
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>)value;
+            Map<String, Object> result = new HashMap<>(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                result.put(String.valueOf(entry.getKey()), copy(entry.getValue()));
+            }
+            return result;
+        }
+        if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>)value;
+            List<Object> result = new ArrayList<>(collection.size());
+            for (Object element : collection) {
+                result.add(copy(element));
+            }
+            return result;
+        }
+        if (value instanceof Object[]) {
+            Object[] array = (Object[])value;
+            Object[] result = new Object[array.length];
+            for (int i = 0; i < array.length; ++i) {
+                result[i] = copy(array[i]);
+            }
+            return result;
+        }
+        return value;
+    }
+
+    private static List<Message.Mutable> toClientMessages(List<? extends ServerMessage> messages) {
+        List<Message.Mutable> result = new ArrayList<>(messages.size());
+        for (ServerMessage message : messages) {
+            result.add(copy(message, new HashMapMessage()));
+        }
+        return result;
+    }
+
+    /**
+     * <p>The server side of an {@link OortLocalTransport}.</p>
+     * <p>Messages are processed one batch after the other by the executor,
+     * and the processing of the session messages is serialized with that
+     * of the batches, so that their order is retained.</p>
+     */
+    class Connection implements AbstractServerTransport.Scheduler, Runnable {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private final OortLocalTransport transport;
+        private boolean executing;
+        private volatile boolean closed;
+        private volatile ServerSessionImpl session;
+        private ServerMessage.Mutable connectReply;
+        private TransportListener connectListener;
+        private List<Message.Mutable> connectMessages;
+        private ScheduledFuture<?> connectTask;
+
+        private Connection(OortLocalTransport transport) {
+            this.transport = transport;
+        }
+
+        OortLocalServerTransport getServerTransport() {
+            return OortLocalServerTransport.this;
+        }
+
+        void receive(final TransportListener listener, final List<Message.Mutable> messages) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    process(listener, messages);
+                }
+            });
+        }
+
+        @Override
+        public void schedule() {
+            // This method may be called concurrently,
+            // for example when two clients publish
+            // concurrently on the same channel.
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush(false, null);
+                }
+            });
+        }
+
+        @Override
+        public void cancel() {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    failMetaConnect(new IOException("Cancelled"));
+                }
+            });
+        }
+
+        void close(Throwable failure) {
+            closed = true;
+            connections.remove(this);
+            failMetaConnect(failure);
+        }
+
+        private void execute(Runnable task) {
+            if (closed) {
+                return;
+            }
+            synchronized (tasks) {
+                tasks.offer(task);
+                if (executing) {
+                    return;
+                }
+                executing = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException x) {
+                synchronized (tasks) {
+                    tasks.clear();
+                    executing = false;
+                }
+                close(x);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (tasks) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        executing = false;
+                        return;
+                    }
+                }
+                if (closed) {
+                    continue;
+                }
+                getBayeux().setCurrentTransport(OortLocalServerTransport.this);
+                try {
+                    task.run();
+                } catch (Throwable x) {
+                    _logger.info("Exception while processing " + this, x);
+                } finally {
+                    getBayeux().setCurrentTransport(null);
+                }
+            }
+        }
+
+        private void process(TransportListener listener, List<Message.Mutable> messages) {
+            try {
+                ServerSessionImpl session = null;
+                List<ServerMessage.Mutable> replies = new ArrayList<>(messages.size());
+                boolean sendQueue = false;
+                boolean scheduleExpiration = false;
+                for (Message.Mutable clientMessage : messages) {
+                    ServerMessage.Mutable message = copy(clientMessage, getBayeux().newMessage());
+                    if (_logger.isDebugEnabled()) {
+                        _logger.debug("Processing {}", message);
+                    }
+                    ServerMessage.Mutable reply;
+                    switch (message.getChannel()) {
+                        case Channel.META_HANDSHAKE: {
+                            this.session = null;
+                            session = getBayeux().newServerSession();
+                            session.setAllowMessageDeliveryDuringHandshake(isAllowMessageDeliveryDuringHandshake());
+                            reply = getBayeux().handle(session, message);
+                            if (reply.isSuccessful()) {
+                                this.session = session;
+                                session.setScheduler(this);
+                                addSupportedConnectionType(reply);
+                            }
+                            reply = processReply(session, reply);
+                            sendQueue = allowMessageDeliveryDuringHandshake(session) && reply != null && reply.isSuccessful();
+                            scheduleExpiration = true;
+                            break;
+                        }
+                        case Channel.META_CONNECT: {
+                            session = findSession(message);
+                            reply = processMetaConnect(session, message, listener, messages);
+                            reply = processReply(session, reply);
+                            boolean deliver = isMetaConnectDeliveryOnly() || session != null && session.isMetaConnectDeliveryOnly();
+                            sendQueue = deliver && reply != null;
+                            scheduleExpiration = reply != null;
+                            break;
+                        }
+                        default: {
+                            session = findSession(message);
+                            reply = getBayeux().handle(session, message);
+                            reply = processReply(session, reply);
+                            break;
+                        }
+                    }
+                    if (reply != null) {
+                        replies.add(reply);
+                    }
+                }
+                send(listener, session, sendQueue, scheduleExpiration, replies);
+            } catch (Throwable x) {
+                _logger.info("Exception while processing " + messages, x);
+                listener.onFailure(x, messages);
+            }
+        }
+
+        private ServerSessionImpl findSession(ServerMessage.Mutable message) {
+            ServerSessionImpl session = this.session;
+            if (session == null || !session.getId().equals(message.getClientId())) {
+                session = this.session = (ServerSessionImpl)getBayeux().getSession(message.getClientId());
+            }
+            return session;
+        }
+
+        private void addSupportedConnectionType(ServerMessage.Mutable reply) {
+            // The local transport is not one of the transports
+            // allowed by the server, as it is only available
+            // within the JVM, so it is added to the reply.
+            List<Object> connectionTypes = new ArrayList<>();
+            connectionTypes.add(getName());
+            Object field = reply.get(Message.SUPPORTED_CONNECTION_TYPES_FIELD);
+            if (field instanceof Collection) {
+                connectionTypes.addAll((Collection<?>)field);
+            }
+            reply.put(Message.SUPPORTED_CONNECTION_TYPES_FIELD, connectionTypes);
+        }
+
+        private ServerMessage.Mutable processMetaConnect(ServerSessionImpl session, ServerMessage.Mutable message, TransportListener listener, List<Message.Mutable> messages) {
+            // Remember the connected status before handling the message.
+            boolean wasConnected = session != null && session.isConnected();
+            ServerMessage.Mutable reply = getBayeux().handle(session, message);
+            if (session != null) {
+                if (reply.isSuccessful() && session.isConnected()) {
+                    session.setScheduler(this);
+                    boolean metaConnectDelivery = isMetaConnectDeliveryOnly() || session.isMetaConnectDeliveryOnly();
+                    boolean replyToMetaConnect = session.hasNonLazyMessages() && metaConnectDelivery;
+                    if (!replyToMetaConnect) {
+                        long timeout = session.calculateTimeout(getTimeout());
+                        if (timeout > 0 && wasConnected && !session.hasNonLazyMessages()) {
+                            holdMetaConnect(reply, timeout, listener, messages);
+                            return null;
+                        }
+                    }
+                }
+                if (session.isDisconnected()) {
+                    reply.getAdvice(true).put(Message.RECONNECT_FIELD, Message.RECONNECT_NONE_VALUE);
+                }
+            }
+            return reply;
+        }
+
+        private void holdMetaConnect(final ServerMessage.Mutable reply, long timeout, TransportListener listener, List<Message.Mutable> messages) {
+            cancelMetaConnectTask();
+            connectReply = reply;
+            connectListener = listener;
+            connectMessages = messages;
+            connectTask = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush(true, reply);
+                        }
+                    });
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Holding meta connect {} for {} ms", reply, timeout);
+            }
+        }
+
+        private void cancelMetaConnectTask() {
+            ScheduledFuture<?> task = connectTask;
+            connectTask = null;
+            if (task != null) {
+                task.cancel(false);
+            }
+        }
+
+        private void flush(boolean timeout, ServerMessage.Mutable expiredConnectReply) {
+            ServerSessionImpl session = this.session;
+            if (session == null) {
+                return;
+            }
+
+            if (timeout && connectReply != expiredConnectReply) {
+                // Another meta connect arrived while the
+                // first was expiring, do not reply to it.
+                return;
+            }
+
+            boolean metaConnectDelivery = isMetaConnectDeliveryOnly() || session.isMetaConnectDeliveryOnly();
+            ServerMessage.Mutable reply = connectReply;
+            TransportListener listener = connectListener;
+            if (reply == null) {
+                if (metaConnectDelivery) {
+                    // Wait for the next meta connect to deliver.
+                    return;
+                }
+            } else {
+                if (timeout || metaConnectDelivery || !session.isConnected()) {
+                    cancelMetaConnectTask();
+                    connectReply = null;
+                    connectListener = null;
+                    connectMessages = null;
+                } else {
+                    reply = null;
+                }
+            }
+
+            List<ServerMessage.Mutable> replies = Collections.emptyList();
+            if (reply != null) {
+                if (session.isDisconnected()) {
+                    reply.getAdvice(true).put(Message.RECONNECT_FIELD, Message.RECONNECT_NONE_VALUE);
+                }
+                reply = processReply(session, reply);
+                if (reply != null) {
+                    replies = Collections.singletonList(reply);
+                }
+            }
+            send(listener, session, true, reply != null, replies);
+        }
+
+        private void failMetaConnect(Throwable failure) {
+            TransportListener listener = connectListener;
+            List<Message.Mutable> messages = connectMessages;
+            cancelMetaConnectTask();
+            connectReply = null;
+            connectListener = null;
+            connectMessages = null;
+            if (listener != null) {
+                listener.onFailure(failure, messages);
+            }
+        }
+
+        private void send(TransportListener listener, ServerSessionImpl session, boolean sendQueue, boolean scheduleExpiration, List<ServerMessage.Mutable> replies) {
+            List<ServerMessage> queue = Collections.emptyList();
+            if (sendQueue && session != null) {
+                queue = session.takeQueue();
+            }
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Sending {}, replies={}, messages={}", session, replies, queue);
+            }
+
+            if (!replies.isEmpty()) {
+                ServerMessage.Mutable reply = replies.get(0);
+                if (Channel.META_HANDSHAKE.equals(reply.getChannel())) {
+                    if (allowMessageDeliveryDuringHandshake(session) && !queue.isEmpty()) {
+                        reply.put("x-messages", queue.size());
+                    }
+                    listener.onMessages(toClientMessages(replies));
+                    replies = Collections.emptyList();
+                }
+            }
+
+            if (!queue.isEmpty()) {
+                TransportListener messageListener = transport.getMessageTransportListener();
+                if (messageListener != null) {
+                    messageListener.onMessages(toClientMessages(queue));
+                }
+            }
+
+            if (scheduleExpiration) {
+                scheduleExpiration(session);
+            }
+
+            if (!replies.isEmpty()) {
+                listener.onMessages(toClientMessages(replies));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), session);
+        }
+    }
+}
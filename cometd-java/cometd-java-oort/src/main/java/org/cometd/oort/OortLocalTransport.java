@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import org.cometd.bayeux.Message;
+import org.cometd.client.transport.ClientTransport;
+import org.cometd.client.transport.MessageClientTransport;
+import org.cometd.client.transport.TransportListener;
+import org.cometd.common.HashMapMessage;
+import org.cometd.server.BayeuxServerImpl;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * <p>A {@link ClientTransport} that links {@link Oort} nodes running in the same JVM,
+ * passing messages in memory without network communication and JSON serialization.</p>
+ * <p>This transport is only accepted when the node it connects to has also been
+ * configured with {@link Factory}, and it is otherwise skipped during the transport
+ * negotiation, so that the other transports configured via
+ * {@link Oort#setClientTransportFactories(List)} are used, typically WebSocket:</p>
+ * <pre>
+ * List&lt;ClientTransport.Factory&gt; factories = new ArrayList&lt;&gt;();
+ * factories.add(new OortLocalTransport.Factory(oort));
+ * factories.add(new WebSocketTransport.Factory());
+ * oort.setClientTransportFactories(factories);
+ * </pre>
+ * <p>Nodes are matched by their {@link Oort#getURL() URL}, so the URLs used to connect
+ * to other nodes must be identical to the URLs those nodes have been configured with.</p>
+ * <p>Maps, lists and arrays in messages are copied when passed from a node to the other,
+ * but other objects are passed by reference: they must be immutable, as they would be
+ * when using a network transport.</p>
+ */
+public class OortLocalTransport extends ClientTransport implements MessageClientTransport {
+    public static final String NAME = "oort-local";
+
+    private static final ConcurrentMap<String, OortLocalServerTransport> servers = new ConcurrentHashMap<>();
+
+    private volatile TransportListener messageListener;
+    private volatile OortLocalServerTransport.Connection connection;
+
+    public OortLocalTransport(String url, Map<String, Object> options) {
+        super(NAME, url, options);
+    }
+
+    @Override
+    public void setMessageTransportListener(TransportListener listener) {
+        this.messageListener = listener;
+    }
+
+    TransportListener getMessageTransportListener() {
+        return messageListener;
+    }
+
+    @Override
+    public boolean accept(String version) {
+        return servers.containsKey(getURL());
+    }
+
+    @Override
+    public void send(TransportListener listener, List<Message.Mutable> messages) {
+        OortLocalServerTransport.Connection connection = connect();
+        if (connection == null) {
+            listener.onFailure(new IOException("Unconnected"), messages);
+        } else {
+            listener.onSending(messages);
+            List<Message.Mutable> copies = new ArrayList<>(messages.size());
+            for (Message.Mutable message : messages) {
+                copies.add(OortLocalServerTransport.copy(message, new HashMapMessage()));
+            }
+            connection.receive(listener, copies);
+        }
+    }
+
+    private OortLocalServerTransport.Connection connect() {
+        OortLocalServerTransport server = servers.get(getURL());
+        if (server == null) {
+            return null;
+        }
+        synchronized (this) {
+            OortLocalServerTransport.Connection connection = this.connection;
+            if (connection == null || connection.getServerTransport() != server) {
+                if (connection != null) {
+                    connection.close(new IOException("Closed"));
+                }
+                connection = this.connection = server.newConnection(this);
+            }
+            return connection;
+        }
+    }
+
+    @Override
+    public void abort() {
+        close(new IOException("Aborted"));
+    }
+
+    @Override
+    public void terminate() {
+        close(new IOException("Terminated"));
+        super.terminate();
+    }
+
+    private void close(Throwable failure) {
+        OortLocalServerTransport.Connection connection;
+        synchronized (this) {
+            connection = this.connection;
+            this.connection = null;
+        }
+        if (connection != null) {
+            connection.close(failure);
+        }
+    }
+
+    /**
+     * <p>Creates {@link OortLocalTransport}s for the given {@link Oort},
+     * and makes the given {@link Oort} reachable by the
+     * {@link OortLocalTransport}s of the other nodes in the same JVM.</p>
+     */
+    public static class Factory extends ContainerLifeCycle implements ClientTransport.Factory {
+        private final Oort oort;
+        private final Executor executor;
+        private OortLocalServerTransport serverTransport;
+
+        public Factory(Oort oort) {
+            this(oort, null);
+        }
+
+        public Factory(Oort oort, Executor executor) {
+            this.oort = oort;
+            if (executor == null) {
+                QueuedThreadPool threadPool = new QueuedThreadPool();
+                threadPool.setName("oort-local");
+                executor = threadPool;
+            }
+            this.executor = executor;
+            addBean(executor);
+        }
+
+        @Override
+        protected void doStart() throws Exception {
+            super.doStart();
+            serverTransport = new OortLocalServerTransport((BayeuxServerImpl)oort.getBayeuxServer(), executor, oort.getScheduler());
+            serverTransport.init();
+            servers.put(oort.getURL(), serverTransport);
+        }
+
+        @Override
+        protected void doStop() throws Exception {
+            servers.remove(oort.getURL(), serverTransport);
+            serverTransport.destroy();
+            super.doStop();
+        }
+
+        @Override
+        public ClientTransport newClientTransport(String url, Map<String, Object> options) {
+            return new OortLocalTransport(url, options);
+        }
+    }
+}
@@ -20,6 +20,7 @@ import java.util.EventListener;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -37,6 +38,10 @@ import org.cometd.bayeux.server.BayeuxServer;
  * {@link DeltaListener} converts whole map updates triggered by {@link #setAndShare(Object, Result)}
  * into events for {@link EntryListener}s, giving applications a single listener type to implement
  * their business logic.</p>
+ * <p>{@link OortMap} maintains an index of the keys of the entity maps of all nodes, so that
+ * {@link #find(Object)} and {@link #findInfo(Object)} do not need to scan the entity maps
+ * of all nodes.
+ * The index is updated when entries are updated, and when whole maps are updated or removed.</p>
  * <p>The type parameter for keys, {@code K}, must be a String to be able to use this class as-is,
  * although usage of {@link OortStringMap} is preferred.
  * This is due to the fact that a {@code Map&lt;Long,Object&gt;} containing an entry {@code {13:"foo"}}
@@ -62,11 +67,27 @@ public abstract class OortMap<K, V> extends OortContainer<ConcurrentMap<K, V>> {
     private static final String VALUE_FIELD = "oort.map.value";
 
     private final List<EntryListener<K, V>> listeners = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<K, String> index = new ConcurrentHashMap<>();
 
     protected OortMap(Oort oort, String name, Factory<ConcurrentMap<K, V>> factory) {
         super(oort, name, factory);
     }
 
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        Info<ConcurrentMap<K, V>> info = getInfo(getOort().getURL());
+        for (K key : info.getObject().keySet()) {
+            index.put(key, info.getOortURL());
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        super.doStop();
+        index.clear();
+    }
+
     public void addEntryListener(EntryListener<K, V> listener) {
         listeners.add(listener);
     }
@@ -244,13 +265,8 @@ public abstract class OortMap<K, V> extends OortContainer<ConcurrentMap<K, V>> {
      * {@code null} if the maps do not contain the given key
      */
     public V find(K key) {
-        for (Info<ConcurrentMap<K, V>> info : this) {
-            V result = info.getObject().get(key);
-            if (result != null) {
-                return result;
-            }
-        }
-        return null;
+        Info<ConcurrentMap<K, V>> info = findInfo(key);
+        return info == null ? null : info.getObject().get(key);
     }
 
     /**
@@ -258,12 +274,53 @@ public abstract class OortMap<K, V> extends OortContainer<ConcurrentMap<K, V>> {
      * @return the first {@link Info} whose entity map contains the given key.
      */
     public Info<ConcurrentMap<K, V>> findInfo(K key) {
-        for (Info<ConcurrentMap<K, V>> info : this) {
-            if (info.getObject().get(key) != null) {
-                return info;
+        String oortURL = index.get(key);
+        if (oortURL == null) {
+            return null;
+        }
+        Info<ConcurrentMap<K, V>> info = getInfo(oortURL);
+        if (info == null || !info.getObject().containsKey(key)) {
+            return null;
+        }
+        return info;
+    }
+
+    @Override
+    protected void notifyUpdated(Info<ConcurrentMap<K, V>> oldInfo, Info<ConcurrentMap<K, V>> newInfo) {
+        String oortURL = newInfo.getOortURL();
+        Map<K, V> newMap = newInfo.getObject();
+        if (oldInfo != null) {
+            for (K key : oldInfo.getObject().keySet()) {
+                if (!newMap.containsKey(key)) {
+                    unindex(key, oortURL);
+                }
+            }
+        }
+        for (K key : newMap.keySet()) {
+            index.put(key, oortURL);
+        }
+        super.notifyUpdated(oldInfo, newInfo);
+    }
+
+    @Override
+    protected void notifyRemoved(Info<ConcurrentMap<K, V>> info) {
+        String oortURL = info.getOortURL();
+        for (K key : info.getObject().keySet()) {
+            unindex(key, oortURL);
+        }
+        super.notifyRemoved(info);
+    }
+
+    private void unindex(K key, String oortURL) {
+        if (index.remove(key, oortURL)) {
+            // Other nodes may have the same key.
+            for (Info<ConcurrentMap<K, V>> info : this) {
+                if (info.getObject().containsKey(key)) {
+                    index.putIfAbsent(key, info.getOortURL());
+                    break;
+                }
             }
         }
-        return null;
     }
 
     @Override
@@ -302,6 +359,13 @@ public abstract class OortMap<K, V> extends OortContainer<ConcurrentMap<K, V>> {
         // Update the version.
         info.put(Info.VERSION_FIELD, data.get(Info.VERSION_FIELD));
 
+        // Update the index.
+        if (map.containsKey(key)) {
+            index.put(key, info.getOortURL());
+        } else if (result != null) {
+            unindex(key, info.getOortURL());
+        }
+
         // Notify.
         Entry<K, V> entry = new Entry<>(key, result, value);
         if (logger.isDebugEnabled()) {
@@ -62,6 +62,7 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
     private final Map<String, OortComet> pendingComets = new HashMap<>();
     private final Map<String, ClientCometInfo> clientComets = new HashMap<>();
     private final Map<String, ServerCometInfo> serverComets = new HashMap<>();
+    private final Set<String> unlinkedComets = new HashSet<>();
     private final BayeuxServer.Extension oortExtension = new OortExtension();
     private final ConfigurableServerChannel.ServerChannelListener joinListener = new JoinListener();
     private final Object lock = this;
@@ -121,6 +122,7 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
 
         List<OortComet> comets = new ArrayList<>();
         synchronized (lock) {
+            unlinkedComets.remove(cometURL);
             OortComet comet = pendingComets.remove(cometURL);
             if (comet != null) {
                 if (logger.isDebugEnabled()) {
@@ -158,6 +160,16 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
         return result;
     }
 
+    Map<String, String> getKnownCometIds() {
+        Map<String, String> result = new HashMap<>();
+        synchronized (lock) {
+            for (ClientCometInfo cometInfo : clientComets.values()) {
+                result.put(cometInfo.oortURL, cometInfo.oortId);
+            }
+        }
+        return result;
+    }
+
     OortComet getComet(String cometURL) {
         synchronized (lock) {
             for (ClientCometInfo cometInfo : clientComets.values()) {
@@ -202,6 +214,13 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
 
         OortComet oortComet;
         synchronized (lock) {
+            if (unlinkedComets.contains(cometURL)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Comet {} is not linkable from zone {}", cometURL, oort.getZone());
+                }
+                return null;
+            }
+
             oortComet = oort.getComet(cometURL);
             if (oortComet != null) {
                 if (logger.isDebugEnabled()) {
@@ -235,6 +254,9 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
             OortComet oortComet = oort.newOortComet(cometURL);
             oort.configureOortComet(oortComet);
             oortComet.getChannel(Channel.META_HANDSHAKE).addListener(new HandshakeListener(cometURL, oortComet));
+            if (oort.isMetricsEnabled()) {
+                oort.metricsFor(cometURL);
+            }
             pendingComets.put(cometURL, oortComet);
             return oortComet;
         }
@@ -264,6 +286,25 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
         }
     }
 
+    void disconnectComet(String oortURL) {
+        ServerSession session = null;
+        synchronized (lock) {
+            for (ServerCometInfo cometInfo : serverComets.values()) {
+                if (cometInfo.oortURL.equals(oortURL)) {
+                    session = cometInfo.session;
+                    break;
+                }
+            }
+        }
+        if (session != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Disconnecting session {} of comet {}", session, oortURL);
+            }
+            // Removing the session disconnects the OortComet and emits the "comet left" event.
+            session.disconnect();
+        }
+    }
+
     boolean containsServerSession(ServerSession session) {
         synchronized (lock) {
             for (ServerCometInfo cometInfo : serverComets.values()) {
@@ -414,6 +455,25 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
             Map<String, Object> oortExt = (Map<String, Object>)oortExtObject;
             String oortId = (String)oortExt.get(EXT_OORT_ID_FIELD);
             String oortURL = (String)oortExt.get(Oort.EXT_OORT_URL_FIELD);
+            String zone = (String)oortExt.get(Oort.EXT_OORT_ZONE_FIELD);
+            boolean gateway = Boolean.TRUE.equals(oortExt.get(Oort.EXT_OORT_GATEWAY_FIELD));
+
+            if (!oort.isLinkable(zone, gateway)) {
+                // The remote node is in another zone: do not retry to connect to it.
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Comet {} in zone {} is not linkable from zone {}", cometURL, zone, oort.getZone());
+                }
+                synchronized (lock) {
+                    pendingComets.remove(cometURL);
+                    unlinkedComets.add(cometURL);
+                    if (oortURL != null) {
+                        unlinkedComets.add(oortURL);
+                    }
+                }
+                oortComet.disconnect();
+                return;
+            }
+            oortComet.setZone(zone);
 
             List<ClientCometInfo> staleClientCometInfos = new ArrayList<>();
             ClientCometInfo clientCometInfo;
@@ -521,6 +581,10 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
             replyExt.put(Oort.EXT_OORT_FIELD, replyOortExt);
             replyOortExt.put(Oort.EXT_OORT_URL_FIELD, oort.getURL());
             replyOortExt.put(EXT_OORT_ID_FIELD, oort.getId());
+            if (oort.getZone() != null) {
+                replyOortExt.put(Oort.EXT_OORT_ZONE_FIELD, oort.getZone());
+                replyOortExt.put(Oort.EXT_OORT_GATEWAY_FIELD, oort.isGateway());
+            }
 
             // Process only successful responses.
             if (!reply.isSuccessful()) {
@@ -532,8 +596,13 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
             String remoteOortURL = (String)messageOortExt.get(Oort.EXT_OORT_URL_FIELD);
             String cometURL = (String)messageOortExt.get(Oort.EXT_COMET_URL_FIELD);
             String remoteOortId = (String)messageOortExt.get(EXT_OORT_ID_FIELD);
+            String remoteZone = (String)messageOortExt.get(Oort.EXT_OORT_ZONE_FIELD);
+            boolean remoteGateway = Boolean.TRUE.equals(messageOortExt.get(Oort.EXT_OORT_GATEWAY_FIELD));
 
             session.setAttribute(Oort.COMET_URL_ATTRIBUTE, remoteOortURL);
+            if (remoteZone != null) {
+                session.setAttribute(Oort.ZONE_ATTRIBUTE, remoteZone);
+            }
 
             if (oort.getId().equals(remoteOortId)) {
                 // Connecting to myself: disconnect.
@@ -541,6 +610,12 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
                     logger.debug("Detected self connect from {} to {}, disconnecting", remoteOortURL, cometURL);
                 }
                 disconnect(session, reply);
+            } else if (!oort.isLinkable(remoteZone, remoteGateway)) {
+                // Connecting from another zone: disconnect.
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Detected connect from {} in zone {} to zone {}, disconnecting", remoteOortURL, remoteZone, oort.getZone());
+                }
+                disconnect(session, reply);
             } else {
                 boolean sendJoin = false;
                 ClientCometInfo clientCometInfo;
@@ -583,6 +658,22 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
                 session.addListener(new OortCometDisconnectListener());
                 // Prevent loops in sending/receiving messages.
                 session.addListener(new OortCometLoopListener());
+                // Filter by interest before the listeners below process the message.
+                oort.getInterest().addFilter(session);
+                if (oort.isMetricsEnabled()) {
+                    // Count the messages forwarded to the remote comet.
+                    oort.metricsFor(remoteOortURL).setServerSession(session);
+                    session.addListener(new OortCometMetricsListener(remoteOortURL));
+                }
+                if (oort.isBatchForwardingEnabled()) {
+                    // Coalesce the messages forwarded to the remote comet.
+                    session.addListener(new OortBatcher(oort, session));
+                }
+                if (oort.isCodecEnabled() && OortCodec.NAME.equals(messageOortExt.get(Oort.EXT_OORT_CODEC_FIELD))) {
+                    // Both nodes support the codec: tell the remote comet to use it.
+                    replyOortExt.put(Oort.EXT_OORT_CODEC_FIELD, OortCodec.NAME);
+                    session.addExtension(oort.getCodec().newServerSessionExtension());
+                }
 
                 if (clientCometInfo != null) {
                     if (sendJoin) {
@@ -675,7 +766,8 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
         @Override
         public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
             // Prevent loops by not delivering a message from self or Oort session to remote Oort comets.
-            if (ChannelId.isBroadcast(message.getChannel()) && sender != null && (sender.getId().equals(session.getId()) || oort.isOort(sender))) {
+            if (ChannelId.isBroadcast(message.getChannel()) && sender != null &&
+                    (sender.getId().equals(session.getId()) || (oort.isOort(sender) && !isRelayed(session, sender, message)))) {
                 if (logger.isDebugEnabled()) {
                     logger.debug("Blocked {} from {} to {}", message, sender, session);
                 }
@@ -686,6 +778,44 @@ class OortMembership extends AbstractLifeCycle implements Dumpable {
             }
             return true;
         }
+
+        private boolean isRelayed(ServerSession session, ServerSession sender, ServerMessage message) {
+            // Only gateways relay messages, and only those republished by the Oort session.
+            String zone = oort.getZone();
+            if (zone == null || !oort.isGateway() || !sender.getId().equals(oort.getOortSession().getId())) {
+                return false;
+            }
+            String originZone = OortComet.getOriginZone(message);
+            String targetZone = (String)session.getAttribute(Oort.ZONE_ATTRIBUTE);
+            if (originZone == null || targetZone == null) {
+                return false;
+            }
+            // Relay from this zone to other zones, and from other zones to this zone.
+            return zone.equals(originZone) != zone.equals(targetZone);
+        }
+    }
+
+    private class OortCometMetricsListener implements ServerSession.MessageListener {
+        private final String remoteOortURL;
+
+        private OortCometMetricsListener(String remoteOortURL) {
+            this.remoteOortURL = remoteOortURL;
+        }
+
+        @Override
+        public boolean onMessage(ServerSession session, ServerSession sender, ServerMessage message) {
+            // Batched messages are counted as part of their batch, like the remote node does.
+            if (oort.isBatchForwardingEnabled() && ChannelId.isBroadcast(message.getChannel())) {
+                return true;
+            }
+            // The metrics are detached when the remote node leaves.
+            OortCometMetrics metrics = oort.getCometMetrics(remoteOortURL);
+            if (metrics != null) {
+                // Messages are frozen before being delivered, so their JSON is cached.
+                metrics.messageSent(message.getChannel(), message.getJSON().length());
+            }
+            return true;
+        }
     }
 
     private class JoinListener implements ServerChannel.MessageListener {
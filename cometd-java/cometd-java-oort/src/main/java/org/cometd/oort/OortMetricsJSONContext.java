@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.List;
+
+import org.cometd.bayeux.Message;
+import org.cometd.common.JSONContext;
+import org.eclipse.jetty.util.IO;
+
+/**
+ * <p>A {@link JSONContext.Client} used by {@link OortComet}s that counts the
+ * messages sent to and received from the remote node in its {@link OortCometMetrics}.</p>
+ * <p>The size of each message is taken from the JSON that the transport
+ * generates or parses anyway, so that messages are not serialized twice.</p>
+ */
+class OortMetricsJSONContext implements JSONContext.Client {
+    private final JSONContext.Client delegate;
+    private final Oort oort;
+    private final String cometURL;
+
+    OortMetricsJSONContext(JSONContext.Client delegate, Oort oort, String cometURL) {
+        this.delegate = delegate;
+        this.oort = oort;
+        this.cometURL = cometURL;
+    }
+
+    @Override
+    public Message.Mutable[] parse(InputStream stream) throws ParseException {
+        return parse(new InputStreamReader(stream, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public Message.Mutable[] parse(Reader reader) throws ParseException {
+        try {
+            return parse(IO.toString(reader));
+        } catch (IOException x) {
+            throw (ParseException)new ParseException("", -1).initCause(x);
+        }
+    }
+
+    @Override
+    public Message.Mutable[] parse(String json) throws ParseException {
+        Message.Mutable[] messages = delegate.parse(json);
+        OortCometMetrics metrics = oort.getCometMetrics(cometURL);
+        if (metrics != null && messages != null) {
+            int[] sizes = sizes(json, messages.length);
+            for (int i = 0; i < messages.length; ++i) {
+                Message message = messages[i];
+                // Replies to messages sent to the remote node are not counted.
+                if (isCounted(message) && !message.containsKey(Message.SUCCESSFUL_FIELD)) {
+                    metrics.messageReceived(message.getChannel(), sizes == null ? 0 : sizes[i]);
+                }
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public String generate(Message.Mutable message) {
+        return delegate.generate(message);
+    }
+
+    @Override
+    public String generate(List<Message.Mutable> messages) {
+        OortCometMetrics metrics = oort.getCometMetrics(cometURL);
+        if (metrics == null) {
+            return delegate.generate(messages);
+        }
+        StringBuilder builder = new StringBuilder(messages.size() * 256);
+        builder.append("[");
+        for (int i = 0; i < messages.size(); ++i) {
+            Message.Mutable message = messages.get(i);
+            String json = delegate.generate(message);
+            if (i > 0) {
+                builder.append(",");
+            }
+            builder.append(json);
+            if (isCounted(message)) {
+                metrics.messageSent(message.getChannel(), json.length());
+            }
+        }
+        builder.append("]");
+        return builder.toString();
+    }
+
+    @Override
+    public JSONContext.Parser getParser() {
+        return delegate.getParser();
+    }
+
+    @Override
+    public JSONContext.Generator getGenerator() {
+        return delegate.getGenerator();
+    }
+
+    private boolean isCounted(Message message) {
+        String channel = message.getChannel();
+        return channel != null && !message.isMeta() && !Oort.OORT_PING_CHANNEL.equals(channel);
+    }
+
+    /**
+     * @param json  the JSON array of messages
+     * @param count the number of messages in the array
+     * @return the sizes of the messages in the array, or null if they cannot be determined
+     */
+    static int[] sizes(String json, int count) {
+        int[] result = new int[count];
+        int element = 0;
+        int depth = 0;
+        int start = -1;
+        boolean array = false;
+        boolean string = false;
+        boolean escape = false;
+        for (int i = 0; i < json.length(); ++i) {
+            char c = json.charAt(i);
+            if (string) {
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                } else if (c == '"') {
+                    string = false;
+                }
+                continue;
+            }
+            switch (c) {
+                case '"':
+                    string = true;
+                    break;
+                case '[':
+                    if (depth == 0 && !array) {
+                        array = true;
+                    } else {
+                        ++depth;
+                    }
+                    break;
+                case '{':
+                    if (depth == 0) {
+                        start = i;
+                    }
+                    ++depth;
+                    break;
+                case '}':
+                    --depth;
+                    if (depth == 0) {
+                        if (element == count) {
+                            return null;
+                        }
+                        result[element++] = i + 1 - start;
+                    }
+                    break;
+                case ']':
+                    if (depth == 0) {
+                        return element == count ? result : null;
+                    }
+                    --depth;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return element == count ? result : null;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>An observed-remove set (OR-Set) replicated across the nodes of the cluster.</p>
+ * <p>Every addition of an element is identified by a unique tag; the removal of an
+ * element removes only the tags that have been observed by the node that performs
+ * the removal, so that a concurrent addition on another node wins over the removal.</p>
+ * <p>Elements are transmitted to other nodes in JSON format, so they must be
+ * simple values such as strings or numbers, whose equality is preserved by the
+ * JSON conversion (for example, integer numbers should be {@code Long}s).</p>
+ * <p>Tags of removed elements are retained, so that removals are not undone by
+ * the merge of states that were produced before the removal.</p>
+ *
+ * @param <E> the element type
+ */
+public class OortORSet<E> extends OortCRDT {
+    private static final String ELEMENTS_FIELD = "a";
+    private static final String REMOVED_FIELD = "r";
+    private static final String ELEMENT_FIELD = "e";
+    private static final String TAGS_FIELD = "t";
+
+    private final Map<E, Set<String>> elements = new HashMap<>();
+    private final Set<String> removed = new HashSet<>();
+    private long tags;
+
+    /**
+     * @param oort the oort this instance is associated to
+     * @param name the name of this set
+     */
+    public OortORSet(Oort oort, String name) {
+        super(oort, name);
+    }
+
+    /**
+     * @param element the element to add
+     * @return whether the element was not present in this set, as known by this node
+     */
+    public boolean add(E element) {
+        synchronized (getLock()) {
+            Set<String> elementTags = elements.get(element);
+            boolean result = elementTags == null;
+            if (result) {
+                elementTags = new HashSet<>();
+                elements.put(element, elementTags);
+            }
+            elementTags.add(getReplicaId() + ":" + (++tags));
+            share();
+            return result;
+        }
+    }
+
+    /**
+     * @param element the element to remove
+     * @return whether the element was present in this set, as known by this node
+     */
+    public boolean remove(E element) {
+        synchronized (getLock()) {
+            Set<String> elementTags = elements.remove(element);
+            if (elementTags == null) {
+                return false;
+            }
+            removed.addAll(elementTags);
+            share();
+            return true;
+        }
+    }
+
+    /**
+     * @param element the element to test
+     * @return whether the element is present in this set, as known by this node
+     */
+    public boolean contains(E element) {
+        synchronized (getLock()) {
+            return elements.containsKey(element);
+        }
+    }
+
+    /**
+     * @return the number of elements of this set, as known by this node
+     */
+    public int size() {
+        synchronized (getLock()) {
+            return elements.size();
+        }
+    }
+
+    /**
+     * @return a snapshot of the elements of this set, as known by this node
+     */
+    public Set<E> getElements() {
+        synchronized (getLock()) {
+            return new HashSet<>(elements.keySet());
+        }
+    }
+
+    @Override
+    protected Map<String, Object> serialize() {
+        List<Object> list = new ArrayList<>(elements.size());
+        for (Map.Entry<E, Set<String>> entry : elements.entrySet()) {
+            Map<String, Object> item = new HashMap<>(2);
+            item.put(ELEMENT_FIELD, entry.getKey());
+            item.put(TAGS_FIELD, new ArrayList<>(entry.getValue()));
+            list.add(item);
+        }
+        Map<String, Object> result = new HashMap<>(2);
+        result.put(ELEMENTS_FIELD, list);
+        result.put(REMOVED_FIELD, new ArrayList<>(removed));
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected boolean merge(Map<String, Object> remote) {
+        boolean result = false;
+
+        for (Object tag : OortJSON.toCollection(remote.get(REMOVED_FIELD))) {
+            result |= removed.add((String)tag);
+        }
+
+        for (Iterator<Set<String>> iterator = elements.values().iterator(); iterator.hasNext(); ) {
+            Set<String> elementTags = iterator.next();
+            if (elementTags.removeAll(removed) && elementTags.isEmpty()) {
+                iterator.remove();
+            }
+        }
+
+        for (Object object : OortJSON.toCollection(remote.get(ELEMENTS_FIELD))) {
+            Map<?, ?> item = OortJSON.toMap(object);
+            E element = (E)item.get(ELEMENT_FIELD);
+            for (Object tag : OortJSON.toCollection(item.get(TAGS_FIELD))) {
+                if (!removed.contains(tag)) {
+                    Set<String> elementTags = elements.get(element);
+                    if (elementTags == null) {
+                        elementTags = new HashSet<>();
+                        elements.put(element, elementTags);
+                    }
+                    result |= elementTags.add((String)tag);
+                }
+            }
+        }
+
+        return result;
+    }
+}
@@ -15,20 +15,33 @@
  */
 package org.cometd.oort;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.EventListener;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
@@ -40,6 +53,9 @@ import org.cometd.bayeux.server.LocalSession;
 import org.cometd.bayeux.server.ServerChannel;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
+import org.cometd.common.JSONContext;
+import org.cometd.common.JettyJSONContextClient;
+import org.eclipse.jetty.util.TypeUtil;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -114,6 +130,18 @@ import org.slf4j.LoggerFactory;
  * <pre>
  * long totalUsersOnAllNodes = userCount1.merge(OortObjectMergers.longSum()); // yields 17+19=36
  * </pre>
+ * <p>When a node joins, by default oort objects push their whole local object to the new node.
+ * Oort objects that hold large objects may be configured with a {@link Segmenter} via
+ * {@link #setSegmenter(Segmenter)}: in this case, a digest of the segments of the local object
+ * is pushed instead, the other node requests only the segments that differ from its copy,
+ * and those segments are sent one per message.
+ * A number of segmenters are available in {@link OortObjectSegmenters}, and applications can
+ * write their own.</p>
+ * <p>Oort objects may be configured with a {@link #setSnapshotFile(File) snapshot file} where the parts
+ * of the other nodes are periodically saved along with their versions.
+ * When this node restarts, the parts are restored from the snapshot as soon as the other nodes join,
+ * and only the parts (or, with a {@link Segmenter}, only the segments) that changed since the snapshot
+ * are transferred from the other nodes.</p>
  * <p>Oort objects implement a strategy where value objects are replicated in each node, trading increased memory
  * usage for reduced latency accessing the data.
  * An alternative strategy that trades reduced memory usage for increased latency is implemented by
@@ -125,8 +153,22 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
     public static final String OORT_OBJECTS_CHANNEL = "/oort/objects";
     private static final String ACTION_FIELD_PUSH_VALUE = "oort.object.push";
     private static final String ACTION_FIELD_PULL_VALUE = "oort.object.pull";
+    private static final String ACTION_FIELD_DIGEST_VALUE = "oort.object.digest";
+    private static final String ACTION_FIELD_SYNC_VALUE = "oort.object.sync";
+    private static final String ACTION_FIELD_SEGMENT_VALUE = "oort.object.segment";
+    private static final String DIGEST_FIELD = "oort.object.digest";
+    private static final String SEGMENTS_FIELD = "oort.object.segments";
+    private static final String SEGMENT_FIELD = "oort.object.segment";
+    private static final String SNAPSHOT_URL_FIELD = "url";
+    private static final String SNAPSHOT_PARTS_FIELD = "parts";
+    private static final String SNAPSHOT_ID_FIELD = "id";
+    private static final String SNAPSHOT_VERSION_FIELD = "version";
+    private static final String SNAPSHOT_OBJECT_FIELD = "object";
 
     private final ConcurrentMap<String, ObjectPart> parts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> cometIds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Map<String, Object>> snapshots = new ConcurrentHashMap<>();
+    private final Object snapshotLock = new Object();
     private final List<Listener<T>> listeners = new CopyOnWriteArrayList<>();
     protected final Logger logger;
     private final Oort oort;
@@ -138,6 +180,11 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
     private final ServerChannel.SubscriptionListener initialStateListener;
     private final String serviceChannel;
     private final ServerChannel.MessageListener serviceListener;
+    private Segmenter<T> segmenter;
+    private File snapshotFile;
+    private long snapshotInterval = 60000;
+    private long syncTimeout = 5000;
+    private ScheduledFuture<?> snapshotTask;
 
     public OortObject(Oort oort, String name, Factory<T> factory) {
         this.oort = oort;
@@ -162,8 +209,19 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
             logger.debug("Set local {}", info);
         }
 
+        if (snapshotFile != null) {
+            loadSnapshot();
+            if (snapshotInterval > 0) {
+                snapshotTask = oort.getScheduler().scheduleWithFixedDelay(new SnapshotTask(), snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+
         sender.handshake();
         oort.addCometListener(this);
+        cometIds.putAll(oort.getKnownCometIds());
+        for (Map.Entry<String, String> entry : cometIds.entrySet()) {
+            restoreSnapshot(entry.getKey(), entry.getValue());
+        }
         BayeuxServer bayeuxServer = oort.getBayeuxServer();
         ServerChannel channel = bayeuxServer.createChannelIfAbsent(broadcastChannel, this).getReference();
         channel.addListener(broadcastListener);
@@ -191,6 +249,19 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         }
         oort.removeCometListener(this);
         sender.disconnect();
+        if (snapshotTask != null) {
+            snapshotTask.cancel(false);
+            snapshotTask = null;
+        }
+        if (snapshotFile != null) {
+            try {
+                snapshot();
+            } catch (IOException x) {
+                logger.info("Could not save snapshot to " + snapshotFile, x);
+            }
+        }
+        snapshots.clear();
+        cometIds.clear();
         parts.clear();
         if (logger.isDebugEnabled()) {
             logger.debug("{} stopped", this);
@@ -230,6 +301,188 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         return factory;
     }
 
+    /**
+     * @return the segmenter used to synchronize objects incrementally, or null
+     */
+    public Segmenter<T> getSegmenter() {
+        return segmenter;
+    }
+
+    /**
+     * <p>Sets the segmenter used to synchronize objects incrementally when nodes join,
+     * or when a node detects that its copy of a remote object is stale.</p>
+     * <p>All the nodes must be configured with the same segmenter.</p>
+     * <p>This property must be set before this oort object is started.</p>
+     *
+     * @param segmenter the segmenter, or null to always push whole objects
+     */
+    public void setSegmenter(Segmenter<T> segmenter) {
+        this.segmenter = segmenter;
+    }
+
+    /**
+     * @return the time, in milliseconds, to wait for the segments of an incremental
+     * synchronization before requesting them again
+     */
+    public long getSyncTimeout() {
+        return syncTimeout;
+    }
+
+    /**
+     * <p>Sets the time to wait for the segments of an incremental synchronization.</p>
+     * <p>Segments may be lost, for example if the remote node disconnects while
+     * sending them; when this timeout expires, the remote node is asked to send
+     * its digest again, and the segments still missing are requested again.</p>
+     *
+     * @param syncTimeout the time, in milliseconds, to wait for the segments
+     * @see #setSegmenter(Segmenter)
+     */
+    public void setSyncTimeout(long syncTimeout) {
+        this.syncTimeout = syncTimeout;
+    }
+
+    /**
+     * @return the file where the parts of the other nodes are saved, or null
+     */
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * <p>Sets the file where the parts of the other nodes are saved, along with their versions,
+     * every {@link #getSnapshotInterval() snapshot interval} and when this oort object is stopped.</p>
+     * <p>When this oort object is started, the snapshot is loaded and the part of another node
+     * is restored when that node joins (or immediately, if it has already joined), provided that it is the same node instance that
+     * produced the part; the parts that are more recent than the snapshot are then
+     * transferred from the other nodes as usual.</p>
+     * <p>This property must be set before this oort object is started.</p>
+     *
+     * @param snapshotFile the snapshot file, or null to disable snapshots
+     * @see #snapshot()
+     */
+    public void setSnapshotFile(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * @return the interval, in milliseconds, between snapshots
+     */
+    public long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * @param snapshotInterval the interval, in milliseconds, between snapshots,
+     *                         or 0 to save a snapshot only when this oort object is stopped
+     * @see #setSnapshotFile(File)
+     */
+    public void setSnapshotInterval(long snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * <p>Saves the parts of the other nodes to the {@link #getSnapshotFile() snapshot file}.</p>
+     * <p>The snapshot is first written to a temporary file that then replaces the snapshot file,
+     * so that a crash while saving does not corrupt the previous snapshot.</p>
+     *
+     * @throws IOException if the snapshot cannot be saved
+     */
+    public void snapshot() throws IOException {
+        File file = snapshotFile;
+        if (file == null) {
+            return;
+        }
+
+        List<Map<String, Object>> snapshotParts = new ArrayList<>();
+        for (Map.Entry<String, ObjectPart> entry : parts.entrySet()) {
+            String oortURL = entry.getKey();
+            String oortId = cometIds.get(oortURL);
+            Info<T> info = entry.getValue().getInfo();
+            if (oortId == null || info == null || info.isLocal()) {
+                continue;
+            }
+            Map<String, Object> snapshotPart = new HashMap<>(4);
+            snapshotPart.put(SNAPSHOT_URL_FIELD, oortURL);
+            snapshotPart.put(SNAPSHOT_ID_FIELD, oortId);
+            snapshotPart.put(SNAPSHOT_VERSION_FIELD, info.getVersion());
+            snapshotPart.put(SNAPSHOT_OBJECT_FIELD, serialize(info.getObject()));
+            snapshotParts.add(snapshotPart);
+        }
+        Map<String, Object> snapshot = new HashMap<>(2);
+        snapshot.put(SNAPSHOT_URL_FIELD, oort.getURL());
+        snapshot.put(SNAPSHOT_PARTS_FIELD, snapshotParts);
+        String json = getJSONContext().getGenerator().generate(snapshot);
+
+        synchronized (snapshotLock) {
+            Path path = file.toPath();
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(json);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Saved snapshot of {} parts to {}", snapshotParts.size(), file);
+        }
+    }
+
+    private void loadSnapshot() {
+        if (!snapshotFile.exists()) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(snapshotFile.toPath(), StandardCharsets.UTF_8)) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> snapshot = getJSONContext().getParser().parse(reader, Map.class);
+            if (!oort.getURL().equals(snapshot.get(SNAPSHOT_URL_FIELD))) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Ignoring snapshot {} of {}", snapshotFile, snapshot.get(SNAPSHOT_URL_FIELD));
+                }
+                return;
+            }
+            for (Object element : toArray(snapshot.get(SNAPSHOT_PARTS_FIELD))) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> snapshotPart = (Map<String, Object>)element;
+                snapshots.put((String)snapshotPart.get(SNAPSHOT_URL_FIELD), snapshotPart);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Loaded snapshot of {} parts from {}", snapshots.size(), snapshotFile);
+            }
+        } catch (Throwable x) {
+            logger.info("Could not load snapshot from " + snapshotFile, x);
+        }
+    }
+
+    private void restoreSnapshot(String oortURL, String oortId) {
+        Map<String, Object> snapshotPart = snapshots.remove(oortURL);
+        if (snapshotPart == null) {
+            return;
+        }
+        // A different node instance restarts its versions.
+        if (!snapshotPart.get(SNAPSHOT_ID_FIELD).equals(oortId)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Discarding snapshot of {}, node {} is not {}", oortURL, oortId, snapshotPart.get(SNAPSHOT_ID_FIELD));
+            }
+            return;
+        }
+
+        Info<T> info = new Info<>(oort.getURL(), null);
+        info.put(Info.OORT_URL_FIELD, oortURL);
+        info.put(Info.NAME_FIELD, getName());
+        info.put(Info.VERSION_FIELD, ((Number)snapshotPart.get(SNAPSHOT_VERSION_FIELD)).longValue());
+        info.put(Info.OBJECT_FIELD, getFactory().newObject(deserialize(snapshotPart.get(SNAPSHOT_OBJECT_FIELD))));
+        if (part(oortURL).restore(info)) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Restored {}", info);
+            }
+            notifyUpdated(null, info);
+        }
+    }
+
+    private JSONContext.Client getJSONContext() {
+        JSONContext.Client jsonContext = oort.getJSONContextClient();
+        return jsonContext != null ? jsonContext : new JettyJSONContextClient();
+    }
+
     /**
      * @return the local session that sends messages to other nodes
      */
@@ -299,6 +552,83 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         return object;
     }
 
+    /**
+     * <p>Returns a digest of the content of the given segment, used to detect the
+     * segments that differ between the copies of an object in different nodes.</p>
+     * <p>The digest is a SHA-1 hash of the {@link #serialize(Object) serialized}
+     * segment, where map entries are hashed in key order and numbers are
+     * normalized, so that a segment and its copy deserialized in another node
+     * have the same digest.</p>
+     *
+     * @param segment the segment to digest
+     * @return the digest of the segment
+     */
+    protected String digest(T segment) {
+        MessageDigest digest = newDigest();
+        digest(digest, serialize(segment));
+        return TypeUtil.toHexString(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    private void digest(MessageDigest digest, Object value) {
+        if (value == null) {
+            digest.update((byte)'n');
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>)value;
+            Map<String, Object> sorted = new TreeMap<>();
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+            digest.update((byte)'{');
+            for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+                digest(digest, entry.getKey());
+                digest(digest, entry.getValue());
+            }
+            digest.update((byte)'}');
+        } else if (value instanceof List || value instanceof Object[]) {
+            digest.update((byte)'[');
+            for (Object element : toArray(value)) {
+                digest(digest, element);
+            }
+            digest.update((byte)']');
+        } else if (value instanceof Collection) {
+            // Unordered collections are hashed in the order of their elements' digests.
+            List<String> elements = new ArrayList<>();
+            for (Object element : (Collection<?>)value) {
+                MessageDigest elementDigest = newDigest();
+                digest(elementDigest, element);
+                elements.add(TypeUtil.toHexString(elementDigest.digest()));
+            }
+            Collections.sort(elements);
+            digest.update((byte)'(');
+            for (String element : elements) {
+                digest(digest, element);
+            }
+            digest.update((byte)')');
+        } else if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long) {
+            // Integral numbers may be deserialized with a different type.
+            digest.update((byte)'l');
+            digest.update(String.valueOf(((Number)value).longValue()).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof Number) {
+            digest.update((byte)'d');
+            digest.update(String.valueOf(((Number)value).doubleValue()).getBytes(StandardCharsets.UTF_8));
+        } else {
+            byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+            // Prefix the length so that adjacent values cannot be confused.
+            digest.update((byte)'s');
+            digest.update(String.valueOf(bytes.length).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte)':');
+            digest.update(bytes);
+        }
+    }
+
     protected Info<T> newInfo(T local) {
         if (local == null) {
             throw new NullPointerException();
@@ -317,6 +647,8 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         if (logger.isDebugEnabled()) {
             logger.debug("Oort {} joined", remoteOortURL);
         }
+        cometIds.put(remoteOortURL, event.getCometId());
+        restoreSnapshot(remoteOortURL, event.getCometId());
         pushInfo(remoteOortURL, null);
     }
 
@@ -326,6 +658,7 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         if (logger.isDebugEnabled()) {
             logger.debug("Oort {} left", remoteOortURL);
         }
+        cometIds.remove(remoteOortURL);
         Info<T> info = removeInfo(remoteOortURL);
         if (info != null) {
             if (logger.isDebugEnabled()) {
@@ -354,7 +687,11 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
 
     Info<T> removeInfo(String oortURL) {
         ObjectPart part = parts.remove(oortURL);
-        return part == null ? null : part.getInfo();
+        if (part == null) {
+            return null;
+        }
+        part.cancelSync();
+        return part.getInfo();
     }
 
     /**
@@ -432,7 +769,8 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         String oortURL = (String)data.get(Info.OORT_URL_FIELD);
         boolean local = oort.getURL().equals(oortURL);
         Object object = data.get(Info.OBJECT_FIELD);
-        if (!local) {
+        // Synchronized objects have already been converted.
+        if (!local && !(data instanceof SyncData)) {
             object = deserialize(object);
             // Convert the object, for example from a
             // JSON serialized Map to a ConcurrentMap.
@@ -492,6 +830,10 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         OortComet oortComet = oort.findComet(oortURL);
         Info<T> info = getInfo(oort.getURL());
         if (oortComet != null && info != null) {
+            if (segmenter != null) {
+                pushDigest(oortComet, info, fields);
+                return;
+            }
             Map<String, Object> message = fields;
             if (message == null) {
                 message = new HashMap<>();
@@ -505,6 +847,88 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         }
     }
 
+    private void pushDigest(OortComet oortComet, Info<T> info, Map<String, Object> fields) {
+        Map<String, Object> message = newDigest(info, fields);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Pushing digest (to {}): {}", oortComet.getURL(), message);
+        }
+        oortComet.getChannel(serviceChannel).publish(message);
+    }
+
+    private Map<String, Object> newDigest(Info<T> info, Map<String, Object> fields) {
+        List<T> segments = segmenter.split(info.getObject());
+        List<String> digest = new ArrayList<>(segments.size());
+        for (T segment : segments) {
+            digest.add(digest(segment));
+        }
+        Map<String, Object> message = fields;
+        if (message == null) {
+            message = new HashMap<>();
+        }
+        message.put(Info.OORT_URL_FIELD, info.getOortURL());
+        message.put(Info.NAME_FIELD, getName());
+        message.put(Info.VERSION_FIELD, info.getVersion());
+        message.put(Info.ACTION_FIELD, ACTION_FIELD_DIGEST_VALUE);
+        message.put(DIGEST_FIELD, digest);
+        return message;
+    }
+
+    private boolean requestSegments(String oortURL, long version, List<Integer> segments) {
+        OortComet oortComet = oort.getComet(oortURL);
+        if (oortComet == null) {
+            return false;
+        }
+        Map<String, Object> message = new HashMap<>();
+        message.put(Info.OORT_URL_FIELD, getOort().getURL());
+        message.put(Info.NAME_FIELD, getName());
+        message.put(Info.VERSION_FIELD, version);
+        message.put(Info.ACTION_FIELD, ACTION_FIELD_SYNC_VALUE);
+        message.put(SEGMENTS_FIELD, segments);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Requesting segments (from {}): {}", oortURL, message);
+        }
+        oortComet.getChannel(serviceChannel).publish(message);
+        return true;
+    }
+
+    private void pushSegments(Map<String, Object> request) {
+        String oortURL = (String)request.get(Info.OORT_URL_FIELD);
+        OortComet oortComet = oort.getComet(oortURL);
+        Info<T> info = getInfo(oort.getURL());
+        if (oortComet != null && info != null) {
+            long version = ((Number)request.get(Info.VERSION_FIELD)).longValue();
+            if (info.getVersion() != version) {
+                // The object changed after the digest the request refers to, and the
+                // segments would not match the other segments: push the new digest.
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Segments requested for version {}, current {}", version, info);
+                }
+                pushInfoReply(oortURL);
+                return;
+            }
+            List<T> segments = segmenter.split(info.getObject());
+            for (Object element : toArray(request.get(SEGMENTS_FIELD))) {
+                int index = ((Number)element).intValue();
+                T segment = index < segments.size() ? segments.get(index) : factory.newObject(null);
+                Map<String, Object> message = new HashMap<>();
+                message.put(Info.OORT_URL_FIELD, info.getOortURL());
+                message.put(Info.NAME_FIELD, getName());
+                message.put(Info.VERSION_FIELD, info.getVersion());
+                message.put(Info.ACTION_FIELD, ACTION_FIELD_SEGMENT_VALUE);
+                message.put(SEGMENT_FIELD, index);
+                message.put(Info.OBJECT_FIELD, serialize(segment));
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Pushing segment {} (to {}): {}", index, oortURL, message);
+                }
+                oortComet.getChannel(serviceChannel).publish(message);
+            }
+        }
+    }
+
+    private static Object[] toArray(Object data) {
+        return data instanceof List ? ((List<?>)data).toArray() : (Object[])data;
+    }
+
     private void pushInfoReply(String oortURL) {
         Map<String, Object> fields = new HashMap<>();
         fields.put(Info.PEER_FIELD, oortURL);
@@ -642,6 +1066,35 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         public T newObject(Object representation);
     }
 
+    /**
+     * <p>Splits objects stored by {@link OortObject}s into segments, so that
+     * objects can be synchronized incrementally between nodes.</p>
+     * <p>Segments are compared using a {@link OortObject#digest(Object) digest}
+     * of their serialized content, so the segments of the copies of an object in
+     * different nodes are equal if they have the same content.</p>
+     *
+     * @param <T> the type of the objects split
+     * @see OortObject#setSegmenter(Segmenter)
+     */
+    public interface Segmenter<T> {
+        /**
+         * <p>Splits the given object into segments.</p>
+         * <p>The same content must always be split in the same way, so that the
+         * segment at a given index can be compared with the segment at the same
+         * index of the copy of the object in another node.</p>
+         *
+         * @param object the object to split
+         * @return the segments of the object
+         */
+        public List<T> split(T object);
+
+        /**
+         * @param segments the segments to join, in the order returned by {@link #split(Object)}
+         * @return the object made of the given segments
+         */
+        public T join(List<T> segments);
+    }
+
     /**
      * A merge strategy for object values.
      *
@@ -739,10 +1192,11 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
 
             Map<String, Object> data = message.getDataAsMap();
             String oortURL = (String)data.get(Info.OORT_URL_FIELD);
-            // Pulls are messages that read the local object, not
-            // the object specified by the data's OORT_URL_FIELD,
+            // Pulls and segment requests are messages that read the local
+            // object, not the object specified by the data's OORT_URL_FIELD,
             // and as such they must be queued to the local ObjectPart.
-            if (ACTION_FIELD_PULL_VALUE.equals(data.get(Info.ACTION_FIELD))) {
+            Object action = data.get(Info.ACTION_FIELD);
+            if (ACTION_FIELD_PULL_VALUE.equals(action) || ACTION_FIELD_SYNC_VALUE.equals(action)) {
                 oortURL = oort.getURL();
             }
 
@@ -823,6 +1277,8 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
         private boolean active;
         private long versions;
         private Info<T> info;
+        // Written by the thread that processes the updates.
+        private volatile Sync sync;
 
         private Info<T> getInfo() {
             synchronized (this) {
@@ -838,6 +1294,17 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
             }
         }
 
+        private boolean restore(Info<T> snapshot) {
+            synchronized (this) {
+                // The remote node may have already pushed its info.
+                if (info != null) {
+                    return false;
+                }
+                info = snapshot;
+                return true;
+            }
+        }
+
         private void enqueue(Map<String, Object> data) {
             synchronized (this) {
                 boolean local = oort.getURL().equals(data.get(Info.OORT_URL_FIELD));
@@ -874,12 +1341,32 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
 
                 String oortURL = (String)data.get(Info.OORT_URL_FIELD);
 
-                if (ACTION_FIELD_PULL_VALUE.equals(data.get(Info.ACTION_FIELD))) {
+                Object action = data.get(Info.ACTION_FIELD);
+                if (ACTION_FIELD_PULL_VALUE.equals(action)) {
                     pushInfoReply(oortURL);
                     continue;
                 }
 
-                if (ACTION_FIELD_PUSH_VALUE.equals(data.get(Info.ACTION_FIELD))) {
+                if (ACTION_FIELD_SYNC_VALUE.equals(action)) {
+                    pushSegments(data);
+                    continue;
+                }
+
+                if (ACTION_FIELD_DIGEST_VALUE.equals(action)) {
+                    if (!oort.getURL().equals(data.get(Info.PEER_FIELD))) {
+                        // If it was explicitly pushed, no matter what, we push back.
+                        pushInfoReply(oortURL);
+                    }
+                    onDigest(data, current);
+                    continue;
+                }
+
+                if (ACTION_FIELD_SEGMENT_VALUE.equals(action)) {
+                    onSegment(data, current);
+                    continue;
+                }
+
+                if (ACTION_FIELD_PUSH_VALUE.equals(action)) {
                     if (!oort.getURL().equals(data.get(Info.PEER_FIELD))) {
                         // If it was explicitly pushed, no matter what, we push back.
                         pushInfoReply(oortURL);
@@ -895,13 +1382,186 @@ public class OortObject<T> extends AbstractLifeCycle implements ConfigurableServ
                 }
             }
         }
+
+        private void onDigest(Map<String, Object> data, long current) {
+            long version = ((Number)data.get(Info.VERSION_FIELD)).longValue();
+            if (version <= current || segmenter == null) {
+                return;
+            }
+            String oortURL = (String)data.get(Info.OORT_URL_FIELD);
+            Sync pending = sync;
+            if (pending != null && pending.version == version) {
+                // Already synchronizing this version; if the segments
+                // did not arrive in time, request them again.
+                if (pending.expired) {
+                    request(pending, oortURL);
+                }
+                return;
+            }
+            cancelSync();
+
+            Info<T> existing = getInfo();
+            List<T> segments = existing == null ? new ArrayList<T>() : segmenter.split(existing.getObject());
+            Object[] digest = toArray(data.get(DIGEST_FIELD));
+            Sync newSync = new Sync(data, version);
+            List<Integer> missing = new ArrayList<>();
+            for (int i = 0; i < digest.length; ++i) {
+                T segment = i < segments.size() ? segments.get(i) : null;
+                if (segment == null || !digest(segment).equals(digest[i])) {
+                    newSync.segments.add(null);
+                    missing.add(i);
+                } else {
+                    newSync.segments.add(segment);
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Digest version={} differs in {}/{} segments", version, missing.size(), digest.length);
+            }
+
+            newSync.missing = missing.size();
+            if (missing.isEmpty()) {
+                onSync(newSync, current);
+            } else {
+                // A newer digest replaces a pending synchronization.
+                sync = newSync;
+                request(newSync, oortURL);
+            }
+        }
+
+        private void request(Sync pending, String oortURL) {
+            List<Integer> missing = new ArrayList<>(pending.missing);
+            for (int i = 0; i < pending.segments.size(); ++i) {
+                if (pending.segments.get(i) == null) {
+                    missing.add(i);
+                }
+            }
+            pending.cancel();
+            pending.expired = false;
+            if (requestSegments(oortURL, pending.version, missing)) {
+                pending.timeout = oort.getScheduler().schedule(new SyncTimeoutTask(this, pending, oortURL), getSyncTimeout(), TimeUnit.MILLISECONDS);
+            } else {
+                // The remote node is gone, the segments will never arrive.
+                cancelSync();
+            }
+        }
+
+        private void cancelSync() {
+            Sync pending = sync;
+            sync = null;
+            if (pending != null) {
+                pending.cancel();
+            }
+        }
+
+        private void onSegment(Map<String, Object> data, long current) {
+            Sync pending = sync;
+            long version = ((Number)data.get(Info.VERSION_FIELD)).longValue();
+            if (pending == null || pending.version != version) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Discarding stale segment {}", data);
+                }
+                return;
+            }
+            int index = ((Number)data.get(SEGMENT_FIELD)).intValue();
+            T segment = getFactory().newObject(deserialize(data.get(Info.OBJECT_FIELD)));
+            if (pending.segments.set(index, segment) == null) {
+                --pending.missing;
+            }
+            if (pending.missing == 0) {
+                cancelSync();
+                onSync(pending, current);
+            }
+        }
+
+        private void onSync(Sync sync, long current) {
+            if (sync.version <= current) {
+                return;
+            }
+            SyncData data = new SyncData(sync.fields);
+            data.put(Info.VERSION_FIELD, sync.version);
+            data.put(Info.OBJECT_FIELD, getFactory().newObject(segmenter.join(sync.segments)));
+            onObject(data);
+        }
+    }
+
+    /**
+     * <p>The state of an incremental synchronization of a remote object.</p>
+     */
+    private class Sync {
+        private final List<T> segments = new ArrayList<>();
+        private final Map<String, Object> fields = new HashMap<>(3);
+        private final long version;
+        private int missing;
+        private volatile ScheduledFuture<?> timeout;
+        private volatile boolean expired;
+
+        private Sync(Map<String, Object> digest, long version) {
+            this.version = version;
+            fields.put(Info.OORT_URL_FIELD, digest.get(Info.OORT_URL_FIELD));
+            fields.put(Info.NAME_FIELD, digest.get(Info.NAME_FIELD));
+            Object peer = digest.get(Info.PEER_FIELD);
+            if (peer != null) {
+                fields.put(Info.PEER_FIELD, peer);
+            }
+        }
+
+        private void cancel() {
+            ScheduledFuture<?> task = timeout;
+            if (task != null) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    private class SyncTimeoutTask implements Runnable {
+        private final ObjectPart part;
+        private final Sync sync;
+        private final String oortURL;
+
+        private SyncTimeoutTask(ObjectPart part, Sync sync, String oortURL) {
+            this.part = part;
+            this.sync = sync;
+            this.oortURL = oortURL;
+        }
+
+        @Override
+        public void run() {
+            if (part.sync == sync) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Segments of version {} not received from {}, pulling digest", sync.version, oortURL);
+                }
+                sync.expired = true;
+                // The digest is processed in order with the segments,
+                // and the segments still missing are requested again.
+                pullInfo(oortURL);
+            }
+        }
+    }
+
+    private static class SyncData extends HashMap<String, Object> {
+        private SyncData(Map<String, Object> fields) {
+            super(fields);
+        }
+    }
+
+    private class SnapshotTask implements Runnable {
+        @Override
+        public void run() {
+            try {
+                snapshot();
+            } catch (Throwable x) {
+                logger.info("Could not save snapshot to " + snapshotFile, x);
+            }
+        }
     }
 
     private class InitialStateListener implements ServerChannel.SubscriptionListener {
         @Override
         public void subscribed(ServerSession session, ServerChannel channel, ServerMessage message) {
-            // Deliver the local state to the node that subscribed.
-            session.deliver(getLocalSession(), channel.getId(), getInfo(getOort().getURL()));
+            // Deliver the local state, or its digest, to the node that subscribed.
+            Info<T> info = getInfo(getOort().getURL());
+            Object data = segmenter == null ? info : newDigest(info, null);
+            session.deliver(getLocalSession(), channel.getId(), data);
         }
 
         @Override
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>A collection of {@link OortObject.Segmenter} implementations for
+ * the object types most commonly stored by {@link OortObject}s.</p>
+ *
+ * @see OortObject#setSegmenter(OortObject.Segmenter)
+ */
+public class OortObjectSegmenters {
+    private OortObjectSegmenters() {
+    }
+
+    /**
+     * @param segments the number of segments the map is split into
+     * @param <K> the key type
+     * @param <V> the value type
+     * @return a segmenter that splits maps into the given number of segments by key hash
+     */
+    public static <K, V> OortObject.Segmenter<ConcurrentMap<K, V>> forConcurrentMap(int segments) {
+        return new ConcurrentMapSegmenter<>(segments);
+    }
+
+    /**
+     * @param segmentSize the max number of elements of each segment
+     * @param <E> the element type
+     * @return a segmenter that splits lists into ranges of the given size
+     */
+    public static <E> OortObject.Segmenter<List<E>> forList(int segmentSize) {
+        return new ListSegmenter<>(segmentSize);
+    }
+
+    private static class ConcurrentMapSegmenter<K, V> implements OortObject.Segmenter<ConcurrentMap<K, V>> {
+        private final int segments;
+
+        private ConcurrentMapSegmenter(int segments) {
+            if (segments <= 0) {
+                throw new IllegalArgumentException("Invalid segments " + segments);
+            }
+            this.segments = segments;
+        }
+
+        @Override
+        public List<ConcurrentMap<K, V>> split(ConcurrentMap<K, V> object) {
+            List<ConcurrentMap<K, V>> result = new ArrayList<>(segments);
+            for (int i = 0; i < segments; ++i) {
+                result.add(new ConcurrentHashMap<K, V>());
+            }
+            for (Map.Entry<K, V> entry : object.entrySet()) {
+                int index = (entry.getKey().hashCode() & 0x7F_FF_FF_FF) % segments;
+                result.get(index).put(entry.getKey(), entry.getValue());
+            }
+            return result;
+        }
+
+        @Override
+        public ConcurrentMap<K, V> join(List<ConcurrentMap<K, V>> segments) {
+            ConcurrentMap<K, V> result = new ConcurrentHashMap<>();
+            for (ConcurrentMap<K, V> segment : segments) {
+                result.putAll(segment);
+            }
+            return result;
+        }
+    }
+
+    private static class ListSegmenter<E> implements OortObject.Segmenter<List<E>> {
+        private final int segmentSize;
+
+        private ListSegmenter(int segmentSize) {
+            if (segmentSize <= 0) {
+                throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+            }
+            this.segmentSize = segmentSize;
+        }
+
+        @Override
+        public List<List<E>> split(List<E> object) {
+            List<E> list = new ArrayList<>(object);
+            List<List<E>> result = new ArrayList<>();
+            for (int i = 0; i < list.size(); i += segmentSize) {
+                result.add(new ArrayList<>(list.subList(i, Math.min(i + segmentSize, list.size()))));
+            }
+            return result;
+        }
+
+        @Override
+        public List<E> join(List<List<E>> segments) {
+            List<E> result = new ArrayList<>();
+            for (List<E> segment : segments) {
+                result.addAll(segment);
+            }
+            return result;
+        }
+    }
+}
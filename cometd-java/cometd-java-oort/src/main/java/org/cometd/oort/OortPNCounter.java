@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>A counter that can be incremented and decremented (PN-Counter),
+ * replicated across the nodes of the cluster.</p>
+ * <p>The counter is made of two grow-only counters, one for the increments
+ * and one for the decrements; its value is the difference of the two.</p>
+ *
+ * @see OortGCounter
+ */
+public class OortPNCounter extends OortCRDT {
+    private static final String INCREMENTS_FIELD = "p";
+    private static final String DECREMENTS_FIELD = "n";
+
+    private final Map<String, Long> increments = new HashMap<>();
+    private final Map<String, Long> decrements = new HashMap<>();
+
+    /**
+     * @param oort the oort this instance is associated to
+     * @param name the name of this counter
+     */
+    public OortPNCounter(Oort oort, String name) {
+        super(oort, name);
+    }
+
+    /**
+     * @return the value of the counter, as known by this node
+     */
+    public long get() {
+        synchronized (getLock()) {
+            return value();
+        }
+    }
+
+    /**
+     * @param delta the amount to add, may be negative
+     * @return the value of the counter after the addition, as known by this node
+     */
+    public long addAndGet(long delta) {
+        synchronized (getLock()) {
+            if (delta != 0) {
+                Map<String, Long> counts = delta > 0 ? increments : decrements;
+                String replicaId = getReplicaId();
+                Long current = counts.get(replicaId);
+                long amount = Math.abs(delta);
+                counts.put(replicaId, current == null ? amount : current + amount);
+                share();
+            }
+            return value();
+        }
+    }
+
+    /**
+     * @return the value of the counter after the increment, as known by this node
+     */
+    public long incrementAndGet() {
+        return addAndGet(1);
+    }
+
+    /**
+     * @return the value of the counter after the decrement, as known by this node
+     */
+    public long decrementAndGet() {
+        return addAndGet(-1);
+    }
+
+    private long value() {
+        return sum(increments) - sum(decrements);
+    }
+
+    @Override
+    protected Map<String, Object> serialize() {
+        Map<String, Object> result = new HashMap<>(2);
+        result.put(INCREMENTS_FIELD, new HashMap<>(increments));
+        result.put(DECREMENTS_FIELD, new HashMap<>(decrements));
+        return result;
+    }
+
+    @Override
+    protected boolean merge(Map<String, Object> remote) {
+        boolean incremented = mergeMax(increments, remote.get(INCREMENTS_FIELD));
+        boolean decremented = mergeMax(decrements, remote.get(DECREMENTS_FIELD));
+        return incremented || decremented;
+    }
+}
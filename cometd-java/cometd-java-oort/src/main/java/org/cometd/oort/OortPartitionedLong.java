@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A distributed service to be deployed on a Oort cluster that modifies
+ * named {@code long} counters, each hosted in the node that owns the counter name.</p>
+ * <p>Differently from {@link OortMasterLong}, where all counters live in the
+ * "master" node, the counters are spread across the nodes of the cluster.</p>
+ * <p>Applications may call methods {@link #addAndGet(String, long, Callback)} or
+ * {@link #getAndAdd(String, long, Callback)} providing the counter name, the amount
+ * to add (it may be negative) and a {@link Callback} object that will be
+ * invoked on the <em>requesting node</em> when the result has been
+ * computed and transmitted back by the node that owns the counter.</p>
+ * <p>When the ownership of a counter changes, its value is added to the counter
+ * in the new owner node.
+ * The results of operations performed while the ownership changes may not
+ * account for the whole counter value.</p>
+ */
+public class OortPartitionedLong extends OortPartitionedService<Long, OortPartitionedLong.Context> {
+    private static final String KEY_FIELD = "key";
+    private static final String DELTA_FIELD = "delta";
+
+    private final Map<String, Long> values = new HashMap<>();
+
+    /**
+     * @param oort the oort this instance is associated to
+     * @param name the name of this service
+     */
+    public OortPartitionedLong(Oort oort, String name) {
+        super(oort, name);
+    }
+
+    /**
+     * @param key the counter name
+     * @return the local value of the given counter, which makes sense only if called on the owner node.
+     */
+    protected long getValue(String key) {
+        synchronized (values) {
+            Long value = values.get(key);
+            return value == null ? 0 : value;
+        }
+    }
+
+    /**
+     * Retrieves the value of the given counter from the owner node and then
+     * invokes the given {@code callback} with the result value.
+     *
+     * @param key      the counter name
+     * @param callback the callback invoked when the result is available
+     * @return whether the request could be forwarded to the owner node
+     */
+    public boolean get(String key, Callback callback) {
+        return getAndAdd(key, 0, callback);
+    }
+
+    /**
+     * Adds the given {@code delta} to the given counter and then invokes the given
+     * {@code callback} with the counter value after the addition.
+     *
+     * @param key      the counter name
+     * @param delta    the value to add, may be negative
+     * @param callback the callback invoked when the result is available
+     * @return whether the request could be forwarded to the owner node
+     * @see #getAndAdd(String, long, Callback)
+     */
+    public boolean addAndGet(String key, long delta, Callback callback) {
+        return forwardToOwner(key, newParameter(key, delta), new Context(key, delta, callback, true));
+    }
+
+    /**
+     * Adds the given {@code delta} to the given counter and then invokes the given
+     * {@code callback} with the counter value before the addition.
+     *
+     * @param key      the counter name
+     * @param delta    the value to add, may be negative
+     * @param callback the callback invoked when the result is available
+     * @return whether the request could be forwarded to the owner node
+     * @see #addAndGet(String, long, Callback)
+     */
+    public boolean getAndAdd(String key, long delta, Callback callback) {
+        return forwardToOwner(key, newParameter(key, delta), new Context(key, delta, callback, false));
+    }
+
+    private Map<String, Object> newParameter(String key, long delta) {
+        Map<String, Object> parameter = new HashMap<>(2);
+        parameter.put(KEY_FIELD, key);
+        parameter.put(DELTA_FIELD, delta);
+        return parameter;
+    }
+
+    @Override
+    protected Result<Long> onForward(Request request) {
+        Map<String, Object> parameter = request.getDataAsMap();
+        String key = (String)parameter.get(KEY_FIELD);
+        long delta = ((Number)parameter.get(DELTA_FIELD)).longValue();
+        long oldValue;
+        synchronized (values) {
+            Long value = values.get(key);
+            oldValue = value == null ? 0 : value;
+            values.put(key, oldValue + delta);
+        }
+        // The requesting node may have a different view of the cloud.
+        if (!isOwner(key)) {
+            handOff(key);
+        }
+        return Result.success(oldValue);
+    }
+
+    @Override
+    protected void onOwnershipChanged() {
+        List<String> keys;
+        synchronized (values) {
+            keys = new ArrayList<>(values.keySet());
+        }
+        for (String key : keys) {
+            if (!isOwner(key)) {
+                handOff(key);
+            }
+        }
+    }
+
+    private void handOff(String key) {
+        Long value;
+        synchronized (values) {
+            value = values.remove(key);
+        }
+        if (value != null && value != 0) {
+            String owner = getOwnerOortURL(key);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Handing off counter {}={} to {}", key, value, owner);
+            }
+            if (!forward(owner, newParameter(key, value), new Context(key, value, null, false))) {
+                // Could not reach the owner, keep the value.
+                restore(key, value);
+            }
+        }
+    }
+
+    private void restore(String key, long value) {
+        synchronized (values) {
+            Long current = values.get(key);
+            values.put(key, current == null ? value : current + value);
+        }
+    }
+
+    @Override
+    protected void onForwardSucceeded(Long result, Context context) {
+        if (context.callback != null) {
+            context.callback.succeeded(context.compute ? result + context.delta : result);
+        }
+    }
+
+    @Override
+    protected void onForwardFailed(Object failure, Context context) {
+        if (context.callback != null) {
+            context.callback.failed(failure);
+        } else {
+            // The hand off failed, for example because the service
+            // on the new owner node is not started yet: retry.
+            if (logger.isDebugEnabled()) {
+                logger.debug("Could not hand off counter {}: {}", context.key, failure);
+            }
+            restore(context.key, context.delta);
+            if (!isOwner(context.key)) {
+                handOff(context.key);
+            }
+        }
+    }
+
+    /**
+     * Callback invoked when the result of the operation on the counter is available,
+     * or when the operation failed.
+     */
+    public interface Callback {
+        /**
+         * Callback method invoked when the operation on the counter succeeded.
+         *
+         * @param result the result of the operation
+         */
+        public void succeeded(Long result);
+
+        /**
+         * Callback method invoked when the operation on the counter failed.
+         *
+         * @param failure the failure object
+         */
+        public void failed(Object failure);
+
+        /**
+         * Empty implementation of {@link Callback}
+         */
+        public static class Adapter implements Callback {
+            @Override
+            public void succeeded(Long result) {
+            }
+
+            @Override
+            public void failed(Object failure) {
+            }
+        }
+    }
+
+    protected static class Context {
+        private final String key;
+        private final long delta;
+        private final Callback callback;
+        private final boolean compute;
+
+        private Context(String key, long delta, Callback callback, boolean compute) {
+            this.key = key;
+            this.delta = delta;
+            this.callback = callback;
+            this.compute = compute;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+/**
+ * <p>{@link OortPartitionedService} extends {@link OortService} to allow applications
+ * to perform actions on entities that are spread across all the nodes of the cloud.</p>
+ * <p>Differently from {@link OortMasterService}, where all the entities live in the
+ * "master" node, every entity is identified by a key, and the key is owned by one of
+ * the nodes of the cloud, chosen via consistent hashing of the key over the nodes
+ * currently connected.
+ * Both the load and the state of the service are therefore spread across the cloud.</p>
+ * <p>Applications may call {@link #getOwnerOortURL(String)} to get the Oort URL of the
+ * node that owns a key, or directly {@link #forwardToOwner(String, Object, Object)}.</p>
+ * <p>When a node joins or leaves the cloud, the ownership of some keys changes and
+ * {@link #onOwnershipChanged()} is invoked, so that subclasses may hand off the
+ * entities whose keys they do not own anymore to the new owner nodes.
+ * The entities of a node that leaves the cloud abruptly are lost.</p>
+ *
+ * @param <R> the result type
+ * @param <C> the opaque context type
+ * @see OortPartitionedLong
+ */
+public abstract class OortPartitionedService<R, C> extends OortService<R, C> {
+    private final Oort.CometListener cometListener = new CometListener();
+    private volatile OortRing ring;
+
+    /**
+     * @param oort the oort this instance is associated to
+     * @param name the name of this service
+     */
+    protected OortPartitionedService(Oort oort, String name) {
+        super(oort, name);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        updateRing(null, null);
+        getOort().addCometListener(cometListener);
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        getOort().removeCometListener(cometListener);
+        super.doStop();
+    }
+
+    /**
+     * @param key the entity key
+     * @return the Oort URL of the node that owns the given key
+     */
+    public String getOwnerOortURL(String key) {
+        OortRing ring = this.ring;
+        String owner = ring == null ? null : ring.getOwner(key);
+        return owner == null ? getOort().getURL() : owner;
+    }
+
+    /**
+     * @param key the entity key
+     * @return whether this node owns the given key
+     */
+    public boolean isOwner(String key) {
+        return getOort().getURL().equals(getOwnerOortURL(key));
+    }
+
+    /**
+     * <p>Forwards the action to the node that owns the given key.</p>
+     *
+     * @param key       the entity key
+     * @param parameter the action parameter that will be passed to {@link #onForward(Request)}
+     * @param context   the opaque context passed to {@link #onForwardSucceeded(Object, Object)}
+     * @return whether the forward succeeded
+     * @see #forward(String, Object, Object)
+     */
+    protected boolean forwardToOwner(String key, Object parameter, C context) {
+        return forward(getOwnerOortURL(key), parameter, context);
+    }
+
+    /**
+     * <p>Callback method invoked when the ownership of the keys changed
+     * because a node joined or left the cloud.</p>
+     * <p>Subclasses should hand off the entities whose keys are not owned
+     * by this node anymore to their new owner node.</p>
+     */
+    protected void onOwnershipChanged() {
+    }
+
+    private void updateRing(String joined, String left) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Partitioning after comet joined {}, left {}", joined, left);
+        }
+        ring = OortRing.of(getOort(), joined, left);
+    }
+
+    private class CometListener implements Oort.CometListener {
+        @Override
+        public void cometJoined(Event event) {
+            updateRing(event.getCometURL(), null);
+            onOwnershipChanged();
+        }
+
+        @Override
+        public void cometLeft(Event event) {
+            updateRing(null, event.getCometURL());
+            onOwnershipChanged();
+        }
+    }
+}
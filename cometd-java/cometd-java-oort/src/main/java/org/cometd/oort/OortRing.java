@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p>An immutable consistent hash ring of Oort URLs, used to assign
+ * the ownership of keys to the nodes of the cloud.</p>
+ * <p>Each Oort URL is mapped to a number of points on the ring, and a key is
+ * owned by the Oort URL of the first point that follows the key hash, so that
+ * when a node joins or leaves the cloud only the keys of that node change owner.</p>
+ * <p>Points of different Oort URLs that hash to the same value are assigned to
+ * the smallest Oort URL, so that all nodes build the same ring.</p>
+ */
+class OortRing {
+    private static final int VIRTUAL_NODES = 64;
+
+    private final NavigableMap<Integer, String> ring = new TreeMap<>();
+
+    OortRing(Collection<String> oortURLs) {
+        for (String oortURL : oortURLs) {
+            for (int i = 0; i < VIRTUAL_NODES; ++i) {
+                Integer point = hash(oortURL + "#" + i);
+                String existing = ring.get(point);
+                if (existing == null || oortURL.compareTo(existing) < 0) {
+                    ring.put(point, oortURL);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>Creates a ring of the given Oort and of the comets it knows.</p>
+     * <p>The comet membership events are notified before the set of known
+     * comets is updated, so the comet that joined or left is explicitly
+     * added to or removed from the ring.</p>
+     *
+     * @param oort   the Oort
+     * @param joined the URL of the comet that joined, or null
+     * @param left   the URL of the comet that left, or null
+     * @return a new ring
+     */
+    static OortRing of(Oort oort, String joined, String left) {
+        Set<String> oortURLs = new HashSet<>(oort.getKnownComets());
+        oortURLs.add(oort.getURL());
+        if (joined != null) {
+            oortURLs.add(joined);
+        }
+        if (left != null) {
+            oortURLs.remove(left);
+        }
+        return new OortRing(oortURLs);
+    }
+
+    /**
+     * @param key the key
+     * @return the Oort URL that owns the given key, or null if the ring is empty
+     */
+    String getOwner(String key) {
+        Map.Entry<Integer, String> entry = ring.ceilingEntry(hash(key));
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry == null ? null : entry.getValue();
+    }
+
+    private static int hash(String value) {
+        // Spread the bits of the string hash code.
+        int hash = value.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -15,10 +15,16 @@
  */
 package org.cometd.oort;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -84,16 +90,28 @@ import org.slf4j.LoggerFactory;
  * @param <C> the opaque context type
  */
 public abstract class OortService<R, C> extends AbstractLifeCycle implements ServerChannel.MessageListener {
+    private static final String BATCH_FIELD = "oort.service.batch";
     private static final String CONTEXT_FIELD = "oort.service.context";
     private static final String DATA_FIELD = "oort.service.data";
     private static final String ID_FIELD = "oort.service.id";
+    private static final String IGNORED_FIELD = "oort.service.ignored";
     private static final String OORT_URL_FIELD = "oort.service.url";
+    private static final String OWNER_KEY_FIELD = "oort.service.owner";
     private static final String PARAMETER_FIELD = "oort.service.parameter";
     private static final String RESULT_FIELD = "oort.service.result";
     private static final String TIMEOUT_FIELD = "oort.service.timeout";
 
     private final AtomicLong contextIds = new AtomicLong();
     private final ConcurrentMap<Long, Map<String, Object>> callbacks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Scheduler.Task> sweeps = new ConcurrentHashMap<>();
+    private final Map<String, ForwardBatch> batches = new HashMap<>();
+    private final Map<Object, String> owners = new LinkedHashMap<Object, String>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, String> eldest) {
+            return size() > getMaxOwnerCacheSize();
+        }
+    };
+    private final Oort.CometListener cometListener = new CometListener();
     private final Oort oort;
     private final String name;
     private final String forwardChannelName;
@@ -102,6 +120,10 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
     private final LocalSession session;
     protected final Logger logger;
     private volatile long timeout = 5000;
+    private volatile long batchDelay;
+    private volatile int maxBatchSize = 256;
+    private volatile boolean ownerCacheEnabled;
+    private volatile int maxOwnerCacheSize = 64 * 1024;
 
     /**
      * Creates an {@link OortService} with the given name.
@@ -154,6 +176,88 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
         this.timeout = timeout;
     }
 
+    /**
+     * @return the max time, in milliseconds, that actions forwarded to a remote node
+     * are held in order to be sent in a single message, or 0 if batching is disabled
+     * (by default 0)
+     */
+    public long getBatchDelay() {
+        return batchDelay;
+    }
+
+    /**
+     * <p>Enables batching of the actions forwarded to a remote node.</p>
+     * <p>Actions forwarded to the same remote node within the given delay are
+     * sent in a single message, the remote node returns their results in a single
+     * message, and the timeout is enforced by a single task for the whole batch,
+     * measured from the forward of the first action of the batch.</p>
+     *
+     * @param batchDelay the max time, in milliseconds, that actions forwarded to a
+     *                   remote node are held, or 0 to disable batching
+     */
+    public void setBatchDelay(long batchDelay) {
+        this.batchDelay = batchDelay;
+    }
+
+    /**
+     * @return the max number of actions in a batch, after which the batch is sent
+     * without waiting for the batch delay to expire
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize the max number of actions in a batch
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @return whether the owner node of entities is cached (by default false)
+     * @see #setOwnerCacheEnabled(boolean)
+     */
+    public boolean isOwnerCacheEnabled() {
+        return ownerCacheEnabled;
+    }
+
+    /**
+     * <p>Enables the cache of the owner node of entities.</p>
+     * <p>When an action is broadcast via {@link #forward(String, Object, Object)}
+     * with a {@code null} target node, and {@link #getOwnerKey(Object)} returns
+     * a non-null key for the action parameter, the node that returns a
+     * non-ignored result is remembered as the owner of the key, and subsequent
+     * actions for the same key are forwarded to that node only.</p>
+     * <p>If the cached node ignores the action because it does not own the entity
+     * anymore, the cache entry is invalidated and the action broadcast again.
+     * Cache entries are also invalidated when the cached node leaves the cluster.</p>
+     *
+     * @param ownerCacheEnabled whether the owner node of entities is cached
+     */
+    public void setOwnerCacheEnabled(boolean ownerCacheEnabled) {
+        this.ownerCacheEnabled = ownerCacheEnabled;
+        if (!ownerCacheEnabled) {
+            clearOwners();
+        }
+    }
+
+    /**
+     * @return the max number of entries of the owner cache
+     */
+    public int getMaxOwnerCacheSize() {
+        return maxOwnerCacheSize;
+    }
+
+    /**
+     * <p>When the owner cache is full, the least recently used entry is evicted.</p>
+     *
+     * @param maxOwnerCacheSize the max number of entries of the owner cache
+     */
+    public void setMaxOwnerCacheSize(int maxOwnerCacheSize) {
+        this.maxOwnerCacheSize = maxOwnerCacheSize;
+    }
+
     @Override
     protected void doStart() throws Exception {
         session.handshake();
@@ -162,6 +266,7 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
         bayeuxServer.createChannelIfAbsent(broadcastChannelName).getReference().addListener(this);
         bayeuxServer.createChannelIfAbsent(resultChannelName).getReference().addListener(this);
         oort.observeChannel(broadcastChannelName);
+        oort.addCometListener(cometListener);
         if (logger.isDebugEnabled()) {
             logger.debug("Started {}", this);
         }
@@ -169,6 +274,17 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
 
     @Override
     protected void doStop() throws Exception {
+        List<ForwardBatch> pending;
+        synchronized (batches) {
+            pending = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        for (ForwardBatch batch : pending) {
+            batch.task.cancel();
+            batch.send();
+        }
+        oort.removeCometListener(cometListener);
+        clearOwners();
         oort.deobserveChannel(broadcastChannelName);
         BayeuxServer bayeuxServer = oort.getBayeuxServer();
         ServerChannel channel = bayeuxServer.getChannel(resultChannelName);
@@ -207,6 +323,26 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
         ctx.put(CONTEXT_FIELD, context);
         callbacks.put(contextId, ctx);
 
+        if (targetOortURL == null && isOwnerCacheEnabled()) {
+            Object ownerKey = getOwnerKey(parameter);
+            if (ownerKey != null) {
+                ctx.put(OWNER_KEY_FIELD, ownerKey);
+                String ownerOortURL = findOwner(ownerKey);
+                if (ownerOortURL != null) {
+                    if (getOort().getURL().equals(ownerOortURL) || getOort().getComet(ownerOortURL) != null) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Cached owner {} for {}", ownerOortURL, ownerKey);
+                        }
+                        // Keep the parameter to broadcast again if the owner changed.
+                        ctx.put(PARAMETER_FIELD, parameter);
+                        targetOortURL = ownerOortURL;
+                    } else {
+                        removeOwner(ownerKey, ownerOortURL);
+                    }
+                }
+            }
+        }
+
         Map<String, Object> data = new HashMap<>(3);
         data.put(ID_FIELD, contextId);
         data.put(PARAMETER_FIELD, parameter);
@@ -234,6 +370,13 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
                 // Remote case
                 OortComet comet = getOort().getComet(targetOortURL);
                 if (comet != null) {
+                    if (getBatchDelay() > 0) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Batching action from {} to {}: {}", localOortURL, targetOortURL, data);
+                        }
+                        batch(targetOortURL, data);
+                        return true;
+                    }
                     if (logger.isDebugEnabled()) {
                         logger.debug("Forwarding action from {} to {}: {}", localOortURL, targetOortURL, data);
                     }
@@ -253,11 +396,21 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
     @Override
     public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
         if (forwardChannelName.equals(message.getChannel())) {
-            onForwardMessage(message.getDataAsMap(), false);
+            Map<String, Object> data = message.getDataAsMap();
+            if (data.containsKey(BATCH_FIELD)) {
+                onForwardBatchMessage(data);
+            } else {
+                onForwardMessage(data, false);
+            }
         } else if (broadcastChannelName.equals(message.getChannel())) {
             onForwardMessage(message.getDataAsMap(), true);
         } else if (resultChannelName.equals(message.getChannel())) {
-            onResultMessage(message.getDataAsMap());
+            Map<String, Object> data = message.getDataAsMap();
+            if (data.containsKey(BATCH_FIELD)) {
+                onResultBatchMessage(data);
+            } else {
+                onResultMessage(data);
+            }
         }
         return true;
     }
@@ -266,6 +419,31 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
         if (logger.isDebugEnabled()) {
             logger.debug("Received {} action {}", broadcast ? "broadcast" : "forwarded", data);
         }
+        Map<String, Object> resultData = process(data, broadcast);
+        if (resultData != null) {
+            returnResult(resultData, (String)data.get(OORT_URL_FIELD));
+        }
+    }
+
+    private void onForwardBatchMessage(Map<String, Object> data) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Received batched actions {}", data);
+        }
+        Collection<?> actions = OortJSON.toCollection(data.get(BATCH_FIELD));
+        List<Map<String, Object>> results = new ArrayList<>(actions.size());
+        for (Object action : actions) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> result = process((Map<String, Object>)action, false);
+            results.add(result);
+        }
+        Map<String, Object> resultData = new HashMap<>(3);
+        resultData.put(ID_FIELD, data.get(ID_FIELD));
+        resultData.put(OORT_URL_FIELD, getOort().getURL());
+        resultData.put(BATCH_FIELD, results);
+        returnResult(resultData, (String)data.get(OORT_URL_FIELD));
+    }
+
+    private Map<String, Object> process(Map<String, Object> data, boolean broadcast) {
         Map<String, Object> resultData = new HashMap<>(3);
         resultData.put(ID_FIELD, data.get(ID_FIELD));
         resultData.put(OORT_URL_FIELD, getOort().getURL());
@@ -287,16 +465,17 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
                     if (logger.isDebugEnabled()) {
                         logger.debug("Ignoring broadcast action result {}", result);
                     }
-                    return;
+                    return null;
                 } else {
                     // Convert ignore into failure
                     resultData.put(RESULT_FIELD, false);
                     resultData.put(DATA_FIELD, result.data);
+                    resultData.put(IGNORED_FIELD, true);
                 }
             }
         } catch (Throwable x) {
             if (broadcast) {
-                return;
+                return null;
             }
 
             String failure = x.getMessage();
@@ -306,7 +485,10 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
             resultData.put(RESULT_FIELD, false);
             resultData.put(DATA_FIELD, failure);
         }
+        return resultData;
+    }
 
+    private void returnResult(Map<String, Object> resultData, String oortURL) {
         if (getOort().getURL().equals(oortURL)) {
             // Local case
             if (logger.isDebugEnabled()) {
@@ -330,6 +512,19 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
         }
     }
 
+    private void onResultBatchMessage(Map<String, Object> data) {
+        long batchId = ((Number)data.get(ID_FIELD)).longValue();
+        Scheduler.Task sweep = sweeps.remove(batchId);
+        if (sweep != null) {
+            sweep.cancel();
+        }
+        for (Object result : OortJSON.toCollection(data.get(BATCH_FIELD))) {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> resultData = (Map<String, Object>)result;
+            onResultMessage(resultData);
+        }
+    }
+
     protected void onResultMessage(Map<String, Object> data) {
         long actionId = ((Number)data.get(ID_FIELD)).longValue();
         Map<String, Object> ctx = callbacks.remove(actionId);
@@ -344,6 +539,28 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
 
             @SuppressWarnings("unchecked")
             C context = (C)ctx.get(CONTEXT_FIELD);
+
+            Object ownerKey = ctx.get(OWNER_KEY_FIELD);
+            if (ownerKey != null) {
+                String oortURL = (String)data.get(OORT_URL_FIELD);
+                if (oortURL == null || Boolean.TRUE.equals(data.get(IGNORED_FIELD))) {
+                    // Timed out or ignored: the cached owner is not the owner anymore.
+                    String ownerOortURL = findOwner(ownerKey);
+                    if (ownerOortURL != null && (oortURL == null || ownerOortURL.equals(oortURL))) {
+                        removeOwner(ownerKey, ownerOortURL);
+                    }
+                    if (oortURL != null && ctx.containsKey(PARAMETER_FIELD)) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Cached owner {} mismatch for {}, broadcasting", oortURL, ownerKey);
+                        }
+                        forward(null, ctx.get(PARAMETER_FIELD), context);
+                        return;
+                    }
+                } else {
+                    cacheOwner(ownerKey, oortURL);
+                }
+            }
+
             boolean success = (Boolean)data.get(RESULT_FIELD);
             if (success) {
                 @SuppressWarnings("unchecked")
@@ -356,12 +573,73 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
         }
     }
 
+    private String findOwner(Object ownerKey) {
+        synchronized (owners) {
+            return owners.get(ownerKey);
+        }
+    }
+
+    private void cacheOwner(Object ownerKey, String oortURL) {
+        synchronized (owners) {
+            owners.put(ownerKey, oortURL);
+        }
+    }
+
+    private void removeOwner(Object ownerKey, String oortURL) {
+        synchronized (owners) {
+            if (oortURL.equals(owners.get(ownerKey))) {
+                owners.remove(ownerKey);
+            }
+        }
+    }
+
+    private void removeOwners(String oortURL) {
+        synchronized (owners) {
+            owners.values().removeAll(Collections.singleton(oortURL));
+        }
+    }
+
+    private void clearOwners() {
+        synchronized (owners) {
+            owners.clear();
+        }
+    }
+
     private void startTimeout(Map<String, Object> ctx) {
         long contextId = ((Number)ctx.get(ID_FIELD)).longValue();
         TimeoutTask timeoutTask = new TimeoutTask(contextId);
         ctx.put(TIMEOUT_FIELD, ((BayeuxServerImpl)oort.getBayeuxServer()).schedule(timeoutTask, getTimeout()));
     }
 
+    private void batch(String targetOortURL, Map<String, Object> data) {
+        ForwardBatch full = null;
+        synchronized (batches) {
+            ForwardBatch batch = batches.get(targetOortURL);
+            if (batch == null) {
+                batch = new ForwardBatch(targetOortURL, System.nanoTime());
+                batches.put(targetOortURL, batch);
+                batch.task = ((BayeuxServerImpl)oort.getBayeuxServer()).schedule(batch, getBatchDelay());
+            }
+            batch.actions.add(data);
+            if (batch.actions.size() >= getMaxBatchSize()) {
+                batches.remove(targetOortURL);
+                batch.task.cancel();
+                full = batch;
+            }
+        }
+        if (full != null) {
+            full.send();
+        }
+    }
+
+    private void fail(long contextId, Object failure) {
+        Map<String, Object> data = new HashMap<>(3);
+        data.put(ID_FIELD, contextId);
+        data.put(RESULT_FIELD, false);
+        data.put(DATA_FIELD, failure);
+        onResultMessage(data);
+    }
+
     private void cancelTimeout(Map<String, Object> ctx) {
         Scheduler.Task timeoutTask = (Scheduler.Task)ctx.get(TIMEOUT_FIELD);
         if (timeoutTask != null) {
@@ -382,6 +660,19 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
      */
     protected abstract Result<R> onForward(Request request);
 
+    /**
+     * <p>Returns the key of the entity onto which the action with the given parameter should be applied,
+     * used to cache the owner node of the entity when the owner cache is enabled.</p>
+     * <p>This implementation returns {@code null}, meaning that the owner node is not cached.</p>
+     *
+     * @param parameter the parameter passed to {@link #forward(String, Object, Object)}
+     * @return the entity key, or null if the owner node should not be cached
+     * @see #setOwnerCacheEnabled(boolean)
+     */
+    protected Object getOwnerKey(Object parameter) {
+        return null;
+    }
+
     /**
      * Subclasses must implement this method, that runs on the <em>requesting node</em>,
      * to complete the functionality after the action has been successfully run on the <em>owner node</em>.
@@ -577,6 +868,86 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
         }
     }
 
+    private class CometListener extends Oort.CometListener.Adapter {
+        @Override
+        public void cometLeft(Event event) {
+            removeOwners(event.getCometURL());
+        }
+    }
+
+    private class ForwardBatch implements Runnable {
+        private final List<Map<String, Object>> actions = new ArrayList<>();
+        private final String targetOortURL;
+        private final long forwardTime;
+        private Scheduler.Task task;
+
+        private ForwardBatch(String targetOortURL, long forwardTime) {
+            this.targetOortURL = targetOortURL;
+            this.forwardTime = forwardTime;
+        }
+
+        @Override
+        public void run() {
+            synchronized (batches) {
+                if (batches.get(targetOortURL) != this) {
+                    return;
+                }
+                batches.remove(targetOortURL);
+            }
+            send();
+        }
+
+        private void send() {
+            long batchId = contextIds.incrementAndGet();
+
+            OortComet comet = getOort().getComet(targetOortURL);
+            if (comet == null) {
+                // Probably the node disconnected concurrently.
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Could not forward {} batched actions to {}", actions.size(), targetOortURL);
+                }
+                new SweepTask(batchId, actions, "Could not forward action to " + targetOortURL).run();
+                return;
+            }
+
+            // A single task expires all the actions of the batch,
+            // with the timeout measured from the first forward.
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - forwardTime);
+            long delay = Math.max(getTimeout() - elapsed, 0);
+            sweeps.put(batchId, ((BayeuxServerImpl)oort.getBayeuxServer()).schedule(new SweepTask(batchId, actions, new TimeoutException()), delay));
+
+            Map<String, Object> data = new HashMap<>(3);
+            data.put(ID_FIELD, batchId);
+            data.put(OORT_URL_FIELD, getOort().getURL());
+            data.put(BATCH_FIELD, actions);
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Forwarding {} batched actions to {}", actions.size(), targetOortURL);
+            }
+            comet.getChannel(forwardChannelName).publish(data);
+        }
+    }
+
+    private class SweepTask implements Runnable {
+        private final long batchId;
+        private final List<Map<String, Object>> actions;
+        private final Object failure;
+
+        private SweepTask(long batchId, List<Map<String, Object>> actions, Object failure) {
+            this.batchId = batchId;
+            this.actions = actions;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            sweeps.remove(batchId);
+            for (Map<String, Object> action : actions) {
+                fail(((Number)action.get(ID_FIELD)).longValue(), failure);
+            }
+        }
+    }
+
     private class TimeoutTask implements Runnable {
         private final long contextId;
 
@@ -586,11 +957,7 @@ public abstract class OortService<R, C> extends AbstractLifeCycle implements Ser
 
         @Override
         public void run() {
-            Map<String, Object> data = new HashMap<>(3);
-            data.put(ID_FIELD, contextId);
-            data.put(RESULT_FIELD, false);
-            data.put(DATA_FIELD, new TimeoutException());
-            onResultMessage(data);
+            fail(contextId, new TimeoutException());
         }
     }
 }
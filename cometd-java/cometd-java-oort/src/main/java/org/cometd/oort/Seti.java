@@ -24,11 +24,16 @@ import java.util.EventObject;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSessionChannel;
@@ -67,6 +72,21 @@ import org.slf4j.LoggerFactory;
  * {@link #sendMessage(String, String, Object)} methods may be
  * used to send messages to user(s) anywhere in the Oort cluster
  * and Seti organizes the search in order to locate the user(s).</p>
+ * <p>When the location of a user is not known, by default the message is broadcast
+ * to all the comets of the cloud.
+ * When the {@link #isDirectoryEnabled() directory is enabled}, every userId is instead
+ * owned by one comet of the cloud, chosen via consistent hashing of the userId: the message
+ * is sent only to the owner comet, which delivers it to the locations it knows for that user
+ * and replies with those locations, that are cached for {@link #getLookupCacheMaxAge()} ms.
+ * If the owner comet does not know the user, for example because the user presence is
+ * still propagating, the message is broadcast to all the comets of the cloud.</p>
+ * <p>Presence changes are broadcast to the cloud as soon as they happen, unless
+ * {@link #getMaxPresenceDelay() max presence delay} is greater than zero: in this case
+ * the presence changes are coalesced and broadcast together after that delay, or when
+ * {@link #getMaxPresenceBatchSize() max presence batch size} changes are pending.
+ * When the directory is enabled, presence changes are not broadcast, but sent only to
+ * the owner comet of each user, so that a comet knows the presence only of the users
+ * it owns, and {@link PresenceListener}s are notified only for those users.</p>
  *
  * @see SetiServlet
  */
@@ -75,7 +95,15 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
     public static final String SETI_ATTRIBUTE = Seti.class.getName();
     private static final String SETI_ALL_CHANNEL = "/seti/all";
 
-    private final Map<String, Set<Location>> _uid2Location = new HashMap<>();
+    // Values are immutable snapshots, replaced atomically on every change.
+    private final ConcurrentMap<String, Set<Location>> _uid2Location = new ConcurrentHashMap<>();
+    // Guarded by itself, evicts the least recently used lookups.
+    private final Map<String, Lookup> _lookups = new LinkedHashMap<String, Lookup>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Lookup> eldest) {
+            return size() > getMaxLookupCacheSize();
+        }
+    };
     private final List<PresenceListener> _presenceListeners = new CopyOnWriteArrayList<>();
     private final Oort.CometListener _cometListener = new CometListener();
     private final ServerChannel.SubscriptionListener _initialStateListener = new InitialStateListener();
@@ -83,6 +111,16 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
     private final String _setiId;
     private final Logger _logger;
     private final LocalSession _session;
+    private volatile OortRing _ring;
+    private boolean _directoryEnabled;
+    private long _lookupCacheMaxAge = 5000;
+    private int _maxLookupCacheSize = 64 * 1024;
+    // Maps the userIds with pending presence changes to their presence before the changes.
+    private final Map<String, Boolean> _pendingPresences = new LinkedHashMap<>();
+    private final Object _flushLock = new Object();
+    private ScheduledFuture<?> _presenceTask;
+    private long _maxPresenceDelay;
+    private int _maxPresenceBatchSize = 1024;
 
     public Seti(Oort oort) {
         _oort = oort;
@@ -101,9 +139,65 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
         return _setiId;
     }
 
+    @ManagedAttribute("Whether messages to users with unknown location are sent to the owner comet")
+    public boolean isDirectoryEnabled() {
+        return _directoryEnabled;
+    }
+
+    /**
+     * <p>Enables sending messages to users whose location is unknown only to the comet
+     * that owns the user, rather than broadcasting them to the whole cloud.</p>
+     * <p>Presence changes are sent only to the owner comet, so {@link #isPresent(String)}
+     * and {@link #getPresenceCount(String)} only account for remote associations
+     * of the users owned by this comet.</p>
+     * <p>All the comets of the cloud must have the same setting.</p>
+     *
+     * @param directoryEnabled whether messages to unknown users are sent to the owner comet
+     */
+    public void setDirectoryEnabled(boolean directoryEnabled) {
+        _directoryEnabled = directoryEnabled;
+    }
+
+    @ManagedAttribute("The max age, in milliseconds, of the user locations returned by the owner comets")
+    public long getLookupCacheMaxAge() {
+        return _lookupCacheMaxAge;
+    }
+
+    public void setLookupCacheMaxAge(long lookupCacheMaxAge) {
+        _lookupCacheMaxAge = lookupCacheMaxAge;
+    }
+
+    @ManagedAttribute("The max number of cached user locations returned by the owner comets")
+    public int getMaxLookupCacheSize() {
+        return _maxLookupCacheSize;
+    }
+
+    public void setMaxLookupCacheSize(int maxLookupCacheSize) {
+        _maxLookupCacheSize = maxLookupCacheSize;
+    }
+
+    @ManagedAttribute("The max delay, in milliseconds, to coalesce presence changes, or 0 to broadcast them immediately")
+    public long getMaxPresenceDelay() {
+        return _maxPresenceDelay;
+    }
+
+    public void setMaxPresenceDelay(long maxPresenceDelay) {
+        _maxPresenceDelay = maxPresenceDelay;
+    }
+
+    @ManagedAttribute("The max number of coalesced presence changes")
+    public int getMaxPresenceBatchSize() {
+        return _maxPresenceBatchSize;
+    }
+
+    public void setMaxPresenceBatchSize(int maxPresenceBatchSize) {
+        _maxPresenceBatchSize = maxPresenceBatchSize;
+    }
+
     @Override
     protected void doStart() {
         BayeuxServer bayeux = _oort.getBayeuxServer();
+        updateRing(null, null);
 
         _session.handshake();
 
@@ -135,7 +229,15 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
 
     @Override
     protected void doStop() {
+        synchronized (_pendingPresences) {
+            if (_presenceTask != null) {
+                _presenceTask.cancel(false);
+                _presenceTask = null;
+            }
+            _pendingPresences.clear();
+        }
         removeAssociationsAndPresences();
+        clearLookups();
         _presenceListeners.clear();
 
         _session.disconnect();
@@ -193,34 +295,177 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
                     _logger.debug("Broadcasting association addition for user {}", userId);
                 }
                 // Let everyone in the cluster know that this session is here
-                _session.getChannel(SETI_ALL_CHANNEL).publish(new SetiPresence(true, userId));
+                publishPresence(true, userId);
             }
         }
 
         return added;
     }
 
+    private void publishPresence(boolean present, String userId) {
+        long delay = getMaxPresenceDelay();
+        if (delay <= 0) {
+            publishPresence(present, Collections.singleton(userId));
+            return;
+        }
+
+        boolean flush;
+        synchronized (_pendingPresences) {
+            if (!_pendingPresences.containsKey(userId)) {
+                _pendingPresences.put(userId, !present);
+            }
+            flush = _pendingPresences.size() >= getMaxPresenceBatchSize();
+            if (!flush && _presenceTask == null) {
+                schedulePresences(delay);
+            }
+        }
+        if (flush) {
+            flushPresences();
+        }
+    }
+
+    private void schedulePresences(long delay) {
+        // Called with the _pendingPresences lock held.
+        _presenceTask = _oort.getScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                flushPresences();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flushPresences() {
+        // Flushes are serialized so that the presence
+        // messages are broadcast in the right order.
+        synchronized (_flushLock) {
+            Set<String> added = new HashSet<>();
+            Set<String> removed = new HashSet<>();
+            synchronized (_pendingPresences) {
+                if (_presenceTask != null) {
+                    _presenceTask.cancel(false);
+                    _presenceTask = null;
+                }
+                if (_pendingPresences.isEmpty()) {
+                    return;
+                }
+                if (!_session.isConnected()) {
+                    // Retry later, so that the pending changes are not lost.
+                    if (isRunning()) {
+                        schedulePresences(Math.max(getMaxPresenceDelay(), 1));
+                    }
+                    return;
+                }
+
+                // A user may have been associated and disassociated multiple
+                // times, only its current state is broadcast, if it changed.
+                for (Map.Entry<String, Boolean> entry : _pendingPresences.entrySet()) {
+                    String userId = entry.getKey();
+                    boolean present = isAssociated(userId);
+                    if (present != entry.getValue()) {
+                        if (present) {
+                            added.add(userId);
+                        } else {
+                            removed.add(userId);
+                        }
+                    }
+                }
+                _pendingPresences.clear();
+            }
+
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Broadcasting association additions for users {} and removals for users {}", added, removed);
+            }
+            if (!added.isEmpty()) {
+                publishPresence(true, added);
+            }
+            if (!removed.isEmpty()) {
+                publishPresence(false, removed);
+            }
+        }
+    }
+
+    private void publishPresence(boolean present, Set<String> userIds) {
+        if (!isDirectoryEnabled()) {
+            _session.getChannel(SETI_ALL_CHANNEL).publish(new SetiPresence(present, userIds, false));
+            return;
+        }
+
+        String oortURL = _oort.getURL();
+        for (String userId : publishToOwners(present, userIds)) {
+            if (present) {
+                notifyPresenceAdded(oortURL, userId);
+            } else {
+                notifyPresenceRemoved(oortURL, userId);
+            }
+        }
+    }
+
+    private Set<String> publishToOwners(boolean present, Set<String> userIds) {
+        Set<String> owned = new HashSet<>();
+        Map<String, Set<String>> owners = new HashMap<>();
+        for (String userId : userIds) {
+            String owner = getOwner(userId);
+            if (_oort.getURL().equals(owner)) {
+                owned.add(userId);
+            } else {
+                Set<String> ownedUserIds = owners.get(owner);
+                if (ownedUserIds == null) {
+                    ownedUserIds = new HashSet<>();
+                    owners.put(owner, ownedUserIds);
+                }
+                ownedUserIds.add(userId);
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : owners.entrySet()) {
+            String owner = entry.getKey();
+            // If the owner is not connected, the associations
+            // are pushed to it when it joins.
+            OortComet oortComet = _oort.findComet(owner);
+            if (oortComet != null) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Sending association {} for users {} to owner comet {}", present ? "additions" : "removals", entry.getValue(), owner);
+                }
+                oortComet.getChannel(generateSetiChannel(generateSetiId(owner))).publish(new SetiPresence(present, entry.getValue(), false));
+            }
+        }
+        return owned;
+    }
+
     protected boolean associate(String userId, Location location) {
         if (!isRunning()) {
             return false;
         }
 
-        synchronized (_uid2Location) {
+        boolean result;
+        while (true) {
             Set<Location> locations = _uid2Location.get(userId);
             if (locations == null) {
-                locations = new HashSet<>();
-                _uid2Location.put(userId, locations);
-            }
-            boolean result = locations.add(location);
-            if (_logger.isDebugEnabled()) {
-                _logger.debug("Associations: {}", _uid2Location.size());
-            }
-            // Logging below can generate hugely long lines.
-            if (_logger.isTraceEnabled()) {
-                _logger.trace("Associations: {}", _uid2Location);
+                if (_uid2Location.putIfAbsent(userId, Collections.singleton(location)) == null) {
+                    result = true;
+                    break;
+                }
+            } else {
+                if (locations.contains(location)) {
+                    result = false;
+                    break;
+                }
+                Set<Location> newLocations = new HashSet<>(locations);
+                newLocations.add(location);
+                if (_uid2Location.replace(userId, locations, Collections.unmodifiableSet(newLocations))) {
+                    result = true;
+                    break;
+                }
             }
-            return result;
         }
+        removeLookup(userId);
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Associations: {}", _uid2Location.size());
+        }
+        // Logging below can generate hugely long lines.
+        if (_logger.isTraceEnabled()) {
+            _logger.trace("Associations: {}", _uid2Location);
+        }
+        return result;
     }
 
     private boolean associateRemote(String userId, SetiLocation location) {
@@ -253,18 +498,16 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      */
     @ManagedOperation(value = "Whether the given userId is associated locally", impact = "INFO")
     public boolean isAssociated(@Name(value = "userId", description = "The userId to test for local association") String userId) {
-        synchronized (_uid2Location) {
-            Set<Location> locations = _uid2Location.get(userId);
-            if (locations == null) {
-                return false;
-            }
-            for (Location location : locations) {
-                if (location instanceof LocalLocation) {
-                    return true;
-                }
-            }
+        Set<Location> locations = _uid2Location.get(userId);
+        if (locations == null) {
             return false;
         }
+        for (Location location : locations) {
+            if (location instanceof LocalLocation) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -275,19 +518,17 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      */
     @ManagedOperation(value = "The number of local associations for the given userId", impact = "INFO")
     public int getAssociationCount(@Name(value = "userId", description = "The userId to test for local association count") String userId) {
-        synchronized (_uid2Location) {
-            Set<Location> locations = _uid2Location.get(userId);
-            if (locations == null) {
-                return 0;
-            }
-            int result = 0;
-            for (Location location : locations) {
-                if (location instanceof LocalLocation) {
-                    ++result;
-                }
+        Set<Location> locations = _uid2Location.get(userId);
+        if (locations == null) {
+            return 0;
+        }
+        int result = 0;
+        for (Location location : locations) {
+            if (location instanceof LocalLocation) {
+                ++result;
             }
-            return result;
         }
+        return result;
     }
 
     /**
@@ -299,10 +540,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      */
     @ManagedOperation(value = "Whether the given userId is present in the cloud", impact = "INFO")
     public boolean isPresent(@Name(value = "userId", description = "The userId to test for presence in the cloud") String userId) {
-        synchronized (_uid2Location) {
-            Set<Location> locations = _uid2Location.get(userId);
-            return locations != null;
-        }
+        return _uid2Location.containsKey(userId);
     }
 
     /**
@@ -313,10 +551,8 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      */
     @ManagedOperation(value = "The number of local and remote associations for the given userId", impact = "INFO")
     public int getPresenceCount(@Name(value = "userId", description = "The userId to test for presence count") String userId) {
-        synchronized (_uid2Location) {
-            Set<Location> locations = _uid2Location.get(userId);
-            return locations == null ? 0 : locations.size();
-        }
+        Set<Location> locations = _uid2Location.get(userId);
+        return locations == null ? 0 : locations.size();
     }
 
     /**
@@ -356,7 +592,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
                     _logger.debug("Broadcasting association removal for user {}", userId);
                 }
                 // Let everyone in the cluster know that this session is not here anymore
-                _session.getChannel(SETI_ALL_CHANNEL).publish(new SetiPresence(false, userId));
+                publishPresence(false, userId);
             }
         }
 
@@ -374,8 +610,9 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      */
     public Set<ServerSession> disassociate(final String userId) {
         final Set<LocalLocation> userLocations = new HashSet<>();
-        synchronized (_uid2Location) {
-            for (Location location : _uid2Location.get(userId)) {
+        Set<Location> locations = _uid2Location.get(userId);
+        if (locations != null) {
+            for (Location location : locations) {
                 if (location instanceof LocalLocation) {
                     userLocations.add((LocalLocation)location);
                 }
@@ -395,32 +632,42 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
     }
 
     protected boolean disassociate(String userId, Location location) {
-        synchronized (_uid2Location) {
-            boolean result = false;
+        boolean result;
+        while (true) {
             Set<Location> locations = _uid2Location.get(userId);
-            if (locations != null) {
-                result = locations.remove(location);
-                if (locations.isEmpty()) {
-                    _uid2Location.remove(userId);
-                }
+            if (locations == null || !locations.contains(location)) {
+                result = false;
+                break;
             }
-            if (_logger.isDebugEnabled()) {
-                _logger.debug("Associations: {}", _uid2Location.size());
-            }
-            // Logging below can generate hugely long lines.
-            if (_logger.isTraceEnabled()) {
-                _logger.trace("Associations: {}", _uid2Location);
+            if (locations.size() == 1) {
+                if (_uid2Location.remove(userId, locations)) {
+                    result = true;
+                    break;
+                }
+            } else {
+                Set<Location> newLocations = new HashSet<>(locations);
+                newLocations.remove(location);
+                if (_uid2Location.replace(userId, locations, Collections.unmodifiableSet(newLocations))) {
+                    result = true;
+                    break;
+                }
             }
-            return result;
         }
+        removeLookup(userId);
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Associations: {}", _uid2Location.size());
+        }
+        // Logging below can generate hugely long lines.
+        if (_logger.isTraceEnabled()) {
+            _logger.trace("Associations: {}", _uid2Location);
+        }
+        return result;
     }
 
     protected void removeAssociationsAndPresences() {
         final Set<String> userIds = new HashSet<>();
-        synchronized (_uid2Location) {
-            getAssociatedUserIds(userIds);
-            _uid2Location.clear();
-        }
+        getAssociatedUserIds(userIds);
+        _uid2Location.clear();
         if (_logger.isDebugEnabled()) {
             _logger.debug("Broadcasting association removal for users {}", userIds);
         }
@@ -430,6 +677,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
     }
 
     protected void removePresences(String oortURL) {
+        clearLookups();
         Set<String> userIds = removeRemotePresences(oortURL);
         if (_logger.isDebugEnabled()) {
             _logger.debug("Removing presences of comet {} for users {}", oortURL, userIds);
@@ -441,38 +689,44 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
 
     private Set<String> removeRemotePresences(String oortURL) {
         Set<String> userIds = new HashSet<>();
-        synchronized (_uid2Location) {
-            Iterator<Map.Entry<String, Set<Location>>> entries = _uid2Location.entrySet().iterator();
-            while (entries.hasNext()) {
-                Map.Entry<String, Set<Location>> entry = entries.next();
-                Set<Location> userLocations = entry.getValue();
-                Iterator<Location> iterator = userLocations.iterator();
-                while (iterator.hasNext()) {
-                    Location location = iterator.next();
-                    if (location instanceof SetiLocation) {
-                        if (oortURL.equals(((SetiLocation)location)._oortURL)) {
-                            iterator.remove();
-                            userIds.add(entry.getKey());
-                            break;
+        for (Map.Entry<String, Set<Location>> entry : _uid2Location.entrySet()) {
+            for (Location location : entry.getValue()) {
+                if (location instanceof SetiLocation) {
+                    if (oortURL.equals(((SetiLocation)location)._oortURL)) {
+                        String userId = entry.getKey();
+                        if (disassociate(userId, location)) {
+                            userIds.add(userId);
                         }
+                        break;
                     }
                 }
-                if (userLocations.isEmpty()) {
-                    entries.remove();
-                }
             }
         }
         return userIds;
     }
 
+    private void removeForeignPresences() {
+        // The users did not leave the cloud, only their owner changed,
+        // so the presence listeners are not notified.
+        for (Map.Entry<String, Set<Location>> entry : _uid2Location.entrySet()) {
+            String userId = entry.getKey();
+            if (_oort.getURL().equals(getOwner(userId))) {
+                continue;
+            }
+            for (Location location : entry.getValue()) {
+                if (location instanceof SetiLocation) {
+                    disassociate(userId, location);
+                }
+            }
+        }
+    }
+
     /**
      * @return the set of {@code userId}s known to this Seti, both local and remote
      */
     @ManagedAttribute(value = "The set of userIds known to this Seti", readonly = true)
     public Set<String> getUserIds() {
-        synchronized (_uid2Location) {
-            return new HashSet<>(_uid2Location.keySet());
-        }
+        return new HashSet<>(_uid2Location.keySet());
     }
 
     /**
@@ -484,14 +738,27 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
         return result;
     }
 
+    private Set<String> getAssociatedUserIds(String owner) {
+        Set<String> result = getAssociatedUserIds();
+        if (isDirectoryEnabled()) {
+            // The owner may not have joined yet, but it is
+            // about to, so the ring must already contain it.
+            OortRing ring = owner == null ? null : OortRing.of(_oort, owner, null);
+            for (Iterator<String> iterator = result.iterator(); iterator.hasNext(); ) {
+                if (ring == null || !owner.equals(ring.getOwner(iterator.next()))) {
+                    iterator.remove();
+                }
+            }
+        }
+        return result;
+    }
+
     private void getAssociatedUserIds(Set<String> result) {
-        synchronized (_uid2Location) {
-            for (Map.Entry<String, Set<Location>> entry : _uid2Location.entrySet()) {
-                for (Location location : entry.getValue()) {
-                    if (location instanceof LocalLocation) {
-                        result.add(entry.getKey());
-                        break;
-                    }
+        for (Map.Entry<String, Set<Location>> entry : _uid2Location.entrySet()) {
+            for (Location location : entry.getValue()) {
+                if (location instanceof LocalLocation) {
+                    result.add(entry.getKey());
+                    break;
                 }
             }
         }
@@ -518,25 +785,81 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
      */
     public void sendMessage(final Collection<String> toUserIds, final String toChannel, final Object data) {
         for (String toUserId : toUserIds) {
-            Set<Location> copy = new HashSet<>();
-            synchronized (_uid2Location) {
-                Set<Location> locations = _uid2Location.get(toUserId);
-                if (locations == null) {
-                    copy.add(new SetiLocation(toUserId, null));
-                } else {
-                    copy.addAll(locations);
+            Set<Location> locations = _uid2Location.get(toUserId);
+            if (locations == null) {
+                if (isDirectoryEnabled()) {
+                    sendToOwner(toUserId, toChannel, data);
+                    continue;
                 }
+                locations = Collections.<Location>singleton(new SetiLocation(toUserId, null));
             }
 
             if (_logger.isDebugEnabled()) {
-                _logger.debug("Sending message to locations {}", copy);
+                _logger.debug("Sending message to locations {}", locations);
             }
-            for (Location location : copy) {
+            for (Location location : locations) {
                 location.send(toUserId, toChannel, data);
             }
         }
     }
 
+    private void sendToOwner(String userId, String channel, Object data) {
+        Lookup lookup;
+        synchronized (_lookups) {
+            lookup = _lookups.get(userId);
+            if (lookup != null && lookup.isExpired()) {
+                _lookups.remove(userId);
+                lookup = null;
+            }
+        }
+        if (lookup != null) {
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Sending message to cached locations {} for user {}", lookup._oortURLs, userId);
+            }
+            for (String oortURL : lookup._oortURLs) {
+                new SetiLocation(userId, oortURL).send(userId, channel, data);
+            }
+            return;
+        }
+
+        String owner = getOwner(userId);
+        if (_oort.getURL().equals(owner)) {
+            // The presence of the user may not have reached
+            // this comet yet, so fall back to broadcasting.
+            broadcast(userId, channel, data);
+            return;
+        }
+
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Sending message to owner comet {} for user {}", owner, userId);
+        }
+        SetiMessage message = new SetiMessage(userId, channel, data);
+        message.put(SetiMessage.LOOKUP_FIELD, _oort.getURL());
+        _session.getChannel(generateSetiChannel(generateSetiId(owner))).publish(message);
+    }
+
+    private void broadcast(String userId, String channel, Object data) {
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Broadcasting message to unknown user {}", userId);
+        }
+        new SetiLocation(userId, null).send(userId, channel, data);
+    }
+
+    /**
+     * @param userId the user identifier
+     * @return the URL of the comet that owns the given userId
+     * @see #setDirectoryEnabled(boolean)
+     */
+    protected String getOwner(String userId) {
+        OortRing ring = _ring;
+        String owner = ring == null ? null : ring.getOwner(userId);
+        return owner == null ? _oort.getURL() : owner;
+    }
+
+    private void updateRing(String joined, String left) {
+        _ring = OortRing.of(_oort, joined, left);
+    }
+
     /**
      * <p>Receives messages directly from other Setis in the cloud, containing
      * messages to be delivered to sessions connected to this comet.</p>
@@ -551,6 +874,8 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
         Boolean presence = (Boolean)data.get(SetiPresence.PRESENCE_FIELD);
         if (presence != null) {
             receivePresence(data);
+        } else if (data.containsKey(SetiLookup.OORT_URLS_FIELD)) {
+            receiveLookup(data);
         } else {
             receiveMessage(data);
         }
@@ -626,20 +951,20 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
 
         Set<String> added = new HashSet<>();
         Set<String> removed = new HashSet<>();
-        synchronized (_uid2Location) {
-            if (replace) {
-                removed.addAll(removeRemotePresences(oortURL));
-            }
-            for (String userId : userIds) {
-                SetiLocation location = new SetiLocation(userId, oortURL);
-                if (present) {
-                    if (associateRemote(userId, location)) {
-                        added.add(userId);
-                    }
-                } else {
-                    if (disassociate(userId, location)) {
-                        removed.add(userId);
-                    }
+        // Presence messages from the same comet are processed serially,
+        // and each association is updated atomically, so no lock is needed.
+        if (replace) {
+            removed.addAll(removeRemotePresences(oortURL));
+        }
+        for (String userId : userIds) {
+            SetiLocation location = new SetiLocation(userId, oortURL);
+            if (present) {
+                if (associateRemote(userId, location)) {
+                    added.add(userId);
+                }
+            } else {
+                if (disassociate(userId, location)) {
+                    removed.add(userId);
                 }
             }
         }
@@ -658,7 +983,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
             // Message sent on startup by the remote Seti, push our associations
             OortComet oortComet = _oort.findComet(oortURL);
             if (oortComet != null) {
-                Set<String> associatedUserIds = getAssociatedUserIds();
+                Set<String> associatedUserIds = getAssociatedUserIds(oortURL);
                 if (_logger.isDebugEnabled()) {
                     _logger.debug("Pushing associated users {} to comet {}", associatedUserIds, oortURL);
                 }
@@ -712,37 +1037,99 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
         String channel = (String)message.get(SetiMessage.CHANNEL_FIELD);
         Object data = message.get(SetiMessage.DATA_FIELD);
 
-        Set<Location> copy = new HashSet<>();
-        synchronized (_uid2Location) {
-            Set<Location> locations = _uid2Location.get(userId);
-            if (locations != null) {
-                // Consider cometA, cometB and cometC and a user that is associated
-                // in both cometA and cometB. When cometC sends a message to the user,
-                // it knows that the user is in both cometA and cometB (thanks to presence
-                // messages) and will send a message to both cometA and cometB.
-                // But cometA also knows from presence messages that the user is also in
-                // cometB and should not forward the message arriving from cometC to cometB
-                // since cometC will take care of sending to cometB.
-                // Hence, we forward the message only locally
-                for (Location location : locations) {
-                    if (location instanceof LocalLocation) {
-                        copy.add(location);
-                    }
+        String requester = (String)message.get(SetiMessage.LOOKUP_FIELD);
+        if (requester != null) {
+            receiveOwnerMessage(requester, userId, channel, data);
+            return;
+        }
+
+        Set<Location> locations = _uid2Location.get(userId);
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Received message {} for locations {}", message, locations);
+        }
+        if (locations != null) {
+            // Consider cometA, cometB and cometC and a user that is associated
+            // in both cometA and cometB. When cometC sends a message to the user,
+            // it knows that the user is in both cometA and cometB (thanks to presence
+            // messages) and will send a message to both cometA and cometB.
+            // But cometA also knows from presence messages that the user is also in
+            // cometB and should not forward the message arriving from cometC to cometB
+            // since cometC will take care of sending to cometB.
+            // Hence, we forward the message only locally
+            for (Location location : locations) {
+                if (location instanceof LocalLocation) {
+                    location.receive(userId, channel, data);
                 }
             }
         }
+    }
+
+    private void receiveOwnerMessage(String requester, String userId, String channel, Object data) {
+        Set<Location> locations = _uid2Location.get(userId);
+        if (locations == null) {
+            // The presence of the user may not have reached this comet
+            // yet, so fall back to broadcasting and do not reply, so
+            // that the requester does not cache the missing locations.
+            broadcast(userId, channel, data);
+            return;
+        }
+
+        // The requester did not know where the user is, so this
+        // comet forwards the message to all the user locations.
+        Set<String> oortURLs = new HashSet<>();
+        for (Location location : locations) {
+            if (location instanceof LocalLocation) {
+                oortURLs.add(_oort.getURL());
+            } else if (location instanceof SetiLocation) {
+                String oortURL = ((SetiLocation)location)._oortURL;
+                if (oortURL == null || oortURL.equals(requester)) {
+                    continue;
+                }
+                oortURLs.add(oortURL);
+            }
+            location.send(userId, channel, data);
+        }
 
         if (_logger.isDebugEnabled()) {
-            _logger.debug("Received message {} for locations {}", message, copy);
+            _logger.debug("Replying to comet {} with locations {} for user {}", requester, oortURLs, userId);
         }
-        for (Location location : copy) {
-            location.receive(userId, channel, data);
+        OortComet oortComet = _oort.findComet(requester);
+        if (oortComet != null) {
+            ClientSessionChannel setiChannel = oortComet.getChannel(generateSetiChannel(generateSetiId(requester)));
+            setiChannel.publish(new SetiLookup(userId, oortURLs));
+        }
+    }
+
+    private void receiveLookup(Map<String, Object> lookup) {
+        String userId = (String)lookup.get(SetiLookup.USER_ID_FIELD);
+        Set<String> oortURLs = new HashSet<>(convertStrings(lookup.get(SetiLookup.OORT_URLS_FIELD)));
+        oortURLs.remove(_oort.getURL());
+        if (_logger.isDebugEnabled()) {
+            _logger.debug("Caching locations {} for user {}", oortURLs, userId);
+        }
+        synchronized (_lookups) {
+            _lookups.put(userId, new Lookup(oortURLs));
+        }
+    }
+
+    private void removeLookup(String userId) {
+        synchronized (_lookups) {
+            _lookups.remove(userId);
+        }
+    }
+
+    private void clearLookups() {
+        synchronized (_lookups) {
+            _lookups.clear();
         }
     }
 
-    @SuppressWarnings("unchecked")
     private Set<String> convertPresenceUsers(Map<String, Object> presence) {
-        Object value = presence.get(SetiPresence.USER_IDS_FIELD);
+        return convertStrings(presence.get(SetiPresence.USER_IDS_FIELD));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> convertStrings(Object value) {
         if (value instanceof Set) {
             return (Set<String>)value;
         }
@@ -779,10 +1166,8 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
             @Override
             public void dump(Appendable out, String indent) throws IOException {
                 List<String> state = new ArrayList<>();
-                synchronized (_uid2Location) {
-                    for (Map.Entry<String, Set<Location>> entry : _uid2Location.entrySet()) {
-                        state.add(String.format("%s @ %s", entry.getKey(), entry.getValue()));
-                    }
+                for (Map.Entry<String, Set<Location>> entry : _uid2Location.entrySet()) {
+                    state.add(String.format("%s @ %s", entry.getKey(), entry.getValue()));
                 }
                 ContainerLifeCycle.dumpObject(out, "locations: " + state.size());
                 if (((BayeuxServerImpl)getOort().getBayeuxServer()).isDetailedDump()) {
@@ -921,6 +1306,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
         private static final String CHANNEL_FIELD = "channel";
         private static final String SETI_ID_FIELD = "setiId";
         private static final String DATA_FIELD = "data";
+        private static final String LOOKUP_FIELD = "lookup";
 
         private SetiMessage(String toUser, String toChannel, Object data) {
             super(4);
@@ -931,6 +1317,31 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
         }
     }
 
+    private class SetiLookup extends HashMap<String, Object> {
+        private static final String USER_ID_FIELD = "userId";
+        private static final String OORT_URLS_FIELD = "oortURLs";
+
+        private SetiLookup(String userId, Set<String> oortURLs) {
+            super(2);
+            put(USER_ID_FIELD, userId);
+            put(OORT_URLS_FIELD, oortURLs);
+        }
+    }
+
+    private class Lookup {
+        private final Set<String> _oortURLs;
+        private final long _expiration;
+
+        private Lookup(Set<String> oortURLs) {
+            _oortURLs = oortURLs;
+            _expiration = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getLookupCacheMaxAge());
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - _expiration > 0;
+        }
+    }
+
     private class SetiPresence extends HashMap<String, Object> {
         private static final String USER_IDS_FIELD = "userIds";
         private static final String OORT_URL_FIELD = "oortURL";
@@ -938,10 +1349,6 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
         private static final String PRESENCE_FIELD = "presence";
         private static final String REPLACE_FIELD = "replace";
 
-        private SetiPresence(boolean present, String userId) {
-            this(present, Collections.singleton(userId), false);
-        }
-
         private SetiPresence(Set<String> userIds) {
             this(true, userIds, true);
         }
@@ -1046,9 +1453,14 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
             if (_logger.isDebugEnabled()) {
                 _logger.debug("Comet joined: {} with {}", oortURL, oortComet);
             }
+            updateRing(oortURL, null);
+            if (isDirectoryEnabled()) {
+                // Some users owned by this comet are now owned by the joined comet.
+                removeForeignPresences();
+            }
             if (oortComet != null) {
                 ClientSessionChannel channel = oortComet.getChannel(generateSetiChannel(generateSetiId(oortURL)));
-                Set<String> userIds = getAssociatedUserIds();
+                Set<String> userIds = getAssociatedUserIds(oortURL);
                 if (_logger.isDebugEnabled()) {
                     _logger.debug("Pushing associated users {} to comet {}", userIds, oortURL);
                 }
@@ -1062,7 +1474,19 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
             if (_logger.isDebugEnabled()) {
                 _logger.debug("Comet left: {}", oortURL);
             }
+            OortRing ring = _ring;
+            updateRing(null, oortURL);
             removePresences(oortURL);
+            if (isDirectoryEnabled() && _session.isConnected()) {
+                // The users owned by the comet that left have new owners.
+                Set<String> userIds = getAssociatedUserIds();
+                for (Iterator<String> iterator = userIds.iterator(); iterator.hasNext(); ) {
+                    if (!oortURL.equals(ring.getOwner(iterator.next()))) {
+                        iterator.remove();
+                    }
+                }
+                publishToOwners(true, userIds);
+            }
         }
     }
 
@@ -1070,7 +1494,7 @@ public class Seti extends AbstractLifeCycle implements Dumpable {
         @Override
         public void subscribed(ServerSession session, ServerChannel channel, ServerMessage message) {
             if (!session.isLocalSession()) {
-                Set<String> associatedUserIds = getAssociatedUserIds();
+                Set<String> associatedUserIds = getAssociatedUserIds((String)session.getAttribute(Oort.COMET_URL_ATTRIBUTE));
                 if (_logger.isDebugEnabled()) {
                     _logger.debug("Broadcasting associated users {}", associatedUserIds);
                 }
@@ -32,6 +32,12 @@ import javax.servlet.http.HttpServlet;
  * @see OortMulticastConfigServlet
  */
 public class SetiServlet extends HttpServlet {
+    public static final String SETI_ENABLE_DIRECTORY_PARAM = "enableDirectory";
+    public static final String SETI_LOOKUP_CACHE_MAX_AGE_PARAM = "lookupCacheMaxAge";
+    public static final String SETI_MAX_LOOKUP_CACHE_SIZE_PARAM = "maxLookupCacheSize";
+    public static final String SETI_MAX_PRESENCE_DELAY_PARAM = "maxPresenceDelay";
+    public static final String SETI_MAX_PRESENCE_BATCH_SIZE_PARAM = "maxPresenceBatchSize";
+
     @Override
     public void init(ServletConfig config) throws ServletException {
         super.init(config);
@@ -44,6 +50,7 @@ public class SetiServlet extends HttpServlet {
 
         try {
             Seti seti = newSeti(oort);
+            configureSeti(config, seti);
             seti.start();
             servletContext.setAttribute(Seti.SETI_ATTRIBUTE, seti);
         } catch (Exception x) {
@@ -55,6 +62,33 @@ public class SetiServlet extends HttpServlet {
         return new Seti(oort);
     }
 
+    protected void configureSeti(ServletConfig config, Seti seti) {
+        String enableDirectory = config.getInitParameter(SETI_ENABLE_DIRECTORY_PARAM);
+        if (enableDirectory != null) {
+            seti.setDirectoryEnabled(Boolean.parseBoolean(enableDirectory));
+        }
+
+        String lookupCacheMaxAge = config.getInitParameter(SETI_LOOKUP_CACHE_MAX_AGE_PARAM);
+        if (lookupCacheMaxAge != null) {
+            seti.setLookupCacheMaxAge(Long.parseLong(lookupCacheMaxAge));
+        }
+
+        String maxLookupCacheSize = config.getInitParameter(SETI_MAX_LOOKUP_CACHE_SIZE_PARAM);
+        if (maxLookupCacheSize != null) {
+            seti.setMaxLookupCacheSize(Integer.parseInt(maxLookupCacheSize));
+        }
+
+        String maxPresenceDelay = config.getInitParameter(SETI_MAX_PRESENCE_DELAY_PARAM);
+        if (maxPresenceDelay != null) {
+            seti.setMaxPresenceDelay(Long.parseLong(maxPresenceDelay));
+        }
+
+        String maxPresenceBatchSize = config.getInitParameter(SETI_MAX_PRESENCE_BATCH_SIZE_PARAM);
+        if (maxPresenceBatchSize != null) {
+            seti.setMaxPresenceBatchSize(Integer.parseInt(maxPresenceBatchSize));
+        }
+    }
+
     @Override
     public void destroy() {
         try {
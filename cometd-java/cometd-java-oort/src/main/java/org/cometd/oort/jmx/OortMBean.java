@@ -15,10 +15,13 @@
  */
 package org.cometd.oort.jmx;
 
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 import org.cometd.oort.Oort;
+import org.cometd.oort.OortCometMetrics;
 import org.eclipse.jetty.jmx.ObjectMBean;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
@@ -37,4 +40,13 @@ public class OortMBean extends ObjectMBean {
     public Set<String> getObservedChannels() {
         return new TreeSet<>(oort.getObservedChannels());
     }
+
+    @ManagedAttribute(value = "Metrics of the links with other Oort instances", readonly = true)
+    public Map<String, Map<String, Object>> getCometMetrics() {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        for (OortCometMetrics metrics : oort.getCometMetrics()) {
+            result.put(metrics.getOortURL(), metrics.toMap());
+        }
+        return result;
+    }
 }
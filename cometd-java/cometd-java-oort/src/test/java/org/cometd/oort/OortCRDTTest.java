@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.client.BayeuxClient;
+import org.eclipse.jetty.server.Server;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OortCRDTTest extends AbstractOortObjectTest {
+    private final List<OortCRDT> crdts = new ArrayList<>();
+
+    public OortCRDTTest(String serverTransport) {
+        super(serverTransport);
+    }
+
+    @After
+    public void stopCRDTs() throws Exception {
+        for (int i = crdts.size() - 1; i >= 0; --i) {
+            crdts.get(i).stop();
+        }
+    }
+
+    private <C extends OortCRDT> C startCRDT(C crdt) throws Exception {
+        crdt.start();
+        crdts.add(crdt);
+        return crdt;
+    }
+
+    @Test
+    public void testPNCounterRetainsContributionsOfNodesThatLeft() throws Exception {
+        String name = "test";
+        final OortPNCounter counter1 = startCRDT(new OortPNCounter(oort1, name));
+        final OortPNCounter counter2 = startCRDT(new OortPNCounter(oort2, name));
+        // Wait for the nodes to synchronize
+        Thread.sleep(1000);
+
+        counter1.addAndGet(5);
+        counter2.addAndGet(-2);
+        Assert.assertTrue(await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return counter1.get() == 3 && counter2.get() == 3;
+            }
+        }));
+
+        // A third node joins, contributes, and leaves.
+        Server server3 = startServer(0);
+        Oort oort3 = startOort(server3);
+        final OortPNCounter counter3 = startCRDT(new OortPNCounter(oort3, name));
+        CountDownLatch joinLatch = new CountDownLatch(4);
+        CometJoinedListener joinListener = new CometJoinedListener(joinLatch);
+        oort1.addCometListener(joinListener);
+        oort2.addCometListener(joinListener);
+        oort3.addCometListener(joinListener);
+        OortComet oortComet31 = oort3.observeComet(oort1.getURL());
+        Assert.assertTrue(oortComet31.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(joinLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return counter3.get() == 3;
+            }
+        }));
+        // Wait for the nodes to synchronize
+        Thread.sleep(1000);
+
+        Assert.assertEquals(13, counter3.addAndGet(10));
+        Assert.assertTrue(await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return counter1.get() == 13 && counter2.get() == 13;
+            }
+        }));
+
+        CountDownLatch leftLatch = new CountDownLatch(2);
+        CometLeftListener leftListener = new CometLeftListener(leftLatch);
+        oort1.addCometListener(leftListener);
+        oort2.addCometListener(leftListener);
+        counter3.stop();
+        stopOort(oort3);
+        stopServer(server3);
+        Assert.assertTrue(leftLatch.await(5, TimeUnit.SECONDS));
+
+        // The contribution of the third node is retained.
+        Assert.assertEquals(13, counter1.get());
+        Assert.assertEquals(13, counter2.get());
+
+        // A fourth node joins, and receives the contribution of the third node.
+        Server server4 = startServer(0);
+        Oort oort4 = startOort(server4);
+        final OortPNCounter counter4 = startCRDT(new OortPNCounter(oort4, name));
+        OortComet oortComet41 = oort4.observeComet(oort1.getURL());
+        Assert.assertTrue(oortComet41.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return counter4.get() == 13;
+            }
+        }));
+    }
+
+    @Test
+    public void testGCounterRejectsNegativeDelta() throws Exception {
+        OortGCounter counter = startCRDT(new OortGCounter(oort1, "test"));
+        Assert.assertEquals(1, counter.incrementAndGet());
+        try {
+            counter.addAndGet(-1);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+            Assert.assertEquals(1, counter.get());
+        }
+    }
+
+    @Test
+    public void testORSetConcurrentAddWinsOverRemove() throws Exception {
+        String name = "test";
+        final OortORSet<String> set1 = startCRDT(new OortORSet<String>(oort1, name));
+        final OortORSet<String> set2 = startCRDT(new OortORSet<String>(oort2, name));
+        // Wait for the nodes to synchronize
+        Thread.sleep(1000);
+
+        Assert.assertTrue(set1.add("a"));
+        Assert.assertTrue(set1.add("b"));
+        Assert.assertTrue(await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return set2.getElements().equals(new HashSet<>(Arrays.asList("a", "b")));
+            }
+        }));
+
+        // Concurrent removal on node1 and addition on node2.
+        Assert.assertTrue(set1.remove("a"));
+        set2.add("a");
+        Assert.assertTrue(set1.remove("b"));
+
+        Assert.assertTrue(await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return set1.getElements().equals(new HashSet<>(Arrays.asList("a"))) &&
+                        set2.getElements().equals(new HashSet<>(Arrays.asList("a")));
+            }
+        }));
+    }
+
+    @Test
+    public void testLWWMapLastWriterWins() throws Exception {
+        String name = "test";
+        final OortLWWMap<String> map1 = startCRDT(new OortLWWMap<String>(oort1, name));
+        final OortLWWMap<String> map2 = startCRDT(new OortLWWMap<String>(oort2, name));
+        // Wait for the nodes to synchronize
+        Thread.sleep(1000);
+
+        Assert.assertNull(map1.put("key", "value1"));
+        Assert.assertNull(map1.put("gone", "value"));
+        Assert.assertTrue(await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return "value1".equals(map2.get("key")) && map2.size() == 2;
+            }
+        }));
+
+        // Updates on node2 happen after it observed those of node1.
+        Assert.assertEquals("value1", map2.put("key", "value2"));
+        Assert.assertEquals("value", map2.remove("gone"));
+        Assert.assertTrue(await(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return "value2".equals(map1.get("key")) && map1.size() == 1 &&
+                        map1.getEntries().equals(map2.getEntries());
+            }
+        }));
+    }
+
+    private boolean await(Callable<Boolean> condition) throws Exception {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < end) {
+            if (condition.call()) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.client.BayeuxClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OortLoadBalancerTest extends AbstractOortObjectTest {
+    public OortLoadBalancerTest(String serverTransport) {
+        super(serverTransport);
+    }
+
+    @Test
+    public void testLoadBalancerRedirectsHandshakes() throws Exception {
+        OortLoadBalancer balancer1 = new OortLoadBalancer(oort1);
+        balancer1.setUpdateInterval(100);
+        // Do not depend on the CPU load of the test machine.
+        balancer1.setMaxCPULoad(Double.MAX_VALUE);
+        balancer1.start();
+        OortLoadBalancer balancer2 = new OortLoadBalancer(oort2);
+        balancer2.setUpdateInterval(100);
+        balancer2.setMaxCPULoad(Double.MAX_VALUE);
+        balancer2.start();
+
+        try {
+            // Wait for the loads to be shared.
+            long begin = System.nanoTime();
+            while (balancer1.getLoads().getInfo(oort2.getURL()) == null ||
+                    !balancer1.getLoads().getInfo(oort2.getURL()).getObject().containsKey(OortLoadBalancer.SESSIONS_FIELD)) {
+                Assert.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - begin) < 5);
+                Thread.sleep(10);
+            }
+            Assert.assertNull(balancer1.findRedirectURL());
+
+            BayeuxClient client1 = startClient(oort1, null);
+            Assert.assertTrue(client1.waitFor(5000, BayeuxClient.State.CONNECTED));
+            BayeuxClient client2 = startClient(oort1, null);
+            Assert.assertTrue(client2.waitFor(5000, BayeuxClient.State.CONNECTED));
+            Assert.assertEquals(oort1.getURL(), client2.getTransport().getURL());
+
+            // The third client is redirected to the less loaded node.
+            BayeuxClient client3 = startClient(oort1, null);
+            Assert.assertTrue(client3.waitFor(5000, BayeuxClient.State.CONNECTED));
+            Assert.assertEquals(oort2.getURL(), client3.getTransport().getURL());
+            Assert.assertNotNull(oort2.getBayeuxServer().getSession(client3.getId()));
+            Assert.assertNull(oort1.getBayeuxServer().getSession(client3.getId()));
+        } finally {
+            balancer2.stop();
+            balancer1.stop();
+        }
+    }
+}
@@ -16,17 +16,23 @@
 package org.cometd.oort;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cometd.bayeux.BinaryData;
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSessionChannel;
 import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
 import org.cometd.client.BayeuxClient;
 import org.cometd.server.ext.BinaryExtension;
 import org.eclipse.jetty.server.Server;
@@ -279,4 +285,323 @@ public class OortObserveChannelTest extends OortTest {
         Assert.assertTrue(publishLatch.await(5, TimeUnit.SECONDS));
         Assert.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
     }
+
+    @Test
+    public void testInterestRouting() throws Exception {
+        Server server1 = startServer(0);
+        Oort oort1 = startInterestRoutingOort(server1);
+        Server server2 = startServer(0);
+        Oort oort2 = startInterestRoutingOort(server2);
+        Server server3 = startServer(0);
+        final Oort oort3 = startInterestRoutingOort(server3);
+
+        CountDownLatch latch = new CountDownLatch(6);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        oort3.addCometListener(listener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        OortComet oortComet13 = oort1.observeComet(oort3.getURL());
+        Assert.assertTrue(oortComet13.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        final String channelName = "/oort_test";
+        oort1.observeChannel(channelName);
+        oort3.observeChannel(channelName);
+
+        // Count the messages forwarded to oort3.
+        final AtomicInteger forwarded3 = new AtomicInteger();
+        BayeuxServer bayeux3 = (BayeuxServer)server3.getAttribute(BayeuxServer.ATTRIBUTE);
+        bayeux3.addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                if (channelName.equals(message.getChannel()) && oort3.isOort(from)) {
+                    forwarded3.incrementAndGet();
+                }
+                return true;
+            }
+        });
+
+        BayeuxClient client1 = startClient(oort1, null);
+        Assert.assertTrue(client1.waitFor(5000, BayeuxClient.State.CONNECTED));
+        BayeuxClient client2 = startClient(oort2, null);
+        Assert.assertTrue(client2.waitFor(5000, BayeuxClient.State.CONNECTED));
+        BayeuxClient client3 = startClient(oort3, null);
+        Assert.assertTrue(client3.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Only client1 subscribes.
+        LatchListener subscribeLatch1 = new LatchListener();
+        client1.getChannel(Channel.META_SUBSCRIBE).addListener(subscribeLatch1);
+        LatchListener messageLatch1 = new LatchListener(1);
+        client1.getChannel(channelName).subscribe(messageLatch1);
+        Assert.assertTrue(subscribeLatch1.await(5, TimeUnit.SECONDS));
+
+        // Wait a while to be sure the interest has been advertised.
+        Thread.sleep(1000);
+
+        // Oort3 has no interest, so the message must not be forwarded to it.
+        client2.getChannel(channelName).publish(new HashMap<>());
+        Assert.assertTrue(messageLatch1.await(5, TimeUnit.SECONDS));
+        Thread.sleep(500);
+        Assert.assertEquals(0, forwarded3.get());
+
+        // Subscribe client3, now oort3 has interest.
+        LatchListener subscribeLatch3 = new LatchListener();
+        client3.getChannel(Channel.META_SUBSCRIBE).addListener(subscribeLatch3);
+        LatchListener messageLatch3 = new LatchListener(1);
+        client3.getChannel(channelName).subscribe(messageLatch3);
+        Assert.assertTrue(subscribeLatch3.await(5, TimeUnit.SECONDS));
+
+        Thread.sleep(1000);
+
+        messageLatch1.reset(1);
+        client2.getChannel(channelName).publish(new HashMap<>());
+        Assert.assertTrue(messageLatch1.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(messageLatch3.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, forwarded3.get());
+    }
+
+    @Test
+    public void testInterestRoutingWithWildChannel() throws Exception {
+        Server server1 = startServer(0);
+        final Oort oort1 = startInterestRoutingOort(server1);
+        Server server2 = startServer(0);
+        Oort oort2 = startInterestRoutingOort(server2);
+
+        CountDownLatch latch = new CountDownLatch(2);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        String wildChannelName = "/oort_test/*";
+        oort1.observeChannel(wildChannelName);
+        oort2.observeChannel(wildChannelName);
+
+        // Count the messages forwarded to oort1.
+        final String channelName = "/oort_test/foo";
+        final AtomicInteger forwarded1 = new AtomicInteger();
+        BayeuxServer bayeux1 = (BayeuxServer)server1.getAttribute(BayeuxServer.ATTRIBUTE);
+        bayeux1.addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                if (channelName.equals(message.getChannel()) && oort1.isOort(from)) {
+                    forwarded1.incrementAndGet();
+                }
+                return true;
+            }
+        });
+
+        BayeuxClient client1 = startClient(oort1, null);
+        Assert.assertTrue(client1.waitFor(5000, BayeuxClient.State.CONNECTED));
+        BayeuxClient client2 = startClient(oort2, null);
+        Assert.assertTrue(client2.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Wait a while to be sure the interest has been advertised.
+        Thread.sleep(1000);
+
+        // Oort1 has no interest, so the message must not be forwarded to it.
+        client2.getChannel(channelName).publish(new HashMap<>());
+        Thread.sleep(500);
+        Assert.assertEquals(0, forwarded1.get());
+
+        // Subscribe client1 to a channel matched by the observed channel.
+        LatchListener subscribeLatch1 = new LatchListener();
+        client1.getChannel(Channel.META_SUBSCRIBE).addListener(subscribeLatch1);
+        LatchListener messageLatch1 = new LatchListener(1);
+        ClientSessionChannel channel1 = client1.getChannel(channelName);
+        channel1.subscribe(messageLatch1);
+        Assert.assertTrue(subscribeLatch1.await(5, TimeUnit.SECONDS));
+
+        Thread.sleep(1000);
+
+        client2.getChannel(channelName).publish(new HashMap<>());
+        Assert.assertTrue(messageLatch1.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, forwarded1.get());
+
+        // Unsubscribe client1, now oort1 has no interest anymore.
+        LatchListener unsubscribeLatch1 = new LatchListener();
+        client1.getChannel(Channel.META_UNSUBSCRIBE).addListener(unsubscribeLatch1);
+        channel1.unsubscribe(messageLatch1);
+        Assert.assertTrue(unsubscribeLatch1.await(5, TimeUnit.SECONDS));
+
+        Thread.sleep(1000);
+
+        client2.getChannel(channelName).publish(new HashMap<>());
+        Thread.sleep(500);
+        Assert.assertEquals(1, forwarded1.get());
+    }
+
+    @Test
+    public void testBatchForwarding() throws Exception {
+        Server server1 = startServer(0);
+        Oort oort1 = startOort(server1);
+        Server server2 = startServer(0);
+        String url2 = (String)server2.getAttribute(OortConfigServlet.OORT_URL_PARAM);
+        BayeuxServer bayeux2 = (BayeuxServer)server2.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oort2 = new Oort(bayeux2, url2);
+        oort2.setBatchForwardingEnabled(true);
+        oort2.setMaxBatchDelay(1000);
+        oort2.start();
+        oorts.add(oort2);
+
+        CountDownLatch latch = new CountDownLatch(2);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        final String channelName = "/oort_test";
+        oort1.observeChannel(channelName);
+        oort2.observeChannel(channelName);
+
+        // Count the batches sent by oort2.
+        final AtomicInteger batches = new AtomicInteger();
+        bayeux2.addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean send(ServerSession from, ServerSession to, ServerMessage.Mutable message) {
+                if (Oort.OORT_BATCH_CHANNEL.equals(message.getChannel())) {
+                    batches.incrementAndGet();
+                }
+                return true;
+            }
+        });
+
+        BayeuxClient client1 = startClient(oort1, null);
+        Assert.assertTrue(client1.waitFor(5000, BayeuxClient.State.CONNECTED));
+        BayeuxClient client2 = startClient(oort2, null);
+        Assert.assertTrue(client2.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        final int count = 10;
+        final List<Object> received = new ArrayList<>();
+        final CountDownLatch messageLatch = new CountDownLatch(count);
+        LatchListener subscribeLatch = new LatchListener();
+        client1.getChannel(Channel.META_SUBSCRIBE).addListener(subscribeLatch);
+        client1.getChannel(channelName).subscribe(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                received.add(message.getDataAsMap().get("index"));
+                messageLatch.countDown();
+            }
+        });
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        // Publish in a batch, so that the messages arrive in order to oort2.
+        final ClientSessionChannel channel2 = client2.getChannel(channelName);
+        client2.batch(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; ++i) {
+                    Map<String, Object> data = new HashMap<>();
+                    data.put("index", i);
+                    channel2.publish(data);
+                }
+            }
+        });
+
+        Assert.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < count; ++i) {
+            Assert.assertEquals(i, ((Number)received.get(i)).intValue());
+        }
+        Assert.assertTrue(batches.get() > 0);
+        Assert.assertTrue(batches.get() < count);
+    }
+
+    @Test
+    public void testLinkMetrics() throws Exception {
+        Server server1 = startServer(0);
+        Oort oort1 = startMetricsOort(server1);
+        Server server2 = startServer(0);
+        Oort oort2 = startMetricsOort(server2);
+        final CountDownLatch roundTripLatch = new CountDownLatch(1);
+        oort1.addMetricsListener(new OortCometMetrics.Listener.Adapter() {
+            @Override
+            public void onRoundTrip(OortCometMetrics metrics, long roundTrip) {
+                roundTripLatch.countDown();
+            }
+        });
+
+        CountDownLatch latch = new CountDownLatch(2);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        String channelName = "/oort_test";
+        oort1.observeChannel(channelName);
+        oort2.observeChannel(channelName);
+
+        BayeuxClient client1 = startClient(oort1, null);
+        Assert.assertTrue(client1.waitFor(5000, BayeuxClient.State.CONNECTED));
+        BayeuxClient client2 = startClient(oort2, null);
+        Assert.assertTrue(client2.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        int count = 10;
+        final CountDownLatch messageLatch = new CountDownLatch(count);
+        LatchListener subscribeLatch = new LatchListener();
+        client1.getChannel(Channel.META_SUBSCRIBE).addListener(subscribeLatch);
+        client1.getChannel(channelName).subscribe(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                messageLatch.countDown();
+            }
+        });
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < count; ++i) {
+            client2.getChannel(channelName).publish("data" + i);
+        }
+        Assert.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+
+        OortCometMetrics metrics21 = oort2.getCometMetrics(oort1.getURL());
+        Assert.assertNotNull(metrics21);
+        Assert.assertEquals(count, metrics21.getMessagesSent(channelName));
+        Assert.assertTrue(metrics21.getBytesSent() > 0);
+        OortCometMetrics metrics12 = oort1.getCometMetrics(oort2.getURL());
+        Assert.assertNotNull(metrics12);
+        Assert.assertSame(metrics12, oortComet12.getMetrics());
+        Assert.assertEquals(count, metrics12.getMessagesReceived(channelName));
+        Assert.assertTrue(metrics12.getBytesReceived() > 0);
+        Assert.assertEquals(0, metrics12.getReconnects());
+
+        Assert.assertTrue(roundTripLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(metrics12.getLastRoundTrip() >= 0);
+        Assert.assertTrue(metrics12.getAverageRoundTrip() >= 0);
+
+        // The metrics are detached when the remote node leaves.
+        CountDownLatch leftLatch = new CountDownLatch(1);
+        oort1.addCometListener(new CometLeftListener(leftLatch));
+        stopOort(oort2);
+        Assert.assertTrue(leftLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(oort1.getCometMetrics(oort2.getURL()));
+        Assert.assertNull(oortComet12.getMetrics());
+    }
+
+    private Oort startMetricsOort(Server server) throws Exception {
+        String url = (String)server.getAttribute(OortConfigServlet.OORT_URL_PARAM);
+        BayeuxServer bayeuxServer = (BayeuxServer)server.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oort = new Oort(bayeuxServer, url);
+        oort.setMetricsEnabled(true);
+        oort.setPingInterval(100);
+        oort.start();
+        oorts.add(oort);
+        return oort;
+    }
+
+    private Oort startInterestRoutingOort(Server server) throws Exception {
+        String url = (String)server.getAttribute(OortConfigServlet.OORT_URL_PARAM);
+        BayeuxServer bayeuxServer = (BayeuxServer)server.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oort = new Oort(bayeuxServer, url);
+        oort.setInterestRoutingEnabled(true);
+        oort.start();
+        oorts.add(oort);
+        return oort;
+    }
 }
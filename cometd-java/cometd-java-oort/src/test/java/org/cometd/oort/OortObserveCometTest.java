@@ -16,11 +16,13 @@
 package org.cometd.oort;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -43,6 +45,7 @@ import org.cometd.client.transport.ClientTransport;
 import org.cometd.server.AbstractServerTransport;
 import org.cometd.server.BayeuxServerImpl;
 import org.cometd.server.ext.AcknowledgedMessagesExtension;
+import org.cometd.websocket.client.WebSocketTransport;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.junit.Assert;
@@ -1202,6 +1205,154 @@ public class OortObserveCometTest extends OortTest {
         Assert.assertTrue(oortCometAB.waitFor(5000, BayeuxClient.State.DISCONNECTED));
     }
 
+    @Test
+    public void testFailureDetection() throws Exception {
+        Server serverA = startServer(0);
+        String urlA = (String)serverA.getAttribute(OortConfigServlet.OORT_URL_PARAM);
+        BayeuxServer bayeuxServerA = (BayeuxServer)serverA.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oortA = new Oort(bayeuxServerA, urlA);
+        oortA.setFailureDetectionEnabled(true);
+        oortA.setHeartbeatInterval(100);
+        oortA.setAcceptableHeartbeatPause(100);
+        oortA.start();
+        oorts.add(oortA);
+        Server serverB = startServer(0);
+        Oort oortB = startOort(serverB);
+
+        // Simulate node B not replying to the heartbeats.
+        final AtomicBoolean unresponsive = new AtomicBoolean();
+        oortB.getBayeuxServer().addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                return !(unresponsive.get() && Oort.OORT_PING_CHANNEL.equals(message.getChannel()));
+            }
+        });
+
+        CountDownLatch joinLatch = new CountDownLatch(2);
+        CometJoinedListener joinListener = new CometJoinedListener(joinLatch);
+        oortA.addCometListener(joinListener);
+        oortB.addCometListener(joinListener);
+        OortComet oortCometAB = oortA.observeComet(oortB.getURL());
+        Assert.assertTrue(oortCometAB.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(joinLatch.await(5, TimeUnit.SECONDS));
+
+        // Collect some heartbeats.
+        sleep(1000);
+        Assert.assertTrue(oortA.getSuspectedComets().isEmpty());
+
+        CountDownLatch leftLatch = new CountDownLatch(1);
+        oortA.addCometListener(new CometLeftListener(leftLatch));
+        unresponsive.set(true);
+
+        // Node B is detected as failed well before its session expires.
+        Assert.assertTrue(leftLatch.await(3, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailureDetectionWithoutHeartbeats() throws Exception {
+        Server serverA = startServer(0);
+        String urlA = (String)serverA.getAttribute(OortConfigServlet.OORT_URL_PARAM);
+        BayeuxServer bayeuxServerA = (BayeuxServer)serverA.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oortA = new Oort(bayeuxServerA, urlA);
+        oortA.setFailureDetectionEnabled(true);
+        oortA.setHeartbeatInterval(100);
+        oortA.setAcceptableHeartbeatPause(100);
+        oortA.start();
+        oorts.add(oortA);
+        Server serverB = startServer(0);
+        Oort oortB = startOort(serverB);
+
+        // Simulate node B never replying to the heartbeats.
+        oortB.getBayeuxServer().addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                return !Oort.OORT_PING_CHANNEL.equals(message.getChannel());
+            }
+        });
+
+        CountDownLatch joinLatch = new CountDownLatch(2);
+        CometJoinedListener joinListener = new CometJoinedListener(joinLatch);
+        oortA.addCometListener(joinListener);
+        oortB.addCometListener(joinListener);
+        CountDownLatch leftLatch = new CountDownLatch(1);
+        oortA.addCometListener(new CometLeftListener(leftLatch));
+        OortComet oortCometAB = oortA.observeComet(oortB.getURL());
+        Assert.assertTrue(oortCometAB.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(joinLatch.await(5, TimeUnit.SECONDS));
+
+        // Node B is detected as failed even if it never replied.
+        Assert.assertTrue(leftLatch.await(3, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBoundedCometQueue() throws Exception {
+        Server serverA = startServer(0);
+        String urlA = (String)serverA.getAttribute(OortConfigServlet.OORT_URL_PARAM);
+        BayeuxServer bayeuxServerA = (BayeuxServer)serverA.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oortA = new Oort(bayeuxServerA, urlA);
+        oortA.setMetricsEnabled(true);
+        oortA.setMaxCometQueueSize(3);
+        oortA.setCometQueueOverflowPolicy(OortComet.OverflowPolicy.DROP_OLDEST);
+        oortA.start();
+        oorts.add(oortA);
+        // Short /meta/connect hold time, so that node A notices the link is down quickly.
+        Map<String, String> options = new HashMap<>();
+        options.put(AbstractServerTransport.TIMEOUT_OPTION, "500");
+        Server serverB = startServer(0, options);
+        Oort oortB = startOort(serverB);
+
+        // Simulate the link from node A to node B going down.
+        final AtomicBoolean unreachable = new AtomicBoolean();
+        oortB.getBayeuxServer().addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcvMeta(ServerSession from, ServerMessage.Mutable message) {
+                return !(unreachable.get() && Channel.META_CONNECT.equals(message.getChannel()));
+            }
+        });
+
+        CountDownLatch joinLatch = new CountDownLatch(2);
+        CometJoinedListener joinListener = new CometJoinedListener(joinLatch);
+        oortA.addCometListener(joinListener);
+        oortB.addCometListener(joinListener);
+        OortComet oortCometAB = oortA.observeComet(oortB.getURL());
+        Assert.assertTrue(oortCometAB.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(joinLatch.await(5, TimeUnit.SECONDS));
+
+        String channelName = "/queue";
+        final List<Object> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch messageLatch = new CountDownLatch(3);
+        oortB.getBayeuxServer().createChannelIfAbsent(channelName).getReference().addListener(new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
+                received.add(message.getData());
+                messageLatch.countDown();
+                return true;
+            }
+        });
+
+        unreachable.set(true);
+        Assert.assertTrue(oortCometAB.waitFor(5000, BayeuxClient.State.UNCONNECTED));
+
+        for (int i = 0; i < 5; ++i) {
+            oortCometAB.getChannel(channelName).publish(i);
+        }
+
+        // Only the most recent messages are kept.
+        Assert.assertEquals(3, oortCometAB.getQueueSize());
+        Assert.assertEquals(2, oortCometAB.getQueueOverflows());
+        Assert.assertEquals(2, oortA.getCometMetrics(oortB.getURL()).getQueueOverflows());
+
+        unreachable.set(false);
+
+        // The queued messages are sent when the link is re-established.
+        Assert.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, received.size());
+        for (int i = 0; i < received.size(); ++i) {
+            Assert.assertEquals(i + 2, ((Number)received.get(i)).intValue());
+        }
+        Assert.assertEquals(0, oortCometAB.getQueueSize());
+    }
+
     @Test
     public void testMessagesDroppedOnlyInOneDirection() throws Exception {
         long sweepPeriod = 1000;
@@ -1297,6 +1448,168 @@ public class OortObserveCometTest extends OortTest {
         Assert.assertEquals(1, joinCount.get());
     }
 
+    @Test
+    public void testLocalTransport() throws Exception {
+        Server server1 = startServer(0);
+        Oort oort1 = startLocalOort(server1);
+        Server server2 = startServer(0);
+        Oort oort2 = startLocalOort(server2);
+        // A node without the local transport.
+        Server server3 = startServer(0);
+        Oort oort3 = startOort(server3);
+
+        CountDownLatch latch = new CountDownLatch(6);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        oort3.addCometListener(listener);
+
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        OortComet oortComet13 = oort1.observeComet(oort3.getURL());
+        Assert.assertTrue(oortComet13.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assert.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertEquals(OortLocalTransport.NAME, oortComet12.getTransport().getName());
+        Assert.assertEquals(OortLocalTransport.NAME, oortComet21.getTransport().getName());
+        // The other node does not support the local transport.
+        Assert.assertNotEquals(OortLocalTransport.NAME, oortComet13.getTransport().getName());
+
+        String channelName = "/local";
+        oort1.observeChannel(channelName);
+        // Wait a while to be sure to be subscribed.
+        sleep(1000);
+
+        final Map<String, Object> data = new HashMap<>();
+        data.put("list", Arrays.<Object>asList(1, "two"));
+        final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        LocalSession session1 = oort1.getBayeuxServer().newLocalSession("test");
+        session1.handshake();
+        session1.getChannel(channelName).subscribe(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                messages.offer(message);
+            }
+        });
+
+        LocalSession session2 = oort2.getBayeuxServer().newLocalSession("test");
+        session2.handshake();
+        session2.getChannel(channelName).publish(data);
+
+        Message message = messages.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(message);
+        Map<String, Object> received = message.getDataAsMap();
+        Assert.assertEquals(data, received);
+        // The data must have been copied between the nodes.
+        Assert.assertNotSame(data, received);
+
+        // Stopping a node must be detected by the other node.
+        CountDownLatch leftLatch = new CountDownLatch(1);
+        oort1.addCometListener(new CometLeftListener(leftLatch));
+        stopOort(oort2);
+        Assert.assertTrue(leftLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCodec() throws Exception {
+        Server server1 = startServer(0);
+        Oort oort1 = startCodecOort(server1);
+        Server server2 = startServer(0);
+        Oort oort2 = startCodecOort(server2);
+        // A node without the codec.
+        Server server3 = startServer(0);
+        Oort oort3 = startOort(server3);
+
+        CountDownLatch latch = new CountDownLatch(6);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oort1.addCometListener(listener);
+        oort2.addCometListener(listener);
+        oort3.addCometListener(listener);
+
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        OortComet oortComet13 = oort1.observeComet(oort3.getURL());
+        Assert.assertTrue(oortComet13.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        Map<String, Object> value = new HashMap<>();
+        value.put("name", OortObject.Info.OBJECT_FIELD);
+        final Map<String, Object> data = new HashMap<>();
+        data.put("oort.map.key", "~key");
+        data.put("oort.map.value", value);
+        Assert.assertEquals(data, OortCodec.decode(OortCodec.encode(data)));
+
+        String channelName = "/service/oort/codec";
+        BlockingQueue<Map<String, Object>> encoded2 = new LinkedBlockingQueue<>();
+        BlockingQueue<Map<String, Object>> decoded2 = new LinkedBlockingQueue<>();
+        captureData(oort2, channelName, encoded2, decoded2);
+        BlockingQueue<Map<String, Object>> encoded3 = new LinkedBlockingQueue<>();
+        BlockingQueue<Map<String, Object>> decoded3 = new LinkedBlockingQueue<>();
+        captureData(oort3, channelName, encoded3, decoded3);
+
+        oortComet12.getChannel(channelName).publish(data);
+        oortComet13.getChannel(channelName).publish(data);
+
+        // Both nodes support the codec: the data is encoded on the wire.
+        Map<String, Object> encoded = encoded2.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(encoded);
+        Assert.assertFalse(encoded.containsKey("oort.map.key"));
+        Assert.assertTrue(encoded.containsValue("~~key"));
+        Assert.assertEquals(data, decoded2.poll(5, TimeUnit.SECONDS));
+
+        // The other node does not support the codec.
+        Assert.assertEquals(data, encoded3.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals(data, decoded3.poll(5, TimeUnit.SECONDS));
+    }
+
+    private Oort startCodecOort(Server server) throws Exception {
+        String url = (String)server.getAttribute(OortConfigServlet.OORT_URL_PARAM);
+        BayeuxServer bayeuxServer = (BayeuxServer)server.getAttribute(BayeuxServer.ATTRIBUTE);
+        bayeuxServer.setOption(Server.class.getName(), server);
+        Oort oort = new Oort(bayeuxServer, url);
+        oort.setCodecEnabled(true);
+        oort.start();
+        oorts.add(oort);
+        return oort;
+    }
+
+    private void captureData(Oort oort, final String channelName, final BlockingQueue<Map<String, Object>> encoded, final BlockingQueue<Map<String, Object>> decoded) {
+        BayeuxServer bayeuxServer = oort.getBayeuxServer();
+        // BayeuxServer extensions see the messages before the session extensions.
+        bayeuxServer.addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                if (channelName.equals(message.getChannel())) {
+                    encoded.offer(new HashMap<>(message.getDataAsMap()));
+                }
+                return true;
+            }
+        });
+        bayeuxServer.createChannelIfAbsent(channelName).getReference().addListener(new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
+                decoded.offer(message.getDataAsMap());
+                return true;
+            }
+        });
+    }
+
+    private Oort startLocalOort(Server server) throws Exception {
+        String url = (String)server.getAttribute(OortConfigServlet.OORT_URL_PARAM);
+        BayeuxServer bayeuxServer = (BayeuxServer)server.getAttribute(BayeuxServer.ATTRIBUTE);
+        bayeuxServer.setOption(Server.class.getName(), server);
+        Oort oort = new Oort(bayeuxServer, url);
+        List<ClientTransport.Factory> factories = new ArrayList<>();
+        factories.add(new OortLocalTransport.Factory(oort));
+        factories.add(new WebSocketTransport.Factory());
+        oort.setClientTransportFactories(factories);
+        oort.start();
+        oorts.add(oort);
+        return oort;
+    }
+
     private void sleep(long time) {
         try {
             Thread.sleep(time);
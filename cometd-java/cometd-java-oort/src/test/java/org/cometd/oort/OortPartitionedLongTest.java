@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cometd.client.BayeuxClient;
+import org.eclipse.jetty.server.Server;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OortPartitionedLongTest extends AbstractOortObjectTest {
+    private final List<OortPartitionedLong> counters = new ArrayList<>();
+
+    public OortPartitionedLongTest(String serverTransport) {
+        super(serverTransport);
+    }
+
+    @After
+    public void stopCounters() throws Exception {
+        for (int i = counters.size() - 1; i >= 0; --i) {
+            counters.get(i).stop();
+        }
+    }
+
+    private OortPartitionedLong startCounter(Oort oort, String name) throws Exception {
+        return startCounter(new OortPartitionedLong(oort, name));
+    }
+
+    private OortPartitionedLong startCounter(OortPartitionedLong counter) throws Exception {
+        counter.start();
+        counters.add(counter);
+        return counter;
+    }
+
+    @Test
+    public void testCountersAreSpreadAndRebalanced() throws Exception {
+        String name = "test";
+        OortPartitionedLong counter1 = startCounter(oort1, name);
+        OortPartitionedLong counter2 = startCounter(oort2, name);
+
+        int keys = 32;
+        final CountDownLatch addLatch = new CountDownLatch(2 * keys);
+        for (int i = 0; i < keys; ++i) {
+            String key = "key" + i;
+            Assert.assertEquals(counter1.getOwnerOortURL(key), counter2.getOwnerOortURL(key));
+            Assert.assertTrue(counter1.addAndGet(key, 1, new LatchCallback(addLatch)));
+            Assert.assertTrue(counter2.addAndGet(key, 1, new LatchCallback(addLatch)));
+        }
+        Assert.assertTrue(addLatch.await(5, TimeUnit.SECONDS));
+
+        // Both nodes own some counters, that live only in the owner node.
+        int owned1 = 0;
+        for (int i = 0; i < keys; ++i) {
+            String key = "key" + i;
+            if (counter1.isOwner(key)) {
+                ++owned1;
+                Assert.assertEquals(2, counter1.getValue(key));
+                Assert.assertEquals(0, counter2.getValue(key));
+            } else {
+                Assert.assertEquals(0, counter1.getValue(key));
+                Assert.assertEquals(2, counter2.getValue(key));
+            }
+        }
+        Assert.assertTrue(owned1 > 0);
+        Assert.assertTrue(owned1 < keys);
+
+        // A third node joins, and takes ownership of some counters.
+        Server server3 = startServer(0);
+        Oort oort3 = startOort(server3);
+        final BlockingQueue<String> handOffs = new LinkedBlockingQueue<>();
+        OortPartitionedLong counter3 = startCounter(new OortPartitionedLong(oort3, name) {
+            @Override
+            protected Result<Long> onForward(Request request) {
+                Result<Long> result = super.onForward(request);
+                handOffs.offer((String)request.getDataAsMap().get("key"));
+                return result;
+            }
+        });
+        CountDownLatch joinLatch = new CountDownLatch(4);
+        CometJoinedListener joinListener = new CometJoinedListener(joinLatch);
+        oort1.addCometListener(joinListener);
+        oort2.addCometListener(joinListener);
+        oort3.addCometListener(joinListener);
+        OortComet oortComet31 = oort3.observeComet(oort1.getURL());
+        Assert.assertTrue(oortComet31.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(joinLatch.await(5, TimeUnit.SECONDS));
+
+        // Wait for the counters to be handed off.
+        Set<String> owned = new HashSet<>();
+        for (int i = 0; i < keys; ++i) {
+            String key = "key" + i;
+            if (counter3.isOwner(key)) {
+                owned.add(key);
+            }
+        }
+        Set<String> handedOff = new HashSet<>();
+        while (!handedOff.containsAll(owned)) {
+            String key = handOffs.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(key);
+            handedOff.add(key);
+        }
+
+        int owned3 = 0;
+        for (int i = 0; i < keys; ++i) {
+            final String key = "key" + i;
+            Assert.assertEquals(counter1.getOwnerOortURL(key), counter3.getOwnerOortURL(key));
+            if (counter3.isOwner(key)) {
+                ++owned3;
+                Assert.assertEquals(2, counter3.getValue(key));
+            }
+            final AtomicLong result = new AtomicLong();
+            final CountDownLatch getLatch = new CountDownLatch(1);
+            Assert.assertTrue(counter3.get(key, new OortPartitionedLong.Callback.Adapter() {
+                @Override
+                public void succeeded(Long value) {
+                    result.set(value);
+                    getLatch.countDown();
+                }
+            }));
+            Assert.assertTrue(getLatch.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(2, result.get());
+        }
+        Assert.assertTrue(owned3 > 0);
+    }
+
+    @Test
+    public void testRingResolvesCollisionsDeterministically() throws Exception {
+        // "Aa" and "BB" have the same hash code, so all their points collide.
+        OortRing ring1 = new OortRing(Arrays.asList("Aa", "BB"));
+        OortRing ring2 = new OortRing(Arrays.asList("BB", "Aa"));
+        for (int i = 0; i < 32; ++i) {
+            String key = "key" + i;
+            Assert.assertEquals("Aa", ring1.getOwner(key));
+            Assert.assertEquals("Aa", ring2.getOwner(key));
+        }
+    }
+
+    private static class LatchCallback extends OortPartitionedLong.Callback.Adapter {
+        private final CountDownLatch latch;
+
+        private LatchCallback(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public void succeeded(Long result) {
+            latch.countDown();
+        }
+    }
+}
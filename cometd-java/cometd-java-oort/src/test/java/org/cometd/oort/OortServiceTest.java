@@ -15,10 +15,17 @@
  */
 package org.cometd.oort;
 
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -246,6 +253,162 @@ public class OortServiceTest extends AbstractOortObjectTest {
         TimeUnit.MILLISECONDS.sleep(2 * timeout);
     }
 
+    @Test
+    public void testBatchedActions() throws Exception {
+        int actions = 25;
+        CountDownLatch latch1 = new CountDownLatch(actions);
+        BatchService service1 = new BatchService(oort1, latch1);
+        service1.setBatchDelay(500);
+        service1.setMaxBatchSize(10);
+        service1.start();
+        CountDownLatch latch2 = new CountDownLatch(0);
+        BatchService service2 = new BatchService(oort2, latch2);
+        service2.start();
+
+        final String forwardChannelName = "/service/oort/service/" + service2.getName();
+        final AtomicInteger messages = new AtomicInteger();
+        oort2.getBayeuxServer().addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                if (forwardChannelName.equals(message.getChannel())) {
+                    messages.incrementAndGet();
+                }
+                return true;
+            }
+        });
+
+        for (long i = 0; i < actions; ++i) {
+            Assert.assertTrue(service1.forward(oort2.getURL(), i, i));
+        }
+        Assert.assertTrue(latch1.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(actions, service1.results.get());
+        Assert.assertEquals(0, service1.failures.get());
+        // Two full batches sent immediately, and one sent when the delay expires.
+        Assert.assertEquals(3, messages.get());
+
+        // Stop the remote service, the batch expires.
+        service2.stop();
+        long timeout = 1000;
+        service1.setTimeout(timeout);
+        service1.setBatchDelay(timeout);
+        CountDownLatch latch3 = new CountDownLatch(actions);
+        service1.latch = latch3;
+        for (long i = 0; i < actions; ++i) {
+            Assert.assertTrue(service1.forward(oort2.getURL(), i, i));
+        }
+        // The timeout is measured from the forward, not from when the batch is sent.
+        Assert.assertTrue(latch3.await(timeout + timeout / 2, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(actions, service1.timeouts.get());
+
+        service1.stop();
+    }
+
+    @Test
+    public void testBatchedActionsFailWhenNodeLeaves() throws Exception {
+        int actions = 5;
+        CountDownLatch latch1 = new CountDownLatch(actions);
+        BatchService service1 = new BatchService(oort1, latch1);
+        service1.setBatchDelay(1000);
+        service1.start();
+        CountDownLatch latch2 = new CountDownLatch(0);
+        BatchService service2 = new BatchService(oort2, latch2);
+        service2.start();
+
+        for (long i = 0; i < actions; ++i) {
+            Assert.assertTrue(service1.forward(oort2.getURL(), i, i));
+        }
+
+        // The node leaves before the batch is sent, the actions fail.
+        CountDownLatch leftLatch = new CountDownLatch(1);
+        oort1.addCometListener(new CometLeftListener(leftLatch));
+        oort1.deobserveComet(oort2.getURL());
+        Assert.assertTrue(leftLatch.await(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue(latch1.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(actions, service1.failures.get());
+        Assert.assertEquals(0, service1.timeouts.get());
+
+        service2.stop();
+        service1.stop();
+    }
+
+    @Test
+    public void testOwnerCache() throws Exception {
+        OwnerService service1 = new OwnerService(oort1);
+        OwnerService service2 = new OwnerService(oort2);
+        String channelName = "/oort/service/" + service1.getName();
+        CometSubscriptionListener listener1 = new CometSubscriptionListener(channelName, 1);
+        oort1.getBayeuxServer().addListener(listener1);
+        CometSubscriptionListener listener2 = new CometSubscriptionListener(channelName, 1);
+        oort2.getBayeuxServer().addListener(listener2);
+        service1.start();
+        Assert.assertTrue(listener2.await(5, TimeUnit.SECONDS));
+        service2.start();
+        Assert.assertTrue(listener1.await(5, TimeUnit.SECONDS));
+
+        String key = "key";
+        service2.keys.add(key);
+
+        // The first action is broadcast, and the owner is cached.
+        Assert.assertEquals(oort2.getURL(), service1.perform(key));
+        Assert.assertEquals(1, service1.actions.get());
+        Assert.assertEquals(1, service2.actions.get());
+
+        // The second action is forwarded to the owner only.
+        Assert.assertEquals(oort2.getURL(), service1.perform(key));
+        Assert.assertEquals(1, service1.actions.get());
+        Assert.assertEquals(2, service2.actions.get());
+
+        // Move the entity, the cached owner ignores
+        // the action, which is broadcast again.
+        service2.keys.remove(key);
+        service1.keys.add(key);
+        Assert.assertEquals(oort1.getURL(), service1.perform(key));
+        Assert.assertEquals(oort1.getURL(), service1.perform(key));
+        // One broadcast action, one local action.
+        Assert.assertEquals(3, service1.actions.get());
+
+        service2.stop();
+        service1.stop();
+    }
+
+    @Test
+    public void testOwnerCacheEvictsLeastRecentlyUsed() throws Exception {
+        OwnerService service1 = new OwnerService(oort1);
+        service1.setMaxOwnerCacheSize(2);
+        OwnerService service2 = new OwnerService(oort2);
+        String channelName = "/oort/service/" + service1.getName();
+        CometSubscriptionListener listener1 = new CometSubscriptionListener(channelName, 1);
+        oort1.getBayeuxServer().addListener(listener1);
+        CometSubscriptionListener listener2 = new CometSubscriptionListener(channelName, 1);
+        oort2.getBayeuxServer().addListener(listener2);
+        service1.start();
+        Assert.assertTrue(listener2.await(5, TimeUnit.SECONDS));
+        service2.start();
+        Assert.assertTrue(listener1.await(5, TimeUnit.SECONDS));
+
+        service2.keys.addAll(Arrays.asList("a", "b", "c"));
+
+        // Broadcast actions are also received by service1.
+        Assert.assertEquals(oort2.getURL(), service1.perform("a"));
+        Assert.assertEquals(oort2.getURL(), service1.perform("b"));
+        Assert.assertEquals(2, service1.actions.get());
+        // Use "a" so that "b" is the least recently used.
+        Assert.assertEquals(oort2.getURL(), service1.perform("a"));
+        Assert.assertEquals(2, service1.actions.get());
+
+        // Caching "c" evicts "b" only.
+        Assert.assertEquals(oort2.getURL(), service1.perform("c"));
+        Assert.assertEquals(3, service1.actions.get());
+        Assert.assertEquals(oort2.getURL(), service1.perform("a"));
+        Assert.assertEquals(3, service1.actions.get());
+        Assert.assertEquals(oort2.getURL(), service1.perform("b"));
+        Assert.assertEquals(4, service1.actions.get());
+
+        service2.stop();
+        service1.stop();
+    }
+
     private static class Service extends OortService<Boolean, String> {
         private final CountDownLatch latch;
         private volatile String context;
@@ -329,6 +492,85 @@ public class OortServiceTest extends AbstractOortObjectTest {
         }
     }
 
+    private static class BatchService extends OortService<Long, Long> {
+        private final AtomicInteger results = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger timeouts = new AtomicInteger();
+        private volatile CountDownLatch latch;
+
+        private BatchService(Oort oort, CountDownLatch latch) {
+            super(oort, "test");
+            this.latch = latch;
+        }
+
+        @Override
+        protected Result<Long> onForward(Request request) {
+            return Result.success(((Number)request.getData()).longValue());
+        }
+
+        @Override
+        protected void onForwardSucceeded(Long result, Long context) {
+            if (context.equals(((Number)result).longValue())) {
+                results.incrementAndGet();
+            }
+            latch.countDown();
+        }
+
+        @Override
+        protected void onForwardFailed(Object failure, Long context) {
+            if (failure instanceof TimeoutException) {
+                timeouts.incrementAndGet();
+            } else {
+                failures.incrementAndGet();
+            }
+            latch.countDown();
+        }
+    }
+
+    private static class OwnerService extends OortService<String, CountDownLatch> {
+        private final Set<String> keys = new CopyOnWriteArraySet<>();
+        private final AtomicInteger actions = new AtomicInteger();
+        private volatile String result;
+
+        private OwnerService(Oort oort) {
+            super(oort, "test");
+            setOwnerCacheEnabled(true);
+        }
+
+        public String perform(String key) throws InterruptedException {
+            result = null;
+            CountDownLatch latch = new CountDownLatch(1);
+            Assert.assertTrue(forward(null, key, latch));
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            return result;
+        }
+
+        @Override
+        protected Object getOwnerKey(Object parameter) {
+            return parameter;
+        }
+
+        @Override
+        protected Result<String> onForward(Request request) {
+            actions.incrementAndGet();
+            if (keys.contains((String)request.getData())) {
+                return Result.success(getOort().getURL());
+            }
+            return Result.ignore(null);
+        }
+
+        @Override
+        protected void onForwardSucceeded(String result, CountDownLatch latch) {
+            this.result = result;
+            latch.countDown();
+        }
+
+        @Override
+        protected void onForwardFailed(Object failure, CountDownLatch latch) {
+            latch.countDown();
+        }
+    }
+
     private abstract static class ExpireService extends OortService<Void, Void> {
         private final CountDownLatch latch;
 
@@ -15,16 +15,24 @@
  */
 package org.cometd.oort;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
 import org.cometd.client.BayeuxClient;
 import org.cometd.server.AbstractServerTransport;
 import org.eclipse.jetty.server.Server;
@@ -239,6 +247,58 @@ public class OortStringMapTest extends AbstractOortObjectTest {
         oortMap1.removeEntryListener(putListener);
     }
 
+    @Test
+    public void testFindSameKeyInMultipleNodes() throws Exception {
+        String name = "find_same_key";
+        OortObject.Factory<ConcurrentMap<String, String>> factory = OortObjectFactories.forConcurrentMap();
+        OortStringMap<String> oortMap1 = new OortStringMap<>(oort1, name, factory);
+        OortStringMap<String> oortMap2 = new OortStringMap<>(oort2, name, factory);
+        startOortObjects(oortMap1, oortMap2);
+
+        final CountDownLatch putLatch = new CountDownLatch(4);
+        final CountDownLatch removeLatch = new CountDownLatch(2);
+        OortMap.EntryListener.Adapter<String, String> listener = new OortMap.EntryListener.Adapter<String, String>() {
+            @Override
+            public void onPut(OortObject.Info<ConcurrentMap<String, String>> info, OortMap.Entry<String, String> entry) {
+                putLatch.countDown();
+            }
+
+            @Override
+            public void onRemoved(OortObject.Info<ConcurrentMap<String, String>> info, OortMap.Entry<String, String> entry) {
+                removeLatch.countDown();
+            }
+        };
+        oortMap1.addEntryListener(listener);
+        oortMap2.addEntryListener(listener);
+        String key = "key";
+        oortMap1.putAndShare(key, "value1", null);
+        String value2 = "value2";
+        oortMap2.putAndShare(key, value2, null);
+        Assert.assertTrue(putLatch.await(5, TimeUnit.SECONDS));
+
+        // Removing the key from one node must not hide the key in the other node.
+        oortMap1.removeAndShare(key, null);
+        Assert.assertTrue(removeLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(value2, oortMap1.find(key));
+        Assert.assertEquals(value2, oortMap2.find(key));
+        Assert.assertEquals(oort2.getURL(), oortMap1.findInfo(key).getOortURL());
+
+        // Replacing the whole map must update the lookups.
+        final CountDownLatch setLatch = new CountDownLatch(2);
+        OortObject.Listener.Adapter<ConcurrentMap<String, String>> setListener = new OortObject.Listener.Adapter<ConcurrentMap<String, String>>() {
+            @Override
+            public void onUpdated(OortObject.Info<ConcurrentMap<String, String>> oldInfo, OortObject.Info<ConcurrentMap<String, String>> newInfo) {
+                setLatch.countDown();
+            }
+        };
+        oortMap1.addListener(setListener);
+        oortMap2.addListener(setListener);
+        oortMap2.setAndShare(new ConcurrentHashMap<String, String>(), null);
+        Assert.assertTrue(setLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(oortMap1.find(key));
+        Assert.assertNull(oortMap2.findInfo(key));
+    }
+
     @Test
     public void testConcurrent() throws Exception {
         String name = "concurrent";
@@ -423,6 +483,238 @@ public class OortStringMapTest extends AbstractOortObjectTest {
         Assert.assertEquals(map1, map2);
     }
 
+    @Test
+    public void testSegmentedSync() throws Exception {
+        String name = "segmented_sync";
+        int segments = 16;
+        OortObject.Factory<ConcurrentMap<String, String>> factory = OortObjectFactories.forConcurrentMap();
+        final AtomicBoolean lose = new AtomicBoolean();
+        OortStringMap<String> oortMap1 = new OortStringMap<>(oort1, name, factory);
+        oortMap1.setSegmenter(OortObjectSegmenters.<String, String>forConcurrentMap(segments));
+        OortStringMap<String> oortMap2 = new OortStringMap<String>(oort2, name, factory) {
+            @Override
+            protected void onObject(Map<String, Object> data) {
+                String oortURL = (String)data.get(Info.OORT_URL_FIELD);
+                if (!getOort().getURL().equals(oortURL)) {
+                    if ("oort.map.entry".equals(data.get(Info.TYPE_FIELD))) {
+                        // Simulate that an entry update gets lost.
+                        if (lose.compareAndSet(true, false)) {
+                            return;
+                        }
+                    }
+                }
+                super.onObject(data);
+            }
+        };
+        oortMap2.setSegmenter(OortObjectSegmenters.<String, String>forConcurrentMap(segments));
+
+        final AtomicInteger segmentMessages = new AtomicInteger();
+        oort2.getBayeuxServer().addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                Map<String, Object> data = message.getDataAsMap();
+                if (data != null && "oort.object.segment".equals(data.get(OortObject.Info.ACTION_FIELD))) {
+                    segmentMessages.incrementAndGet();
+                }
+                return true;
+            }
+        });
+
+        startOortObjects(oortMap1, oortMap2);
+
+        // The initial sync transfers all the segments.
+        Assert.assertEquals(segments, segmentMessages.get());
+
+        int size = 100;
+        for (int i = 0; i < size; ++i) {
+            oortMap1.putAndShare("key" + i, "value" + i, null);
+        }
+        Assert.assertTrue(waitFor(5000, oortMap2, oort1.getURL(), size));
+
+        // Lose an update, the next update detects it and the maps sync.
+        segmentMessages.set(0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        oortMap2.addListener(new OortMap.DeltaListener<>(oortMap2));
+        oortMap2.addEntryListener(new OortMap.EntryListener.Adapter<String, String>() {
+            @Override
+            public void onPut(OortObject.Info<ConcurrentMap<String, String>> info, OortMap.Entry<String, String> entry) {
+                if (entry.getKey().equals("lost")) {
+                    latch.countDown();
+                }
+            }
+        });
+        lose.set(true);
+        OortObject.Result.Deferred<String> result = new OortObject.Result.Deferred<>();
+        oortMap1.putAndShare("lost", "value", result);
+        result.get(5, TimeUnit.SECONDS);
+        oortMap1.putAndShare("next", "value", null);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(oortMap1.getInfo(oort1.getURL()).getObject(), oortMap2.getInfo(oort1.getURL()).getObject());
+        // Only the segments that differ are transferred.
+        Assert.assertTrue(segmentMessages.get() <= 2);
+    }
+
+    @Test
+    public void testSegmentedSyncRecoversLostSegment() throws Exception {
+        String name = "segmented_sync_lost";
+        int segments = 16;
+        OortObject.Factory<ConcurrentMap<String, String>> factory = OortObjectFactories.forConcurrentMap();
+        final AtomicBoolean lose = new AtomicBoolean();
+        OortStringMap<String> oortMap1 = new OortStringMap<>(oort1, name, factory);
+        oortMap1.setSegmenter(OortObjectSegmenters.<String, String>forConcurrentMap(segments));
+        OortStringMap<String> oortMap2 = new OortStringMap<String>(oort2, name, factory) {
+            @Override
+            protected void onObject(Map<String, Object> data) {
+                String oortURL = (String)data.get(Info.OORT_URL_FIELD);
+                if (!getOort().getURL().equals(oortURL)) {
+                    if ("oort.map.entry".equals(data.get(Info.TYPE_FIELD))) {
+                        // Simulate that an entry update gets lost.
+                        if (lose.compareAndSet(true, false)) {
+                            return;
+                        }
+                    }
+                }
+                super.onObject(data);
+            }
+        };
+        oortMap2.setSegmenter(OortObjectSegmenters.<String, String>forConcurrentMap(segments));
+        long syncTimeout = 1000;
+        oortMap2.setSyncTimeout(syncTimeout);
+
+        final AtomicBoolean loseSegment = new AtomicBoolean();
+        final AtomicInteger segmentMessages = new AtomicInteger();
+        oort2.getBayeuxServer().addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                Map<String, Object> data = message.getDataAsMap();
+                if (data != null && "oort.object.segment".equals(data.get(OortObject.Info.ACTION_FIELD))) {
+                    segmentMessages.incrementAndGet();
+                    // Simulate that a segment gets lost.
+                    return !loseSegment.compareAndSet(true, false);
+                }
+                return true;
+            }
+        });
+
+        startOortObjects(oortMap1, oortMap2);
+
+        int size = 100;
+        for (int i = 0; i < size; ++i) {
+            oortMap1.putAndShare("key" + i, "value" + i, null);
+        }
+        Assert.assertTrue(waitFor(5000, oortMap2, oort1.getURL(), size));
+
+        // Lose an update and the segment that would repair it.
+        segmentMessages.set(0);
+        lose.set(true);
+        loseSegment.set(true);
+        OortObject.Result.Deferred<String> result = new OortObject.Result.Deferred<>();
+        oortMap1.putAndShare("lost", "value", result);
+        result.get(5, TimeUnit.SECONDS);
+        oortMap1.putAndShare("next", "value", null);
+
+        // The sync times out and the missing segment is requested again.
+        Assert.assertTrue(waitFor(5 * syncTimeout, oortMap2, oort1.getURL(), size + 2));
+        Assert.assertEquals(oortMap1.getInfo(oort1.getURL()).getObject(), oortMap2.getInfo(oort1.getURL()).getObject());
+        Assert.assertTrue(segmentMessages.get() >= 2);
+    }
+
+    @Test
+    public void testSegmentDigestDetectsHashCodeCollisions() throws Exception {
+        OortStringMap<String> oortMap = new OortStringMap<>(oort1, "digest", OortObjectFactories.<String, String>forConcurrentMap());
+
+        ConcurrentMap<String, String> segment1 = new ConcurrentHashMap<>();
+        segment1.put("key", "Aa");
+        ConcurrentMap<String, String> segment2 = new ConcurrentHashMap<>();
+        segment2.put("key", "BB");
+        // The segments collide by hash code, but not by digest.
+        Assert.assertEquals(segment1.hashCode(), segment2.hashCode());
+        Assert.assertNotEquals(oortMap.digest(segment1), oortMap.digest(segment2));
+
+        // Copies with the same content have the same digest, regardless of the iteration order.
+        ConcurrentMap<String, String> segment3 = new ConcurrentHashMap<>(1024);
+        ConcurrentMap<String, String> segment4 = new ConcurrentHashMap<>();
+        for (int i = 0; i < 100; ++i) {
+            segment3.put("key" + i, "value" + i);
+            segment4.put("key" + (99 - i), "value" + (99 - i));
+        }
+        Assert.assertEquals(oortMap.digest(segment3), oortMap.digest(segment4));
+    }
+
+    @Test
+    public void testRestartFromSnapshot() throws Exception {
+        String name = "snapshot";
+        int segments = 16;
+        OortObject.Factory<ConcurrentMap<String, String>> factory = OortObjectFactories.forConcurrentMap();
+        OortStringMap<String> oortMap1 = new OortStringMap<>(oort1, name, factory);
+        oortMap1.setSegmenter(OortObjectSegmenters.<String, String>forConcurrentMap(segments));
+        OortStringMap<String> oortMap2 = new OortStringMap<>(oort2, name, factory);
+        oortMap2.setSegmenter(OortObjectSegmenters.<String, String>forConcurrentMap(segments));
+        File directory = Files.createTempDirectory("oort_snapshot").toFile();
+        File snapshotFile = new File(directory, name + ".json");
+        oortMap2.setSnapshotFile(snapshotFile);
+        startOortObjects(oortMap1, oortMap2);
+
+        int size = 100;
+        for (int i = 0; i < size; ++i) {
+            oortMap1.putAndShare("key" + i, "value" + i, null);
+        }
+        Assert.assertTrue(waitFor(5000, oortMap2, oort1.getURL(), size));
+
+        // Stopping saves the snapshot.
+        oortMap2.stop();
+        Assert.assertTrue(snapshotFile.exists());
+
+        // Update while the oort object is stopped.
+        OortObject.Result.Deferred<String> result = new OortObject.Result.Deferred<>();
+        oortMap1.putAndShare("key" + size, "value" + size, result);
+        result.get(5, TimeUnit.SECONDS);
+
+        final AtomicInteger segmentMessages = new AtomicInteger();
+        oort2.getBayeuxServer().addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                Map<String, Object> data = message.getDataAsMap();
+                if (data != null && "oort.object.segment".equals(data.get(OortObject.Info.ACTION_FIELD))) {
+                    segmentMessages.incrementAndGet();
+                }
+                return true;
+            }
+        });
+
+        OortStringMap<String> oortMap3 = new OortStringMap<>(oort2, name, factory);
+        oortMap3.setSegmenter(OortObjectSegmenters.<String, String>forConcurrentMap(segments));
+        oortMap3.setSnapshotFile(snapshotFile);
+        startOortObject(oortMap3);
+
+        // The part of the other node is restored immediately.
+        OortObject.Info<ConcurrentMap<String, String>> info = oortMap3.getInfo(oort1.getURL());
+        Assert.assertNotNull(info);
+        Assert.assertTrue(info.getObject().size() >= size);
+
+        // Only the segments that changed after the snapshot are transferred.
+        Assert.assertTrue(waitFor(5000, oortMap3, oort1.getURL(), size + 1));
+        Assert.assertEquals(oortMap1.getInfo(oort1.getURL()).getObject(), oortMap3.getInfo(oort1.getURL()).getObject());
+        Assert.assertEquals(1, segmentMessages.get());
+
+        oortMap3.stop();
+        Assert.assertTrue(snapshotFile.delete());
+        Assert.assertTrue(directory.delete());
+    }
+
+    private boolean waitFor(long timeout, OortStringMap<String> oortMap, String oortURL, int size) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (System.nanoTime() < end) {
+            OortObject.Info<ConcurrentMap<String, String>> info = oortMap.getInfo(oortURL);
+            if (info != null && info.getObject().size() == size) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
     @Test
     public void testNodeSyncWithLargeMap() throws Exception {
         // Reconfigure the Oorts.
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.oort;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.server.BayeuxServer;
+import org.cometd.client.BayeuxClient;
+import org.eclipse.jetty.server.Server;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OortZoneTest extends OortTest {
+    public OortZoneTest(String serverTransport) {
+        super(serverTransport);
+    }
+
+    @Test
+    public void testZonesAreLinkedViaGateways() throws Exception {
+        Oort oortA1 = startOort(startServer(0), "A", false);
+        Oort oortGA = startOort(startServer(0), "A", true);
+        Oort oortGB = startOort(startServer(0), "B", true);
+        Oort oortB1 = startOort(startServer(0), "B", false);
+
+        // A1 <-> GA, GA <-> GB, GB <-> B1.
+        CountDownLatch latch = new CountDownLatch(6);
+        CometJoinedListener listener = new CometJoinedListener(latch);
+        oortA1.addCometListener(listener);
+        oortGA.addCometListener(listener);
+        oortGB.addCometListener(listener);
+        oortB1.addCometListener(listener);
+        oortA1.observeComet(oortGA.getURL());
+        oortGA.observeComet(oortGB.getURL());
+        oortB1.observeComet(oortGB.getURL());
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        // Wait for the cloud advertisements to be processed.
+        Thread.sleep(1000);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(oortGA.getURL())), oortA1.getKnownComets());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(oortA1.getURL(), oortGB.getURL())), oortGA.getKnownComets());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(oortB1.getURL(), oortGA.getURL())), oortGB.getKnownComets());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(oortGB.getURL())), oortB1.getKnownComets());
+
+        String channelName = "/oort_test";
+        for (Oort oort : oorts) {
+            oort.observeChannel(channelName);
+        }
+
+        BayeuxClient clientA1 = startClient(oortA1, null);
+        Assert.assertTrue(clientA1.waitFor(5000, BayeuxClient.State.CONNECTED));
+        BayeuxClient clientB1 = startClient(oortB1, null);
+        Assert.assertTrue(clientB1.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        LatchListener subscribeLatch = new LatchListener();
+        clientB1.getChannel(Channel.META_SUBSCRIBE).addListener(subscribeLatch);
+        LatchListener messageLatch = new LatchListener();
+        clientB1.getChannel(channelName).subscribe(messageLatch);
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        // A message published in zone A is relayed to zone B exactly once.
+        clientA1.getChannel(channelName).publish(new HashMap<>());
+        Assert.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(500);
+        Assert.assertEquals(1, messageLatch.count());
+
+        // And the other way around.
+        subscribeLatch.reset(1);
+        clientA1.getChannel(Channel.META_SUBSCRIBE).addListener(subscribeLatch);
+        LatchListener messageLatchA = new LatchListener();
+        clientA1.getChannel(channelName).subscribe(messageLatchA);
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        messageLatch.reset(1);
+        clientB1.getChannel(channelName).publish(new HashMap<>());
+        Assert.assertTrue(messageLatchA.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+        Thread.sleep(500);
+        Assert.assertEquals(1, messageLatchA.count());
+    }
+
+    private Oort startOort(Server server, String zone, boolean gateway) throws Exception {
+        String url = (String)server.getAttribute(OortConfigServlet.OORT_URL_PARAM);
+        BayeuxServer bayeuxServer = (BayeuxServer)server.getAttribute(BayeuxServer.ATTRIBUTE);
+        Oort oort = new Oort(bayeuxServer, url);
+        oort.setZone(zone);
+        oort.setGateway(gateway);
+        oort.start();
+        oorts.add(oort);
+        return oort;
+    }
+}
@@ -17,6 +17,7 @@ package org.cometd.oort;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -34,6 +35,7 @@ import org.cometd.bayeux.Message;
 import org.cometd.bayeux.client.ClientSessionChannel;
 import org.cometd.bayeux.server.BayeuxServer;
 import org.cometd.bayeux.server.LocalSession;
+import org.cometd.bayeux.server.ServerChannel;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
 import org.cometd.bayeux.server.ServerTransport;
@@ -1191,6 +1193,349 @@ public class SetiTest extends OortTest {
         Assert.assertEquals(0, seti2.getUserIds().size());
     }
 
+    @Test
+    public void testDirectorySendsToOwnerInsteadOfBroadcasting() throws Exception {
+        Server server1 = startServer(0);
+        Oort oort1 = startOort(server1);
+        Server server2 = startServer(0);
+        Oort oort2 = startOort(server2);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        oort2.addCometListener(new CometJoinedListener(latch));
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assert.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Simulate that the presence messages from node2 did not arrive yet.
+        Seti seti1 = new Seti(oort1) {
+            @Override
+            protected boolean associate(String userId, Location location) {
+                return location instanceof LocalLocation && super.associate(userId, location);
+            }
+        };
+        seti1.setDirectoryEnabled(true);
+        seti1.start();
+        setis.add(seti1);
+        Seti seti2 = new Seti(oort2);
+        seti2.setDirectoryEnabled(true);
+        seti2.start();
+        setis.add(seti2);
+
+        // Wait for node2 to subscribe to its Seti channel on node1.
+        String setiChannel2 = seti2.generateSetiChannel(seti2.getId());
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < end) {
+            ServerChannel channel = oort1.getBayeuxServer().getChannel(setiChannel2);
+            if (channel != null && !channel.getSubscribers().isEmpty()) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+
+        // Find a user owned by node2.
+        String userId = null;
+        for (int i = 0; userId == null; ++i) {
+            String candidate = "user" + i;
+            if (oort2.getURL().equals(seti1.getOwner(candidate))) {
+                userId = candidate;
+            }
+        }
+        Assert.assertEquals(seti1.getOwner(userId), seti2.getOwner(userId));
+
+        LocalSession session2 = oort2.getBayeuxServer().newLocalSession(userId);
+        session2.handshake();
+        Assert.assertTrue(seti2.associate(userId, session2.getServerSession()));
+        Assert.assertFalse(seti1.isPresent(userId));
+
+        final AtomicInteger broadcasts = new AtomicInteger();
+        final AtomicInteger lookups = new AtomicInteger();
+        oort2.getBayeuxServer().addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                Map<String, Object> data = message.getDataAsMap();
+                if (data != null && data.containsKey("userId")) {
+                    if ("/seti/all".equals(message.getChannel())) {
+                        broadcasts.incrementAndGet();
+                    }
+                    if (data.containsKey("lookup")) {
+                        lookups.incrementAndGet();
+                    }
+                }
+                return true;
+            }
+        });
+
+        String channel = "/directory";
+        final CountDownLatch messageLatch = new CountDownLatch(2);
+        session2.getChannel(channel).addListener(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                messageLatch.countDown();
+            }
+        });
+
+        seti1.sendMessage(userId, channel, "data1");
+        // Wait for the owner to reply with the user locations.
+        Thread.sleep(1000);
+        // The user locations are now cached.
+        seti1.sendMessage(userId, channel, "data2");
+
+        Assert.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, broadcasts.get());
+        Assert.assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void testDirectoryBroadcastsWhenOwnerDoesNotKnowUser() throws Exception {
+        Server server1 = startServer(0);
+        Oort oort1 = startOort(server1);
+        Server server2 = startServer(0);
+        Oort oort2 = startOort(server2);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        oort2.addCometListener(new CometJoinedListener(latch));
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assert.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Simulate that the presence messages from node2 did not arrive yet.
+        Seti seti1 = new Seti(oort1) {
+            @Override
+            protected boolean associate(String userId, Location location) {
+                return location instanceof LocalLocation && super.associate(userId, location);
+            }
+        };
+        seti1.setDirectoryEnabled(true);
+        seti1.start();
+        setis.add(seti1);
+        Seti seti2 = new Seti(oort2);
+        seti2.setDirectoryEnabled(true);
+        seti2.start();
+        setis.add(seti2);
+
+        // Find a user owned by node1.
+        String userId = null;
+        for (int i = 0; userId == null; ++i) {
+            String candidate = "user" + i;
+            if (oort1.getURL().equals(seti1.getOwner(candidate))) {
+                userId = candidate;
+            }
+        }
+
+        LocalSession session2 = oort2.getBayeuxServer().newLocalSession(userId);
+        session2.handshake();
+        Assert.assertTrue(seti2.associate(userId, session2.getServerSession()));
+        Assert.assertFalse(seti1.isPresent(userId));
+
+        // Wait for node2 to subscribe to the broadcast channel on node1.
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < end) {
+            ServerChannel channel = oort1.getBayeuxServer().getChannel("/seti/all");
+            if (channel != null && channel.getSubscribers().size() > 1) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+
+        String channel = "/directory";
+        final CountDownLatch messageLatch = new CountDownLatch(1);
+        session2.getChannel(channel).addListener(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                messageLatch.countDown();
+            }
+        });
+
+        // The owner is the local node and does not know the user,
+        // so the message is broadcast rather than dropped.
+        seti1.sendMessage(userId, channel, "data");
+
+        Assert.assertTrue(messageLatch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDirectorySendsPresenceOnlyToOwner() throws Exception {
+        Server server1 = startServer(0);
+        Oort oort1 = startOort(server1);
+        Server server2 = startServer(0);
+        Oort oort2 = startOort(server2);
+
+        Seti seti1 = new Seti(oort1);
+        seti1.setDirectoryEnabled(true);
+        seti1.start();
+        setis.add(seti1);
+        Seti seti2 = new Seti(oort2);
+        seti2.setDirectoryEnabled(true);
+        seti2.start();
+        setis.add(seti2);
+
+        final AtomicInteger broadcasts = new AtomicInteger();
+        BayeuxServer.Extension extension = new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                Map<String, Object> data = message.getDataAsMap();
+                // The initial state is only delivered to the joining comet.
+                if ("/seti/all".equals(message.getChannel()) && data != null && data.containsKey("presence") && !data.containsKey("alive")) {
+                    broadcasts.incrementAndGet();
+                }
+                return true;
+            }
+        };
+        oort1.getBayeuxServer().addExtension(extension);
+        oort2.getBayeuxServer().addExtension(extension);
+
+        // Associate the users while node1 is alone, so it owns all of them.
+        int size = 16;
+        for (int i = 0; i < size; ++i) {
+            String userId = "user" + i;
+            LocalSession session = oort1.getBayeuxServer().newLocalSession(userId);
+            session.handshake();
+            Assert.assertTrue(seti1.associate(userId, session.getServerSession()));
+        }
+
+        CountDownLatch latch = new CountDownLatch(2);
+        CometJoinedListener joinedListener = new CometJoinedListener(latch);
+        oort1.addCometListener(joinedListener);
+        oort2.addCometListener(joinedListener);
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assert.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        // Users associated on node2 are tracked only by their owner.
+        for (int i = 0; i < size; ++i) {
+            String userId = "other" + i;
+            LocalSession session = oort2.getBayeuxServer().newLocalSession(userId);
+            session.handshake();
+            Assert.assertTrue(seti2.associate(userId, session.getServerSession()));
+        }
+
+        // The users owned by node2 are pushed to node2 when it joins.
+        Set<String> owned1 = new HashSet<>();
+        Set<String> owned2 = new HashSet<>();
+        for (int i = 0; i < size; ++i) {
+            for (String userId : Arrays.asList("user" + i, "other" + i)) {
+                if (oort1.getURL().equals(seti1.getOwner(userId))) {
+                    owned1.add(userId);
+                } else {
+                    owned2.add(userId);
+                }
+            }
+        }
+        Assert.assertFalse(owned1.isEmpty());
+        Assert.assertFalse(owned2.isEmpty());
+
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < end) {
+            if (seti1.getUserIds().containsAll(owned1) && seti2.getUserIds().containsAll(owned2)) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < size; ++i) {
+            String userId = "user" + i;
+            Assert.assertTrue(seti1.isAssociated(userId));
+            Assert.assertEquals(owned2.contains(userId), seti2.isPresent(userId));
+            userId = "other" + i;
+            Assert.assertTrue(seti2.isAssociated(userId));
+            Assert.assertEquals(owned1.contains(userId), seti1.isPresent(userId));
+        }
+        Assert.assertEquals(0, broadcasts.get());
+    }
+
+    @Test
+    public void testPresenceChangesAreCoalesced() throws Exception {
+        Server server1 = startServer(0);
+        final Oort oort1 = startOort(server1);
+        Server server2 = startServer(0);
+        Oort oort2 = startOort(server2);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        oort2.addCometListener(new CometJoinedListener(latch));
+        OortComet oortComet12 = oort1.observeComet(oort2.getURL());
+        Assert.assertTrue(oortComet12.waitFor(5000, BayeuxClient.State.CONNECTED));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        OortComet oortComet21 = oort2.findComet(oort1.getURL());
+        Assert.assertTrue(oortComet21.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        Seti seti1 = new Seti(oort1);
+        seti1.setMaxPresenceDelay(1000);
+        seti1.start();
+        setis.add(seti1);
+        Seti seti2 = startSeti(oort2);
+
+        final AtomicInteger presences = new AtomicInteger();
+        final CountDownLatch warmUpLatch = new CountDownLatch(1);
+        final CountDownLatch addedLatch = new CountDownLatch(1);
+        final CountDownLatch removedLatch = new CountDownLatch(1);
+        oort2.getBayeuxServer().addExtension(new BayeuxServer.Extension.Adapter() {
+            @Override
+            public boolean rcv(ServerSession from, ServerMessage.Mutable message) {
+                Map<String, Object> data = message.getDataAsMap();
+                // Only count the presence changes, not the full state exchanged by nodes.
+                if ("/seti/all".equals(message.getChannel()) && data != null && data.containsKey("presence") && !Boolean.TRUE.equals(data.get("replace"))) {
+                    Object value = data.get("userIds");
+                    Collection<?> userIds = value instanceof Object[] ? Arrays.asList((Object[])value) : (Collection<?>)value;
+                    if (userIds.contains("warmUp")) {
+                        warmUpLatch.countDown();
+                    } else {
+                        presences.incrementAndGet();
+                        if (Boolean.TRUE.equals(data.get("presence"))) {
+                            addedLatch.countDown();
+                        } else {
+                            removedLatch.countDown();
+                        }
+                    }
+                }
+                return true;
+            }
+        });
+
+        // Wait for a presence change of node1 to reach node2.
+        LocalSession warmUpSession = oort1.getBayeuxServer().newLocalSession("warmUp");
+        warmUpSession.handshake();
+        seti1.associate("warmUp", warmUpSession.getServerSession());
+        Assert.assertTrue(warmUpLatch.await(5, TimeUnit.SECONDS));
+
+        int users = 10;
+        CountDownLatch presentLatch = new CountDownLatch(users);
+        seti2.addPresenceListener(new UserPresentListener(presentLatch));
+        CountDownLatch absentLatch = new CountDownLatch(1);
+        seti2.addPresenceListener(new UserAbsentListener(absentLatch));
+
+        List<ServerSession> sessions = new ArrayList<>();
+        for (int i = 0; i < users; ++i) {
+            LocalSession localSession = oort1.getBayeuxServer().newLocalSession("user" + i);
+            localSession.handshake();
+            ServerSession session = localSession.getServerSession();
+            sessions.add(session);
+            seti1.associate("user" + i, session);
+        }
+        // An association that is immediately removed is not broadcast.
+        LocalSession localSession = oort1.getBayeuxServer().newLocalSession("transient");
+        localSession.handshake();
+        seti1.associate("transient", localSession.getServerSession());
+        seti1.disassociate("transient", localSession.getServerSession());
+
+        Assert.assertTrue(presentLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(addedLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, presences.get());
+        Assert.assertFalse(seti2.isPresent("transient"));
+
+        presences.set(0);
+        seti1.disassociate("user0", sessions.get(0));
+        Assert.assertTrue(absentLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(removedLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, presences.get());
+        Assert.assertFalse(seti2.isPresent("user0"));
+        Assert.assertTrue(seti2.isPresent("user1"));
+    }
+
     @Test
     public void testDisassociationRemovesListeners() throws Exception {
         Server server1 = startServer(0);
@@ -34,6 +34,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -41,6 +42,7 @@ import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.ChannelId;
 import org.cometd.bayeux.MarkedReference;
 import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.Authorizer;
 import org.cometd.bayeux.server.BayeuxContext;
 import org.cometd.bayeux.server.BayeuxServer;
@@ -49,6 +51,7 @@ import org.cometd.bayeux.server.ConfigurableServerChannel.ServerChannelListener;
 import org.cometd.bayeux.server.LocalSession;
 import org.cometd.bayeux.server.SecurityPolicy;
 import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerChannel.AsyncMessageListener;
 import org.cometd.bayeux.server.ServerChannel.MessageListener;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerMessage.Mutable;
@@ -108,6 +111,7 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer,
     public static final String TRANSPORTS_OPTION = "transports";
     public static final String VALIDATE_MESSAGE_FIELDS_OPTION = "validateMessageFields";
     public static final String BROADCAST_TO_PUBLISHER_OPTION = "broadcastToPublisher";
+    public static final String ASYNC_LISTENER_TIMEOUT_OPTION = "asyncListenerTimeout";
 
     private final Logger _logger = LoggerFactory.getLogger(getClass().getName() + "." + Integer.toHexString(System.identityHashCode(this)));
     private final SecureRandom _random = new SecureRandom();
@@ -124,6 +128,7 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer,
     private JSONContext.Server _jsonContext;
     private boolean _validation;
     private boolean _broadcastToPublisher;
+    private long _asyncListenerTimeout = 30000;
     private boolean _detailedDump;
 
     @Override
@@ -152,6 +157,7 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer,
 
         _validation = getOption(VALIDATE_MESSAGE_FIELDS_OPTION, true);
         _broadcastToPublisher = getOption(BROADCAST_TO_PUBLISHER_OPTION, true);
+        _asyncListenerTimeout = getOption(ASYNC_LISTENER_TIMEOUT_OPTION, _asyncListenerTimeout);
     }
 
     @Override
@@ -628,7 +634,37 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer,
         _listeners.remove(listener);
     }
 
+    /**
+     * <p>Processes the given message received from the given session, waiting
+     * for {@link ServerChannel.AsyncMessageListener}s, if any, to complete.</p>
+     * <p>The calling thread blocks for at most the {@value #ASYNC_LISTENER_TIMEOUT_OPTION}
+     * option, and an {@link IllegalStateException} is thrown if the listeners do not
+     * complete in time: a listener that can only complete in the calling thread,
+     * for example via the same single-threaded executor, makes the caller wait
+     * for the whole timeout.</p>
+     *
+     * @param session the session that sent the message
+     * @param message the message to process
+     * @return the reply for the message
+     * @see #handle(ServerSessionImpl, ServerMessage.Mutable, Promise)
+     */
     public ServerMessage.Mutable handle(ServerSessionImpl session, ServerMessage.Mutable message) {
+        FuturePromise<ServerMessage.Mutable> promise = new FuturePromise<>();
+        handle(session, message, promise);
+        return promise.join(_asyncListenerTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>Processes the given message received from the given session, completing
+     * the given promise with the reply when the processing is complete.</p>
+     * <p>The promise may be completed by a different thread, if an
+     * {@link ServerChannel.AsyncMessageListener} completes asynchronously.</p>
+     *
+     * @param session the session that sent the message
+     * @param message the message to process
+     * @param promise the promise to complete with the reply for the message
+     */
+    public void handle(ServerSessionImpl session, ServerMessage.Mutable message, final Promise<ServerMessage.Mutable> promise) {
         if (_logger.isDebugEnabled()) {
             _logger.debug(">  {} {}", message, session);
         }
@@ -637,29 +673,43 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer,
             validateMessage(message);
         }
 
-        Mutable reply = createReply(message);
+        final Mutable reply = createReply(message);
         if (!extendRecv(session, message) || session != null && !session.extendRecv(message)) {
             error(reply, "404::message deleted");
+            handled(reply, promise);
         } else {
             if (_logger.isDebugEnabled()) {
                 _logger.debug(">> {}", message);
             }
 
-            handle(session, message, reply);
+            handle(session, message, reply, new Promise<Boolean>() {
+                @Override
+                public void succeed(Boolean result) {
+                    handled(reply, promise);
+                }
+
+                @Override
+                public void fail(Throwable failure) {
+                    promise.fail(failure);
+                }
+            });
         }
+    }
 
+    private void handled(Mutable reply, Promise<ServerMessage.Mutable> promise) {
         if (_logger.isDebugEnabled()) {
             _logger.debug("<< {}", reply);
         }
-        return reply;
+        promise.succeed(reply);
     }
 
-    private void handle(ServerSessionImpl session, Mutable message, Mutable reply) {
+    private void handle(ServerSessionImpl session, Mutable message, Mutable reply, Promise<Boolean> promise) {
         String channelName = message.getChannel();
 
         if (session == null || session.isDisconnected() ||
                 (!session.getId().equals(message.getClientId()) && !Channel.META_HANDSHAKE.equals(message.getChannel()))) {
             unknownSession(reply);
+            promise.succeed(false);
             return;
         }
 
@@ -681,7 +731,8 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer,
 
             if (channel != null) {
                 if (channel.isMeta()) {
-                    doPublish(session, channel, message, true);
+                    doPublish(session, channel, message, true, promise);
+                    return;
                 } else {
                     Authorizer.Result publishResult = isPublishAuthorized(channel, session, message);
                     if (publishResult instanceof Authorizer.Result.Denied) {
@@ -689,11 +740,13 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer,
                         error(reply, "403:" + denyReason + ":publish denied");
                     } else {
                         reply.setSuccessful(true);
-                        doPublish(session, channel, message, true);
+                        doPublish(session, channel, message, true, promise);
+                        return;
                     }
                 }
             }
         }
+        promise.succeed(false);
     }
 
     protected void validateMessage(Mutable message) {
@@ -811,8 +864,39 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer,
         return result;
     }
 
+    /**
+     * <p>Publishes the given message to the given channel, waiting for
+     * {@link ServerChannel.AsyncMessageListener}s, if any, to complete.</p>
+     * <p>Failures notified by the listeners are rethrown to the caller.
+     * The calling thread blocks for at most the {@value #ASYNC_LISTENER_TIMEOUT_OPTION}
+     * option, and an {@link IllegalStateException} is thrown if the listeners do not
+     * complete in time; listeners that complete after the timeout may still cause the
+     * message to be published.</p>
+     *
+     * @param from      the session that publishes the message
+     * @param to        the channel the message is published to
+     * @param mutable   the message to publish
+     * @param receiving whether the message is being received from a remote client
+     * @see #doPublish(ServerSessionImpl, ServerChannelImpl, ServerMessage.Mutable, boolean, Promise)
+     */
     protected void doPublish(ServerSessionImpl from, ServerChannelImpl to, final ServerMessage.Mutable mutable, boolean receiving) {
-        boolean broadcast = to.isBroadcast();
+        FuturePromise<Boolean> promise = new FuturePromise<>();
+        doPublish(from, to, mutable, receiving, promise);
+        promise.join(_asyncListenerTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>Publishes the given message to the given channel, completing the given promise
+     * when the channel listeners have been notified and the message has been delivered.</p>
+     *
+     * @param from      the session that publishes the message
+     * @param to        the channel the message is published to
+     * @param mutable   the message to publish
+     * @param receiving whether the message is being received from a remote client
+     * @param promise   the promise to complete with whether the message has been published
+     */
+    protected void doPublish(final ServerSessionImpl from, final ServerChannelImpl to, final ServerMessage.Mutable mutable, final boolean receiving, final Promise<Boolean> promise) {
+        final boolean broadcast = to.isBroadcast();
         if (broadcast) {
             // Do not leak the clientId to other subscribers
             // as we are now "sending" this message.
@@ -822,17 +906,39 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer,
             mutable.setId(null);
         }
 
-        List<String> wildChannels = to.getChannelId().getWilds();
+        final List<String> wildChannels = to.getChannelId().getWilds();
 
         // First notify the channel listeners.
-        if (!notifyListeners(from, to, mutable, wildChannels)) {
-            error(mutable.getAssociated(), "404::message deleted");
-            return;
-        }
+        notifyListeners(from, to, mutable, wildChannels, 0, 0, new Promise<Boolean>() {
+            @Override
+            public void succeed(Boolean result) {
+                if (!result) {
+                    error(mutable.getAssociated(), "404::message deleted");
+                    promise.succeed(false);
+                    return;
+                }
+
+                boolean published;
+                try {
+                    published = deliver(from, to, mutable, receiving, broadcast, wildChannels);
+                } catch (Throwable x) {
+                    promise.fail(x);
+                    return;
+                }
+                promise.succeed(published);
+            }
 
+            @Override
+            public void fail(Throwable failure) {
+                promise.fail(failure);
+            }
+        });
+    }
+
+    private boolean deliver(ServerSessionImpl from, ServerChannelImpl to, Mutable mutable, boolean receiving, boolean broadcast, List<String> wildChannels) {
         if (broadcast || !receiving) {
             if (!extendSend(from, null, mutable)) {
-                return;
+                return false;
             }
             // Exactly at this point, we convert the message to JSON and therefore
             // any further modification will be lost.
@@ -879,27 +985,51 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer,
         } else if (to.isMeta()) {
             notifyHandlerListeners(from, to, mutable);
         }
+        return true;
     }
 
-    private boolean notifyListeners(ServerSessionImpl from, ServerChannelImpl to, Mutable mutable, List<String> wildChannels) {
-        for (int i = 0, size = wildChannels.size(); i <= size; ++i) {
+    private void notifyListeners(final ServerSessionImpl from, final ServerChannelImpl to, final Mutable mutable, final List<String> wildChannels, int channelIndex, int listenerIndex, final Promise<Boolean> promise) {
+        for (int i = channelIndex, size = wildChannels.size(); i <= size; ++i) {
             ServerChannelImpl channel = i == size ? to : _channels.get(wildChannels.get(i));
             if (channel == null) {
                 continue;
             }
-            if (channel.isLazy()) {
+            if (listenerIndex == 0 && channel.isLazy()) {
                 mutable.setLazy(true);
             }
             List<ServerChannelListener> listeners = channel.listeners();
-            for (ServerChannelListener listener : listeners) {
+            for (int j = listenerIndex; j < listeners.size(); ++j) {
+                ServerChannelListener listener = listeners.get(j);
                 if (listener instanceof MessageListener) {
                     if (!notifyOnMessage((MessageListener)listener, from, to, mutable)) {
-                        return false;
+                        promise.succeed(false);
+                        return;
                     }
+                } else if (listener instanceof AsyncMessageListener) {
+                    // Resume the notification from the next listener when the promise completes.
+                    final int nextChannelIndex = i;
+                    final int nextListenerIndex = j + 1;
+                    notifyOnMessage((AsyncMessageListener)listener, from, to, mutable, new Promise<Boolean>() {
+                        @Override
+                        public void succeed(Boolean result) {
+                            if (result == null || result) {
+                                notifyListeners(from, to, mutable, wildChannels, nextChannelIndex, nextListenerIndex, promise);
+                            } else {
+                                promise.succeed(false);
+                            }
+                        }
+
+                        @Override
+                        public void fail(Throwable failure) {
+                            promise.fail(failure);
+                        }
+                    });
+                    return;
                 }
             }
+            listenerIndex = 0;
         }
-        return true;
+        promise.succeed(true);
     }
 
     private void notifyHandlerListeners(ServerSessionImpl from, ServerChannelImpl to, Mutable mutable) {
@@ -931,6 +1061,34 @@ public class BayeuxServerImpl extends AbstractLifeCycle implements BayeuxServer,
         }
     }
 
+    private void notifyOnMessage(final AsyncMessageListener listener, ServerSession from, ServerChannel to, Mutable mutable, final Promise<Boolean> promise) {
+        // Guard against listeners that both complete the promise and throw.
+        final AtomicBoolean complete = new AtomicBoolean();
+        Promise<Boolean> once = new Promise<Boolean>() {
+            @Override
+            public void succeed(Boolean result) {
+                if (complete.compareAndSet(false, true)) {
+                    promise.succeed(result);
+                }
+            }
+
+            @Override
+            public void fail(Throwable failure) {
+                if (complete.compareAndSet(false, true)) {
+                    if (_logger.isDebugEnabled()) {
+                        _logger.debug("Failure notified by listener " + listener, failure);
+                    }
+                    promise.fail(failure);
+                }
+            }
+        };
+        try {
+            listener.onMessage(from, to, mutable, once);
+        } catch (Throwable x) {
+            once.fail(x);
+        }
+    }
+
     public ServerMessage.Mutable extendReply(ServerSessionImpl from, ServerSessionImpl to, ServerMessage.Mutable reply) {
         if (!extendSend(from, to, reply)) {
             return null;
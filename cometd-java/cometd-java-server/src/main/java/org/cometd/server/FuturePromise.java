@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.cometd.bayeux.Promise;
+
+/**
+ * <p>A {@link Promise} that allows a caller to wait for its completion,
+ * used to bridge asynchronous processing to synchronous callers.</p>
+ * <p>Only the first completion is retained, further completions are ignored.</p>
+ *
+ * @param <C> the type of the result value
+ */
+public class FuturePromise<C> implements Promise<C> {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private volatile C result;
+    private volatile Throwable failure;
+
+    @Override
+    public void succeed(C result) {
+        if (completed.compareAndSet(false, true)) {
+            this.result = result;
+            latch.countDown();
+        }
+    }
+
+    @Override
+    public void fail(Throwable failure) {
+        if (completed.compareAndSet(false, true)) {
+            this.failure = failure;
+            latch.countDown();
+        }
+    }
+
+    /**
+     * @return whether this promise has been completed
+     */
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    /**
+     * <p>Waits for this promise to be completed.</p>
+     *
+     * @return the result this promise has been succeeded with
+     * @throws InterruptedException   if the wait is interrupted
+     * @throws ExecutionException     if this promise has been failed
+     */
+    public C get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return result();
+    }
+
+    /**
+     * <p>Waits at most the given time for this promise to be completed.</p>
+     *
+     * @param timeout the time to wait
+     * @param unit    the unit of the time to wait
+     * @return the result this promise has been succeeded with
+     * @throws InterruptedException if the wait is interrupted
+     * @throws ExecutionException   if this promise has been failed
+     * @throws TimeoutException     if this promise has not been completed in time
+     */
+    public C get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private C result() throws ExecutionException {
+        Throwable x = failure;
+        if (x != null) {
+            throw new ExecutionException(x);
+        }
+        return result;
+    }
+
+    /**
+     * <p>Waits for this promise to be completed, rethrowing unchecked failures as they are.</p>
+     *
+     * @return the result this promise has been succeeded with
+     */
+    public C join() {
+        return join(-1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>Waits at most the given time for this promise to be completed,
+     * rethrowing unchecked failures as they are.</p>
+     * <p>If this promise is not completed in time, it is failed with a
+     * {@link TimeoutException}, which is rethrown wrapped in an
+     * {@link IllegalStateException}; later completions are ignored.</p>
+     *
+     * @param timeout the time to wait, or a negative value to wait indefinitely
+     * @param unit    the unit of the time to wait
+     * @return the result this promise has been succeeded with
+     */
+    public C join(long timeout, TimeUnit unit) {
+        try {
+            if (timeout < 0) {
+                return get();
+            }
+            try {
+                return get(timeout, unit);
+            } catch (TimeoutException x) {
+                fail(x);
+                // Another thread may have completed this promise concurrently.
+                return get();
+            }
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(x);
+        } catch (ExecutionException x) {
+            Throwable cause = x.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
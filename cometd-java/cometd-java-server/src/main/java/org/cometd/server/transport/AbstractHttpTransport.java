@@ -16,18 +16,19 @@
 package org.cometd.server.transport;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -43,11 +44,14 @@ import javax.servlet.http.HttpSession;
 
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.BayeuxContext;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
+import org.cometd.bayeux.server.ServerTransport;
 import org.cometd.server.AbstractServerTransport;
 import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.FuturePromise;
 import org.cometd.server.ServerSessionImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -81,9 +85,11 @@ public abstract class AbstractHttpTransport extends AbstractServerTransport {
 
     protected final Logger _logger = LoggerFactory.getLogger(getClass());
     private final ThreadLocal<HttpServletRequest> _currentRequest = new ThreadLocal<>();
-    private final Map<String, Collection<ServerSessionImpl>> _sessions = new HashMap<>();
+    private final ConcurrentMap<String, List<ServerSessionImpl>> _sessions = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, AtomicInteger> _browserMap = new ConcurrentHashMap<>();
-    private final Map<String, AtomicInteger> _browserSweep = new ConcurrentHashMap<>();
+    private final boolean _blockingMetaHandshake;
+    private final boolean _blockingMetaConnect;
+    private final boolean _blockingHandle;
     private String _browserCookieName;
     private String _browserCookieDomain;
     private String _browserCookiePath;
@@ -97,11 +103,27 @@ public abstract class AbstractHttpTransport extends AbstractServerTransport {
     private long _multiSessionInterval;
     private boolean _trustClientSession;
     private int _duplicateMetaConnectHttpResponseCode;
-    private long _lastSweep;
 
     protected AbstractHttpTransport(BayeuxServerImpl bayeux, String name) {
         super(bayeux, name);
         setOptionPrefix(PREFIX);
+        // Subclasses that override the deprecated blocking methods
+        // must still see them invoked when processing messages.
+        _blockingMetaHandshake = isOverridden("processMetaHandshake", HttpServletRequest.class, HttpServletResponse.class, ServerSessionImpl.class, ServerMessage.Mutable.class);
+        _blockingMetaConnect = isOverridden("processMetaConnect", HttpServletRequest.class, HttpServletResponse.class, ServerSessionImpl.class, ServerMessage.Mutable.class, boolean.class);
+        _blockingHandle = isOverridden("bayeuxServerHandle", ServerSessionImpl.class, ServerMessage.Mutable.class);
+    }
+
+    private boolean isOverridden(String name, Class<?>... parameterTypes) {
+        for (Class<?> c = getClass(); c != AbstractHttpTransport.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(name, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException x) {
+                // Try the superclass.
+            }
+        }
+        return false;
     }
 
     @Override
@@ -146,9 +168,55 @@ public abstract class AbstractHttpTransport extends AbstractServerTransport {
 
     protected abstract void write(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, boolean scheduleExpiration, List<ServerMessage> messages, ServerMessage.Mutable[] replies);
 
+    /**
+     * @param request  the HTTP request
+     * @param response the HTTP response
+     * @param messages the messages to process
+     * @throws IOException if the processing fails
+     * @deprecated this method blocks waiting for the processing to complete;
+     * use {@link #processMessages(HttpServletRequest, HttpServletResponse, ServerMessage.Mutable[], Promise)} instead
+     */
+    @Deprecated
     protected void processMessages(HttpServletRequest request, HttpServletResponse response, ServerMessage.Mutable[] messages) throws IOException {
+        FuturePromise<Void> promise = new FuturePromise<>();
+        processMessages(request, response, messages, promise);
+        try {
+            promise.get();
+        } catch (InterruptedException x) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException x) {
+            Throwable cause = x.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * <p>Processes the given messages, completing the given promise when the replies
+     * have been flushed.</p>
+     * <p>Messages are processed one after the other, in the order they have been received;
+     * the processing of a message that is handled by a
+     * {@link org.cometd.bayeux.server.ServerChannel.AsyncMessageListener} is suspended
+     * until the listener completes, and the following messages are processed only after
+     * that, possibly by a different thread.</p>
+     *
+     * @param request  the HTTP request
+     * @param response the HTTP response
+     * @param messages the messages to process
+     * @param promise  the promise to complete when the messages have been processed
+     */
+    protected void processMessages(HttpServletRequest request, HttpServletResponse response, ServerMessage.Mutable[] messages, Promise<Void> promise) {
         if (messages.length == 0) {
-            throw new IOException();
+            promise.fail(new IOException());
+            return;
         }
 
         Collection<ServerSessionImpl> sessions = findCurrentSessions(request);
@@ -162,61 +230,7 @@ public abstract class AbstractHttpTransport extends AbstractServerTransport {
             session.startBatch();
         }
 
-        boolean sendQueue = false;
-        boolean sendReplies = false;
-        boolean scheduleExpiration = false;
-        try {
-            for (int i = 0; i < messages.length; ++i) {
-                message = messages[i];
-                if (_logger.isDebugEnabled()) {
-                    _logger.debug("Processing {}", message);
-                }
-
-                switch (message.getChannel()) {
-                    case Channel.META_HANDSHAKE: {
-                        if (messages.length > 1) {
-                            throw new IOException();
-                        }
-                        ServerMessage.Mutable reply = processMetaHandshake(request, response, session, message);
-                        messages[i] = reply = processReply(session, reply);
-                        sendQueue = allowMessageDeliveryDuringHandshake(session) && reply != null && reply.isSuccessful();
-                        sendReplies = reply != null;
-                        scheduleExpiration = true;
-                        break;
-                    }
-                    case Channel.META_CONNECT: {
-                        boolean canSuspend = messages.length == 1;
-                        ServerMessage.Mutable reply = processMetaConnect(request, response, session, message, canSuspend);
-                        messages[i] = reply = processReply(session, reply);
-                        sendQueue = !canSuspend || reply != null;
-                        sendReplies = sendQueue;
-                        scheduleExpiration = true;
-                        break;
-                    }
-                    default: {
-                        ServerMessage.Mutable reply = bayeuxServerHandle(session, message);
-                        messages[i] = reply = processReply(session, reply);
-                        boolean metaConnectDelivery = isMetaConnectDeliveryOnly() || session != null && session.isMetaConnectDeliveryOnly();
-                        if (!metaConnectDelivery) {
-                            sendQueue = true;
-                        }
-                        if (reply != null) {
-                            sendReplies = true;
-                        }
-                        // Leave scheduleExpiration unchanged.
-                        break;
-                    }
-                }
-            }
-
-            if (sendQueue || sendReplies) {
-                flush(request, response, session, sendQueue, scheduleExpiration, messages);
-            }
-        } finally {
-            if (batch) {
-                session.endBatch();
-            }
-        }
+        new MessagesProcessor(request, response, session, messages, batch, promise).process();
     }
 
     protected ServerSessionImpl findSession(Collection<ServerSessionImpl> sessions, ServerMessage.Mutable message) {
@@ -250,17 +264,73 @@ public abstract class AbstractHttpTransport extends AbstractServerTransport {
         if (cookies != null) {
             for (Cookie cookie : cookies) {
                 if (_browserCookieName.equals(cookie.getName())) {
-                    synchronized (_sessions) {
-                        return _sessions.get(cookie.getValue());
-                    }
+                    return _sessions.get(cookie.getValue());
                 }
             }
         }
         return null;
     }
 
+    /**
+     * @param request  the HTTP request
+     * @param response the HTTP response
+     * @param session  the session being handshaken
+     * @param message  the /meta/handshake message
+     * @return the reply for the /meta/handshake message
+     * @deprecated this method blocks waiting for the message to be handled;
+     * override {@link #processMetaHandshake(HttpServletRequest, HttpServletResponse, ServerSessionImpl, ServerMessage.Mutable, Promise)} instead
+     */
+    @Deprecated
     protected ServerMessage.Mutable processMetaHandshake(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, ServerMessage.Mutable message) {
         ServerMessage.Mutable reply = bayeuxServerHandle(session, message);
+        return metaHandshakeHandled(request, response, session, reply);
+    }
+
+    /**
+     * <p>Processes a /meta/handshake message, completing the given promise with the reply.</p>
+     * <p>If a subclass overrides the deprecated
+     * {@link #processMetaHandshake(HttpServletRequest, HttpServletResponse, ServerSessionImpl, ServerMessage.Mutable)},
+     * this implementation invokes it and completes the promise with its reply.</p>
+     *
+     * @param request  the HTTP request
+     * @param response the HTTP response
+     * @param session  the session being handshaken
+     * @param message  the /meta/handshake message
+     * @param promise  the promise to complete with the reply
+     */
+    protected void processMetaHandshake(final HttpServletRequest request, final HttpServletResponse response, final ServerSessionImpl session, ServerMessage.Mutable message, final Promise<ServerMessage.Mutable> promise) {
+        if (_blockingMetaHandshake) {
+            ServerMessage.Mutable reply;
+            try {
+                reply = processMetaHandshake(request, response, session, message);
+            } catch (Throwable x) {
+                promise.fail(x);
+                return;
+            }
+            promise.succeed(reply);
+            return;
+        }
+
+        bayeuxServerHandle(session, message, new Promise<ServerMessage.Mutable>() {
+            @Override
+            public void succeed(ServerMessage.Mutable reply) {
+                try {
+                    reply = metaHandshakeHandled(request, response, session, reply);
+                } catch (Throwable x) {
+                    promise.fail(x);
+                    return;
+                }
+                promise.succeed(reply);
+            }
+
+            @Override
+            public void fail(Throwable failure) {
+                promise.fail(failure);
+            }
+        });
+    }
+
+    private ServerMessage.Mutable metaHandshakeHandled(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, ServerMessage.Mutable reply) {
         if (reply.isSuccessful()) {
             String id = findBrowserId(request);
             if (id == null) {
@@ -268,33 +338,77 @@ public abstract class AbstractHttpTransport extends AbstractServerTransport {
             }
             final String browserId = id;
             session.setBrowserId(browserId);
-            synchronized (_sessions) {
-                Collection<ServerSessionImpl> sessions = _sessions.get(browserId);
-                if (sessions == null) {
-                    // The list is modified inside sync blocks, but
-                    // iterated outside, so it must be concurrent.
-                    sessions = new CopyOnWriteArrayList<>();
-                    _sessions.put(browserId, sessions);
-                }
-                sessions.add(session);
-            }
+            addBrowserSession(browserId, session);
 
             session.addListener(new ServerSession.RemoveListener() {
                 @Override
                 public void removed(ServerSession session, boolean timeout) {
-                    synchronized (_sessions) {
-                        Collection<ServerSessionImpl> sessions = _sessions.get(browserId);
-                        sessions.remove(session);
-                        if (sessions.isEmpty()) {
-                            _sessions.remove(browserId);
-                        }
-                    }
+                    removeBrowserSession(browserId, session);
                 }
             });
         }
         return reply;
     }
 
+    void addBrowserSession(String browserId, ServerSessionImpl session) {
+        // The lists are immutable and replaced atomically, so
+        // that they can be iterated without synchronization.
+        while (true) {
+            List<ServerSessionImpl> sessions = _sessions.get(browserId);
+            if (sessions == null) {
+                if (_sessions.putIfAbsent(browserId, Collections.singletonList(session)) == null) {
+                    return;
+                }
+            } else {
+                List<ServerSessionImpl> newSessions = new ArrayList<>(sessions.size() + 1);
+                newSessions.addAll(sessions);
+                newSessions.add(session);
+                if (_sessions.replace(browserId, sessions, Collections.unmodifiableList(newSessions))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    void removeBrowserSession(String browserId, ServerSession session) {
+        while (true) {
+            List<ServerSessionImpl> sessions = _sessions.get(browserId);
+            if (sessions == null || !sessions.contains(session)) {
+                return;
+            }
+            if (sessions.size() == 1) {
+                if (_sessions.remove(browserId, sessions)) {
+                    return;
+                }
+            } else {
+                List<ServerSessionImpl> newSessions = new ArrayList<>(sessions);
+                newSessions.remove(session);
+                if (_sessions.replace(browserId, sessions, Collections.unmodifiableList(newSessions))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    List<ServerSessionImpl> getBrowserSessions(String browserId) {
+        return _sessions.get(browserId);
+    }
+
+    boolean isBrowserCounted(String browserId) {
+        return _browserMap.containsKey(browserId);
+    }
+
+    /**
+     * @param request    the HTTP request
+     * @param response   the HTTP response
+     * @param session    the session that sent the message
+     * @param message    the /meta/connect message
+     * @param canSuspend whether the /meta/connect can be suspended
+     * @return the reply for the /meta/connect message, or null if the /meta/connect has been suspended
+     * @deprecated this method blocks waiting for the message to be handled;
+     * override {@link #processMetaConnect(HttpServletRequest, HttpServletResponse, ServerSessionImpl, ServerMessage.Mutable, boolean, Promise)} instead
+     */
+    @Deprecated
     protected ServerMessage.Mutable processMetaConnect(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, ServerMessage.Mutable message, boolean canSuspend) {
         if (session != null) {
             // Cancel the previous scheduler to cancel any prior waiting long poll.
@@ -304,6 +418,63 @@ public abstract class AbstractHttpTransport extends AbstractServerTransport {
 
         boolean wasConnected = session != null && session.isConnected();
         ServerMessage.Mutable reply = bayeuxServerHandle(session, message);
+        return metaConnectHandled(request, response, session, reply, canSuspend, wasConnected);
+    }
+
+    /**
+     * <p>Processes a /meta/connect message, completing the given promise with the reply,
+     * or with {@code null} if the /meta/connect has been suspended.</p>
+     * <p>If a subclass overrides the deprecated
+     * {@link #processMetaConnect(HttpServletRequest, HttpServletResponse, ServerSessionImpl, ServerMessage.Mutable, boolean)},
+     * this implementation invokes it and completes the promise with its reply.</p>
+     *
+     * @param request    the HTTP request
+     * @param response   the HTTP response
+     * @param session    the session that sent the message
+     * @param message    the /meta/connect message
+     * @param canSuspend whether the /meta/connect can be suspended
+     * @param promise    the promise to complete with the reply
+     */
+    protected void processMetaConnect(final HttpServletRequest request, final HttpServletResponse response, final ServerSessionImpl session, ServerMessage.Mutable message, final boolean canSuspend, final Promise<ServerMessage.Mutable> promise) {
+        if (_blockingMetaConnect) {
+            ServerMessage.Mutable reply;
+            try {
+                reply = processMetaConnect(request, response, session, message, canSuspend);
+            } catch (Throwable x) {
+                promise.fail(x);
+                return;
+            }
+            promise.succeed(reply);
+            return;
+        }
+
+        if (session != null) {
+            // Cancel the previous scheduler to cancel any prior waiting long poll.
+            // This should also decrement the browser ID.
+            session.setScheduler(null);
+        }
+
+        final boolean wasConnected = session != null && session.isConnected();
+        bayeuxServerHandle(session, message, new Promise<ServerMessage.Mutable>() {
+            @Override
+            public void succeed(ServerMessage.Mutable reply) {
+                try {
+                    reply = metaConnectHandled(request, response, session, reply, canSuspend, wasConnected);
+                } catch (Throwable x) {
+                    promise.fail(x);
+                    return;
+                }
+                promise.succeed(reply);
+            }
+
+            @Override
+            public void fail(Throwable failure) {
+                promise.fail(failure);
+            }
+        });
+    }
+
+    private ServerMessage.Mutable metaConnectHandled(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, ServerMessage.Mutable reply, boolean canSuspend, boolean wasConnected) {
         if (session != null) {
             boolean maySuspend = !session.shouldSchedule();
             if (canSuspend && maySuspend && reply.isSuccessful()) {
@@ -455,27 +626,38 @@ public abstract class AbstractHttpTransport extends AbstractServerTransport {
         }
 
         String browserId = session.getBrowserId();
-        AtomicInteger count = _browserMap.get(browserId);
-        if (count == null) {
-            AtomicInteger newCount = new AtomicInteger();
-            count = _browserMap.putIfAbsent(browserId, newCount);
+        int sessions;
+        boolean result;
+        while (true) {
+            AtomicInteger count = _browserMap.get(browserId);
             if (count == null) {
-                count = newCount;
+                count = new AtomicInteger(1);
+                if (_browserMap.putIfAbsent(browserId, count) == null) {
+                    sessions = 1;
+                    result = true;
+                    break;
+                }
+                continue;
             }
-        }
 
-        // Increment
-        int sessions = count.incrementAndGet();
+            sessions = count.get();
+            if (sessions < 0) {
+                // The count has been retired by decBrowserId(), help
+                // removing it from the map and retry with a new count.
+                _browserMap.remove(browserId, count);
+                continue;
+            }
 
-        // If was zero, remove from the sweep
-        if (sessions == 1) {
-            _browserSweep.remove(browserId);
-        }
+            if (sessions >= maxSessionsPerBrowser) {
+                result = false;
+                break;
+            }
 
-        boolean result = true;
-        if (sessions > maxSessionsPerBrowser) {
-            sessions = count.decrementAndGet();
-            result = false;
+            if (count.compareAndSet(sessions, sessions + 1)) {
+                ++sessions;
+                result = true;
+                break;
+            }
         }
 
         if (_logger.isDebugEnabled()) {
@@ -496,10 +678,11 @@ public abstract class AbstractHttpTransport extends AbstractServerTransport {
         AtomicInteger count = _browserMap.get(browserId);
         if (count != null) {
             sessions = count.decrementAndGet();
-        }
-
-        if (sessions == 0) {
-            _browserSweep.put(browserId, new AtomicInteger(0));
+            // Retire the count when it reaches zero, so that
+            // the map does not grow with idle browser IDs.
+            if (sessions == 0 && count.compareAndSet(0, -1)) {
+                _browserMap.remove(browserId, count);
+            }
         }
 
         if (_logger.isDebugEnabled()) {
@@ -539,10 +722,49 @@ public abstract class AbstractHttpTransport extends AbstractServerTransport {
         }
     }
 
+    /**
+     * @param session the session that sent the message
+     * @param message the message to handle
+     * @return the reply for the message
+     * @deprecated this method blocks waiting for
+     * {@link org.cometd.bayeux.server.ServerChannel.AsyncMessageListener}s to complete,
+     * and it is invoked when processing messages only if a subclass overrides it;
+     * override {@link #bayeuxServerHandle(ServerSessionImpl, ServerMessage.Mutable, Promise)} instead
+     */
+    @Deprecated
     protected ServerMessage.Mutable bayeuxServerHandle(ServerSessionImpl session, ServerMessage.Mutable message) {
         return getBayeux().handle(session, message);
     }
 
+    /**
+     * <p>Hands the given message to the {@link BayeuxServerImpl} for processing,
+     * completing the given promise with the reply.</p>
+     * <p>All the messages processed by this transport, including /meta/handshake and
+     * /meta/connect, are handled by this method.</p>
+     * <p>If a subclass overrides the deprecated
+     * {@link #bayeuxServerHandle(ServerSessionImpl, ServerMessage.Mutable)},
+     * this implementation invokes it and completes the promise with its reply.</p>
+     *
+     * @param session the session that sent the message
+     * @param message the message to handle
+     * @param promise the promise to complete with the reply for the message
+     */
+    protected void bayeuxServerHandle(ServerSessionImpl session, ServerMessage.Mutable message, Promise<ServerMessage.Mutable> promise) {
+        if (_blockingHandle) {
+            ServerMessage.Mutable reply;
+            try {
+                reply = bayeuxServerHandle(session, message);
+            } catch (Throwable x) {
+                promise.fail(x);
+                return;
+            }
+            promise.succeed(reply);
+            return;
+        }
+
+        getBayeux().handle(session, message, promise);
+    }
+
     protected void metaConnectSuspended(HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext, ServerSession session) {
         if (_logger.isDebugEnabled()) {
             _logger.debug("Suspended request {}", request);
@@ -555,34 +777,214 @@ public abstract class AbstractHttpTransport extends AbstractServerTransport {
         }
     }
 
+    private enum ProcessState {
+        IDLE, HANDLING, PENDING, COMPLETED
+    }
+
     /**
-     * Sweeps the transport for old Browser IDs
+     * <p>Processes the messages of a batch in order, suspending the processing
+     * while a message is handled asynchronously and resuming it, possibly from
+     * a different thread, when the handling completes.</p>
      */
-    @Override
-    protected void sweep() {
-        long now = System.currentTimeMillis();
-        long elapsed = now - _lastSweep;
-        if (_lastSweep > 0 && elapsed > 0) {
-            // Calculate the maximum sweeps that a browser ID can be 0 as the
-            // maximum interval time divided by the sweep period, doubled for safety
-            int maxSweeps = (int)(2 * getMaxInterval() / elapsed);
-
-            for (Map.Entry<String, AtomicInteger> entry : _browserSweep.entrySet()) {
-                AtomicInteger count = entry.getValue();
-                // if the ID has been in the sweep map for 3 sweeps
-                if (count != null && count.incrementAndGet() > maxSweeps) {
-                    String key = entry.getKey();
-                    // remove it from both browser Maps
-                    if (_browserSweep.remove(key) == count && _browserMap.get(key).get() == 0) {
-                        _browserMap.remove(key);
-                        if (_logger.isDebugEnabled()) {
-                            _logger.debug("Swept browserId {}", key);
+    private class MessagesProcessor implements Promise<ServerMessage.Mutable> {
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final ServerSessionImpl session;
+        private final ServerMessage.Mutable[] messages;
+        private final boolean batch;
+        private final Promise<Void> promise;
+        private ProcessState state = ProcessState.IDLE;
+        private ServerMessage.Mutable reply;
+        private Throwable failure;
+        private int index;
+        private boolean sendQueue;
+        private boolean sendReplies;
+        private boolean scheduleExpiration;
+
+        private MessagesProcessor(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, ServerMessage.Mutable[] messages, boolean batch, Promise<Void> promise) {
+            this.request = request;
+            this.response = response;
+            this.session = session;
+            this.messages = messages;
+            this.batch = batch;
+            this.promise = promise;
+        }
+
+        private void process() {
+            try {
+                while (index < messages.length) {
+                    ServerMessage.Mutable message = messages[index];
+                    if (_logger.isDebugEnabled()) {
+                        _logger.debug("Processing {}", message);
+                    }
+
+                    if (Channel.META_HANDSHAKE.equals(message.getChannel()) && messages.length > 1) {
+                        throw new IOException();
+                    }
+
+                    synchronized (this) {
+                        state = ProcessState.HANDLING;
+                    }
+                    handle(message);
+                    synchronized (this) {
+                        if (state == ProcessState.HANDLING) {
+                            // Asynchronous handling, the processing
+                            // will be resumed when it completes.
+                            state = ProcessState.PENDING;
+                            // Suspend the request, if not already, before the
+                            // processing can be resumed by a different thread.
+                            if (!request.isAsyncStarted()) {
+                                AsyncContext asyncContext = request.startAsync(request, response);
+                                asyncContext.setTimeout(0);
+                            }
+                            return;
                         }
+                        state = ProcessState.IDLE;
+                    }
+                    if (!replied()) {
+                        return;
                     }
                 }
+            } catch (Throwable x) {
+                failed(x);
+                return;
+            }
+
+            complete();
+        }
+
+        private void handle(ServerMessage.Mutable message) {
+            switch (message.getChannel()) {
+                case Channel.META_HANDSHAKE: {
+                    processMetaHandshake(request, response, session, message, this);
+                    break;
+                }
+                case Channel.META_CONNECT: {
+                    boolean canSuspend = messages.length == 1;
+                    processMetaConnect(request, response, session, message, canSuspend, this);
+                    break;
+                }
+                default: {
+                    bayeuxServerHandle(session, message, this);
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void succeed(ServerMessage.Mutable reply) {
+            completed(reply, null);
+        }
+
+        @Override
+        public void fail(Throwable failure) {
+            completed(null, failure);
+        }
+
+        private void completed(ServerMessage.Mutable reply, Throwable failure) {
+            synchronized (this) {
+                this.reply = reply;
+                this.failure = failure;
+                if (state == ProcessState.HANDLING) {
+                    state = ProcessState.COMPLETED;
+                    return;
+                }
+                state = ProcessState.IDLE;
+            }
+            resume();
+        }
+
+        private void resume() {
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Resuming processing of {} messages for session {}", messages.length, session);
+            }
+            // The processing may be resumed by a thread that is
+            // processing another request, so restore its context.
+            ServerTransport currentTransport = getBayeux().getCurrentTransport();
+            HttpServletRequest currentRequest = getCurrentRequest();
+            getBayeux().setCurrentTransport(AbstractHttpTransport.this);
+            setCurrentRequest(request);
+            try {
+                boolean proceed;
+                try {
+                    proceed = replied();
+                } catch (Throwable x) {
+                    failed(x);
+                    return;
+                }
+                if (proceed) {
+                    process();
+                }
+            } finally {
+                setCurrentRequest(currentRequest);
+                getBayeux().setCurrentTransport(currentTransport);
+            }
+        }
+
+        private boolean replied() {
+            Throwable failure = this.failure;
+            if (failure != null) {
+                failed(failure);
+                return false;
+            }
+            String channel = messages[index].getChannel();
+            ServerMessage.Mutable reply = processReply(session, this.reply);
+            messages[index++] = reply;
+            switch (channel) {
+                case Channel.META_HANDSHAKE: {
+                    sendQueue = allowMessageDeliveryDuringHandshake(session) && reply != null && reply.isSuccessful();
+                    sendReplies = reply != null;
+                    scheduleExpiration = true;
+                    break;
+                }
+                case Channel.META_CONNECT: {
+                    boolean canSuspend = messages.length == 1;
+                    sendQueue = !canSuspend || reply != null;
+                    sendReplies = sendQueue;
+                    scheduleExpiration = true;
+                    break;
+                }
+                default: {
+                    boolean metaConnectDelivery = isMetaConnectDeliveryOnly() || session != null && session.isMetaConnectDeliveryOnly();
+                    if (!metaConnectDelivery) {
+                        sendQueue = true;
+                    }
+                    if (reply != null) {
+                        sendReplies = true;
+                    }
+                    // Leave scheduleExpiration unchanged.
+                    break;
+                }
+            }
+            return true;
+        }
+
+        private void complete() {
+            Throwable failure = null;
+            try {
+                if (sendQueue || sendReplies) {
+                    flush(request, response, session, sendQueue, scheduleExpiration, messages);
+                }
+            } catch (Throwable x) {
+                failure = x;
+            } finally {
+                if (batch) {
+                    session.endBatch();
+                }
+            }
+            if (failure == null) {
+                promise.succeed(null);
+            } else {
+                promise.fail(failure);
+            }
+        }
+
+        private void failed(Throwable failure) {
+            if (batch) {
+                session.endBatch();
             }
+            promise.fail(failure);
         }
-        _lastSweep = now;
     }
 
     private static class HttpContext implements BayeuxContext {
@@ -28,6 +28,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.server.BayeuxServerImpl;
 import org.cometd.server.ServerSessionImpl;
@@ -64,7 +65,9 @@ public abstract class AbstractStreamHttpTransport extends AbstractHttpTransport
                     _logger.debug("Parsed {} messages", messages == null ? -1 : messages.length);
                 }
                 if (messages != null) {
-                    processMessages(request, response, messages);
+                    Processing processing = new Processing(request, response);
+                    processMessages(request, response, messages, processing);
+                    processing.dispatched();
                 }
             } catch (ParseException x) {
                 handleJSONParseException(request, response, x.getMessage(), x.getCause());
@@ -76,7 +79,9 @@ public abstract class AbstractStreamHttpTransport extends AbstractHttpTransport
 
     @Override
     protected HttpScheduler suspend(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, ServerMessage.Mutable reply, long timeout) {
-        AsyncContext asyncContext = request.startAsync(request, response);
+        // The request may have been already suspended while
+        // the /meta/connect was being handled asynchronously.
+        AsyncContext asyncContext = request.isAsyncStarted() ? request.getAsyncContext() : request.startAsync(request, response);
         asyncContext.setTimeout(0);
         HttpScheduler scheduler = newHttpScheduler(request, response, asyncContext, session, reply, timeout);
         request.setAttribute(SCHEDULER_ATTRIBUTE, scheduler);
@@ -188,6 +193,84 @@ public abstract class AbstractStreamHttpTransport extends AbstractHttpTransport
     protected void writeComplete(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, List<ServerMessage> messages, ServerMessage.Mutable[] replies) {
     }
 
+    /**
+     * <p>Tracks the processing of the messages of a request, rethrowing
+     * failures if the processing completes before the request dispatch
+     * returns, or completing the suspended request otherwise.</p>
+     */
+    private class Processing implements Promise<Void> {
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private boolean dispatching = true;
+        private boolean completed;
+        private Throwable failure;
+
+        private Processing(HttpServletRequest request, HttpServletResponse response) {
+            this.request = request;
+            this.response = response;
+        }
+
+        @Override
+        public void succeed(Void result) {
+            completed(null);
+        }
+
+        @Override
+        public void fail(Throwable failure) {
+            completed(failure);
+        }
+
+        private void completed(Throwable failure) {
+            synchronized (this) {
+                if (dispatching) {
+                    this.completed = true;
+                    this.failure = failure;
+                    return;
+                }
+            }
+            // Completed by a different thread, after the request has been suspended.
+            AsyncContext asyncContext = getAsyncContext(request);
+            if (failure != null) {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Failure processing messages", failure);
+                }
+                error(request, response, asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } else if (request.getAttribute(SCHEDULER_ATTRIBUTE) == null) {
+                // Complete the request, unless it is a held /meta/connect.
+                try {
+                    asyncContext.complete();
+                } catch (Exception x) {
+                    _logger.trace("Could not complete " + request, x);
+                }
+            }
+        }
+
+        private void dispatched() throws IOException {
+            Throwable failure;
+            synchronized (this) {
+                dispatching = false;
+                if (!completed) {
+                    // Asynchronous processing, the request has been
+                    // suspended and will be completed by completed().
+                    return;
+                }
+                failure = this.failure;
+            }
+            if (failure instanceof IOException) {
+                throw (IOException)failure;
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException)failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error)failure;
+            }
+            if (failure != null) {
+                throw new IOException(failure);
+            }
+        }
+    }
+
     protected class DispatchingLongPollScheduler extends LongPollScheduler {
         public DispatchingLongPollScheduler(HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext, ServerSessionImpl session, ServerMessage.Mutable reply, long timeout) {
             super(request, response, asyncContext, session, reply, timeout);
@@ -15,12 +15,16 @@
  */
 package org.cometd.server.transport;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ReadListener;
 import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
@@ -30,14 +34,24 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.server.BayeuxServerImpl;
 import org.cometd.server.ServerSessionImpl;
 import org.eclipse.jetty.util.Utf8StringBuilder;
 
 public class AsyncJSONTransport extends AbstractHttpTransport {
+    /**
+     * <p>The /meta/connect advice field that clients set to {@code true}
+     * to declare that they can receive a streamed /meta/connect response.</p>
+     */
+    public static final String STREAMING_ADVICE_FIELD = "streaming";
+    public static final String STREAMING_OPTION = "streaming";
+    public static final String STREAMING_MAX_BYTES_OPTION = "streamingMaxBytes";
     private static final String PREFIX = "long-polling.json";
     private static final String NAME = "long-polling";
+    private static final String STREAMING_ATTRIBUTE = "org.cometd.streaming";
     private static final int BUFFER_CAPACITY = 512;
     private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
         @Override
@@ -46,16 +60,47 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
         }
     };
 
+    private boolean _streaming;
+    private long _streamingMaxBytes;
+
     public AsyncJSONTransport(BayeuxServerImpl bayeux) {
-        super(bayeux, NAME);
+        this(bayeux, NAME);
+    }
+
+    protected AsyncJSONTransport(BayeuxServerImpl bayeux, String name) {
+        super(bayeux, name);
         setOptionPrefix(PREFIX);
     }
 
+    @Override
+    public void init() {
+        super.init();
+        _streaming = getOption(STREAMING_OPTION, false);
+        _streamingMaxBytes = getOption(STREAMING_MAX_BYTES_OPTION, 1024 * 1024L);
+    }
+
     @Override
     public boolean accept(HttpServletRequest request) {
         return "POST".equalsIgnoreCase(request.getMethod());
     }
 
+    /**
+     * @return whether the streaming long-poll mode is enabled
+     * @see #isStreaming(HttpServletRequest, ServerMessage.Mutable)
+     */
+    public boolean isStreamingEnabled() {
+        return _streaming;
+    }
+
+    /**
+     * @return the max number of bytes of messages written in a streamed
+     * /meta/connect response before it is completed, or a non-positive
+     * value for no limit
+     */
+    public long getStreamingMaxBytes() {
+        return _streamingMaxBytes;
+    }
+
     @Override
     public void handle(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
         String encoding = request.getCharacterEncoding();
@@ -74,15 +119,79 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
         input.setReadListener(reader);
     }
 
+    @Override
+    protected void processMetaConnect(HttpServletRequest request, HttpServletResponse response, final ServerSessionImpl session, ServerMessage.Mutable message, boolean canSuspend, final Promise<ServerMessage.Mutable> promise) {
+        if (canSuspend && session != null && isStreaming(request, message)) {
+            // Messages must be delivered only via the streamed
+            // /meta/connect response so that they stay in order.
+            // The previous value is restored when the stream ends.
+            final boolean metaConnectDeliveryOnly = session.isMetaConnectDeliveryOnly();
+            session.setMetaConnectDeliveryOnly(true);
+            request.setAttribute(STREAMING_ATTRIBUTE, metaConnectDeliveryOnly);
+            super.processMetaConnect(request, response, session, message, canSuspend, new Promise<ServerMessage.Mutable>() {
+                @Override
+                public void succeed(ServerMessage.Mutable reply) {
+                    if (reply != null) {
+                        // Not suspended, so there is no stream.
+                        session.setMetaConnectDeliveryOnly(metaConnectDeliveryOnly);
+                    }
+                    promise.succeed(reply);
+                }
+
+                @Override
+                public void fail(Throwable failure) {
+                    session.setMetaConnectDeliveryOnly(metaConnectDeliveryOnly);
+                    promise.fail(failure);
+                }
+            });
+        } else {
+            super.processMetaConnect(request, response, session, message, canSuspend, promise);
+        }
+    }
+
+    /**
+     * <p>Returns whether the response to the given /meta/connect message
+     * should be streamed, rather than completed at the first message delivery.</p>
+     * <p>This implementation returns {@code true} if the streaming long-poll
+     * mode is enabled via the {@value #STREAMING_OPTION} option and the client
+     * requested streaming in the /meta/connect advice.</p>
+     *
+     * @param request the HTTP request
+     * @param message the /meta/connect message
+     * @return whether the /meta/connect response should be streamed
+     * @see StreamingScheduler
+     */
+    protected boolean isStreaming(HttpServletRequest request, ServerMessage.Mutable message) {
+        return isStreamingEnabled() && isStreamingRequested(message);
+    }
+
+    /**
+     * @param message the /meta/connect message
+     * @return whether the client declared, via the /meta/connect advice, that it supports streaming
+     * @see #STREAMING_ADVICE_FIELD
+     */
+    protected boolean isStreamingRequested(ServerMessage.Mutable message) {
+        Map<String, Object> advice = message.getAdvice();
+        return advice != null && Boolean.TRUE.equals(advice.get(STREAMING_ADVICE_FIELD));
+    }
+
     @Override
     protected HttpScheduler suspend(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, ServerMessage.Mutable reply, long timeout) {
-        return newHttpScheduler(request, response, getAsyncContext(request), session, reply, timeout);
+        AsyncContext asyncContext = getAsyncContext(request);
+        if (request.getAttribute(STREAMING_ATTRIBUTE) != null) {
+            return newStreamingScheduler(request, response, asyncContext, session, reply, timeout);
+        }
+        return newHttpScheduler(request, response, asyncContext, session, reply, timeout);
     }
 
     protected HttpScheduler newHttpScheduler(HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext, ServerSessionImpl session, ServerMessage.Mutable reply, long timeout) {
         return new AsyncLongPollScheduler(request, response, asyncContext, session, reply, timeout);
     }
 
+    protected HttpScheduler newStreamingScheduler(HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext, ServerSessionImpl session, ServerMessage.Mutable reply, long timeout) {
+        return new StreamingScheduler(request, response, asyncContext, session, reply, timeout);
+    }
+
     @Override
     protected void write(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, boolean scheduleExpiration, List<ServerMessage> messages, ServerMessage.Mutable[] replies) {
         AsyncContext asyncContext = getAsyncContext(request);
@@ -172,7 +281,19 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
                     _logger.debug("Parsed {} messages", messages == null ? -1 : messages.length);
                 }
                 if (messages != null) {
-                    processMessages(request, response, messages);
+                    processMessages(request, response, messages, new Promise<Void>() {
+                        @Override
+                        public void succeed(Void result) {
+                        }
+
+                        @Override
+                        public void fail(Throwable failure) {
+                            if (_logger.isDebugEnabled()) {
+                                _logger.debug("Failure processing messages", failure);
+                            }
+                            error(request, response, asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                        }
+                    });
                 } else {
                     asyncContext.complete();
                 }
@@ -444,4 +565,352 @@ public class AsyncJSONTransport extends AbstractHttpTransport {
             resume(getRequest(), getResponse(), getAsyncContext(), getServerSession(), getMetaConnectReply());
         }
     }
+
+    /**
+     * <p>A {@link HttpScheduler} that keeps the /meta/connect response open
+     * and writes the queued messages as fragments of the response JSON array
+     * as soon as they are available.</p>
+     * <p>The scheduler re-registers itself on the session after every write,
+     * and the /meta/connect reply is written, completing the response, only
+     * when the /meta/connect times out, the session is disconnected, or the
+     * bytes of the messages written exceed {@link #getStreamingMaxBytes()}.</p>
+     */
+    protected class StreamingScheduler implements HttpScheduler, WriteListener, AsyncListener, Runnable {
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final AsyncContext asyncContext;
+        private final ServerSessionImpl session;
+        private final ServerMessage.Mutable reply;
+        private final org.eclipse.jetty.util.thread.Scheduler.Task task;
+        private final boolean metaConnectDeliveryOnly;
+        private StreamState state = StreamState.BEGIN;
+        private StreamState end;
+        private boolean writing = true;
+        private boolean pending;
+        private boolean needsComma;
+        private boolean flush;
+        private boolean restored;
+        private long bytes;
+
+        protected StreamingScheduler(HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext, ServerSessionImpl session, ServerMessage.Mutable reply, long timeout) {
+            this.request = request;
+            this.response = response;
+            this.asyncContext = asyncContext;
+            this.session = session;
+            this.reply = reply;
+            this.metaConnectDeliveryOnly = Boolean.TRUE.equals(request.getAttribute(STREAMING_ATTRIBUTE));
+            asyncContext.addListener(this);
+            this.task = getBayeux().schedule(this, timeout);
+            try {
+                response.setContentType(getContentType());
+                response.getOutputStream().setWriteListener(this);
+            } catch (Throwable x) {
+                onError(x);
+            }
+        }
+
+        @Override
+        public HttpServletRequest getRequest() {
+            return request;
+        }
+
+        @Override
+        public HttpServletResponse getResponse() {
+            return response;
+        }
+
+        @Override
+        public AsyncContext getAsyncContext() {
+            return asyncContext;
+        }
+
+        public ServerSessionImpl getServerSession() {
+            return session;
+        }
+
+        public ServerMessage.Mutable getMetaConnectReply() {
+            return reply;
+        }
+
+        protected String getContentType() {
+            return "application/json;charset=UTF-8";
+        }
+
+        @Override
+        public void schedule() {
+            if (session.isDisconnected()) {
+                end(StreamState.REPLY);
+                return;
+            }
+            synchronized (this) {
+                if (state == StreamState.DONE) {
+                    return;
+                }
+                pending = true;
+                if (writing) {
+                    return;
+                }
+                writing = true;
+            }
+            process();
+        }
+
+        @Override
+        public void cancel() {
+            end(StreamState.CLOSE);
+        }
+
+        @Override
+        public void run() {
+            end(StreamState.REPLY);
+        }
+
+        private void end(StreamState end) {
+            synchronized (this) {
+                if (this.end != null || state == StreamState.DONE) {
+                    return;
+                }
+                this.end = end;
+            }
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Ending streamed /meta/connect {} with {}", reply, end);
+            }
+            task.cancel();
+            if (end == StreamState.REPLY) {
+                // Stop being notified of new messages; this
+                // calls cancel(), which is now a no-operation.
+                session.setScheduler(null);
+            } else {
+                // Cancelled, typically by a new /meta/connect that
+                // must see the delivery mode prior to this stream.
+                restoreDeliveryMode();
+            }
+            synchronized (this) {
+                if (writing) {
+                    return;
+                }
+                writing = true;
+            }
+            process();
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            process();
+        }
+
+        private void process() {
+            try {
+                ServletOutputStream output = response.getOutputStream();
+                while (output.isReady()) {
+                    if (flush) {
+                        flush = false;
+                        // Flush explicitly, otherwise the
+                        // fragment may be aggregated and delayed.
+                        output.flush();
+                    } else {
+                        byte[] bytes = next();
+                        if (bytes == null) {
+                            return;
+                        }
+                        if (bytes.length > 0) {
+                            output.write(bytes);
+                            flush = true;
+                        }
+                    }
+                }
+            } catch (Throwable x) {
+                onError(x);
+            }
+        }
+
+        private byte[] next() {
+            StreamState action;
+            synchronized (this) {
+                switch (state) {
+                    case BEGIN: {
+                        state = StreamState.STREAM;
+                        return begin();
+                    }
+                    case STREAM: {
+                        if (end != null) {
+                            action = end;
+                            state = StreamState.COMPLETE;
+                        } else if (pending) {
+                            action = StreamState.STREAM;
+                            pending = false;
+                        } else {
+                            writing = false;
+                            return null;
+                        }
+                        break;
+                    }
+                    case COMPLETE: {
+                        action = StreamState.COMPLETE;
+                        state = StreamState.DONE;
+                        writing = false;
+                        break;
+                    }
+                    default: {
+                        writing = false;
+                        return null;
+                    }
+                }
+            }
+
+            switch (action) {
+                case STREAM: {
+                    List<ServerMessage> messages = session.takeQueue();
+                    synchronized (this) {
+                        if (end == null) {
+                            // Be notified of the next messages.
+                            session.setScheduler(this);
+                        }
+                    }
+                    if (_logger.isDebugEnabled()) {
+                        _logger.debug("Streaming {} messages for session {}", messages.size(), session);
+                    }
+                    byte[] frame = frame(messages, null, false);
+                    bytes += frame.length;
+                    long maxBytes = getStreamingMaxBytes();
+                    if (maxBytes > 0 && bytes >= maxBytes) {
+                        // Complete the response, so that intermediaries
+                        // do not buffer an indefinitely large response.
+                        end(StreamState.REPLY);
+                    }
+                    return frame;
+                }
+                case REPLY: {
+                    List<ServerMessage> messages = session.takeQueue();
+                    restoreDeliveryMode();
+                    // Start the interval timeout before the
+                    // client receives the /meta/connect reply.
+                    scheduleExpiration(session);
+                    return frame(messages, replyFor(), true);
+                }
+                case CLOSE: {
+                    return close();
+                }
+                case COMPLETE: {
+                    decBrowserId(session, isHTTP2(request));
+                    asyncContext.complete();
+                    return null;
+                }
+                default: {
+                    throw new IllegalStateException();
+                }
+            }
+        }
+
+        private void restoreDeliveryMode() {
+            synchronized (this) {
+                if (restored) {
+                    return;
+                }
+                restored = true;
+            }
+            session.setMetaConnectDeliveryOnly(metaConnectDeliveryOnly);
+        }
+
+        private ServerMessage.Mutable replyFor() {
+            metaConnectResumed(request, response, asyncContext, session);
+            Map<String, Object> advice = session.takeAdvice(AsyncJSONTransport.this);
+            if (advice != null) {
+                reply.put(Message.ADVICE_FIELD, advice);
+            }
+            if (session.isDisconnected()) {
+                reply.getAdvice(true).put(Message.RECONNECT_FIELD, Message.RECONNECT_NONE_VALUE);
+            }
+            ServerMessage.Mutable result = processReply(session, reply);
+            if (result != null) {
+                getBayeux().freeze(result);
+            }
+            return result;
+        }
+
+        /**
+         * @return the bytes that start the response
+         */
+        protected byte[] begin() {
+            return new byte[]{'['};
+        }
+
+        /**
+         * @param messages the messages to write
+         * @param reply    the /meta/connect reply, or null
+         * @param last     whether this is the last write of the response
+         * @return the bytes that represent the given messages in the response
+         */
+        protected byte[] frame(List<ServerMessage> messages, ServerMessage.Mutable reply, boolean last) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (ServerMessage message : messages) {
+                append(bytes, toJSONBytes(message, "UTF-8"));
+            }
+            if (reply != null) {
+                append(bytes, toJSONBytes(reply, "UTF-8"));
+            }
+            if (last) {
+                bytes.write(']');
+            }
+            return bytes.toByteArray();
+        }
+
+        private void append(ByteArrayOutputStream bytes, byte[] json) {
+            if (needsComma) {
+                bytes.write(',');
+            }
+            needsComma = true;
+            bytes.write(json, 0, json.length);
+        }
+
+        /**
+         * @return the bytes that end a response that has been cancelled
+         */
+        protected byte[] close() {
+            return new byte[]{']'};
+        }
+
+        @Override
+        public void onError(Throwable failure) {
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Failure streaming messages", failure);
+            }
+            synchronized (this) {
+                if (state == StreamState.DONE) {
+                    return;
+                }
+                state = StreamState.DONE;
+                if (end == null) {
+                    end = StreamState.CLOSE;
+                }
+            }
+            task.cancel();
+            restoreDeliveryMode();
+            // Start the interval timeout to ensure the session can be swept.
+            scheduleExpiration(session);
+            decBrowserId(session, isHTTP2(request));
+            error(request, response, asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            onError(event.getThrowable());
+        }
+    }
+
+    private enum StreamState {
+        BEGIN, STREAM, REPLY, CLOSE, COMPLETE, DONE
+    }
 }
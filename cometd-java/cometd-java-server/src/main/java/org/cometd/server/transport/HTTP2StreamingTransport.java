@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.transport;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.BayeuxServerImpl;
+
+/**
+ * <p>A long-polling transport for HTTP/2 that streams messages in the
+ * /meta/connect response as soon as they are queued.</p>
+ * <p>With HTTP/2, requests are multiplexed as concurrent streams over the same
+ * connection, so keeping the /meta/connect response open does not prevent
+ * clients from publishing. Clients that declare support for streaming in the
+ * /meta/connect advice (see {@link #STREAMING_ADVICE_FIELD}) receive batches of
+ * messages as fragments of the response JSON array, and the /meta/connect reply
+ * is only written when the /meta/connect times out, saving a /meta/connect
+ * round trip for every message delivery.</p>
+ * <p>This transport only accepts HTTP/2 requests, so it must be configured
+ * before the {@code long-polling} transport, which handles HTTP/1.1 requests:</p>
+ * <pre>
+ * transports: org.cometd.server.transport.HTTP2StreamingTransport,org.cometd.server.transport.AsyncJSONTransport
+ * </pre>
+ * <p>HTTP/2 requires Jetty 9.3 or later, with the {@code http2-server} module
+ * configured on the server connector; with Jetty 9.2 no request is ever
+ * accepted by this transport.</p>
+ */
+public class HTTP2StreamingTransport extends AsyncJSONTransport {
+    public static final String PREFIX = "long-polling.json.http2";
+    public static final String NAME = "http2-streaming";
+
+    public HTTP2StreamingTransport(BayeuxServerImpl bayeux) {
+        super(bayeux, NAME);
+        setOptionPrefix(PREFIX);
+    }
+
+    @Override
+    public boolean accept(HttpServletRequest request) {
+        return super.accept(request) && isHTTP2(request);
+    }
+
+    @Override
+    protected boolean isStreaming(HttpServletRequest request, ServerMessage.Mutable message) {
+        return isStreamingRequested(message);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.List;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.server.BayeuxServerImpl;
+import org.cometd.server.ServerSessionImpl;
+
+/**
+ * <p>A transport that delivers messages as
+ * <a href="https://html.spec.whatwg.org/multipage/server-sent-events.html">Server-Sent Events</a>.</p>
+ * <p>The /meta/connect message is sent by clients via a {@code GET} request
+ * with header {@code Accept: text/event-stream}, carrying the messages in
+ * the {@value #MESSAGE_PARAM} request parameter. The response is kept open
+ * and each batch of messages is written as an event whose data is a JSON array,
+ * as soon as messages are queued; the last event contains the /meta/connect reply
+ * and is written when the /meta/connect times out.</p>
+ * <p>All other messages are sent via plain {@code POST} requests, and are
+ * processed as in the {@code long-polling} transport.</p>
+ */
+public class ServerSentEventsTransport extends AsyncJSONTransport {
+    public static final String PREFIX = "long-polling.json.sse";
+    public static final String NAME = "server-sent-events";
+    public static final String EVENT_STREAM_MIME_TYPE = "text/event-stream";
+
+    private static final byte[] DATA_BEGIN = "data: [".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DATA_END = "]\n\n".getBytes(StandardCharsets.UTF_8);
+
+    public ServerSentEventsTransport(BayeuxServerImpl bayeux) {
+        super(bayeux, NAME);
+        setOptionPrefix(PREFIX);
+    }
+
+    @Override
+    public boolean accept(HttpServletRequest request) {
+        return super.accept(request) || isEventStream(request);
+    }
+
+    protected boolean isEventStream(HttpServletRequest request) {
+        if (!"GET".equalsIgnoreCase(request.getMethod())) {
+            return false;
+        }
+        String accept = request.getHeader("Accept");
+        return accept != null && accept.contains(EVENT_STREAM_MIME_TYPE);
+    }
+
+    @Override
+    public void handle(final HttpServletRequest request, final HttpServletResponse response) throws IOException, ServletException {
+        if (!isEventStream(request)) {
+            super.handle(request, response);
+            return;
+        }
+
+        response.setHeader("Cache-Control", "no-cache");
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(0);
+        String json = request.getParameter(MESSAGE_PARAM);
+        getBayeux().setCurrentTransport(this);
+        setCurrentRequest(request);
+        try {
+            ServerMessage.Mutable[] messages = json == null ? null : parseMessages(json);
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Parsed {} messages", messages == null ? -1 : messages.length);
+            }
+            if (messages != null) {
+                processMessages(request, response, messages, new Promise<Void>() {
+                    @Override
+                    public void succeed(Void result) {
+                    }
+
+                    @Override
+                    public void fail(Throwable failure) {
+                        if (_logger.isDebugEnabled()) {
+                            _logger.debug("Failure processing messages", failure);
+                        }
+                        error(request, response, asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    }
+                });
+            } else {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                asyncContext.complete();
+            }
+        } catch (ParseException x) {
+            handleJSONParseException(request, response, json, x);
+            asyncContext.complete();
+        } finally {
+            setCurrentRequest(null);
+            getBayeux().setCurrentTransport(null);
+        }
+    }
+
+    @Override
+    protected boolean isStreaming(HttpServletRequest request, ServerMessage.Mutable message) {
+        return isEventStream(request);
+    }
+
+    @Override
+    protected HttpScheduler newStreamingScheduler(HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext, ServerSessionImpl session, ServerMessage.Mutable reply, long timeout) {
+        return new EventStreamScheduler(request, response, asyncContext, session, reply, timeout);
+    }
+
+    @Override
+    protected void write(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, boolean scheduleExpiration, List<ServerMessage> messages, ServerMessage.Mutable[] replies) {
+        if (!isEventStream(request)) {
+            super.write(request, response, session, scheduleExpiration, messages, replies);
+            return;
+        }
+
+        AsyncContext asyncContext = getAsyncContext(request);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write(DATA_BEGIN, 0, DATA_BEGIN.length);
+            boolean needsComma = false;
+            for (ServerMessage message : messages) {
+                needsComma = append(bytes, toJSONBytes(message, "UTF-8"), needsComma);
+            }
+            for (ServerMessage.Mutable reply : replies) {
+                if (reply != null) {
+                    getBayeux().freeze(reply);
+                    needsComma = append(bytes, toJSONBytes(reply, "UTF-8"), needsComma);
+                }
+            }
+            bytes.write(DATA_END, 0, DATA_END.length);
+            if (scheduleExpiration) {
+                scheduleExpiration(session);
+            }
+            response.setContentType(EVENT_STREAM_MIME_TYPE + ";charset=UTF-8");
+            ServletOutputStream output = response.getOutputStream();
+            output.setWriteListener(new EventWriter(request, response, asyncContext, bytes.toByteArray()));
+        } catch (Exception x) {
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Exception while writing messages", x);
+            }
+            error(request, response, asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static boolean append(ByteArrayOutputStream bytes, byte[] json, boolean needsComma) {
+        if (needsComma) {
+            bytes.write(',');
+        }
+        bytes.write(json, 0, json.length);
+        return true;
+    }
+
+    private class EventWriter implements WriteListener {
+        private final HttpServletRequest request;
+        private final HttpServletResponse response;
+        private final AsyncContext asyncContext;
+        private final byte[] bytes;
+        private boolean written;
+
+        private EventWriter(HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext, byte[] bytes) {
+            this.request = request;
+            this.response = response;
+            this.asyncContext = asyncContext;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            ServletOutputStream output = response.getOutputStream();
+            if (!written) {
+                written = true;
+                output.write(bytes);
+                if (!output.isReady()) {
+                    return;
+                }
+            }
+            asyncContext.complete();
+        }
+
+        @Override
+        public void onError(Throwable failure) {
+            if (_logger.isDebugEnabled()) {
+                _logger.debug("Failure writing messages", failure);
+            }
+            error(request, response, asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * <p>A {@link StreamingScheduler} that writes each batch
+     * of messages as an event of the event stream.</p>
+     */
+    protected class EventStreamScheduler extends StreamingScheduler {
+        protected EventStreamScheduler(HttpServletRequest request, HttpServletResponse response, AsyncContext asyncContext, ServerSessionImpl session, ServerMessage.Mutable reply, long timeout) {
+            super(request, response, asyncContext, session, reply, timeout);
+        }
+
+        @Override
+        protected String getContentType() {
+            return EVENT_STREAM_MIME_TYPE + ";charset=UTF-8";
+        }
+
+        @Override
+        protected byte[] begin() {
+            // An event stream comment, to commit the response.
+            return new byte[]{':', '\n', '\n'};
+        }
+
+        @Override
+        protected byte[] frame(List<ServerMessage> messages, ServerMessage.Mutable reply, boolean last) {
+            if (messages.isEmpty() && reply == null) {
+                return new byte[0];
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bytes.write(DATA_BEGIN, 0, DATA_BEGIN.length);
+            boolean needsComma = false;
+            for (ServerMessage message : messages) {
+                needsComma = append(bytes, toJSONBytes(message, "UTF-8"), needsComma);
+            }
+            if (reply != null) {
+                append(bytes, toJSONBytes(reply, "UTF-8"), needsComma);
+            }
+            bytes.write(DATA_END, 0, DATA_END.length);
+            return bytes.toByteArray();
+        }
+
+        @Override
+        protected byte[] close() {
+            return new byte[0];
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.cometd.bayeux.Channel;
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.common.JettyJSONContextClient;
+import org.cometd.server.transport.JSONTransport;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.http.HttpHeader;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncMessageProcessingTest extends AbstractBayeuxClientServerTest {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    public AsyncMessageProcessingTest(String serverTransport) {
+        super(serverTransport);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testBatchWithAsyncListenerRepliesInOrder() throws Exception {
+        startServer(null);
+
+        String channelName = "/service/async";
+        final Queue<String> events = new ConcurrentLinkedQueue<>();
+        bayeux.createChannelIfAbsent(channelName).getReference().addListener(new ServerChannel.AsyncMessageListener() {
+            @Override
+            public void onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message, final Promise<Boolean> promise) {
+                final String id = message.getId();
+                events.offer("begin:" + id);
+                if ("1".equals(id)) {
+                    executor.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            events.offer("end:" + id);
+                            promise.succeed(true);
+                        }
+                    }, 500, TimeUnit.MILLISECONDS);
+                } else {
+                    // Message "2" is denied.
+                    promise.succeed(!"2".equals(id));
+                }
+            }
+        });
+
+        Request handshake = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"long-polling\"]" +
+                "}]");
+        ContentResponse response = handshake.send();
+        Assert.assertEquals(200, response.getStatus());
+
+        String clientId = extractClientId(response);
+
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 1; i <= 3; ++i) {
+            if (i > 1) {
+                batch.append(",");
+            }
+            batch.append("{")
+                    .append("\"id\": \"").append(i).append("\",")
+                    .append("\"channel\": \"").append(channelName).append("\",")
+                    .append("\"clientId\": \"").append(clientId).append("\",")
+                    .append("\"data\": {}")
+                    .append("}");
+        }
+        batch.append("]");
+        response = newBayeuxRequest(batch.toString()).send();
+        Assert.assertEquals(200, response.getStatus());
+
+        JettyJSONContextClient parser = new JettyJSONContextClient();
+        Message.Mutable[] replies = parser.parse(response.getContentAsString());
+        Assert.assertEquals(3, replies.length);
+        for (int i = 0; i < replies.length; ++i) {
+            Message.Mutable reply = replies[i];
+            Assert.assertEquals(String.valueOf(i + 1), reply.getId());
+            Assert.assertEquals(i != 1, reply.isSuccessful());
+        }
+        Assert.assertEquals(Arrays.asList("begin:1", "end:1", "begin:2", "begin:3"), new ArrayList<>(events));
+    }
+
+    @Test
+    public void testAsyncListenerOnMetaHandshake() throws Exception {
+        startServer(null);
+
+        bayeux.getChannel(Channel.META_HANDSHAKE).addListener(new ServerChannel.AsyncMessageListener() {
+            @Override
+            public void onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message, final Promise<Boolean> promise) {
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        promise.succeed(true);
+                    }
+                }, 500, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        Request handshake = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"long-polling\"]" +
+                "}]");
+        ContentResponse response = handshake.send();
+        Assert.assertEquals(200, response.getStatus());
+
+        JettyJSONContextClient parser = new JettyJSONContextClient();
+        Message.Mutable reply = parser.parse(response.getContentAsString())[0];
+        Assert.assertTrue(reply.isSuccessful());
+        // The browser cookie is set when the handshake completes asynchronously.
+        Assert.assertNotNull(response.getHeaders().get(HttpHeader.SET_COOKIE));
+        Assert.assertNotNull(bayeux.getSession(reply.getClientId()));
+    }
+
+    @Test
+    public void testServerSidePublishWaitsForAsyncListener() throws Exception {
+        startServer(null);
+
+        String channelName = "/async";
+        final Queue<String> events = new ConcurrentLinkedQueue<>();
+        final RuntimeException failure = new RuntimeException("explicitly_thrown_by_test");
+        ServerChannel channel = bayeux.createChannelIfAbsent(channelName).getReference();
+        channel.addListener(new ServerChannel.AsyncMessageListener() {
+            @Override
+            public void onMessage(ServerSession from, ServerChannel channel, final ServerMessage.Mutable message, final Promise<Boolean> promise) {
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        events.offer("listener:" + message.getData());
+                        if ("fail".equals(message.getData())) {
+                            promise.fail(failure);
+                        } else {
+                            promise.succeed(true);
+                        }
+                    }
+                }, 500, TimeUnit.MILLISECONDS);
+            }
+        });
+        channel.addListener(new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
+                events.offer("published:" + message.getData());
+                return true;
+            }
+        });
+
+        channel.publish(null, "ok");
+        Assert.assertEquals(Arrays.asList("listener:ok", "published:ok"), new ArrayList<>(events));
+
+        events.clear();
+        try {
+            channel.publish(null, "fail");
+            Assert.fail();
+        } catch (RuntimeException x) {
+            Assert.assertSame(failure, x);
+        }
+        // The message failed by the listener is not published.
+        Assert.assertEquals(Collections.singletonList("listener:fail"), new ArrayList<>(events));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedBlockingMethodsAreStillInvoked() throws Exception {
+        startServer(null);
+
+        final AtomicInteger handshakes = new AtomicInteger();
+        final AtomicInteger connects = new AtomicInteger();
+        final AtomicInteger handles = new AtomicInteger();
+        JSONTransport transport = new JSONTransport(bayeux) {
+            @Override
+            protected ServerMessage.Mutable processMetaHandshake(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, ServerMessage.Mutable message) {
+                handshakes.incrementAndGet();
+                return super.processMetaHandshake(request, response, session, message);
+            }
+
+            @Override
+            protected ServerMessage.Mutable processMetaConnect(HttpServletRequest request, HttpServletResponse response, ServerSessionImpl session, ServerMessage.Mutable message, boolean canSuspend) {
+                connects.incrementAndGet();
+                return super.processMetaConnect(request, response, session, message, canSuspend);
+            }
+
+            @Override
+            protected ServerMessage.Mutable bayeuxServerHandle(ServerSessionImpl session, ServerMessage.Mutable message) {
+                handles.incrementAndGet();
+                return super.bayeuxServerHandle(session, message);
+            }
+        };
+        transport.init();
+        bayeux.setTransports(transport);
+
+        Request handshake = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/handshake\"," +
+                "\"version\": \"1.0\"," +
+                "\"supportedConnectionTypes\": [\"long-polling\"]" +
+                "}]");
+        ContentResponse response = handshake.send();
+        Assert.assertEquals(200, response.getStatus());
+
+        String clientId = extractClientId(response);
+
+        Request connect = newBayeuxRequest("[{" +
+                "\"channel\": \"/meta/connect\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"connectionType\": \"long-polling\"" +
+                "}]");
+        response = connect.send();
+        Assert.assertEquals(200, response.getStatus());
+
+        Request publish = newBayeuxRequest("[{" +
+                "\"channel\": \"/foo\"," +
+                "\"clientId\": \"" + clientId + "\"," +
+                "\"data\": {}" +
+                "}]");
+        response = publish.send();
+        Assert.assertEquals(200, response.getStatus());
+
+        Assert.assertEquals(1, handshakes.get());
+        Assert.assertEquals(1, connects.get());
+        // The /meta/handshake, the /meta/connect and the publish.
+        Assert.assertEquals(3, handles.get());
+    }
+
+    @Test
+    public void testServerSidePublishTimesOutWaitingForAsyncListener() throws Exception {
+        long timeout = 500;
+        Map<String, String> options = new HashMap<>();
+        options.put(BayeuxServerImpl.ASYNC_LISTENER_TIMEOUT_OPTION, String.valueOf(timeout));
+        startServer(options);
+
+        final AtomicInteger published = new AtomicInteger();
+        ServerChannel channel = bayeux.createChannelIfAbsent("/async").getReference();
+        channel.addListener(new ServerChannel.AsyncMessageListener() {
+            @Override
+            public void onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message, Promise<Boolean> promise) {
+                // Never complete the promise.
+            }
+        });
+        channel.addListener(new ServerChannel.MessageListener() {
+            @Override
+            public boolean onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message) {
+                published.incrementAndGet();
+                return true;
+            }
+        });
+
+        long begin = System.nanoTime();
+        try {
+            channel.publish(null, "data");
+            Assert.fail();
+        } catch (IllegalStateException x) {
+            Assert.assertTrue(x.getCause() instanceof TimeoutException);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        Assert.assertTrue(elapsed >= timeout);
+        Assert.assertTrue(elapsed < 5 * timeout);
+        Assert.assertEquals(0, published.get());
+    }
+}
@@ -15,9 +15,16 @@
  */
 package org.cometd.server.transport;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -52,6 +59,123 @@ public class BrowserMappingTest extends AbstractBayeuxClientServerTest {
         transport.decBrowserId(session, false);
     }
 
+    @Test
+    public void testConcurrentBrowserCounts() throws Exception {
+        startServer(null);
+
+        final int threads = 16;
+        final AbstractHttpTransport transport = new JSONTransport(bayeux);
+        transport.setOption(AbstractHttpTransport.MAX_SESSIONS_PER_BROWSER_OPTION, threads / 2);
+        transport.init();
+
+        final String browserId = "browser1";
+        final int iterations = 1000;
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        ServerSessionImpl session = new ServerSessionImpl(bayeux);
+                        session.setBrowserId(browserId);
+                        barrier.await();
+                        int successes = 0;
+                        for (int i = 0; i < iterations; ++i) {
+                            if (transport.incBrowserId(session, false)) {
+                                ++successes;
+                                transport.decBrowserId(session, false);
+                            }
+                        }
+                        return successes;
+                    }
+                }));
+            }
+            int successes = 0;
+            for (Future<Integer> future : futures) {
+                successes += future.get(30, TimeUnit.SECONDS);
+            }
+            Assert.assertTrue(successes > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // All the counts have been decremented and removed.
+        Assert.assertFalse(transport.isBrowserCounted(browserId));
+
+        // The max number of sessions per browser is still enforced.
+        ServerSessionImpl session = new ServerSessionImpl(bayeux);
+        session.setBrowserId(browserId);
+        for (int i = 0; i < threads / 2; ++i) {
+            Assert.assertTrue(transport.incBrowserId(session, false));
+        }
+        Assert.assertFalse(transport.incBrowserId(session, false));
+        for (int i = 0; i < threads / 2; ++i) {
+            transport.decBrowserId(session, false);
+        }
+        Assert.assertFalse(transport.isBrowserCounted(browserId));
+    }
+
+    @Test
+    public void testConcurrentBrowserSessions() throws Exception {
+        startServer(null);
+
+        final AbstractHttpTransport transport = new JSONTransport(bayeux);
+        transport.init();
+
+        final int threads = 16;
+        final int browsers = 4;
+        final int iterations = 500;
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<ServerSessionImpl> kept = new ArrayList<>();
+        try {
+            List<Future<ServerSessionImpl>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                final String browserId = "browser" + (t % browsers);
+                futures.add(executor.submit(new Callable<ServerSessionImpl>() {
+                    @Override
+                    public ServerSessionImpl call() throws Exception {
+                        barrier.await();
+                        for (int i = 0; i < iterations; ++i) {
+                            ServerSessionImpl session = new ServerSessionImpl(bayeux);
+                            transport.addBrowserSession(browserId, session);
+                            transport.removeBrowserSession(browserId, session);
+                        }
+                        // Keep one session per thread.
+                        ServerSessionImpl session = new ServerSessionImpl(bayeux);
+                        transport.addBrowserSession(browserId, session);
+                        return session;
+                    }
+                }));
+            }
+            for (Future<ServerSessionImpl> future : futures) {
+                kept.add(future.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (int b = 0; b < browsers; ++b) {
+            String browserId = "browser" + b;
+            List<ServerSessionImpl> sessions = transport.getBrowserSessions(browserId);
+            Assert.assertNotNull(sessions);
+            Assert.assertEquals(threads / browsers, sessions.size());
+            for (int t = b; t < threads; t += browsers) {
+                Assert.assertTrue(sessions.contains(kept.get(t)));
+            }
+        }
+
+        // Removing the kept sessions cleans up the browsers.
+        for (int t = 0; t < threads; ++t) {
+            transport.removeBrowserSession("browser" + (t % browsers), kept.get(t));
+        }
+        for (int b = 0; b < browsers; ++b) {
+            Assert.assertNull(transport.getBrowserSessions("browser" + b));
+        }
+    }
+
     @Test
     public void testSameDomainWithCookieHoldsConnect() throws Exception {
         startServer(null);
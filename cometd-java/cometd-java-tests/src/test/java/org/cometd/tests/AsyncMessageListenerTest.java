@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2008-2020 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cometd.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
+import org.cometd.bayeux.client.ClientSessionChannel;
+import org.cometd.bayeux.server.ServerChannel;
+import org.cometd.bayeux.server.ServerMessage;
+import org.cometd.bayeux.server.ServerSession;
+import org.cometd.client.BayeuxClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncMessageListenerTest extends AbstractClientServerTest {
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    public AsyncMessageListenerTest(Transport transport) {
+        super(transport);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testAsyncListenerRepliesInOrder() throws Exception {
+        startServer(serverOptions());
+
+        final String channelName = "/service/async";
+        final Queue<String> events = new ConcurrentLinkedQueue<>();
+        bayeux.createChannelIfAbsent(channelName).getReference().addListener(new ServerChannel.AsyncMessageListener() {
+            @Override
+            public void onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message, final Promise<Boolean> promise) {
+                final Object data = message.getData();
+                events.offer("begin:" + data);
+                if ("slow".equals(data)) {
+                    executor.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            events.offer("end:" + data);
+                            promise.succeed(true);
+                        }
+                    }, 500, TimeUnit.MILLISECONDS);
+                } else {
+                    promise.succeed(!"deny".equals(data));
+                }
+            }
+        });
+
+        final BayeuxClient client = newBayeuxClient();
+        client.handshake();
+        Assert.assertTrue(client.waitFor(5000, BayeuxClient.State.CONNECTED));
+
+        final Queue<String> replies = new ConcurrentLinkedQueue<>();
+        final CountDownLatch latch = new CountDownLatch(3);
+        final ClientSessionChannel clientChannel = client.getChannel(channelName);
+        client.batch(new Runnable() {
+            @Override
+            public void run() {
+                for (final String data : Arrays.asList("slow", "deny", "fast")) {
+                    clientChannel.publish(data, new ClientSessionChannel.MessageListener() {
+                        @Override
+                        public void onMessage(ClientSessionChannel channel, Message message) {
+                            replies.offer(data + ":" + message.isSuccessful());
+                            latch.countDown();
+                        }
+                    });
+                }
+            }
+        });
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList("slow:true", "deny:false", "fast:true"), new ArrayList<>(replies));
+        List<String> expected = Arrays.asList("begin:slow", "end:slow", "begin:deny", "begin:fast");
+        Assert.assertEquals(expected, new ArrayList<>(events));
+
+        disconnectBayeuxClient(client);
+    }
+
+    @Test
+    public void testAsyncListenerDeniesBroadcast() throws Exception {
+        startServer(serverOptions());
+
+        final String channelName = "/async";
+        bayeux.createChannelIfAbsent(channelName).getReference().addListener(new ServerChannel.AsyncMessageListener() {
+            @Override
+            public void onMessage(ServerSession from, ServerChannel channel, ServerMessage.Mutable message, final Promise<Boolean> promise) {
+                final boolean allow = "allow".equals(message.getData());
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        promise.succeed(allow);
+                    }
+                }, 100, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        final BayeuxClient client = newBayeuxClient();
+        final Queue<Object> received = new ConcurrentLinkedQueue<>();
+        final CountDownLatch subscribeLatch = new CountDownLatch(1);
+        client.handshake(new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                client.getChannel(channelName).subscribe(new ClientSessionChannel.MessageListener() {
+                    @Override
+                    public void onMessage(ClientSessionChannel channel, Message message) {
+                        received.offer(message.getData());
+                    }
+                }, new ClientSessionChannel.MessageListener() {
+                    @Override
+                    public void onMessage(ClientSessionChannel channel, Message message) {
+                        subscribeLatch.countDown();
+                    }
+                });
+            }
+        });
+        Assert.assertTrue(subscribeLatch.await(5, TimeUnit.SECONDS));
+
+        final CountDownLatch publishLatch = new CountDownLatch(2);
+        ClientSessionChannel.MessageListener callback = new ClientSessionChannel.MessageListener() {
+            @Override
+            public void onMessage(ClientSessionChannel channel, Message message) {
+                publishLatch.countDown();
+            }
+        };
+        client.getChannel(channelName).publish("deny", callback);
+        client.getChannel(channelName).publish("allow", callback);
+
+        Assert.assertTrue(publishLatch.await(5, TimeUnit.SECONDS));
+        // Give time to the message to arrive.
+        Thread.sleep(500);
+        Assert.assertEquals(Arrays.<Object>asList("allow"), new ArrayList<>(received));
+
+        disconnectBayeuxClient(client);
+    }
+}
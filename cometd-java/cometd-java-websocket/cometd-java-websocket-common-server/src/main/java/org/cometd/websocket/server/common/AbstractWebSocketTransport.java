@@ -32,9 +32,11 @@ import java.util.concurrent.TimeoutException;
 
 import org.cometd.bayeux.Channel;
 import org.cometd.bayeux.Message;
+import org.cometd.bayeux.Promise;
 import org.cometd.bayeux.server.BayeuxContext;
 import org.cometd.bayeux.server.ServerMessage;
 import org.cometd.bayeux.server.ServerSession;
+import org.cometd.bayeux.server.ServerTransport;
 import org.cometd.server.AbstractServerTransport;
 import org.cometd.server.BayeuxServerImpl;
 import org.cometd.server.ServerSessionImpl;
@@ -147,11 +149,17 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
     protected void onClose(int code, String reason) {
     }
 
+    private enum ProcessState {
+        IDLE, HANDLING, PENDING, COMPLETED
+    }
+
     protected abstract class AbstractWebSocketScheduler implements AbstractServerTransport.Scheduler {
         protected final Logger _logger = LoggerFactory.getLogger(getClass());
         private final Flusher flusher = new Flusher();
         private final BayeuxContext _context;
         private volatile ServerSessionImpl _session;
+        private final Queue<MessagesProcessor> _batches = new ArrayDeque<>();
+        private boolean _processing;
         private ServerMessage.Mutable _connectReply;
         private ScheduledFuture<?> _connectTask;
 
@@ -260,95 +268,81 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
                 throw new IOException();
             }
 
-            ServerSessionImpl session;
-            ServerMessage.Mutable m = messages[0];
-            if (Channel.META_HANDSHAKE.equals(m.getChannel())) {
-                _session = null;
-                session = getBayeux().newServerSession();
-                session.setAllowMessageDeliveryDuringHandshake(isAllowMessageDeliveryDuringHandshake());
-            } else {
-                session = _session;
-                if (session == null) {
-                    if (!_requireHandshakePerConnection) {
-                        session = _session = (ServerSessionImpl)getBayeux().getSession(m.getClientId());
-                    }
-                } else if (getBayeux().getSession(session.getId()) == null) {
-                    session = _session = null;
+            // Batches are processed one after the other, so that if a batch
+            // is handled asynchronously, the batches that arrive later wait
+            // for it to complete, preserving the order of the replies.
+            MessagesProcessor processor = new MessagesProcessor(wsSession, messages);
+            synchronized (_batches) {
+                if (_processing) {
+                    _batches.offer(processor);
+                    return;
                 }
+                _processing = true;
             }
+            process(processor);
+        }
 
-            boolean sendQueue = false;
-            boolean sendReplies = false;
-            boolean scheduleExpiration = false;
-            List<ServerMessage.Mutable> replies = new ArrayList<>(messages.length);
-            for (ServerMessage.Mutable message : messages) {
-                if (_logger.isDebugEnabled()) {
-                    _logger.debug("Processing {}", message);
+        private void process(MessagesProcessor processor) {
+            while (processor != null) {
+                if (!processor.process()) {
+                    // Asynchronous processing, the batch will
+                    // resume the processing when it completes.
+                    return;
                 }
+                synchronized (_batches) {
+                    processor = _batches.poll();
+                    if (processor == null) {
+                        _processing = false;
+                    }
+                }
+            }
+        }
 
-                switch (message.getChannel()) {
-                    case Channel.META_HANDSHAKE: {
-                        if (messages.length > 1) {
-                            throw new IOException();
-                        }
-                        ServerMessage.Mutable reply = processMetaHandshake(session, message);
+        private void processMetaHandshake(final ServerSessionImpl session, ServerMessage.Mutable message, final Promise<ServerMessage.Mutable> promise) {
+            getBayeux().handle(session, message, new Promise<ServerMessage.Mutable>() {
+                @Override
+                public void succeed(ServerMessage.Mutable reply) {
+                    try {
                         if (reply.isSuccessful()) {
-                            _session = session;
-                        }
-                        reply = processReply(session, reply);
-                        if (reply != null) {
-                            replies.add(reply);
-                        }
-                        sendQueue = allowMessageDeliveryDuringHandshake(session) && reply != null && reply.isSuccessful();
-                        sendReplies = reply != null;
-                        scheduleExpiration = true;
-                        break;
-                    }
-                    case Channel.META_CONNECT: {
-                        ServerMessage.Mutable reply = processMetaConnect(session, message);
-                        reply = processReply(session, reply);
-                        if (reply != null) {
-                            replies.add(reply);
-                        }
-                        boolean deliver = isMetaConnectDeliveryOnly() || session != null && session.isMetaConnectDeliveryOnly();
-                        sendQueue = deliver && reply != null;
-                        sendReplies = reply != null;
-                        scheduleExpiration = true;
-                        break;
-                    }
-                    default: {
-                        ServerMessage.Mutable reply = getBayeux().handle(session, message);
-                        reply = processReply(session, reply);
-                        if (reply != null) {
-                            replies.add(reply);
+                            session.setScheduler(AbstractWebSocketScheduler.this);
                         }
-                        // Leave sendQueue unchanged.
-                        if (reply != null) {
-                            sendReplies = true;
-                        }
-                        // Leave scheduleExpiration unchanged.
-                        break;
+                    } catch (Throwable x) {
+                        promise.fail(x);
+                        return;
                     }
+                    promise.succeed(reply);
                 }
-            }
 
-            if (sendQueue || sendReplies) {
-                send(wsSession, session, sendQueue, scheduleExpiration, replies);
-            }
+                @Override
+                public void fail(Throwable failure) {
+                    promise.fail(failure);
+                }
+            });
         }
 
-        private ServerMessage.Mutable processMetaHandshake(ServerSessionImpl session, ServerMessage.Mutable message) {
-            ServerMessage.Mutable reply = getBayeux().handle(session, message);
-            if (reply.isSuccessful()) {
-                session.setScheduler(this);
-            }
-            return reply;
+        private void processMetaConnect(final ServerSessionImpl session, ServerMessage.Mutable message, final Promise<ServerMessage.Mutable> promise) {
+            // Remember the connected status before handling the message.
+            final boolean wasConnected = session != null && session.isConnected();
+            getBayeux().handle(session, message, new Promise<ServerMessage.Mutable>() {
+                @Override
+                public void succeed(ServerMessage.Mutable reply) {
+                    try {
+                        reply = metaConnectHandled(session, reply, wasConnected);
+                    } catch (Throwable x) {
+                        promise.fail(x);
+                        return;
+                    }
+                    promise.succeed(reply);
+                }
+
+                @Override
+                public void fail(Throwable failure) {
+                    promise.fail(failure);
+                }
+            });
         }
 
-        private ServerMessage.Mutable processMetaConnect(ServerSessionImpl session, ServerMessage.Mutable message) {
-            // Remember the connected status before handling the message.
-            boolean wasConnected = session != null && session.isConnected();
-            ServerMessage.Mutable reply = getBayeux().handle(session, message);
+        private ServerMessage.Mutable metaConnectHandled(ServerSessionImpl session, ServerMessage.Mutable reply, boolean wasConnected) {
             if (session != null) {
                 if (reply.isSuccessful() && session.isConnected()) {
                     // We need to set the scheduler again, in case the connection
@@ -541,6 +535,213 @@ public abstract class AbstractWebSocketTransport<S> extends AbstractServerTransp
             }
         }
 
+        /**
+         * <p>Processes the messages of a batch in order, suspending the processing
+         * while a message is handled asynchronously and resuming it, possibly from
+         * a different thread, when the handling completes.</p>
+         */
+        private class MessagesProcessor implements Promise<ServerMessage.Mutable> {
+            private final S wsSession;
+            private final ServerMessage.Mutable[] messages;
+            private final List<ServerMessage.Mutable> replies;
+            private ServerSessionImpl session;
+            private ProcessState state = ProcessState.IDLE;
+            private ServerMessage.Mutable reply;
+            private Throwable failure;
+            private int index;
+            private boolean sendQueue;
+            private boolean sendReplies;
+            private boolean scheduleExpiration;
+
+            private MessagesProcessor(S wsSession, ServerMessage.Mutable[] messages) {
+                this.wsSession = wsSession;
+                this.messages = messages;
+                this.replies = new ArrayList<>(messages.length);
+            }
+
+            /**
+             * @return true if the processing of the batch is complete,
+             * false if the processing continues asynchronously
+             */
+            private boolean process() {
+                try {
+                    if (index == 0) {
+                        session = findSession(messages[0]);
+                    }
+
+                    while (index < messages.length) {
+                        ServerMessage.Mutable message = messages[index];
+                        if (_logger.isDebugEnabled()) {
+                            _logger.debug("Processing {}", message);
+                        }
+
+                        if (Channel.META_HANDSHAKE.equals(message.getChannel()) && messages.length > 1) {
+                            throw new IOException();
+                        }
+
+                        synchronized (this) {
+                            state = ProcessState.HANDLING;
+                        }
+                        handle(message);
+                        synchronized (this) {
+                            if (state == ProcessState.HANDLING) {
+                                // Asynchronous handling, the processing
+                                // will be resumed when it completes.
+                                state = ProcessState.PENDING;
+                                return false;
+                            }
+                            state = ProcessState.IDLE;
+                        }
+                        replied();
+                    }
+
+                    if (sendQueue || sendReplies) {
+                        send(wsSession, session, sendQueue, scheduleExpiration, replies);
+                    }
+                } catch (Throwable x) {
+                    failed(x);
+                }
+                return true;
+            }
+
+            private ServerSessionImpl findSession(ServerMessage.Mutable message) {
+                ServerSessionImpl session;
+                if (Channel.META_HANDSHAKE.equals(message.getChannel())) {
+                    _session = null;
+                    session = getBayeux().newServerSession();
+                    session.setAllowMessageDeliveryDuringHandshake(isAllowMessageDeliveryDuringHandshake());
+                } else {
+                    session = _session;
+                    if (session == null) {
+                        if (!_requireHandshakePerConnection) {
+                            session = _session = (ServerSessionImpl)getBayeux().getSession(message.getClientId());
+                        }
+                    } else if (getBayeux().getSession(session.getId()) == null) {
+                        session = _session = null;
+                    }
+                }
+                return session;
+            }
+
+            private void handle(ServerMessage.Mutable message) {
+                switch (message.getChannel()) {
+                    case Channel.META_HANDSHAKE: {
+                        processMetaHandshake(session, message, this);
+                        break;
+                    }
+                    case Channel.META_CONNECT: {
+                        processMetaConnect(session, message, this);
+                        break;
+                    }
+                    default: {
+                        getBayeux().handle(session, message, this);
+                        break;
+                    }
+                }
+            }
+
+            private void replied() throws Throwable {
+                Throwable failure = this.failure;
+                if (failure != null) {
+                    throw failure;
+                }
+                String channel = messages[index].getChannel();
+                if (Channel.META_HANDSHAKE.equals(channel) && this.reply.isSuccessful()) {
+                    _session = session;
+                }
+                ServerMessage.Mutable reply = processReply(session, this.reply);
+                if (reply != null) {
+                    replies.add(reply);
+                }
+                ++index;
+                switch (channel) {
+                    case Channel.META_HANDSHAKE: {
+                        sendQueue = allowMessageDeliveryDuringHandshake(session) && reply != null && reply.isSuccessful();
+                        sendReplies = reply != null;
+                        scheduleExpiration = true;
+                        break;
+                    }
+                    case Channel.META_CONNECT: {
+                        boolean deliver = isMetaConnectDeliveryOnly() || session != null && session.isMetaConnectDeliveryOnly();
+                        sendQueue = deliver && reply != null;
+                        sendReplies = reply != null;
+                        scheduleExpiration = true;
+                        break;
+                    }
+                    default: {
+                        // Leave sendQueue unchanged.
+                        if (reply != null) {
+                            sendReplies = true;
+                        }
+                        // Leave scheduleExpiration unchanged.
+                        break;
+                    }
+                }
+            }
+
+            @Override
+            public void succeed(ServerMessage.Mutable reply) {
+                completed(reply, null);
+            }
+
+            @Override
+            public void fail(Throwable failure) {
+                completed(null, failure);
+            }
+
+            private void completed(ServerMessage.Mutable reply, Throwable failure) {
+                synchronized (this) {
+                    this.reply = reply;
+                    this.failure = failure;
+                    if (state == ProcessState.HANDLING) {
+                        state = ProcessState.COMPLETED;
+                        return;
+                    }
+                    state = ProcessState.IDLE;
+                }
+                resume();
+            }
+
+            private void resume() {
+                if (_logger.isDebugEnabled()) {
+                    _logger.debug("Resuming processing of {} messages for session {}", messages.length, session);
+                }
+                // The processing may be resumed by a thread that is
+                // processing another connection, so restore its context.
+                BayeuxContext currentContext = _bayeuxContext.get();
+                ServerTransport currentTransport = getBayeux().getCurrentTransport();
+                _bayeuxContext.set(_context);
+                getBayeux().setCurrentTransport(AbstractWebSocketTransport.this);
+                try {
+                    boolean proceed = true;
+                    try {
+                        replied();
+                    } catch (Throwable x) {
+                        failed(x);
+                        proceed = false;
+                    }
+                    if (!proceed || process()) {
+                        MessagesProcessor next;
+                        synchronized (_batches) {
+                            next = _batches.poll();
+                            if (next == null) {
+                                _processing = false;
+                            }
+                        }
+                        AbstractWebSocketScheduler.this.process(next);
+                    }
+                } finally {
+                    _bayeuxContext.set(currentContext);
+                    getBayeux().setCurrentTransport(currentTransport);
+                }
+            }
+
+            private void failed(Throwable failure) {
+                close(1011, failure.toString());
+                handleException(wsSession, _session, failure);
+            }
+        }
+
         private class Flusher extends IteratingCallback {
             private final Queue<Entry<S>> _entries = new ArrayDeque<>();
             private Entry<S> entry;